@@ -56,6 +56,13 @@ public class Constants
 
 	public static final String CHECKPOINTS_FILENAME = "checkpoints" + FILENAME_NETWORK_SUFFIX;
 
+	public static final String BROADCAST_QUEUE_FILENAME = "broadcast-queue" + FILENAME_NETWORK_SUFFIX;
+
+	public static final String INVOICES_FILENAME = "invoices" + FILENAME_NETWORK_SUFFIX;
+
+	public static final String KEY_POOL_FILENAME = "key-pool" + FILENAME_NETWORK_SUFFIX;
+	public static final int KEY_POOL_LOOKAHEAD = 20;
+
     private static final String EXPLORE_BASE_URL_PROD = "http://blockexplorer.auroracoin.eu/";
     private static final String EXPLORE2_BASE_URL_PROD = "http://auroraexplorer.atorox.net/";
     public static final String EXPLORE_BASE_URL = EXPLORE_BASE_URL_PROD;
@@ -124,6 +131,17 @@ public class Constants
     public static final String PREFS_KEY_TRUSTED_PEER_ONLY = "trusted_peer_only";
     public static final String PREFS_KEY_QR_SCANNER = "qr_scanner";
 	public static final String PREFS_KEY_LABS_BLUETOOTH_OFFLINE_TRANSACTIONS = "labs_bluetooth_offline_transactions";
+	public static final String PREFS_KEY_LABS_COIN_SELECTION = "labs_coin_selection";
+	public static final String PREFS_KEY_LABS_CONSOLIDATION = "labs_consolidation";
+	public static final String PREFS_KEY_LABS_CONSOLIDATION_THRESHOLD = "labs_consolidation_threshold";
+	public static final String PREFS_DEFAULT_CONSOLIDATION_THRESHOLD = "10000000";
+	public static final String PREFS_KEY_LABS_CONSOLIDATION_MAX_INPUTS = "labs_consolidation_max_inputs";
+	public static final String PREFS_KEY_LABS_POS = "labs_pos";
+	public static final String PREFS_DEFAULT_CONSOLIDATION_MAX_INPUTS = "50";
+	public static final String PREFS_KEY_LAST_CONSOLIDATION = "last_consolidation";
+	public static final String PREFS_KEY_KEY_ROTATION_TIME = "key_rotation_time";
+	public static final String PREFS_KEY_KEY_ROTATION_FEE_PAID = "key_rotation_fee_paid";
+	public static final String PREFS_KEY_KEY_ROTATION_STALLED = "key_rotation_stalled";
 	public static final String PREFS_KEY_BTC_PRECISION = "btc_precision";
 	public static final String PREFS_DEFAULT_BTC_PRECISION = "4";
 	public static final String PREFS_KEY_DISCLAIMER = "disclaimer";
@@ -17,10 +17,7 @@
 
 package de.schildbach.wallet;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.HttpURLConnection;
@@ -28,6 +25,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Currency;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
@@ -40,7 +38,8 @@ import javax.annotation.Nonnull;
 import android.util.Log;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.util.GenericUtils;
-import de.schildbach.wallet.util.Io;
+import de.schildbach.wallet.util.HttpClient;
+import de.schildbach.wallet.util.RateHistory;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -49,6 +48,7 @@ import org.slf4j.LoggerFactory;
 
 import android.content.ContentProvider;
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
@@ -86,10 +86,17 @@ public class ExchangeRatesProvider extends ContentProvider
 	public static final String KEY_CURRENCY_CODE = "currency_code";
 	private static final String KEY_RATE = "rate";
 	private static final String KEY_SOURCE = "source";
+	public static final String KEY_TIME = "time";
+
+	private static final String PATH_HISTORY = "history";
+	public static final String QUERY_PARAM_FROM = "from";
+	public static final String QUERY_PARAM_TO = "to";
+	public static final String QUERY_PARAM_RESOLUTION = "resolution";
 
 	@CheckForNull
 	private Map<String, ExchangeRate> exchangeRates = null;
 	private long lastUpdated = 0;
+	private RateHistory rateHistory;
 
     //private static final URL BTCE_URL;
     //private static final String[] BTCE_FIELDS = new String[] { "avg" };
@@ -143,6 +150,7 @@ public class ExchangeRatesProvider extends ContentProvider
 	@Override
 	public boolean onCreate()
 	{
+		rateHistory = new RateHistory(getContext().getDir("rate_history", Context.MODE_PRIVATE));
 		return true;
 	}
 
@@ -151,9 +159,23 @@ public class ExchangeRatesProvider extends ContentProvider
 		return Uri.parse("content://" + packageName + '.' + "exchange_rates");
 	}
 
+	/**
+	 * Uri for querying recorded rates of a currency. Optionally append {@link #QUERY_PARAM_FROM} and
+	 * {@link #QUERY_PARAM_TO} (milliseconds since epoch) and {@link #QUERY_PARAM_RESOLUTION} (hour, day or week, by
+	 * default the finest resolution covering the range).
+	 */
+	public static Uri historyUri(@Nonnull final String packageName, @Nonnull final String currencyCode)
+	{
+		return contentUri(packageName).buildUpon().appendPath(PATH_HISTORY).appendPath(currencyCode).build();
+	}
+
 	@Override
 	public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs, final String sortOrder)
 	{
+		final List<String> pathSegments = uri.getPathSegments();
+		if (pathSegments.size() == 2 && PATH_HISTORY.equals(pathSegments.get(0)))
+			return queryHistory(uri, pathSegments.get(1));
+
 		if (Constants.BUG_OPENSSL_HEARTBLEED) {
 			return null;
 		}
@@ -295,6 +317,10 @@ public class ExchangeRatesProvider extends ContentProvider
 	
 					exchangeRates = newExchangeRates;
 					lastUpdated = now;
+
+					recordHistory(newExchangeRates, now);
+
+					log.info("exchange rates updated, http stats: " + HttpClient.defaultClient().getStats());
 				}
 			}
 
@@ -337,6 +363,63 @@ public class ExchangeRatesProvider extends ContentProvider
 		return cursor;
 	}
 
+	private Cursor queryHistory(@Nonnull final Uri uri, @Nonnull final String currencyCode)
+	{
+		final long now = System.currentTimeMillis();
+		final String from = uri.getQueryParameter(QUERY_PARAM_FROM);
+		final String to = uri.getQueryParameter(QUERY_PARAM_TO);
+		final String resolution = uri.getQueryParameter(QUERY_PARAM_RESOLUTION);
+
+		try
+		{
+			final long fromMs = from != null ? Long.parseLong(from) : 0;
+			final long toMs = to != null ? Long.parseLong(to) : now;
+			final RateHistory.Resolution res = resolution != null ? RateHistory.Resolution.valueOf(resolution.toUpperCase(Locale.US))
+					: RateHistory.Resolution.forRange(fromMs, now);
+
+			final List<RateHistory.Sample> samples = rateHistory.query(currencyCode, res, fromMs, toMs);
+
+			final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_TIME, KEY_RATE }, samples.size());
+			for (final RateHistory.Sample sample : samples)
+				cursor.newRow().add(sample.time).add(sample.time).add(sample.rate);
+
+			return cursor;
+		}
+		catch (final IllegalArgumentException x)
+		{
+			// malformed number, resolution or currency code, including NumberFormatException
+			log.info("bad rate history query: " + uri + ", " + x.getMessage());
+
+			return null;
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem reading rate history", x);
+
+			return null;
+		}
+	}
+
+	private void recordHistory(@Nonnull final Map<String, ExchangeRate> exchangeRates, final long now)
+	{
+		for (final ExchangeRate rate : exchangeRates.values())
+		{
+			try
+			{
+				rateHistory.add(rate.currencyCode, now, rate.rate.longValue());
+			}
+			catch (final IllegalArgumentException x)
+			{
+				log.info("not recording history: " + x.getMessage());
+			}
+			catch (final IOException x)
+			{
+				log.warn("problem writing rate history", x);
+				break;
+			}
+		}
+	}
+
 	private String defaultCurrencyCode()
 	{
 		try
@@ -423,30 +506,22 @@ public class ExchangeRatesProvider extends ContentProvider
 
 	private static Map<String, ExchangeRate> requestExchangeRates(final URL url, final String currencyCode, final String... fields)
 	{
-		HttpURLConnection connection = null;
-		Reader reader = null;
-
 		try
 		{
 			log.info("requestExchangeRates connecting to : " + url);
-			connection = (HttpURLConnection) url.openConnection();
-			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.connect();
+			final HttpClient.Response response = HttpClient.defaultClient().get(url);
 
-			final int responseCode = connection.getResponseCode();
+			final int responseCode = response.responseCode;
 			if (responseCode == HttpURLConnection.HTTP_OK)
 			{
-				reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024), Constants.UTF_8);
-				final StringBuilder content = new StringBuilder();
-				Io.copy(reader, content);
+				final String content = response.content();
 
 				final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-				log.info("Got response, parsing "); //+content.toString());
+				log.info("Got response, parsing "); //+content);
 
 				if (fields == null)
 				{
-					final String rateStr = content.toString();
+					final String rateStr = content;
 					if (rateStr != null)
 					{
 						log.info("Got: " + rateStr);
@@ -467,7 +542,7 @@ public class ExchangeRatesProvider extends ContentProvider
 					}
 				} else
 				{
-					final JSONObject head = new JSONObject(content.toString());
+					final JSONObject head = new JSONObject(content);
 					for (final String field : fields)
 					{
 						log.info("Fetching field: " + field);
@@ -543,23 +618,6 @@ public class ExchangeRatesProvider extends ContentProvider
 		{
 			log.warn("problem fetching exchange rates", x);
 		}
-		finally
-		{
-			if (reader != null)
-			{
-				try
-				{
-					reader.close();
-				}
-				catch (final IOException x)
-				{
-					// swallow
-				}
-			}
-
-			if (connection != null)
-				connection.disconnect();
-		}
 
 		return null;
 	}
@@ -579,26 +637,18 @@ public class ExchangeRatesProvider extends ContentProvider
                 Log.i(ExchangeRatesProvider.TAG, "Failed to parse Google Spreadsheets URL");
                 return null;
             }
-            HttpURLConnection connection = null;
-            Reader reader = null;
-
             try
             {
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-                connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-                connection.connect();
+                final HttpClient.Response response = HttpClient.defaultClient().get(url);
 
-                final int responseCode = connection.getResponseCode();
+                final int responseCode = response.responseCode;
                 if (responseCode == HttpURLConnection.HTTP_OK)
                 {
-                    reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024), Constants.UTF_8);
-                    final StringBuilder content = new StringBuilder();
-                    Io.copy(reader, content);
+                    final String content = response.content();
 
-    				log.info("Got response, parsing :"+content.toString());
+    				log.info("Got response, parsing :"+content);
                     final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-                    JSONObject head = new JSONObject(content.toString());
+                    JSONObject head = new JSONObject(content);
                     JSONArray resultArray;
 
                     try {
@@ -629,7 +679,7 @@ public class ExchangeRatesProvider extends ContentProvider
                             }
                         }
                     } catch(JSONException e) {
-                        Log.i(ExchangeRatesProvider.TAG, "Bad JSON response from Google Spreadsheets!: " + content.toString());
+                        Log.i(ExchangeRatesProvider.TAG, "Bad JSON response from Google Spreadsheets!: " + content);
                         return null;
                     }
                     return rates;
@@ -641,23 +691,6 @@ public class ExchangeRatesProvider extends ContentProvider
             {
                 Log.w(ExchangeRatesProvider.TAG, "Problem fetching exchange rates", x);
             }
-            finally
-            {
-                if (reader != null)
-                {
-                    try
-                    {
-                        reader.close();
-                    }
-                    catch (final IOException x)
-                    {
-                        // swallow
-                    }
-                }
-
-                if (connection != null)
-                    connection.disconnect();
-            }
             return null;
         }
     }
@@ -685,34 +718,26 @@ public class ExchangeRatesProvider extends ContentProvider
                 return null;
             }
 
-            HttpURLConnection connection = null;
-            Reader reader = null;
-
             try
             {
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-                connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-                connection.connect();
+                final HttpClient.Response response = HttpClient.defaultClient().get(url);
 
-                final int responseCode = connection.getResponseCode();
+                final int responseCode = response.responseCode;
                 if (responseCode == HttpURLConnection.HTTP_OK)
                 {
     				//log.warn("Response Ok" );
-                    reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024), Constants.UTF_8);
-                    final StringBuilder content = new StringBuilder();
-                    Io.copy(reader, content);
+                    final String content = response.content();
 
-    				log.info("Got response, parsing :"+content.toString());
+    				log.info("Got response, parsing :"+content);
                     final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-                    JSONObject head = new JSONObject(content.toString());
+                    JSONObject head = new JSONObject(content);
                     JSONArray resultArray;
                     try {
                         head = head.getJSONObject("query");
                         head = head.getJSONObject("results");
                         resultArray = head.getJSONArray("rate");
                     } catch(JSONException e) {
-                        Log.i(ExchangeRatesProvider.TAG, "Bad JSON response from Yahoo!: " + content.toString());
+                        Log.i(ExchangeRatesProvider.TAG, "Bad JSON response from Yahoo!: " + content);
                         return null;
                     }
                     for(int i = 0; i < resultArray.length(); ++i) {
@@ -742,23 +767,6 @@ public class ExchangeRatesProvider extends ContentProvider
             {
                 Log.w(ExchangeRatesProvider.TAG, "Problem fetching exchange rates", x);
             }
-            finally
-            {
-                if (reader != null)
-                {
-                    try
-                    {
-                        reader.close();
-                    }
-                    catch (final IOException x)
-                    {
-                        // swallow
-                    }
-                }
-
-                if (connection != null)
-                    connection.disconnect();
-            }
 
             return null;
         }
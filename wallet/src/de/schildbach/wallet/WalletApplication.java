@@ -27,6 +27,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.security.SecureRandom;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -65,7 +66,9 @@ import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
 
 import com.google.bitcoin.core.Address;
 import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Sha256Hash;
 import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence;
 import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.store.UnreadableWalletException;
 import com.google.bitcoin.store.WalletProtobufSerializer;
@@ -73,11 +76,15 @@ import com.google.bitcoin.utils.Threading;
 import com.google.bitcoin.wallet.WalletFiles;
 import com.google.bitcoin.core.NetworkParameters;
 
+import de.schildbach.wallet.pos.InvoiceBook;
 import de.schildbach.wallet.service.BlockchainService;
 import de.schildbach.wallet.service.BlockchainServiceImpl;
+import de.schildbach.wallet.service.BroadcastQueue;
 import de.schildbach.wallet.util.CrashReporter;
 import de.schildbach.wallet.util.Io;
+import de.schildbach.wallet.util.KeyPool;
 import de.schildbach.wallet.util.LinuxSecureRandom;
+import de.schildbach.wallet.util.UtxoIndex;
 import de.schildbach.wallet.util.WalletUtils;
 import de.schildbach.wallet_aur.R;
 
@@ -95,6 +102,10 @@ public class WalletApplication extends Application
 
 	private File walletFile;
 	private Wallet wallet;
+	private UtxoIndex utxoIndex;
+	private BroadcastQueue broadcastQueue;
+	private InvoiceBook invoiceBook;
+	private KeyPool keyPool;
 	private PackageInfo packageInfo;
 
 	private static final int KEY_ROTATION_VERSION_CODE = 135;
@@ -152,6 +163,43 @@ public class WalletApplication extends Application
 		loadWalletFromProtobuf();
 		wallet.autosaveToFile(walletFile, 1, TimeUnit.SECONDS, new WalletAutosaveEventListener());
 
+		utxoIndex = new UtxoIndex(wallet);
+		wallet.addEventListener(utxoIndex);
+
+		// keys come from /dev/urandom, as the provider is installed above
+		keyPool = new KeyPool(getFileStreamPath(Constants.KEY_POOL_FILENAME), wallet, Constants.KEY_POOL_LOOKAHEAD, new SecureRandom(),
+				new KeyPool.Listener()
+				{
+					@Override
+					public void onKeysAdded(final List<ECKey> keys)
+					{
+						backupKeys();
+					}
+				});
+
+		broadcastQueue = new BroadcastQueue(getFileStreamPath(Constants.BROADCAST_QUEUE_FILENAME), Constants.NETWORK_PARAMETERS,
+				new BroadcastQueue.ConfidenceSource()
+				{
+					@Override
+					public TransactionConfidence getConfidence(final Sha256Hash hash)
+					{
+						final Transaction tx = wallet.getTransaction(hash);
+						return tx != null ? tx.getConfidence() : null;
+					}
+				});
+
+		// invoice keys are issued from the key pool, which backs them up as they are added
+		invoiceBook = new InvoiceBook(getFileStreamPath(Constants.INVOICES_FILENAME), Constants.NETWORK_PARAMETERS,
+				new InvoiceBook.KeySource()
+				{
+					@Override
+					public ECKey issue()
+					{
+						return keyPool.issue();
+					}
+				});
+		wallet.addEventListener(invoiceBook);
+
 		final int lastVersionCode = prefs.getInt(Constants.PREFS_KEY_LAST_VERSION, 0);
 		prefs.edit().putInt(Constants.PREFS_KEY_LAST_VERSION, packageInfo.versionCode).commit();
 
@@ -239,6 +287,26 @@ public class WalletApplication extends Application
 		return wallet;
 	}
 
+	public UtxoIndex getUtxoIndex()
+	{
+		return utxoIndex;
+	}
+
+	public BroadcastQueue getBroadcastQueue()
+	{
+		return broadcastQueue;
+	}
+
+	public InvoiceBook getInvoiceBook()
+	{
+		return invoiceBook;
+	}
+
+	public KeyPool getKeyPool()
+	{
+		return keyPool;
+	}
+
 	private void migrateWalletToProtobuf()
 	{
 		final File oldWalletFile = getFileStreamPath(Constants.WALLET_FILENAME);
@@ -385,21 +453,29 @@ public class WalletApplication extends Application
 
 	private void ensureKey()
 	{
-		for (final ECKey key : wallet.getKeys())
+		for (final ECKey key : keyPool.getIssuedKeys())
 			if (!wallet.isKeyRotating(key))
 				return; // found
 
-		log.info("wallet has no usable key - creating");
+		log.info("wallet has no usable key - issuing");
 		addNewKeyToWallet();
 	}
 
 	public void addNewKeyToWallet()
 	{
-		wallet.addKey(new ECKey());
+		addNewKeysToWallet(1);
+	}
 
-		backupKeys();
+	/**
+	 * Issues the keys from the key pool, which has added them to the wallet and backed them up ahead of time.
+	 */
+	public List<ECKey> addNewKeysToWallet(final int numKeys)
+	{
+		final List<ECKey> keys = keyPool.issue(numKeys);
 
 		prefs.edit().putBoolean(Constants.PREFS_KEY_REMIND_BACKUP, true).commit();
+
+		return keys;
 	}
 
 	public void saveWallet()
@@ -428,7 +504,8 @@ public class WalletApplication extends Application
 	}
 
     // Changed to append date/time stamp to prevent key overwriting
-	private void backupKeys()
+	// synchronized, as the key pool calls it on its own thread
+	private synchronized void backupKeys()
 	{
 		try
 		{
@@ -460,7 +537,7 @@ public class WalletApplication extends Application
 		final String selectedAddress = prefs.getString(Constants.PREFS_KEY_SELECTED_ADDRESS, null);
 
 		Address firstAddress = null;
-		for (final ECKey key : wallet.getKeys())
+		for (final ECKey key : keyPool.getIssuedKeys())
 		{
 			if (!wallet.isKeyRotating(key))
 			{
@@ -498,8 +575,14 @@ public class WalletApplication extends Application
 		startService(blockchainServiceResetBlockchainIntent);
 	}
 
+	/**
+	 * Queues the transaction for broadcast, so it survives until peers relayed it, and wakes the blockchain service.
+	 */
 	public void broadcastTransaction(@Nonnull final Transaction tx)
 	{
+		if (!broadcastQueue.add(tx, System.currentTimeMillis()))
+			log.info("transaction {} already queued for broadcast", tx.getHashAsString());
+
 		final Intent intent = new Intent(BlockchainService.ACTION_BROADCAST_TRANSACTION, null, this, BlockchainServiceImpl.class);
 		intent.putExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_HASH, tx.getHash().getBytes());
 		startService(intent);
@@ -39,7 +39,7 @@ import de.schildbach.wallet.ui.RequestCoinsActivity;
 import de.schildbach.wallet.ui.SendCoinsActivity;
 import de.schildbach.wallet.ui.SendCoinsQrActivity;
 import de.schildbach.wallet.ui.WalletActivity;
-import de.schildbach.wallet.util.GenericUtils;
+import de.schildbach.wallet.util.AmountFormatter;
 import de.schildbach.wallet.util.WalletUtils;
 import de.schildbach.wallet_aur.R;
 
@@ -66,8 +66,8 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider
 		final int btcPrecision = precision.charAt(0) - '0';
 		final int btcShift = precision.length() == 3 ? precision.charAt(2) - '0' : 0;
 
-		final Editable balanceStr = new SpannableStringBuilder(GenericUtils.formatValue(balance, btcPrecision, btcShift));
-		WalletUtils.formatSignificant(balanceStr, WalletUtils.SMALLER_SPAN);
+		final Editable balanceStr = new SpannableStringBuilder();
+		WalletUtils.formatValue(balanceStr, new AmountFormatter().format(balance.longValue(), btcPrecision, btcShift), WalletUtils.SMALLER_SPAN);
 
 		final String prefix = btcShift == 0 ? Constants.CURRENCY_CODE_BTC : Constants.CURRENCY_CODE_MBTC;
 
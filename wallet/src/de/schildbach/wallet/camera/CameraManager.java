@@ -28,14 +28,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.annotation.SuppressLint;
+import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.hardware.Camera.PreviewCallback;
 import android.view.SurfaceHolder;
 
-import com.google.zxing.PlanarYUVLuminanceSource;
-
 /**
  * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
  */
@@ -226,15 +225,28 @@ public final class CameraManager
 		camera.setParameters(parameters);
 	}
 
-	public void requestPreviewFrame(final PreviewCallback callback)
+	public Camera.Size getCameraResolution()
 	{
-		camera.setOneShotPreviewCallback(callback);
+		return cameraResolution;
+	}
+
+	/**
+	 * Delivers preview frames into preallocated buffers. A buffer is only reused once it has been handed back via
+	 * {@link #addPreviewBuffer}; while none is available, frames are skipped by the camera.
+	 */
+	public void startPreviewFrames(final PreviewCallback callback, final int numBuffers)
+	{
+		final int bitsPerPixel = ImageFormat.getBitsPerPixel(camera.getParameters().getPreviewFormat());
+		final int bufferSize = cameraResolution.width * cameraResolution.height * bitsPerPixel / 8;
+
+		for (int i = 0; i < numBuffers; i++)
+			camera.addCallbackBuffer(new byte[bufferSize]);
+		camera.setPreviewCallbackWithBuffer(callback);
 	}
 
-	public PlanarYUVLuminanceSource buildLuminanceSource(final byte[] data)
+	public void addPreviewBuffer(final byte[] buffer)
 	{
-		return new PlanarYUVLuminanceSource(data, cameraResolution.width, cameraResolution.height, framePreview.left, framePreview.top,
-				framePreview.width(), framePreview.height(), false);
+		camera.addCallbackBuffer(buffer);
 	}
 
 	public void setTorch(final boolean enabled)
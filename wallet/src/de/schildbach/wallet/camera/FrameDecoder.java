@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.camera;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import de.schildbach.wallet.util.NamedThreadFactory;
+
+/**
+ * Decodes QR codes from a stream of camera preview frames. Each offered frame is cropped to the framing rectangle into
+ * a pooled buffer, so the camera can have its buffer back right away. Cropped frames wait in a short queue; if the
+ * workers fall behind, the oldest frame is dropped, as newer frames are more likely to be in focus and steady. Each
+ * worker keeps its own reader.
+ *
+ * Only the first result is reported. After that, or after {@link #stop()}, frames are no longer accepted.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public final class FrameDecoder
+{
+	public interface Listener
+	{
+		/**
+		 * Called on a worker thread. The source is only valid until this method returns.
+		 */
+		void onResult(@Nonnull Result result, @Nonnull PlanarYUVLuminanceSource source);
+	}
+
+	private final int frameWidth;
+	private final int cropLeft, cropTop, cropWidth, cropHeight;
+	private final int maxQueued;
+	private final Map<DecodeHintType, ?> hints;
+	private final Listener listener;
+
+	private final BlockingQueue<byte[]> queue;
+	private final BlockingQueue<byte[]> free;
+	private final ExecutorService executor;
+	private final AtomicBoolean done = new AtomicBoolean(false);
+
+	private final AtomicInteger numFramesOffered = new AtomicInteger();
+	private final AtomicInteger numFramesDropped = new AtomicInteger();
+	private final AtomicInteger numFramesDecoded = new AtomicInteger();
+
+	private static final Logger log = LoggerFactory.getLogger(FrameDecoder.class);
+
+	/**
+	 * @param frameWidth
+	 *            width of the preview frames, which start with a luminance plane of one byte per pixel
+	 * @param numWorkers
+	 *            number of decoding threads
+	 * @param maxQueued
+	 *            number of cropped frames that may wait for a worker
+	 * @param hints
+	 *            shared by all workers, so must not be modified while decoding
+	 */
+	public FrameDecoder(final int frameWidth, final int cropLeft, final int cropTop, final int cropWidth, final int cropHeight,
+			final int numWorkers, final int maxQueued, @Nonnull final Map<DecodeHintType, ?> hints, @Nonnull final Listener listener)
+	{
+		if (numWorkers < 1 || maxQueued < 1)
+			throw new IllegalArgumentException("illegal limits: " + numWorkers + ", " + maxQueued);
+
+		this.frameWidth = frameWidth;
+		this.cropLeft = cropLeft;
+		this.cropTop = cropTop;
+		this.cropWidth = cropWidth;
+		this.cropHeight = cropHeight;
+		this.maxQueued = maxQueued;
+		this.hints = hints;
+		this.listener = listener;
+
+		// enough buffers for a full queue, one frame per worker and the frame being cropped
+		final int numBuffers = maxQueued + numWorkers + 1;
+		this.queue = new ArrayBlockingQueue<byte[]>(numBuffers);
+		this.free = new ArrayBlockingQueue<byte[]>(numBuffers);
+		for (int i = 0; i < numBuffers; i++)
+			free.add(new byte[cropWidth * cropHeight]);
+
+		this.executor = Executors.newFixedThreadPool(numWorkers, new NamedThreadFactory("frame decoder"));
+		for (int i = 0; i < numWorkers; i++)
+			executor.execute(new Worker());
+	}
+
+	/**
+	 * Crops the frame and queues it for decoding. Doesn't keep a reference to the frame.
+	 *
+	 * @return false if no more frames are needed
+	 */
+	public boolean offer(@Nonnull final byte[] frame)
+	{
+		if (done.get())
+			return false;
+
+		numFramesOffered.incrementAndGet();
+
+		byte[] buffer = free.poll();
+		if (buffer == null)
+		{
+			// all buffers busy, reuse the oldest queued frame
+			buffer = queue.poll();
+			if (buffer == null)
+			{
+				numFramesDropped.incrementAndGet();
+				return true;
+			}
+			numFramesDropped.incrementAndGet();
+		}
+
+		for (int y = 0; y < cropHeight; y++)
+			System.arraycopy(frame, (cropTop + y) * frameWidth + cropLeft, buffer, y * cropWidth, cropWidth);
+
+		while (queue.size() >= maxQueued)
+		{
+			final byte[] oldest = queue.poll();
+			if (oldest == null)
+				break;
+			free.offer(oldest);
+			numFramesDropped.incrementAndGet();
+		}
+
+		queue.offer(buffer);
+
+		return true;
+	}
+
+	public void stop()
+	{
+		done.set(true);
+		executor.shutdownNow();
+
+		log.info("{} frames offered, {} dropped, {} decoded", new Object[] { numFramesOffered.get(), numFramesDropped.get(),
+				numFramesDecoded.get() });
+	}
+
+	public boolean isDone()
+	{
+		return done.get();
+	}
+
+	public int getNumFramesOffered()
+	{
+		return numFramesOffered.get();
+	}
+
+	public int getNumFramesDropped()
+	{
+		return numFramesDropped.get();
+	}
+
+	/**
+	 * @return number of frames a decode was attempted on, successful or not
+	 */
+	public int getNumFramesDecoded()
+	{
+		return numFramesDecoded.get();
+	}
+
+	private final class Worker implements Runnable
+	{
+		private final QRCodeReader reader = new QRCodeReader();
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while (!done.get())
+				{
+					final byte[] buffer = queue.take();
+
+					try
+					{
+						decode(buffer);
+					}
+					finally
+					{
+						free.offer(buffer);
+					}
+				}
+			}
+			catch (final InterruptedException x)
+			{
+				// stopped
+			}
+		}
+
+		private void decode(final byte[] buffer)
+		{
+			final PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(buffer, cropWidth, cropHeight, 0, 0, cropWidth, cropHeight,
+					false);
+
+			try
+			{
+				final Result result = reader.decode(new BinaryBitmap(new HybridBinarizer(source)), hints);
+
+				if (!done.getAndSet(true))
+					listener.onResult(result, source);
+			}
+			catch (final ReaderException x)
+			{
+				// try next frame
+			}
+			catch (final RuntimeException x)
+			{
+				// would end the worker
+				log.info("problem decoding frame", x);
+			}
+			finally
+			{
+				reader.reset();
+				numFramesDecoded.incrementAndGet();
+			}
+		}
+	}
+}
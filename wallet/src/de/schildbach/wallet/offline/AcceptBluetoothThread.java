@@ -17,8 +17,6 @@
 
 package de.schildbach.wallet.offline;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -33,6 +31,9 @@ import android.bluetooth.BluetoothSocket;
 import de.schildbach.wallet.util.Bluetooth;
 
 /**
+ * Accepts connections of payers and hands them to a {@link PaymentAcceptor}, so several payers can be served at the
+ * same time.
+ *
  * @author Shahar Livne
  * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
  */
@@ -40,6 +41,17 @@ public abstract class AcceptBluetoothThread extends Thread
 {
 	private final BluetoothServerSocket listeningSocket;
 	private final AtomicBoolean running = new AtomicBoolean(true);
+	private final PaymentAcceptor acceptor = new PaymentAcceptor(MAX_SESSIONS, NUM_WORKERS, new PaymentAcceptor.TransactionHandler()
+	{
+		@Override
+		public boolean handleTx(final byte[] msg)
+		{
+			return AcceptBluetoothThread.this.handleTx(msg);
+		}
+	});
+
+	private static final int MAX_SESSIONS = 4;
+	private static final int NUM_WORKERS = 2;
 
 	private static final Logger log = LoggerFactory.getLogger(AcceptBluetoothThread.class);
 
@@ -61,61 +73,17 @@ public abstract class AcceptBluetoothThread extends Thread
 		while (running.get())
 		{
 			BluetoothSocket socket = null;
-			DataInputStream is = null;
-			DataOutputStream os = null;
 
 			try
 			{
 				// start a blocking call, and return only on success or exception
 				socket = listeningSocket.accept();
 
-				is = new DataInputStream(socket.getInputStream());
-				os = new DataOutputStream(socket.getOutputStream());
-
-				final int numMessages = is.readInt();
-				boolean ack = true;
-
-				for (int i = 0; i < numMessages; i++)
-				{
-					final int msgLength = is.readInt();
-					final byte[] msg = new byte[msgLength];
-					is.readFully(msg);
-
-					if (!handleTx(msg))
-						ack = false;
-				}
-
-				os.writeBoolean(ack);
+				acceptor.accept(socket.getInputStream(), socket.getOutputStream(), socket);
 			}
 			catch (final IOException x)
 			{
 				log.info("exception in bluetooth accept loop", x);
-			}
-			finally
-			{
-				if (os != null)
-				{
-					try
-					{
-						os.close();
-					}
-					catch (final IOException x)
-					{
-						// swallow
-					}
-				}
-
-				if (is != null)
-				{
-					try
-					{
-						is.close();
-					}
-					catch (final IOException x)
-					{
-						// swallow
-					}
-				}
 
 				if (socket != null)
 				{
@@ -123,7 +91,7 @@ public abstract class AcceptBluetoothThread extends Thread
 					{
 						socket.close();
 					}
-					catch (final IOException x)
+					catch (final IOException x2)
 					{
 						// swallow
 					}
@@ -144,7 +112,12 @@ public abstract class AcceptBluetoothThread extends Thread
 		{
 			// swallow
 		}
+
+		acceptor.shutdown();
 	}
 
+	/**
+	 * Called on a worker thread, possibly on several at the same time.
+	 */
 	protected abstract boolean handleTx(@Nonnull byte[] msg);
 }
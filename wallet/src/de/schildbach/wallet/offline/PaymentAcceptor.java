@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.offline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.schildbach.wallet.util.NamedThreadFactory;
+
+/**
+ * Accepts transactions from connected payers. Each connection is served as a session on its own thread, up to a limit
+ * of concurrent sessions; transactions of all sessions are handed to a shared pool of workers.
+ *
+ * The framing is the one {@link SendBluetoothTask} uses: number of messages, then each message as length and bytes.
+ * It is answered by one boolean, true if all messages were accepted.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public final class PaymentAcceptor
+{
+	public interface TransactionHandler
+	{
+		/**
+		 * Called on a worker thread, possibly on several at the same time.
+		 *
+		 * @return true if the transaction was accepted
+		 */
+		boolean handleTx(@Nonnull byte[] msg);
+	}
+
+	public static final int MAX_MESSAGE_LENGTH = 100 * 1024;
+
+	private final TransactionHandler handler;
+	private final ExecutorService sessionExecutor;
+	private final ExecutorService workerExecutor;
+
+	private static final Logger log = LoggerFactory.getLogger(PaymentAcceptor.class);
+
+	/**
+	 * @param maxSessions
+	 *            number of sessions served at the same time, further connections wait
+	 * @param numWorkers
+	 *            number of threads handling transactions
+	 */
+	public PaymentAcceptor(final int maxSessions, final int numWorkers, @Nonnull final TransactionHandler handler)
+	{
+		this.handler = handler;
+		this.sessionExecutor = Executors.newFixedThreadPool(maxSessions, new NamedThreadFactory("payment session"));
+		this.workerExecutor = Executors.newFixedThreadPool(numWorkers, new NamedThreadFactory("payment worker"));
+	}
+
+	/**
+	 * Serves a connection in the background and closes it when done.
+	 */
+	public void accept(@Nonnull final InputStream is, @Nonnull final OutputStream os, @Nonnull final Closeable connection)
+	{
+		try
+		{
+			sessionExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						serve(is, os);
+					}
+					catch (final IOException x)
+					{
+						log.info("problem in payment session", x);
+					}
+					catch (final InterruptedException x)
+					{
+						// shut down
+					}
+					finally
+					{
+						close(os);
+						close(is);
+						close(connection);
+					}
+				}
+			});
+		}
+		catch (final RejectedExecutionException x)
+		{
+			// shut down
+			close(connection);
+		}
+	}
+
+	/**
+	 * Stops serving. Sessions in progress are interrupted.
+	 */
+	public void shutdown()
+	{
+		sessionExecutor.shutdownNow();
+		workerExecutor.shutdownNow();
+	}
+
+	/**
+	 * Serves one session on the calling thread, until the payer is done.
+	 */
+	void serve(@Nonnull final InputStream is, @Nonnull final OutputStream os) throws IOException, InterruptedException
+	{
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+
+		final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		try
+		{
+			final int numMessages = in.readInt();
+			for (int i = 0; i < numMessages; i++)
+				results.add(workerExecutor.submit(new HandleTask(readMessage(in))));
+		}
+		catch (final RejectedExecutionException x)
+		{
+			throw new InterruptedException("shut down");
+		}
+
+		boolean ack = true;
+		for (final Future<Boolean> result : results)
+		{
+			try
+			{
+				if (!result.get())
+					ack = false;
+			}
+			catch (final ExecutionException x)
+			{
+				log.info("problem handling transaction", x.getCause());
+				ack = false;
+			}
+		}
+
+		out.writeBoolean(ack);
+		out.flush();
+	}
+
+	/**
+	 * @return message of at most {@link #MAX_MESSAGE_LENGTH} bytes
+	 */
+	private static byte[] readMessage(final DataInputStream in) throws IOException
+	{
+		final int msgLength = in.readInt();
+		if (msgLength < 0 || msgLength > MAX_MESSAGE_LENGTH)
+			throw new IOException("illegal message length: " + msgLength);
+
+		final byte[] msg = new byte[msgLength];
+		in.readFully(msg);
+		return msg;
+	}
+
+	private final class HandleTask implements Callable<Boolean>
+	{
+		private final byte[] msg;
+
+		public HandleTask(final byte[] msg)
+		{
+			this.msg = msg;
+		}
+
+		@Override
+		public Boolean call()
+		{
+			return handler.handleTx(msg);
+		}
+	}
+
+	private static void close(final Closeable closeable)
+	{
+		try
+		{
+			closeable.close();
+		}
+		catch (final IOException x)
+		{
+			// swallow
+		}
+	}
+}
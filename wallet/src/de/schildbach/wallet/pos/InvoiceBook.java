@@ -0,0 +1,541 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.pos;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.AbstractWalletEventListener;
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.script.Script;
+
+import de.schildbach.wallet.util.NamedThreadFactory;
+
+/**
+ * Invoices of a point of sale, each paid to an address of its own so incoming payments can be told apart. Invoice
+ * keys are issued by a {@link KeySource} like the key pool of the wallet, which adds keys in batches ahead of use, so
+ * the bloom filter is recalculated and sent to peers once per batch rather than once per invoice. Incoming coins are
+ * matched to invoices by looking up each output's address in a hash index of all invoices.
+ *
+ * Invoices not paid within {@link #MAX_OPEN_AGE_MS} expire, so abandoned ones aren't watched forever. Keys stay in
+ * the wallet after their invoice is closed, so late payments still count towards the balance. The book
+ * is kept in a file; as it can hold thousands of invoices, changes are written a moment later in the background, so
+ * a burst of changes is written once.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class InvoiceBook extends AbstractWalletEventListener
+{
+	public interface KeySource
+	{
+		/**
+		 * Hands out a key that is in the wallet already and wasn't handed out before. Called on the thread creating an
+		 * invoice.
+		 */
+		@Nonnull
+		ECKey issue();
+	}
+
+	public interface Listener
+	{
+		/**
+		 * Called on the wallet's event thread for every payment matched to an open invoice.
+		 */
+		void onInvoicePayment(@Nonnull Invoice invoice, @Nonnull Transaction tx);
+	}
+
+	public enum State
+	{
+		OPEN, PAID, CANCELLED, EXPIRED
+	}
+
+	public static final class Invoice
+	{
+		public final Address address;
+		/** null for any amount */
+		@Nullable
+		public final BigInteger amount;
+		public final long createdAt;
+		public final State state;
+		public final BigInteger received;
+		public final int numPayments;
+		public final long paidAt;
+
+		private Invoice(final Item item)
+		{
+			this.address = item.address;
+			this.amount = item.amount;
+			this.createdAt = item.createdAt;
+			this.state = item.state;
+			this.received = item.received;
+			this.numPayments = item.payments.size();
+			this.paidAt = item.paidAt;
+		}
+
+		@Override
+		public String toString()
+		{
+			return address + " " + state + ", " + received + "/" + amount + " in " + numPayments + " payments";
+		}
+	}
+
+	private static final class Item
+	{
+		private final Address address;
+		private final BigInteger amount;
+		private final long createdAt;
+		private State state;
+		private BigInteger received;
+		private final Set<Sha256Hash> payments;
+		private long paidAt;
+
+		private Item(final Address address, final BigInteger amount, final long createdAt, final State state, final BigInteger received,
+				final Set<Sha256Hash> payments, final long paidAt)
+		{
+			this.address = address;
+			this.amount = amount;
+			this.createdAt = createdAt;
+			this.state = state;
+			this.received = received;
+			this.payments = payments;
+			this.paidAt = paidAt;
+		}
+	}
+
+	public static final int MAX_CLOSED = 1000;
+	public static final long MAX_OPEN_AGE_MS = 24 * 60 * 60 * 1000l;
+	private static final int FILE_VERSION = 1;
+	private static final long SAVE_DELAY_MS = 1000;
+
+	private final File file;
+	private final NetworkParameters params;
+	private final KeySource keySource;
+
+	private final Map<Address, Item> items = new LinkedHashMap<Address, Item>();
+	private int numClosed = 0;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final ScheduledExecutorService saveExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+			"invoice book saver"));
+	private boolean savePending = false;
+
+	private static final Logger log = LoggerFactory.getLogger(InvoiceBook.class);
+
+	/**
+	 * Loads the book from the file, if it exists.
+	 */
+	public InvoiceBook(@Nonnull final File file, @Nonnull final NetworkParameters params, @Nonnull final KeySource keySource)
+	{
+		this.file = file;
+		this.params = params;
+		this.keySource = keySource;
+
+		if (file.exists())
+		{
+			try
+			{
+				load();
+			}
+			catch (final IOException x)
+			{
+				log.warn("problem loading invoices, starting empty", x);
+				items.clear();
+				numClosed = 0;
+			}
+		}
+	}
+
+	/**
+	 * Opens an invoice on a newly issued key. Expires old invoices on the way.
+	 *
+	 * @param amount
+	 *            requested amount, or null for any amount
+	 */
+	@Nonnull
+	public synchronized Invoice create(@Nullable final BigInteger amount, final long now)
+	{
+		expire(now);
+
+		final Address address = keySource.issue().toAddress(params);
+		final Item item = new Item(address, amount, now, State.OPEN, BigInteger.ZERO, new HashSet<Sha256Hash>(), 0);
+		items.put(address, item);
+		scheduleSave();
+
+		return new Invoice(item);
+	}
+
+	/**
+	 * Closes an open invoice. Payments arriving later are not matched to it.
+	 */
+	public synchronized void cancel(@Nonnull final Address address)
+	{
+		final Item item = items.get(address);
+		if (item != null && item.state == State.OPEN)
+		{
+			item.state = State.CANCELLED;
+			closed();
+			scheduleSave();
+		}
+	}
+
+	/**
+	 * Closes open invoices created more than {@link #MAX_OPEN_AGE_MS} ago. Payments arriving later are not matched to
+	 * them.
+	 *
+	 * @return number of expired invoices
+	 */
+	public synchronized int expire(final long now)
+	{
+		int numExpired = 0;
+		for (final Item item : items.values())
+		{
+			if (item.state == State.OPEN && now - item.createdAt > MAX_OPEN_AGE_MS)
+			{
+				item.state = State.EXPIRED;
+				numExpired++;
+			}
+		}
+
+		if (numExpired > 0)
+		{
+			numClosed += numExpired;
+			forgetOldestClosed();
+			scheduleSave();
+
+			log.info("{} invoices expired", numExpired);
+		}
+
+		return numExpired;
+	}
+
+	@CheckForNull
+	public synchronized Invoice getInvoice(@Nonnull final Address address)
+	{
+		final Item item = items.get(address);
+		return item != null ? new Invoice(item) : null;
+	}
+
+	/**
+	 * @return snapshot of the open invoices, in the order they were created
+	 */
+	public synchronized List<Invoice> getOpenInvoices()
+	{
+		final List<Invoice> invoices = new ArrayList<Invoice>(items.size() - numClosed);
+		for (final Item item : items.values())
+			if (item.state == State.OPEN)
+				invoices.add(new Invoice(item));
+		return invoices;
+	}
+
+	public synchronized int getNumOpen()
+	{
+		return items.size() - numClosed;
+	}
+
+	public void addListener(@Nonnull final Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(@Nonnull final Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+	{
+		final List<Invoice> updated = match(tx);
+
+		for (final Invoice invoice : updated)
+			for (final Listener listener : listeners)
+				listener.onInvoicePayment(invoice, tx);
+	}
+
+	/**
+	 * Adds the outputs of the transaction to the open invoices they pay to. Each transaction counts once per invoice.
+	 *
+	 * @return updated invoices
+	 */
+	synchronized List<Invoice> match(@Nonnull final Transaction tx)
+	{
+		Map<Item, BigInteger> paid = null;
+
+		for (final TransactionOutput output : tx.getOutputs())
+		{
+			final Item item;
+			try
+			{
+				final Script script = output.getScriptPubKey();
+				if (!script.isSentToAddress())
+					continue;
+
+				item = items.get(new Address(params, script.getPubKeyHash()));
+			}
+			catch (final ScriptException x)
+			{
+				continue;
+			}
+
+			if (item == null || item.state != State.OPEN || item.payments.contains(tx.getHash()))
+				continue;
+
+			if (paid == null)
+				paid = new LinkedHashMap<Item, BigInteger>();
+			final BigInteger sum = paid.get(item);
+			paid.put(item, sum != null ? sum.add(output.getValue()) : output.getValue());
+		}
+
+		if (paid == null)
+			return new ArrayList<Invoice>(0);
+
+		final long now = System.currentTimeMillis();
+		final List<Invoice> updated = new ArrayList<Invoice>(paid.size());
+		for (final Map.Entry<Item, BigInteger> entry : paid.entrySet())
+		{
+			final Item item = entry.getKey();
+			item.payments.add(tx.getHash());
+			item.received = item.received.add(entry.getValue());
+
+			if (item.amount == null || item.received.compareTo(item.amount) >= 0)
+			{
+				item.state = State.PAID;
+				item.paidAt = now;
+				closed();
+			}
+
+			log.info("invoice {} received {} in {}: {}", new Object[] { item.address, entry.getValue(), tx.getHashAsString(), item.state });
+
+			updated.add(new Invoice(item));
+		}
+
+		scheduleSave();
+
+		return updated;
+	}
+
+	/**
+	 * Writes pending changes right away.
+	 */
+	public void flush()
+	{
+		try
+		{
+			saveExecutor.submit(saveRunnable).get();
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (final ExecutionException x)
+		{
+			throw new RuntimeException(x.getCause());
+		}
+	}
+
+	private void closed()
+	{
+		numClosed++;
+		forgetOldestClosed();
+	}
+
+	private void forgetOldestClosed()
+	{
+		// their keys stay in the wallet
+		for (final Iterator<Item> i = items.values().iterator(); numClosed > MAX_CLOSED && i.hasNext();)
+		{
+			if (i.next().state != State.OPEN)
+			{
+				i.remove();
+				numClosed--;
+			}
+		}
+	}
+
+	private void scheduleSave()
+	{
+		if (savePending)
+			return;
+
+		savePending = true;
+		saveExecutor.schedule(saveRunnable, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+	}
+
+	private final Runnable saveRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			// serialize while locked, but write the file without holding up matching
+			final byte[] bytes;
+			synchronized (InvoiceBook.this)
+			{
+				if (!savePending)
+					return;
+
+				savePending = false;
+				bytes = serialize();
+			}
+
+			save(bytes);
+		}
+	};
+
+	private void load() throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+		try
+		{
+			final int version = is.readInt();
+			if (version != FILE_VERSION)
+				throw new IOException("unknown version: " + version);
+
+			final int numItems = is.readInt();
+			for (int i = 0; i < numItems; i++)
+			{
+				final Address address = readAddress(is);
+				final BigInteger amount = is.readBoolean() ? BigInteger.valueOf(is.readLong()) : null;
+				final long createdAt = is.readLong();
+				final State state = State.values()[is.readByte()];
+				final BigInteger received = BigInteger.valueOf(is.readLong());
+				final long paidAt = is.readLong();
+				final int numPayments = is.readInt();
+				final Set<Sha256Hash> payments = new HashSet<Sha256Hash>(numPayments);
+				for (int j = 0; j < numPayments; j++)
+				{
+					final byte[] hash = new byte[32];
+					is.readFully(hash);
+					payments.add(new Sha256Hash(hash));
+				}
+
+				items.put(address, new Item(address, amount, createdAt, state, received, payments, paidAt));
+				if (state != State.OPEN)
+					numClosed++;
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private Address readAddress(final DataInputStream is) throws IOException
+	{
+		final byte[] hash160 = new byte[20];
+		is.readFully(hash160);
+		return new Address(params, hash160);
+	}
+
+	private byte[] serialize()
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 + items.size() * 128);
+		final DataOutputStream os = new DataOutputStream(bytes);
+
+		try
+		{
+			os.writeInt(FILE_VERSION);
+
+			os.writeInt(items.size());
+			for (final Item item : items.values())
+			{
+				os.write(item.address.getHash160());
+				os.writeBoolean(item.amount != null);
+				if (item.amount != null)
+					os.writeLong(item.amount.longValue());
+				os.writeLong(item.createdAt);
+				os.writeByte(item.state.ordinal());
+				os.writeLong(item.received.longValue());
+				os.writeLong(item.paidAt);
+				os.writeInt(item.payments.size());
+				for (final Sha256Hash hash : item.payments)
+					os.write(hash.getBytes());
+			}
+		}
+		catch (final IOException x)
+		{
+			// cannot happen in memory
+			throw new RuntimeException(x);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private void save(final byte[] bytes)
+	{
+		final long start = System.currentTimeMillis();
+		final File tempFile = new File(file.getAbsolutePath() + ".tmp");
+
+		try
+		{
+			final OutputStream os = new FileOutputStream(tempFile);
+
+			try
+			{
+				os.write(bytes);
+			}
+			finally
+			{
+				os.close();
+			}
+
+			if (!tempFile.renameTo(file))
+				throw new IOException("cannot rename " + tempFile + " to " + file);
+
+			log.debug("{} bytes of invoices saved, took {} ms", bytes.length, System.currentTimeMillis() - start);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving invoices", x);
+		}
+	}
+}
@@ -35,6 +35,7 @@ import android.support.v4.app.NotificationCompat;
 import android.text.format.DateUtils;
 import android.util.Log;
 import com.google.bitcoin.core.*;
+import com.google.bitcoin.core.Transaction.Purpose;
 import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
 import com.google.bitcoin.core.Wallet.BalanceType;
 import com.google.bitcoin.net.discovery.DnsDiscovery;
@@ -52,7 +53,12 @@ import de.schildbach.wallet.WalletBalanceWidgetProvider;
 import de.schildbach.wallet.ui.WalletActivity;
 import de.schildbach.wallet.util.CrashReporter;
 import de.schildbach.wallet.util.GenericUtils;
+import de.schildbach.wallet.util.KeyRotator;
+import de.schildbach.wallet.util.NamedThreadFactory;
 import de.schildbach.wallet.util.ThrottlingWalletChangeListener;
+import de.schildbach.wallet.util.TransactionPlanner;
+import de.schildbach.wallet.util.UtxoConsolidator;
+import de.schildbach.wallet.util.UtxoIndex;
 import de.schildbach.wallet.util.WalletUtils;
 import de.schildbach.wallet_aur.R;
 import org.auroracoin.AuroraBlockChain;
@@ -64,14 +70,19 @@ import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
 import java.math.BigInteger;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -95,6 +106,9 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 	private final Handler handler = new Handler();
 	private final Handler delayHandler = new Handler();
+	// consolidation and key rotation, one at a time as they compete for the same outputs
+	private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory(
+			"blockchain service background"));
 	private WakeLock wakeLock;
 
 	private PeerConnectivityListener peerConnectivityListener;
@@ -107,14 +121,24 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private final List<Address> notificationAddresses = new LinkedList<Address>();
 	private AtomicInteger transactionsReceived = new AtomicInteger();
 	private int bestChainHeightEver;
+	private final AtomicBoolean keyRotationInProgress = new AtomicBoolean(false);
+	private volatile long keyRotationBatchCommittedAt = 0;
 	private long serviceCreatedAt;
 	private boolean resetBlockchainOnShutdown = false;
 
 	private static final int MIN_COLLECT_HISTORY = 2;
 	private static final int IDLE_BLOCK_TIMEOUT_MIN = 2;
 	private static final int IDLE_TRANSACTION_TIMEOUT_MIN = 9;
+	private static final int IDLE_BROADCAST_HOLD_MIN = 15;
 	private static final int MAX_HISTORY_SIZE = Math.max(IDLE_TRANSACTION_TIMEOUT_MIN, IDLE_BLOCK_TIMEOUT_MIN);
 	private static final long APPWIDGET_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final int CONSOLIDATION_QUIET_MIN = 5;
+	private static final long CONSOLIDATION_INTERVAL_MS = DateUtils.HOUR_IN_MILLIS;
+	private static final int CONSOLIDATION_MIN_INPUTS = 10;
+	private static final int CONSOLIDATION_REFERENCE_SENDS = 20;
+	private static final int KEY_ROTATION_MAX_INPUTS = 50;
+	private static final BigInteger KEY_ROTATION_FEE_BUDGET = Constants.CENT.multiply(BigInteger.valueOf(10));
+	private static final long KEY_ROTATION_BROADCAST_TIMEOUT_MS = DateUtils.MINUTE_IN_MILLIS * 10;
 
 	private static final Logger log = LoggerFactory.getLogger(BlockchainServiceImpl.class);
 
@@ -244,6 +268,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			log.info("peer connected, peernum: " + peerCount );
 			this.peerCount = peerCount;
 			changed(peerCount);
+
+			handler.post(broadcastQueuedRunnable);
 		}
 
 		@Override
@@ -254,6 +280,23 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			changed(peerCount);
 		}
 
+		@Override
+		public Message onPreMessageReceived(final Peer peer, final Message m)
+		{
+			// watch for our queued transactions being relayed
+			if (m instanceof InventoryMessage)
+			{
+				final BroadcastQueue queue = application.getBroadcastQueue();
+				final InetSocketAddress address = peer.getAddress().toSocketAddress();
+				final long now = System.currentTimeMillis();
+				for (final InventoryItem item : ((InventoryMessage) m).getItems())
+					if (item.type == InventoryItem.Type.Transaction)
+						queue.relayed(item.hash, address, now);
+			}
+
+			return m;
+		}
+
 		@Override
 		public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key)
 		{
@@ -569,17 +612,48 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 					}
 				}
 
-				// if idling, shutdown service
-				if (isIdle)
+				// if idling, shutdown service, unless recent transactions wait for broadcast; older ones are retried on next start
+				if (isIdle && hasRecentBroadcasts())
+				{
+					log.info("idling, but " + application.getBroadcastQueue().getStats());
+				}
+				else if (isIdle)
 				{
 					log.info("idling detected, stopping service");
                     WalletApplication.scheduleStartBlockchainService(BlockchainServiceImpl.this);
 					stopSelf();
 				}
+				else if (isSynced(chainHeight, numBlocksDownloaded))
+				{
+					// rotation goes first, consolidation would compete for the same outputs
+					if (!maybeRotateKeys() && isSyncedAndQuiet(chainHeight, numBlocksDownloaded))
+						maybeConsolidate();
+				}
 			}
 
 			lastChainHeight = chainHeight;
 		}
+
+		private boolean isSynced(final int chainHeight, final int numBlocksDownloaded)
+		{
+			return peerGroup != null && numBlocksDownloaded == 0 && chainHeight >= peerGroup.getMostCommonChainHeight()
+					&& chainHeight >= bestChainHeightEver;
+		}
+
+		private boolean isSyncedAndQuiet(final int chainHeight, final int numBlocksDownloaded)
+		{
+			if (!isSynced(chainHeight, numBlocksDownloaded))
+				return false;
+
+			if (activityHistory.size() < CONSOLIDATION_QUIET_MIN)
+				return false;
+
+			for (int i = 0; i < CONSOLIDATION_QUIET_MIN; i++)
+				if (activityHistory.get(i).numTransactionsReceived > 0)
+					return false;
+
+			return true;
+		}
 	};
 
 	public class LocalBinder extends Binder
@@ -608,6 +682,16 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		return super.onUnbind(intent);
 	}
 
+	/**
+	 * Broadcast metrics, via <code>adb shell dumpsys activity service BlockchainServiceImpl</code>.
+	 */
+	@Override
+	protected void dump(final FileDescriptor fd, final PrintWriter writer, final String[] args)
+	{
+		application.getBroadcastQueue().dump(writer);
+		writer.flush();
+	}
+
 	@Override
 	public void onCreate()
 	{
@@ -649,6 +733,9 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			wallet.clearTransactions(0);
 			wallet.setLastBlockSeenHeight(-1); // magic value
 			wallet.setLastBlockSeenHash(null);
+
+			// clearing sends no wallet event, so the index would keep serving the outputs of cleared transactions
+			application.getUtxoIndex().rebuild();
 		}
 
 		try
@@ -690,11 +777,12 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			throw new Error("blockchain cannot be created", x);
 		}
 
-		application.getWallet().addEventListener(walletEventListener);
+		wallet.addEventListener(walletEventListener);
 
-		registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
+		// rotation is done in batches by maybeRotateKeys(), bitcoinj would do it in one go
+		wallet.setKeyRotationEnabled(false);
 
-		maybeRotateKeys();
+		registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
 	}
 
 	@Override
@@ -723,18 +811,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		}
 		else if (BlockchainService.ACTION_BROADCAST_TRANSACTION.equals(action))
 		{
-			final Sha256Hash hash = new Sha256Hash(intent.getByteArrayExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_HASH));
-			final Transaction tx = application.getWallet().getTransaction(hash);
-
-			if (peerGroup != null)
-			{
-				log.info("broadcasting transaction " + tx.getHashAsString());
-				peerGroup.broadcastTransaction(tx);
-			}
-			else
-			{
-				log.info("peergroup not available, not broadcasting transaction " + tx.getHashAsString());
-			}
+			// queued by the application already
+			broadcastQueued();
 		}
 
 		log.info("service command done: ");
@@ -771,6 +849,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		prefs.edit().putInt(Constants.PREFS_KEY_BEST_CHAIN_HEIGHT_EVER, bestChainHeightEver).commit();
 
 		delayHandler.removeCallbacksAndMessages(null);
+		backgroundExecutor.shutdown();
 
 		try
 		{
@@ -900,22 +979,244 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		}
 	}
 
-	private void maybeRotateKeys()
+	/**
+	 * Broadcasts queued transactions that are due, and schedules the next attempt. Runs on the main thread.
+	 */
+	private void broadcastQueued()
+	{
+		handler.removeCallbacks(broadcastQueuedRunnable);
+
+		if (peerGroup == null)
+		{
+			log.info("peergroup not available, not broadcasting queued transactions");
+			return;
+		}
+
+		final List<BroadcastQueue.Connection> connections = new ArrayList<BroadcastQueue.Connection>();
+		for (final Peer peer : peerGroup.getConnectedPeers())
+			connections.add(new PeerConnection(peer));
+
+		final BroadcastQueue queue = application.getBroadcastQueue();
+		final long now = System.currentTimeMillis();
+		queue.broadcastDue(connections, now);
+
+		final long nextAttemptAt = queue.getNextAttemptAt();
+		if (nextAttemptAt != Long.MAX_VALUE)
+			handler.postDelayed(broadcastQueuedRunnable, Math.max(nextAttemptAt - now, 0));
+	}
+
+	private boolean hasRecentBroadcasts()
+	{
+		final long now = System.currentTimeMillis();
+
+		for (final BroadcastQueue.Entry entry : application.getBroadcastQueue().getEntries())
+			if (entry.state != BroadcastQueue.State.CONFIRMED && now - entry.queuedAt < IDLE_BROADCAST_HOLD_MIN * DateUtils.MINUTE_IN_MILLIS)
+				return true;
+
+		return false;
+	}
+
+	private final Runnable broadcastQueuedRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			broadcastQueued();
+		}
+	};
+
+	private static final class PeerConnection implements BroadcastQueue.Connection
+	{
+		private final Peer peer;
+
+		public PeerConnection(final Peer peer)
+		{
+			this.peer = peer;
+		}
+
+		@Override
+		public InetSocketAddress getAddress()
+		{
+			return peer.getAddress().toSocketAddress();
+		}
+
+		@Override
+		public void sendTransaction(final Transaction tx)
+		{
+			peer.sendMessage(tx);
+		}
+	}
+
+	private void maybeConsolidate()
 	{
+		if (!prefs.getBoolean(Constants.PREFS_KEY_LABS_CONSOLIDATION, false))
+			return;
+
+		final long now = System.currentTimeMillis();
+		if (now - prefs.getLong(Constants.PREFS_KEY_LAST_CONSOLIDATION, 0) < CONSOLIDATION_INTERVAL_MS)
+			return;
+
 		final Wallet wallet = application.getWallet();
-		wallet.setKeyRotationEnabled(false);
 
-		final StoredBlock chainHead = blockChain.getChainHead();
+		// wait for earlier spends, including the previous consolidation, to confirm
+		if (!wallet.getPendingTransactions().isEmpty())
+			return;
+
+		prefs.edit().putLong(Constants.PREFS_KEY_LAST_CONSOLIDATION, now).commit();
 
-		new Thread()
+		final BigInteger threshold = new BigInteger(prefs.getString(Constants.PREFS_KEY_LABS_CONSOLIDATION_THRESHOLD,
+				Constants.PREFS_DEFAULT_CONSOLIDATION_THRESHOLD));
+		final int maxInputs = Integer.parseInt(prefs.getString(Constants.PREFS_KEY_LABS_CONSOLIDATION_MAX_INPUTS,
+				Constants.PREFS_DEFAULT_CONSOLIDATION_MAX_INPUTS));
+		final UtxoIndex utxoIndex = application.getUtxoIndex();
+
+		backgroundExecutor.execute(new Runnable()
 		{
 			@Override
 			public void run()
 			{
-				final boolean replaying = chainHead.getHeight() < bestChainHeightEver; // checking again
+				final ECKey key = WalletUtils.pickOldestKey(wallet);
+				if (key == null)
+				{
+					log.info("no usable key to consolidate to");
+					return;
+				}
+
+				final TransactionPlanner planner = new TransactionPlanner(Constants.TX_FEE_PER_KB, Constants.MIN_TX_FEE, Constants.CENT
+						.divide(BigInteger.valueOf(10)));
+				final UtxoConsolidator consolidator = new UtxoConsolidator(planner, threshold, CONSOLIDATION_MIN_INPUTS, maxInputs);
+				final Address address = key.toAddress(Constants.NETWORK_PARAMETERS);
 
-				wallet.setKeyRotationEnabled(!replaying);
+				// amounts of recent sends as reference
+				final List<BigInteger> referenceAmounts = new ArrayList<BigInteger>(CONSOLIDATION_REFERENCE_SENDS);
+				for (final Transaction tx : wallet.getTransactionsByTime())
+				{
+					final BigInteger value = tx.getValue(wallet);
+					if (value.signum() < 0)
+						referenceAmounts.add(value.negate());
+					if (referenceAmounts.size() == CONSOLIDATION_REFERENCE_SENDS)
+						break;
+				}
+
+				final UtxoConsolidator.Result result = consolidator.consolidate(wallet, utxoIndex.byValue(), address, referenceAmounts);
+				if (result == null)
+				{
+					log.info("nothing to consolidate");
+					return;
+				}
+
+				log.info("consolidating " + result.numInputs + " outputs, fee " + result.fee + ", inputs per send about "
+						+ String.format("%.1f", result.inputsPerSendBefore) + " -> " + String.format("%.1f", result.inputsPerSendAfter) + ": "
+						+ result.sendRequest.tx.getHashAsString());
+
+				if (!TransactionPlanner.commitIfUnspent(wallet, result.sendRequest.tx))
+				{
+					log.info("consolidation conflicts with a spend committed meanwhile, skipping");
+					return;
+				}
+
+				application.broadcastTransaction(result.sendRequest.tx);
 			}
-		}.start();
+		});
+	}
+
+	/**
+	 * Moves one batch of funds off rotating keys, if there are any.
+	 *
+	 * @return true if rotation is in progress
+	 */
+	private boolean maybeRotateKeys()
+	{
+		final Wallet wallet = application.getWallet();
+		final Date rotationTime = wallet.getKeyRotationTime();
+		if (rotationTime == null)
+			return false;
+
+		// fee paid and a stall survive restarts, but start over with a new rotation time
+		if (prefs.getLong(Constants.PREFS_KEY_KEY_ROTATION_TIME, 0) != rotationTime.getTime())
+			prefs.edit().putLong(Constants.PREFS_KEY_KEY_ROTATION_TIME, rotationTime.getTime())
+					.putLong(Constants.PREFS_KEY_KEY_ROTATION_FEE_PAID, 0).putBoolean(Constants.PREFS_KEY_KEY_ROTATION_STALLED, false)
+					.commit();
+		if (prefs.getBoolean(Constants.PREFS_KEY_KEY_ROTATION_STALLED, false))
+			return false;
+
+		final KeyRotator rotator = new KeyRotator(new TransactionPlanner(Constants.TX_FEE_PER_KB, Constants.MIN_TX_FEE,
+				Constants.CENT.divide(BigInteger.valueOf(10))), KEY_ROTATION_MAX_INPUTS);
+		final UtxoIndex utxoIndex = application.getUtxoIndex();
+		final KeyRotator.Progress progress = rotator.progress(wallet, utxoIndex.byValue());
+		if (progress.isDone())
+			return false;
+
+		final BigInteger feePaid = BigInteger.valueOf(prefs.getLong(Constants.PREFS_KEY_KEY_ROTATION_FEE_PAID, 0));
+		final BigInteger feeBudget = KEY_ROTATION_FEE_BUDGET.subtract(feePaid);
+
+		log.info("key rotation: " + progress + ", fee paid " + feePaid);
+
+		// wait for the previous batch to propagate, but not forever; the broadcast queue keeps retrying it anyway
+		final long waitingSince = Math.max(keyRotationBatchCommittedAt, serviceCreatedAt);
+		if (System.currentTimeMillis() - waitingSince < KEY_ROTATION_BROADCAST_TIMEOUT_MS)
+			for (final Transaction tx : wallet.getPendingTransactions())
+				if (tx.getPurpose() == Purpose.KEY_ROTATION && tx.getConfidence().numBroadcastPeers() == 0)
+					return true;
+
+		if (keyRotationInProgress.getAndSet(true))
+			return true;
+
+		backgroundExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					final ECKey key = WalletUtils.pickOldestKey(wallet);
+					if (key == null)
+					{
+						log.info("key rotation: no usable key to move funds to");
+						return;
+					}
+
+					final Address address = key.toAddress(Constants.NETWORK_PARAMETERS);
+					final KeyRotator.Batch batch;
+					try
+					{
+						batch = rotator.nextBatch(wallet, utxoIndex.byValue(), address, feeBudget);
+					}
+					catch (final KeyRotator.FeeBudgetExceededException x)
+					{
+						log.info("key rotation: next batch needs fee " + x.fee + ", exceeding the budget of " + KEY_ROTATION_FEE_BUDGET
+								+ ", stalled until the rotation time changes");
+						prefs.edit().putBoolean(Constants.PREFS_KEY_KEY_ROTATION_STALLED, true).commit();
+						return;
+					}
+
+					// fees or outputs may change, so try again next time
+					if (batch == null)
+					{
+						log.info("key rotation: next batch is uneconomic for now");
+						return;
+					}
+
+					log.info("key rotation: moving " + batch.numInputs + " outputs, value " + batch.value + ", fee " + batch.fee + ": "
+							+ batch.sendRequest.tx.getHashAsString());
+
+					if (!TransactionPlanner.commitIfUnspent(wallet, batch.sendRequest.tx))
+					{
+						log.info("key rotation: batch conflicts with a spend committed meanwhile, skipping");
+						return;
+					}
+
+					keyRotationBatchCommittedAt = System.currentTimeMillis();
+					prefs.edit().putLong(Constants.PREFS_KEY_KEY_ROTATION_FEE_PAID, feePaid.add(batch.fee).longValue()).commit();
+					application.broadcastTransaction(batch.sendRequest.tx);
+				}
+				finally
+				{
+					keyRotationInProgress.set(false);
+				}
+			}
+		});
+
+		return true;
 	}
 }
@@ -0,0 +1,671 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.PeerAddress;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence;
+import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+
+/**
+ * Transactions waiting to be broadcast, in the order they were added, kept in a file so they survive restarts. Each
+ * transaction is queued once. While peers are connected, due transactions are sent to about half of them; the others
+ * are watched for announcing the transaction back, which shows it made it into the network. Peers the latest attempt
+ * sent the transaction to don't count, as they would only echo it. If not enough peers relay it, it is sent again, to
+ * the next peers, after a backoff that doubles with each attempt. A transaction counts as confirmed once enough peers relayed it, or it
+ * made it into a block. Transactions that became dead, like by a double spend, or that are still not confirmed after
+ * {@link #MAX_AGE_MS} are dropped.
+ *
+ * Times to the first relay and to enough relays are measured from the first attempt, so they include retries.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public final class BroadcastQueue
+{
+	public interface ConfidenceSource
+	{
+		/**
+		 * @return confidence bitcoinj keeps up to date, or null if it doesn't know the transaction
+		 */
+		@CheckForNull
+		TransactionConfidence getConfidence(@Nonnull Sha256Hash hash);
+	}
+
+	public interface Connection
+	{
+		@Nonnull
+		InetSocketAddress getAddress();
+
+		/**
+		 * Sends the transaction without waiting for it to be delivered.
+		 */
+		void sendTransaction(@Nonnull Transaction tx);
+	}
+
+	public enum State
+	{
+		QUEUED, BROADCASTING, CONFIRMED
+	}
+
+	public static final class Entry
+	{
+		public final Sha256Hash hash;
+		public final State state;
+		public final int numAttempts;
+		public final int numSentTo;
+		public final int numRelays;
+		public final int relayTarget;
+		public final long queuedAt;
+		public final long firstAttemptAt;
+		public final long lastAttemptAt;
+		public final long firstRelayAt;
+		public final long confirmedAt;
+
+		private Entry(final Item item)
+		{
+			this.hash = item.tx.getHash();
+			this.state = item.state;
+			this.numAttempts = item.numAttempts;
+			this.numSentTo = item.sentTo.size();
+			this.numRelays = item.numRelays;
+			this.relayTarget = item.relayTarget;
+			this.queuedAt = item.queuedAt;
+			this.firstAttemptAt = item.firstAttemptAt;
+			this.lastAttemptAt = item.lastAttemptAt;
+			this.firstRelayAt = item.firstRelayAt;
+			this.confirmedAt = item.confirmedAt;
+		}
+
+		/**
+		 * @return milliseconds from queueing to confirmation, or -1 if not confirmed
+		 */
+		public long getLatency()
+		{
+			return state == State.CONFIRMED ? confirmedAt - queuedAt : -1;
+		}
+
+		/**
+		 * @return milliseconds from the first attempt to the first peer relaying the transaction, or -1 if none did
+		 */
+		public long getTimeToFirstRelay()
+		{
+			return firstRelayAt != UNSET && firstAttemptAt != UNSET ? firstRelayAt - firstAttemptAt : -1;
+		}
+
+		/**
+		 * @return milliseconds from the first attempt to enough peers relaying the transaction, or -1 if it wasn't
+		 *         confirmed that way
+		 */
+		public long getTimeToRelayTarget()
+		{
+			return state == State.CONFIRMED && relayTarget > 0 && numRelays >= relayTarget && firstAttemptAt != UNSET ? confirmedAt
+					- firstAttemptAt : -1;
+		}
+
+		@Override
+		public String toString()
+		{
+			return hash + " " + state + ", " + numAttempts + " attempts, sent to " + numSentTo + ", relayed by " + numRelays + "/"
+					+ relayTarget + ", first relay " + getTimeToFirstRelay() + "ms, relay target " + getTimeToRelayTarget() + "ms, latency "
+					+ getLatency() + "ms";
+		}
+	}
+
+	public static final class Stats
+	{
+		public final int numPending;
+		public final int numConfirmed;
+		public final long averageLatency;
+		public final long maxLatency;
+		public final int maxAttempts;
+		public final long averageTimeToFirstRelay;
+		public final long averageTimeToRelayTarget;
+
+		private Stats(final int numPending, final int numConfirmed, final long averageLatency, final long maxLatency, final int maxAttempts,
+				final long averageTimeToFirstRelay, final long averageTimeToRelayTarget)
+		{
+			this.numPending = numPending;
+			this.numConfirmed = numConfirmed;
+			this.averageLatency = averageLatency;
+			this.maxLatency = maxLatency;
+			this.maxAttempts = maxAttempts;
+			this.averageTimeToFirstRelay = averageTimeToFirstRelay;
+			this.averageTimeToRelayTarget = averageTimeToRelayTarget;
+		}
+
+		@Override
+		public String toString()
+		{
+			return numPending + " pending, " + numConfirmed + " confirmed, latency avg " + averageLatency + "ms max " + maxLatency
+					+ "ms, max " + maxAttempts + " attempts, first relay avg " + averageTimeToFirstRelay + "ms, relay target avg "
+					+ averageTimeToRelayTarget + "ms";
+		}
+	}
+
+	private static final class Item
+	{
+		private final Transaction tx;
+		private State state;
+		private int numAttempts;
+		private final long queuedAt;
+		private long firstAttemptAt;
+		private long lastAttemptAt;
+		private long nextAttemptAt;
+		private long firstRelayAt;
+		private long confirmedAt;
+		private int numRelays;
+		private int relayTarget;
+
+		// not kept in the file, as the peers are gone after a restart; sentTo is of the latest attempt only, so the peers
+		// of earlier attempts are watched again
+		private final Set<InetSocketAddress> sentTo = new HashSet<InetSocketAddress>();
+		private final Set<InetSocketAddress> relayedBy = new HashSet<InetSocketAddress>();
+
+		private Item(final Transaction tx, final State state, final int numAttempts, final long queuedAt, final long firstAttemptAt,
+				final long lastAttemptAt, final long nextAttemptAt, final long firstRelayAt, final long confirmedAt, final int numRelays,
+				final int relayTarget)
+		{
+			this.tx = tx;
+			this.state = state;
+			this.numAttempts = numAttempts;
+			this.queuedAt = queuedAt;
+			this.firstAttemptAt = firstAttemptAt;
+			this.lastAttemptAt = lastAttemptAt;
+			this.nextAttemptAt = nextAttemptAt;
+			this.firstRelayAt = firstRelayAt;
+			this.confirmedAt = confirmedAt;
+			this.numRelays = numRelays;
+			this.relayTarget = relayTarget;
+		}
+	}
+
+	public static final long INITIAL_BACKOFF_MS = 15 * 1000;
+	public static final long MAX_BACKOFF_MS = 30 * 60 * 1000;
+	public static final int MAX_RELAY_TARGET = 3;
+	public static final long MAX_AGE_MS = 3 * 24 * 60 * 60 * 1000l;
+	private static final int MAX_CONFIRMED = 20;
+	private static final int FILE_VERSION = 1;
+	private static final long UNSET = -1;
+
+	private final File file;
+	private final NetworkParameters params;
+	@Nullable
+	private final ConfidenceSource confidenceSource;
+	private final Map<Sha256Hash, Item> items = new LinkedHashMap<Sha256Hash, Item>();
+
+	private static final Logger log = LoggerFactory.getLogger(BroadcastQueue.class);
+
+	/**
+	 * Loads the queue from the file, if it exists. Transactions that were being broadcast are due again.
+	 *
+	 * @param confidenceSource
+	 *            where to look up the confidence of queued transactions, as the ones loaded from the file are copies
+	 *            bitcoinj doesn't update
+	 */
+	public BroadcastQueue(@Nonnull final File file, @Nonnull final NetworkParameters params, @Nullable final ConfidenceSource confidenceSource)
+	{
+		this.file = file;
+		this.params = params;
+		this.confidenceSource = confidenceSource;
+
+		if (file.exists())
+		{
+			try
+			{
+				load();
+			}
+			catch (final IOException x)
+			{
+				log.warn("problem loading broadcast queue, starting empty", x);
+				items.clear();
+			}
+			catch (final ProtocolException x)
+			{
+				log.warn("problem loading broadcast queue, starting empty", x);
+				items.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return false if the transaction is queued already
+	 */
+	public synchronized boolean add(@Nonnull final Transaction tx, final long now)
+	{
+		if (items.containsKey(tx.getHash()))
+			return false;
+
+		items.put(tx.getHash(), new Item(tx, State.QUEUED, 0, now, UNSET, UNSET, now, UNSET, 0, 0, 0));
+		save();
+
+		return true;
+	}
+
+	/**
+	 * Drops dead and expired transactions, then sends all due transactions, in the order they were queued, each to
+	 * about half of the connected peers. Sends nothing without peers, as the attempts would only count against the
+	 * backoff.
+	 *
+	 * @return number of transactions sent
+	 */
+	public synchronized int broadcastDue(@Nonnull final List<? extends Connection> peers, final long now)
+	{
+		boolean changed = false;
+		// copy, as confirming forgets old items
+		for (final Item item : new ArrayList<Item>(items.values()))
+		{
+			if (item.state == State.CONFIRMED)
+				continue;
+
+			final TransactionConfidence confidence = confidence(item);
+			if (confidence.getConfidenceType() == ConfidenceType.DEAD)
+			{
+				log.info("transaction {} is dead, dropping from broadcast queue", item.tx.getHashAsString());
+				items.remove(item.tx.getHash());
+				changed = true;
+			}
+			else if (now - item.queuedAt > MAX_AGE_MS)
+			{
+				log.warn("transaction {} not confirmed after {} attempts, dropping from broadcast queue", item.tx.getHashAsString(),
+						item.numAttempts);
+				items.remove(item.tx.getHash());
+				changed = true;
+			}
+			else if (checkConfidence(item, confidence, now))
+			{
+				changed = true;
+			}
+		}
+
+		final int numPeers = peers.size();
+		final int numSendTo = Math.max(numPeers / 2, 1);
+		final List<Item> due = new ArrayList<Item>();
+		if (numPeers > 0)
+		{
+			for (final Item item : items.values())
+			{
+				if (item.state != State.CONFIRMED && item.nextAttemptAt <= now)
+				{
+					item.state = State.BROADCASTING;
+					item.numAttempts++;
+					if (item.firstAttemptAt == UNSET)
+						item.firstAttemptAt = now;
+					item.lastAttemptAt = now;
+					item.nextAttemptAt = now + backoff(item.numAttempts);
+					due.add(item);
+				}
+			}
+		}
+
+		if (changed || !due.isEmpty())
+			save();
+
+		for (final Item item : due)
+		{
+			// each attempt goes to the next peers, so a peer that drops the transaction can't stall it
+			final int offset = (item.numAttempts - 1) * numSendTo;
+			final List<Connection> sendTo = new ArrayList<Connection>(numSendTo);
+			for (int i = 0; i < numSendTo; i++)
+				sendTo.add(peers.get((offset + i) % numPeers));
+
+			item.sentTo.clear();
+			for (final Connection peer : sendTo)
+				item.sentTo.add(peer.getAddress());
+
+			int numWatched = 0;
+			for (final Connection peer : peers)
+				if (!item.sentTo.contains(peer.getAddress()))
+					numWatched++;
+			item.relayTarget = Math.max(Math.min(numWatched, MAX_RELAY_TARGET), 1);
+
+			log.info("broadcasting transaction {}, attempt {}, to {} of {} peers", new Object[] { item.tx.getHashAsString(),
+					item.numAttempts, sendTo.size(), numPeers });
+
+			for (final Connection peer : sendTo)
+			{
+				try
+				{
+					peer.sendTransaction(item.tx);
+				}
+				catch (final RuntimeException x)
+				{
+					log.info("problem sending transaction " + item.tx.getHashAsString() + " to " + peer.getAddress(), x);
+				}
+			}
+		}
+
+		return due.size();
+	}
+
+	/**
+	 * Counts a peer announcing the transaction. Meant to be called for every announced transaction, so returns quickly
+	 * for transactions not in the queue.
+	 */
+	public synchronized void relayed(@Nonnull final Sha256Hash hash, @Nonnull final InetSocketAddress peer, final long now)
+	{
+		final Item item = items.get(hash);
+		if (item != null && item.state != State.CONFIRMED && relayed(item, peer, now))
+			save();
+	}
+
+	/**
+	 * Marks the transaction as confirmed, like when it made it into a block.
+	 */
+	public synchronized void confirmed(@Nonnull final Sha256Hash hash, final long now)
+	{
+		final Item item = items.get(hash);
+		if (item != null && item.state != State.CONFIRMED)
+		{
+			confirm(item, now);
+			save();
+		}
+	}
+
+	/**
+	 * @return time of the next attempt of a transaction not yet confirmed, or {@link Long#MAX_VALUE} if there is none
+	 */
+	public synchronized long getNextAttemptAt()
+	{
+		long next = Long.MAX_VALUE;
+		for (final Item item : items.values())
+			if (item.state != State.CONFIRMED)
+				next = Math.min(next, item.nextAttemptAt);
+		return next;
+	}
+
+	@CheckForNull
+	public synchronized Entry getEntry(@Nonnull final Sha256Hash hash)
+	{
+		final Item item = items.get(hash);
+		return item != null ? new Entry(item) : null;
+	}
+
+	/**
+	 * @return snapshot of all entries, in the order they were queued
+	 */
+	public synchronized List<Entry> getEntries()
+	{
+		final List<Entry> entries = new ArrayList<Entry>(items.size());
+		for (final Item item : items.values())
+			entries.add(new Entry(item));
+		return entries;
+	}
+
+	public synchronized int getNumPending()
+	{
+		int numPending = 0;
+		for (final Item item : items.values())
+			if (item.state != State.CONFIRMED)
+				numPending++;
+		return numPending;
+	}
+
+	public synchronized Stats getStats()
+	{
+		int numPending = 0;
+		int numConfirmed = 0;
+		long sumLatency = 0;
+		long maxLatency = 0;
+		int maxAttempts = 0;
+		int numFirstRelays = 0;
+		long sumTimeToFirstRelay = 0;
+		int numRelayTargets = 0;
+		long sumTimeToRelayTarget = 0;
+
+		for (final Item item : items.values())
+		{
+			final Entry entry = new Entry(item);
+			maxAttempts = Math.max(maxAttempts, entry.numAttempts);
+			if (entry.state == State.CONFIRMED)
+			{
+				final long latency = entry.getLatency();
+				numConfirmed++;
+				sumLatency += latency;
+				maxLatency = Math.max(maxLatency, latency);
+			}
+			else
+			{
+				numPending++;
+			}
+
+			final long timeToFirstRelay = entry.getTimeToFirstRelay();
+			if (timeToFirstRelay >= 0)
+			{
+				numFirstRelays++;
+				sumTimeToFirstRelay += timeToFirstRelay;
+			}
+
+			final long timeToRelayTarget = entry.getTimeToRelayTarget();
+			if (timeToRelayTarget >= 0)
+			{
+				numRelayTargets++;
+				sumTimeToRelayTarget += timeToRelayTarget;
+			}
+		}
+
+		return new Stats(numPending, numConfirmed, numConfirmed > 0 ? sumLatency / numConfirmed : 0, maxLatency, maxAttempts,
+				numFirstRelays > 0 ? sumTimeToFirstRelay / numFirstRelays : -1, numRelayTargets > 0 ? sumTimeToRelayTarget
+						/ numRelayTargets : -1);
+	}
+
+	/**
+	 * Writes stats and all entries in human readable form.
+	 */
+	public synchronized void dump(@Nonnull final PrintWriter writer)
+	{
+		writer.println("broadcast queue: " + getStats());
+		for (final Item item : items.values())
+			writer.println("  " + new Entry(item));
+	}
+
+	static long backoff(final int numAttempts)
+	{
+		final int doublings = Math.min(numAttempts - 1, 20);
+		return Math.min(INITIAL_BACKOFF_MS << doublings, MAX_BACKOFF_MS);
+	}
+
+	private TransactionConfidence confidence(final Item item)
+	{
+		final TransactionConfidence confidence = confidenceSource != null ? confidenceSource.getConfidence(item.tx.getHash()) : null;
+		return confidence != null ? confidence : item.tx.getConfidence();
+	}
+
+	/**
+	 * Picks up relays and blocks bitcoinj noticed, like ones from before a restart.
+	 *
+	 * @return true if the item changed
+	 */
+	private boolean checkConfidence(final Item item, final TransactionConfidence confidence, final long now)
+	{
+		boolean changed = false;
+
+		for (final ListIterator<PeerAddress> i = confidence.getBroadcastBy(); i.hasNext() && item.state != State.CONFIRMED;)
+			if (relayed(item, i.next().toSocketAddress(), now))
+				changed = true;
+
+		if (item.state != State.CONFIRMED && confidence.getConfidenceType() == ConfidenceType.BUILDING)
+		{
+			confirm(item, now);
+			changed = true;
+		}
+
+		return changed;
+	}
+
+	/**
+	 * @return true if the relay was counted
+	 */
+	private boolean relayed(final Item item, final InetSocketAddress peer, final long now)
+	{
+		if (item.firstAttemptAt == UNSET || item.sentTo.contains(peer) || !item.relayedBy.add(peer))
+			return false;
+
+		item.numRelays = item.relayedBy.size();
+		if (item.firstRelayAt == UNSET)
+			item.firstRelayAt = now;
+
+		log.info("transaction {} relayed by {}, {} of {}", new Object[] { item.tx.getHashAsString(), peer, item.numRelays,
+				item.relayTarget });
+
+		if (item.numRelays >= item.relayTarget)
+			confirm(item, now);
+
+		return true;
+	}
+
+	private void confirm(final Item item, final long now)
+	{
+		item.state = State.CONFIRMED;
+		item.confirmedAt = now;
+
+		log.info("transaction {} confirmed after {} attempts, {} ms", new Object[] { item.tx.getHashAsString(), item.numAttempts,
+				now - item.queuedAt });
+
+		// forget the oldest confirmed, the rest is kept for its metrics
+		int numConfirmed = 0;
+		for (final Item i : items.values())
+			if (i.state == State.CONFIRMED)
+				numConfirmed++;
+		for (final Iterator<Item> i = items.values().iterator(); numConfirmed > MAX_CONFIRMED && i.hasNext();)
+		{
+			if (i.next().state == State.CONFIRMED)
+			{
+				i.remove();
+				numConfirmed--;
+			}
+		}
+	}
+
+	private void load() throws IOException, ProtocolException
+	{
+		final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+		try
+		{
+			final int version = is.readInt();
+			if (version != FILE_VERSION)
+				throw new IOException("unknown version: " + version);
+
+			final int numItems = is.readInt();
+			for (int i = 0; i < numItems; i++)
+			{
+				final byte[] bytes = new byte[is.readInt()];
+				is.readFully(bytes);
+				final Transaction tx = new Transaction(params, bytes);
+
+				State state = State.values()[is.readByte()];
+				final int numAttempts = is.readInt();
+				final long queuedAt = is.readLong();
+				final long lastAttemptAt = is.readLong();
+				long nextAttemptAt = is.readLong();
+				final long confirmedAt = is.readLong();
+				final long firstAttemptAt = is.readLong();
+				final long firstRelayAt = is.readLong();
+				int numRelays = is.readInt();
+				final int relayTarget = is.readInt();
+
+				// broadcasts don't survive restarts, and relays are counted again for the peers connected next
+				if (state == State.BROADCASTING)
+				{
+					state = State.QUEUED;
+					nextAttemptAt = 0;
+					numRelays = 0;
+				}
+
+				items.put(tx.getHash(), new Item(tx, state, numAttempts, queuedAt, firstAttemptAt, lastAttemptAt, nextAttemptAt, firstRelayAt,
+						confirmedAt, numRelays, relayTarget));
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private void save()
+	{
+		final File tempFile = new File(file.getAbsolutePath() + ".tmp");
+
+		try
+		{
+			final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+			try
+			{
+				os.writeInt(FILE_VERSION);
+				os.writeInt(items.size());
+				for (final Item item : items.values())
+				{
+					final byte[] bytes = item.tx.bitcoinSerialize();
+					os.writeInt(bytes.length);
+					os.write(bytes);
+					os.writeByte(item.state.ordinal());
+					os.writeInt(item.numAttempts);
+					os.writeLong(item.queuedAt);
+					os.writeLong(item.lastAttemptAt);
+					os.writeLong(item.nextAttemptAt);
+					os.writeLong(item.confirmedAt);
+					os.writeLong(item.firstAttemptAt);
+					os.writeLong(item.firstRelayAt);
+					os.writeInt(item.numRelays);
+					os.writeInt(item.relayTarget);
+				}
+			}
+			finally
+			{
+				os.close();
+			}
+
+			if (!tempFile.renameTo(file))
+				throw new IOException("cannot rename " + tempFile + " to " + file);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving broadcast queue", x);
+		}
+	}
+}
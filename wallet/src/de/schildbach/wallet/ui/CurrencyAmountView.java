@@ -48,6 +48,7 @@ import android.widget.TextView.OnEditorActionListener;
 import com.google.bitcoin.core.Transaction;
 
 import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.util.AmountFormatter;
 import de.schildbach.wallet.util.GenericUtils;
 import de.schildbach.wallet.util.WalletUtils;
 import de.schildbach.wallet_aur.R;
@@ -76,6 +77,8 @@ public final class CurrencyAmountView extends FrameLayout
 	private boolean smallerInsignificant = true;
 	private boolean validateAmount = true;
 
+	private final AmountFormatter hintFormatter = new AmountFormatter();
+
 	private TextView textView;
 	private View contextButton;
 	private Listener listener;
@@ -230,13 +233,14 @@ public final class CurrencyAmountView extends FrameLayout
 
 	public void setHint(@Nullable final BigInteger amount)
 	{
-		final SpannableStringBuilder hint;
 		if (amount != null)
-			hint = new SpannableStringBuilder(GenericUtils.formatValue(amount, hintPrecision, shift));
+			hintFormatter.format(amount.longValue(), hintPrecision, shift);
 		else
-			hint = new SpannableStringBuilder("0.00");
+			hintFormatter.format(0, 2, 0); // "0.00"
+
+		final SpannableStringBuilder hint = new SpannableStringBuilder();
 
-		WalletUtils.formatSignificant(hint, smallerInsignificant ? WalletUtils.SMALLER_SPAN : null);
+		WalletUtils.formatValue(hint, hintFormatter, smallerInsignificant ? WalletUtils.SMALLER_SPAN : null);
 		textView.setHint(hint);
 	}
 
@@ -273,14 +277,14 @@ public final class CurrencyAmountView extends FrameLayout
 		{
 			if (!amount.isEmpty())
 			{
-				final BigInteger nanoCoins = GenericUtils.toNanoCoins(amount, shift);
+				final long nanoCoins = GenericUtils.parseNanoCoins(amount, shift);
 
 				// exactly zero
-				if (zeroIsValid && nanoCoins.signum() == 0)
+				if (zeroIsValid && nanoCoins == 0)
 					return true;
 
 				// too small
-				if (nanoCoins.compareTo(Transaction.MIN_NONDUST_OUTPUT) < 0)
+				if (nanoCoins < Transaction.MIN_NONDUST_OUTPUT.longValue())
 					return false;
 
 				return true;
@@ -31,7 +31,7 @@ import android.text.style.RelativeSizeSpan;
 import android.util.AttributeSet;
 import android.widget.TextView;
 import de.schildbach.wallet.Constants;
-import de.schildbach.wallet.util.GenericUtils;
+import de.schildbach.wallet.util.AmountFormatter;
 import de.schildbach.wallet.util.WalletUtils;
 import de.schildbach.wallet_aur.R;
 
@@ -49,6 +49,9 @@ public final class CurrencyTextView extends TextView
 	private RelativeSizeSpan prefixRelativeSizeSpan = null;
 	private RelativeSizeSpan insignificantRelativeSizeSpan = null;
 
+	private final AmountFormatter formatter = new AmountFormatter();
+	private final SpannableStringBuilder textBuilder = new SpannableStringBuilder();
+
 	public CurrencyTextView(final Context context)
 	{
 		super(context);
@@ -128,14 +131,14 @@ public final class CurrencyTextView extends TextView
 
 		if (amount != null)
 		{
-			final String s;
 			if (alwaysSigned)
-				s = GenericUtils.formatValue(amount, Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, precision, shift);
+				formatter.format(amount.longValue(), Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, precision, shift);
 			else
-				s = GenericUtils.formatValue(amount, precision, shift);
+				formatter.format(amount.longValue(), precision, shift);
 
-			text = new SpannableStringBuilder(s);
-			WalletUtils.formatSignificant(text, insignificantRelativeSizeSpan);
+			// setText() copies the spanned text, so the builder can be reused
+			text = textBuilder;
+			WalletUtils.formatValue(text, formatter, insignificantRelativeSizeSpan);
 
 			if (prefix != null)
 			{
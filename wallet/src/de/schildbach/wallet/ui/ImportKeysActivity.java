@@ -17,13 +17,13 @@
 
 package de.schildbach.wallet.ui;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
-import java.io.StringReader;
+import java.util.EnumSet;
 import java.util.List;
 
 import android.app.AlertDialog;
@@ -34,6 +34,9 @@ import android.content.DialogInterface.OnCancelListener;
 import android.content.DialogInterface.OnClickListener;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.view.View;
 import android.widget.CheckBox;
 import android.widget.EditText;
@@ -44,7 +47,8 @@ import com.google.bitcoin.core.Wallet;
 
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.util.Crypto;
-import de.schildbach.wallet.util.WalletUtils;
+import de.schildbach.wallet.util.KeyImporter;
+import de.schildbach.wallet.util.WalletBackup;
 import de.schildbach.wallet_aur.R;
 
 /**
@@ -59,6 +63,11 @@ public final class ImportKeysActivity extends AbstractWalletActivity
 
 	private Uri backupFileUri;
 
+	private HandlerThread backgroundThread;
+	private Handler backgroundHandler;
+	private final Handler handler = new Handler();
+	private boolean destroyed = false;
+
 	@Override
 	protected void onCreate(final Bundle savedInstanceState)
 	{
@@ -69,9 +78,24 @@ public final class ImportKeysActivity extends AbstractWalletActivity
 
 		backupFileUri = getIntent().getData();
 
+		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+		backgroundThread.start();
+		backgroundHandler = new Handler(backgroundThread.getLooper());
+
 		showDialog(DIALOG_IMPORT_KEYS);
 	}
 
+	@Override
+	protected void onDestroy()
+	{
+		// an import still running finishes in the background, but doesn't report to this instance anymore
+		destroyed = true;
+		handler.removeCallbacksAndMessages(null);
+		backgroundThread.getLooper().quit();
+
+		super.onDestroy();
+	}
+
 	@Override
 	protected Dialog onCreateDialog(final int id)
 	{
@@ -168,79 +192,107 @@ public final class ImportKeysActivity extends AbstractWalletActivity
 
 	private void importPrivateKeys(final InputStream is, final String password)
 	{
-		try
+		backgroundHandler.post(new Runnable()
 		{
-			final BufferedReader cipherIn = new BufferedReader(new InputStreamReader(is, Constants.UTF_8));
-			final StringBuilder cipherText = new StringBuilder();
-			while (true)
+			@Override
+			public void run()
 			{
-				final String line = cipherIn.readLine();
-				if (line == null)
-					break;
-
-				cipherText.append(line);
-			}
-			cipherIn.close();
+				try
+				{
+					final InputStream plainIn = new BufferedInputStream(Crypto.decryptingInputStream(new BufferedInputStream(is),
+							password.toCharArray()));
 
-			final String plainText = Crypto.decrypt(cipherText.toString(), password.toCharArray());
-			final Reader plainReader = new StringReader(plainText);
+					final List<ECKey> importedKeys;
+					if (WalletBackup.isWalletBackup(plainIn))
+					{
+						importedKeys = WalletBackup.read(plainIn, Constants.NETWORK_PARAMETERS, EnumSet.of(WalletBackup.Section.KEYS)).getKeys();
+					}
+					else
+					{
+						final BufferedReader keyReader = new BufferedReader(new InputStreamReader(plainIn, Constants.UTF_8));
+						importedKeys = new KeyImporter().readKeys(keyReader, Constants.NETWORK_PARAMETERS);
+					}
+					plainIn.close();
 
-			final BufferedReader keyReader = new BufferedReader(plainReader);
-			final List<ECKey> importedKeys = WalletUtils.readKeys(keyReader);
-			keyReader.close();
+					final int numKeysToImport = importedKeys.size();
+					final int numKeysImported = KeyImporter.addKeys(wallet, importedKeys);
 
-			final int numKeysToImport = importedKeys.size();
-			final int numKeysImported = wallet.addKeys(importedKeys);
+					log.info("imported " + numKeysImported + " of " + numKeysToImport + " private keys");
 
-			final AlertDialog.Builder dialog = new AlertDialog.Builder(this);
-			dialog.setInverseBackgroundForced(true);
-			final StringBuilder message = new StringBuilder();
-			if (numKeysImported > 0)
-				message.append(getString(R.string.import_keys_dialog_success_imported, numKeysImported));
-			if (numKeysImported < numKeysToImport)
-			{
-				if (message.length() > 0)
-					message.append('\n');
-				message.append(getString(R.string.import_keys_dialog_success_existing, numKeysToImport - numKeysImported));
-			}
-			if (numKeysImported > 0)
-			{
-				if (message.length() > 0)
-					message.append("\n\n");
-				message.append(getString(R.string.import_keys_dialog_success_reset));
-			}
-			dialog.setMessage(message);
-			if (numKeysImported > 0)
-			{
-				dialog.setPositiveButton(R.string.import_keys_dialog_button_reset_blockchain, new DialogInterface.OnClickListener()
+					handler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							if (destroyed || isFinishing())
+								return;
+
+							showImportResult(numKeysImported, numKeysToImport);
+						}
+					});
+				}
+				catch (final IOException x)
 				{
-					@Override
-					public void onClick(final DialogInterface dialog, final int id)
+					log.info("problem reading private keys", x);
+
+					handler.post(new Runnable()
 					{
-						getWalletApplication().resetBlockchain();
-						finish();
-					}
-				});
-				dialog.setNegativeButton(R.string.button_dismiss, finishListener);
-			}
-			else
-			{
-				dialog.setNeutralButton(R.string.button_dismiss, finishListener);
+						@Override
+						public void run()
+						{
+							if (destroyed || isFinishing())
+								return;
+
+							new AlertDialog.Builder(ImportKeysActivity.this).setInverseBackgroundForced(true)
+									.setIcon(android.R.drawable.ic_dialog_alert).setTitle(R.string.import_export_keys_dialog_failure_title)
+									.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage()))
+									.setNeutralButton(R.string.button_dismiss, finishListener).setOnCancelListener(finishListener).show();
+						}
+					});
+				}
 			}
-			dialog.setOnCancelListener(finishListener);
-			dialog.show();
+		});
+	}
 
-			log.info("imported " + numKeysImported + " of " + numKeysToImport + " private keys");
+	private void showImportResult(final int numKeysImported, final int numKeysToImport)
+	{
+		final AlertDialog.Builder dialog = new AlertDialog.Builder(this);
+		dialog.setInverseBackgroundForced(true);
+		final StringBuilder message = new StringBuilder();
+		if (numKeysImported > 0)
+			message.append(getString(R.string.import_keys_dialog_success_imported, numKeysImported));
+		if (numKeysImported < numKeysToImport)
+		{
+			if (message.length() > 0)
+				message.append('\n');
+			message.append(getString(R.string.import_keys_dialog_success_existing, numKeysToImport - numKeysImported));
 		}
-		catch (final IOException x)
+		if (numKeysImported > 0)
 		{
-			new AlertDialog.Builder(this).setInverseBackgroundForced(true).setIcon(android.R.drawable.ic_dialog_alert)
-					.setTitle(R.string.import_export_keys_dialog_failure_title)
-					.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage()))
-					.setNeutralButton(R.string.button_dismiss, finishListener).setOnCancelListener(finishListener).show();
-
-			log.info("problem reading private keys", x);
+			if (message.length() > 0)
+				message.append("\n\n");
+			message.append(getString(R.string.import_keys_dialog_success_reset));
+		}
+		dialog.setMessage(message);
+		if (numKeysImported > 0)
+		{
+			dialog.setPositiveButton(R.string.import_keys_dialog_button_reset_blockchain, new DialogInterface.OnClickListener()
+			{
+				@Override
+				public void onClick(final DialogInterface dialog, final int id)
+				{
+					getWalletApplication().resetBlockchain();
+					finish();
+				}
+			});
+			dialog.setNegativeButton(R.string.button_dismiss, finishListener);
+		}
+		else
+		{
+			dialog.setNeutralButton(R.string.button_dismiss, finishListener);
 		}
+		dialog.setOnCancelListener(finishListener);
+		dialog.show();
 	}
 
 	private class FinishListener implements DialogInterface.OnClickListener, DialogInterface.OnCancelListener
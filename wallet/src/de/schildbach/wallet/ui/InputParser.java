@@ -87,6 +87,26 @@ public abstract class InputParser
 					error(R.string.input_parser_invalid_auroracoin_uri, input);
 				}
 			}
+			else if (PATTERN_TRANSACTION_PART.matcher(input).matches())
+			{
+				try
+				{
+					final String content = TRANSACTION_PARTS.add(input);
+
+					if (content != null)
+						directTransaction(new Transaction(Constants.NETWORK_PARAMETERS, Qr.decodeBinary(content)));
+					else
+						transactionPart(TRANSACTION_PARTS.getNumPartsReceived(), TRANSACTION_PARTS.getNumParts());
+				}
+				catch (final IOException x)
+				{
+					error(R.string.input_parser_invalid_transaction, x.getMessage());
+				}
+				catch (final ProtocolException x)
+				{
+					error(R.string.input_parser_invalid_transaction, x.getMessage());
+				}
+			}
 			else if (PATTERN_BITCOIN_ADDRESS.matcher(input).matches())
 			{
 				try
@@ -187,6 +207,15 @@ public abstract class InputParser
 
 	protected abstract void error(int messageResId, Object... messageArgs);
 
+	/**
+	 * Called when a part of a multi-part transaction has been scanned, but parts are still missing. Parts are kept
+	 * across parsers, so the remaining parts can be scanned one by one.
+	 */
+	protected void transactionPart(final int numPartsReceived, final int numParts)
+	{
+		error(R.string.input_parser_transaction_part, numPartsReceived, numParts);
+	}
+
 	protected void cannotClassify(@Nonnull final String input)
 	{
 		error(R.string.input_parser_cannot_classify, input);
@@ -205,5 +234,8 @@ public abstract class InputParser
 
 	private static final Pattern PATTERN_BITCOIN_ADDRESS = Pattern.compile("[" + new String(Base58.ALPHABET) + "]{20,40}");
 	private static final Pattern PATTERN_PRIVATE_KEY = Pattern.compile("[T6][" + new String(Base58.ALPHABET) + "]{50,51}");
+	private static final Qr.PartAssembler TRANSACTION_PARTS = new Qr.PartAssembler();
+
+	private static final Pattern PATTERN_TRANSACTION_PART = Pattern.compile("P[0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ$\\*\\+\\-\\.\\/\\:]{10,}");
 	private static final Pattern PATTERN_TRANSACTION = Pattern.compile("[0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ$\\*\\+\\-\\.\\/\\:]{100,}");
 }
@@ -20,6 +20,7 @@ package de.schildbach.wallet.ui;
 import java.math.BigInteger;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.CheckForNull;
 
@@ -35,8 +36,13 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.nfc.NdefMessage;
 import android.nfc.NfcManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
@@ -63,6 +69,7 @@ import com.actionbarsherlock.view.MenuItem;
 import com.actionbarsherlock.widget.ShareActionProvider;
 import com.google.bitcoin.core.Address;
 import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Transaction;
 import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.uri.BitcoinURI;
 
@@ -72,6 +79,7 @@ import de.schildbach.wallet.ExchangeRatesProvider;
 import de.schildbach.wallet.ExchangeRatesProvider.ExchangeRate;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.offline.AcceptBluetoothService;
+import de.schildbach.wallet.pos.InvoiceBook;
 import de.schildbach.wallet_aur.R;
 
 /**
@@ -103,12 +111,28 @@ public final class RequestCoinsFragment extends SherlockFragment
 	private String bluetoothMac;
 	private Intent bluetoothServiceIntent;
 
+	// point of sale mode: each invoice gets an address of its own
+	private boolean posMode;
+	@CheckForNull
+	private InvoiceBook.Invoice invoice;
+
 	private static final int REQUEST_CODE_ENABLE_BLUETOOTH = 0;
 
 	private CurrencyCalculatorLink amountCalculatorLink;
 
+	private HandlerThread backgroundThread;
+	private Handler backgroundHandler;
+	private final Handler handler = new Handler();
+	private final AtomicInteger requestGeneration = new AtomicInteger();
+	// only accessed by the background thread
+	private Bitmap spareQrCodeBitmap;
+
+	private final FrameTimer frameTimer = new FrameTimer("request coins");
+
 	private static final int ID_RATE_LOADER = 0;
 
+	private static final long UPDATE_DELAY_MS = 150;
+
 	private static final Logger log = LoggerFactory.getLogger(RequestCoinsFragment.class);
 
 	private final LoaderCallbacks<Cursor> rateLoaderCallbacks = new LoaderManager.LoaderCallbacks<Cursor>()
@@ -161,6 +185,22 @@ public final class RequestCoinsFragment extends SherlockFragment
 		final String precision = prefs.getString(Constants.PREFS_KEY_BTC_PRECISION, Constants.PREFS_DEFAULT_BTC_PRECISION);
 		btcPrecision = precision.charAt(0) - '0';
 		btcShift = precision.length() == 3 ? precision.charAt(2) - '0' : 0;
+		posMode = prefs.getBoolean(Constants.PREFS_KEY_LABS_POS, false);
+
+		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+		backgroundThread.start();
+		backgroundHandler = new Handler(backgroundThread.getLooper());
+	}
+
+	@Override
+	public void onDestroy()
+	{
+		// nobody is going to show the invoice anymore
+		dropInvoice();
+
+		backgroundThread.getLooper().quit();
+
+		super.onDestroy();
 	}
 
 	@Override
@@ -174,7 +214,9 @@ public final class RequestCoinsFragment extends SherlockFragment
 			@Override
 			public void onClick(final View v)
 			{
-				BitmapFragment.show(getFragmentManager(), qrCodeBitmap);
+				// copy, as the bitmap gets reused for later requests
+				if (qrCodeBitmap != null)
+					BitmapFragment.show(getFragmentManager(), qrCodeBitmap.copy(qrCodeBitmap.getConfig(), false));
 			}
 		});
 
@@ -191,7 +233,7 @@ public final class RequestCoinsFragment extends SherlockFragment
 
 		addressView = (Spinner) view.findViewById(R.id.request_coins_fragment_address);
 		final List<ECKey> keys = new LinkedList<ECKey>();
-		for (final ECKey key : application.getWallet().getKeys())
+		for (final ECKey key : application.getKeyPool().getIssuedKeys())
 			if (!wallet.isKeyRotating(key))
 				keys.add(key);
 		final WalletAddressesAdapter adapter = new WalletAddressesAdapter(activity, wallet, false);
@@ -231,11 +273,18 @@ public final class RequestCoinsFragment extends SherlockFragment
 	{
 		super.onResume();
 
+		frameTimer.attach(getView());
+
 		amountCalculatorLink.setListener(new CurrencyAmountView.Listener()
 		{
 			@Override
 			public void changed()
 			{
+				// a different amount needs a new invoice
+				final BigInteger amount = amountCalculatorLink.getAmount();
+				if (invoice != null && (amount != null ? !amount.equals(invoice.amount) : invoice.amount != null))
+					dropInvoice();
+
 				updateView();
 				updateShareIntent();
 			}
@@ -260,6 +309,7 @@ public final class RequestCoinsFragment extends SherlockFragment
 				if (view == null)
 					return;
 
+				dropInvoice();
 				updateView();
 				updateShareIntent();
 			}
@@ -282,18 +332,27 @@ public final class RequestCoinsFragment extends SherlockFragment
 
 		loaderManager.initLoader(ID_RATE_LOADER, null, rateLoaderCallbacks);
 
+		application.getInvoiceBook().addListener(invoiceListener);
+		checkInvoice();
+
 		final boolean labsBluetoothOfflineTransactions = prefs.getBoolean(Constants.PREFS_KEY_LABS_BLUETOOTH_OFFLINE_TRANSACTIONS, false);
 		if (bluetoothAdapter != null && labsBluetoothOfflineTransactions)
 			maybeInitBluetoothListening();
 
-		updateView();
+		handler.post(generateRequestRunnable);
 	}
 
 	@Override
 	public void onPause()
 	{
+		// drop pending and running generations
+		handler.removeCallbacks(generateRequestRunnable);
+		requestGeneration.incrementAndGet();
+
 		loaderManager.destroyLoader(ID_RATE_LOADER);
 
+		application.getInvoiceBook().removeListener(invoiceListener);
+
 		Nfc.unpublish(nfcManager, activity);
 
 		amountCalculatorLink.setListener(null);
@@ -302,6 +361,9 @@ public final class RequestCoinsFragment extends SherlockFragment
 
 		includeLabelView.setOnCheckedChangeListener(null);
 
+		frameTimer.logAndReset();
+		frameTimer.detach(getView());
+
 		super.onPause();
 	}
 
@@ -338,6 +400,8 @@ public final class RequestCoinsFragment extends SherlockFragment
 	{
 		inflater.inflate(R.menu.request_coins_fragment_options, menu);
 
+		menu.findItem(R.id.request_coins_options_new_invoice).setVisible(posMode);
+
 		final MenuItem shareItem = menu.findItem(R.id.request_coins_options_share);
 		shareActionProvider = (ShareActionProvider) shareItem.getActionProvider();
 
@@ -358,6 +422,10 @@ public final class RequestCoinsFragment extends SherlockFragment
 			case R.id.request_coins_options_local_app:
 				handleLocalApp();
 				return true;
+
+			case R.id.request_coins_options_new_invoice:
+				handleNewInvoice();
+				return true;
 		}
 
 		return super.onOptionsItemSelected(item);
@@ -377,20 +445,178 @@ public final class RequestCoinsFragment extends SherlockFragment
 		activity.finish();
 	}
 
+	private void handleNewInvoice()
+	{
+		dropInvoice();
+
+		final BigInteger amount = amountCalculatorLink.getAmount();
+		final InvoiceBook invoiceBook = application.getInvoiceBook();
+
+		// may need to add a batch of keys to the wallet
+		backgroundHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final InvoiceBook.Invoice invoice = invoiceBook.create(amount, System.currentTimeMillis());
+
+				handler.post(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if (!isResumed())
+						{
+							invoiceBook.cancel(invoice.address);
+							return;
+						}
+
+						RequestCoinsFragment.this.invoice = invoice;
+						updateView();
+						updateShareIntent();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Cancels the current invoice, as the request no longer matches it.
+	 */
+	private void dropInvoice()
+	{
+		if (invoice != null)
+		{
+			application.getInvoiceBook().cancel(invoice.address);
+			invoice = null;
+		}
+	}
+
+	/**
+	 * Catches up on the current invoice, which may have been paid or expired while paused.
+	 */
+	private void checkInvoice()
+	{
+		if (invoice == null)
+			return;
+
+		final InvoiceBook.Invoice current = application.getInvoiceBook().getInvoice(invoice.address);
+		if (current != null && current.state == InvoiceBook.State.OPEN)
+			return;
+
+		invoice = null;
+		if (current != null && current.state == InvoiceBook.State.PAID)
+			activity.toast(R.string.request_coins_fragment_invoice_paid, GenericUtils.formatValue(current.received, btcPrecision, btcShift));
+		updateShareIntent();
+	}
+
+	private final InvoiceBook.Listener invoiceListener = new InvoiceBook.Listener()
+	{
+		@Override
+		public void onInvoicePayment(final InvoiceBook.Invoice paidInvoice, final Transaction tx)
+		{
+			if (paidInvoice.state != InvoiceBook.State.PAID)
+				return;
+
+			handler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if (invoice == null || !invoice.address.equals(paidInvoice.address))
+						return;
+
+					checkInvoice();
+					updateView();
+				}
+			});
+		}
+	};
+
 	private void updateView()
 	{
 		if (!isResumed())
 			return;
 
-		final String request = determineRequestStr(true);
+		frameTimer.changed();
+
+		// coalesce bursts of changes, like typing
+		handler.removeCallbacks(generateRequestRunnable);
+		handler.postDelayed(generateRequestRunnable, UPDATE_DELAY_MS);
+	}
+
+	private final Runnable generateRequestRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			if (!isResumed())
+				return;
+
+			// frames since the last generation, including the one that applied it
+			frameTimer.logAndReset();
 
+			final long start = SystemClock.elapsedRealtime();
+
+			final String request = determineRequestStr(true);
+			final int size = (int) (256 * getResources().getDisplayMetrics().density);
+			final String packageName = activity.getPackageName();
+			final int generation = requestGeneration.incrementAndGet();
+
+			final long prepareMs = SystemClock.elapsedRealtime() - start;
+
+			backgroundHandler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if (generation != requestGeneration.get())
+						return; // superseded
+
+					final long start = SystemClock.elapsedRealtime();
+
+					final Bitmap qrCodeBitmap = Qr.bitmap(request, size, spareQrCodeBitmap);
+					if (qrCodeBitmap == spareQrCodeBitmap)
+						spareQrCodeBitmap = null;
+					final NdefMessage ndefMessage = Nfc.uriMessage(request, packageName);
+
+					final long generateMs = SystemClock.elapsedRealtime() - start;
+
+					handler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							if (generation != requestGeneration.get() || !isResumed())
+							{
+								releaseQrCodeBitmap(qrCodeBitmap);
+								return;
+							}
+
+							final long start = SystemClock.elapsedRealtime();
+
+							frameTimer.changed();
+							applyRequest(qrCodeBitmap, ndefMessage);
+
+							log.debug("request #{} generated: main thread {}ms, background {}ms", new Object[] { generation,
+									prepareMs + SystemClock.elapsedRealtime() - start, generateMs });
+						}
+					});
+				}
+			});
+		}
+	};
+
+	private void applyRequest(final Bitmap qrCodeBitmap, final NdefMessage ndefMessage)
+	{
 		// update qr code
-		final int size = (int) (256 * getResources().getDisplayMetrics().density);
-		qrCodeBitmap = Qr.bitmap(request, size);
+		final Bitmap previousQrCodeBitmap = this.qrCodeBitmap;
+		this.qrCodeBitmap = qrCodeBitmap;
 		qrView.setImageBitmap(qrCodeBitmap);
+		releaseQrCodeBitmap(previousQrCodeBitmap);
 
 		// update ndef message
-		final boolean nfcSuccess = Nfc.publishUri(nfcManager, getActivity(), request);
+		final boolean nfcSuccess = Nfc.publish(nfcManager, activity, ndefMessage);
 
 		// update initiate request message
 		final SpannableStringBuilder initiateText = new SpannableStringBuilder(getString(R.string.request_coins_fragment_initiate_request_qr));
@@ -403,6 +629,22 @@ public final class RequestCoinsFragment extends SherlockFragment
 		bluetoothEnabledView.setVisibility(bluetoothAdapter != null && bluetoothAdapter.isEnabled() && serviceRunning ? View.VISIBLE : View.GONE);
 	}
 
+	private void releaseQrCodeBitmap(@CheckForNull final Bitmap bitmap)
+	{
+		if (bitmap == null)
+			return;
+
+		// hand back for rendering the next request into
+		backgroundHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				spareQrCodeBitmap = bitmap;
+			}
+		});
+	}
+
 	private void updateShareIntent()
 	{
 		// update share intent
@@ -417,8 +659,11 @@ public final class RequestCoinsFragment extends SherlockFragment
 	{
 		final boolean includeLabel = includeLabelView.isChecked();
 
-		final ECKey key = (ECKey) addressView.getSelectedItem();
-		final Address address = key.toAddress(Constants.NETWORK_PARAMETERS);
+		final Address address;
+		if (invoice != null)
+			address = invoice.address;
+		else
+			address = ((ECKey) addressView.getSelectedItem()).toAddress(Constants.NETWORK_PARAMETERS);
 		final String label = includeLabel ? AddressBookProvider.resolveLabel(activity, address.toString()) : null;
 		final BigInteger amount = amountCalculatorLink.getAmount();
 
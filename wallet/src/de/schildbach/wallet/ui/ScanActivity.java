@@ -48,17 +48,14 @@ import android.view.KeyEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
 import com.google.zxing.PlanarYUVLuminanceSource;
-import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
 import com.google.zxing.ResultPoint;
 import com.google.zxing.ResultPointCallback;
-import com.google.zxing.common.HybridBinarizer;
-import com.google.zxing.qrcode.QRCodeReader;
 
 import de.schildbach.wallet.camera.CameraManager;
+import de.schildbach.wallet.camera.FrameDecoder;
 import de.schildbach.wallet_aur.R;
 
 /**
@@ -70,6 +67,9 @@ public final class ScanActivity extends Activity implements SurfaceHolder.Callba
 
 	private static final long VIBRATE_DURATION = 50L;
 	private static final long AUTO_FOCUS_INTERVAL_MS = 2500L;
+	private static final int PREVIEW_BUFFERS = 3;
+	private static final int DECODE_WORKERS = 2;
+	private static final int DECODE_QUEUE = 2;
 
 	private final CameraManager cameraManager = new CameraManager();
 	private ScannerView scannerView;
@@ -77,6 +77,8 @@ public final class ScanActivity extends Activity implements SurfaceHolder.Callba
 	private Vibrator vibrator;
 	private HandlerThread cameraThread;
 	private Handler cameraHandler;
+	// only accessed by the camera thread
+	private FrameDecoder frameDecoder;
 
 	private static final int DIALOG_CAMERA_PROBLEM = 0;
 
@@ -237,7 +239,7 @@ public final class ScanActivity extends Activity implements SurfaceHolder.Callba
 				if (nonContinuousAutoFocus)
 					cameraHandler.post(new AutoFocusRunnable(camera));
 
-				cameraHandler.post(fetchAndDecodeRunnable);
+				startDecoding(framingRectInPreview);
 			}
 			catch (final IOException x)
 			{
@@ -257,6 +259,9 @@ public final class ScanActivity extends Activity implements SurfaceHolder.Callba
 		@Override
 		public void run()
 		{
+			if (frameDecoder != null)
+				frameDecoder.stop();
+
 			cameraManager.close();
 
 			// cancel background thread
@@ -289,75 +294,62 @@ public final class ScanActivity extends Activity implements SurfaceHolder.Callba
 		}
 	}
 
-	private final Runnable fetchAndDecodeRunnable = new Runnable()
+	private void startDecoding(final Rect framingRectInPreview)
 	{
-		private final QRCodeReader reader = new QRCodeReader();
-		private final Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
-
-		@Override
-		public void run()
+		final Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+		hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, new ResultPointCallback()
 		{
-			cameraManager.requestPreviewFrame(new PreviewCallback()
+			@Override
+			public void foundPossibleResultPoint(final ResultPoint dot)
 			{
-				@Override
-				public void onPreviewFrame(final byte[] data, final Camera camera)
+				runOnUiThread(new Runnable()
 				{
-					decode(data);
-				}
-			});
-		}
-
-		private void decode(final byte[] data)
-		{
-			final PlanarYUVLuminanceSource source = cameraManager.buildLuminanceSource(data);
-			final BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
+					@Override
+					public void run()
+					{
+						scannerView.addDot(dot);
+					}
+				});
+			}
+		});
 
-			try
-			{
-				hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, new ResultPointCallback()
+		final FrameDecoder decoder = new FrameDecoder(cameraManager.getCameraResolution().width, framingRectInPreview.left,
+				framingRectInPreview.top, framingRectInPreview.width(), framingRectInPreview.height(), DECODE_WORKERS, DECODE_QUEUE, hints,
+				new FrameDecoder.Listener()
 				{
 					@Override
-					public void foundPossibleResultPoint(final ResultPoint dot)
+					public void onResult(final Result scanResult, final PlanarYUVLuminanceSource source)
 					{
+						final int thumbnailWidth = source.getThumbnailWidth();
+						final int thumbnailHeight = source.getThumbnailHeight();
+						final float thumbnailScaleFactor = (float) thumbnailWidth / source.getWidth();
+
+						final Bitmap thumbnailImage = Bitmap.createBitmap(thumbnailWidth, thumbnailHeight, Bitmap.Config.ARGB_8888);
+						thumbnailImage.setPixels(source.renderThumbnail(), 0, thumbnailWidth, 0, 0, thumbnailWidth, thumbnailHeight);
+
 						runOnUiThread(new Runnable()
 						{
 							@Override
 							public void run()
 							{
-								scannerView.addDot(dot);
+								handleResult(scanResult, thumbnailImage, thumbnailScaleFactor);
 							}
 						});
 					}
 				});
-				final Result scanResult = reader.decode(bitmap, hints);
-
-				final int thumbnailWidth = source.getThumbnailWidth();
-				final int thumbnailHeight = source.getThumbnailHeight();
-				final float thumbnailScaleFactor = (float) thumbnailWidth / source.getWidth();
-
-				final Bitmap thumbnailImage = Bitmap.createBitmap(thumbnailWidth, thumbnailHeight, Bitmap.Config.ARGB_8888);
-				thumbnailImage.setPixels(source.renderThumbnail(), 0, thumbnailWidth, 0, 0, thumbnailWidth, thumbnailHeight);
+		frameDecoder = decoder;
 
-				runOnUiThread(new Runnable()
-				{
-					@Override
-					public void run()
-					{
-						handleResult(scanResult, thumbnailImage, thumbnailScaleFactor);
-					}
-				});
-			}
-			catch (final ReaderException x)
-			{
-				// retry
-				cameraHandler.post(fetchAndDecodeRunnable);
-			}
-			finally
+		cameraManager.startPreviewFrames(new PreviewCallback()
+		{
+			@Override
+			public void onPreviewFrame(final byte[] data, final Camera camera)
 			{
-				reader.reset();
+				// the frame has been copied, so the camera can have the buffer back
+				if (decoder.offer(data))
+					cameraManager.addPreviewBuffer(data);
 			}
-		}
-	};
+		}, PREVIEW_BUFFERS);
+	}
 
 	@Override
 	protected Dialog onCreateDialog(final int id)
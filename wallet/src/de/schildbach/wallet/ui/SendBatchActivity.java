@@ -0,0 +1,443 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.ui;
+
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import com.actionbarsherlock.app.ActionBar;
+import com.actionbarsherlock.view.MenuItem;
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.InsufficientMoneyException;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+
+import de.schildbach.wallet.AddressBookProvider;
+import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.ui.InputParser.StringInputParser;
+import de.schildbach.wallet.util.CoinSelectionStrategy;
+import de.schildbach.wallet.util.GenericUtils;
+import de.schildbach.wallet.util.IntentIntegrator;
+import de.schildbach.wallet.util.IntentResult;
+import de.schildbach.wallet.util.PaymentBatch;
+import de.schildbach.wallet.util.TransactionPlanner;
+import de.schildbach.wallet.util.WalletUtils;
+import de.schildbach.wallet_aur.R;
+
+/**
+ * Pays many recipients at once. Payments are entered as {@code address,amount} lines, pasted or added from the address
+ * book or by scanning, and paid in as few transactions as the standard size limit allows, with one coin selection and
+ * one signing pass.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public final class SendBatchActivity extends AbstractBindServiceActivity
+{
+	private static final int REQUEST_CODE_SCAN = 0;
+
+	private Wallet wallet;
+	private SharedPreferences prefs;
+
+	private EditText paymentsView;
+	private TextView summaryView;
+	private Button goButton;
+
+	private List<TransactionPlanner.Payment> payments = Collections.emptyList();
+
+	private HandlerThread backgroundThread;
+	private Handler backgroundHandler;
+	private final Handler handler = new Handler();
+
+	private static final Logger log = LoggerFactory.getLogger(SendBatchActivity.class);
+
+	@Override
+	protected void onCreate(final Bundle savedInstanceState)
+	{
+		super.onCreate(savedInstanceState);
+
+		wallet = getWalletApplication().getWallet();
+		prefs = PreferenceManager.getDefaultSharedPreferences(this);
+
+		setContentView(R.layout.send_batch_content);
+
+		getWalletApplication().startBlockchainService(false);
+
+		final ActionBar actionBar = getSupportActionBar();
+		actionBar.setDisplayHomeAsUpEnabled(true);
+
+		paymentsView = (EditText) findViewById(R.id.send_batch_payments);
+		summaryView = (TextView) findViewById(R.id.send_batch_summary);
+		goButton = (Button) findViewById(R.id.send_batch_go);
+
+		paymentsView.addTextChangedListener(new TextWatcher()
+		{
+			@Override
+			public void beforeTextChanged(final CharSequence s, final int start, final int count, final int after)
+			{
+			}
+
+			@Override
+			public void onTextChanged(final CharSequence s, final int start, final int before, final int count)
+			{
+			}
+
+			@Override
+			public void afterTextChanged(final Editable s)
+			{
+				updateView();
+			}
+		});
+
+		findViewById(R.id.send_batch_scan).setOnClickListener(new OnClickListener()
+		{
+			@Override
+			public void onClick(final View v)
+			{
+				handleScan();
+			}
+		});
+
+		findViewById(R.id.send_batch_address_book).setOnClickListener(new OnClickListener()
+		{
+			@Override
+			public void onClick(final View v)
+			{
+				handleAddressBook();
+			}
+		});
+
+		goButton.setOnClickListener(new OnClickListener()
+		{
+			@Override
+			public void onClick(final View v)
+			{
+				handleGo();
+			}
+		});
+
+		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+		backgroundThread.start();
+		backgroundHandler = new Handler(backgroundThread.getLooper());
+
+		updateView();
+	}
+
+	@Override
+	protected void onDestroy()
+	{
+		backgroundThread.getLooper().quit();
+
+		super.onDestroy();
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(final MenuItem item)
+	{
+		switch (item.getItemId())
+		{
+			case android.R.id.home:
+				finish();
+				return true;
+		}
+
+		return super.onOptionsItemSelected(item);
+	}
+
+	@Override
+	protected void onActivityResult(final int requestCode, final int resultCode, final Intent intent)
+	{
+		final String input;
+		if (prefs.getString(Constants.PREFS_KEY_QR_SCANNER, "").equals("internal"))
+		{
+			input = requestCode == REQUEST_CODE_SCAN && resultCode == RESULT_OK ? intent.getStringExtra(ScanActivity.INTENT_EXTRA_RESULT) : null;
+		}
+		else
+		{
+			final IntentResult scanResult = IntentIntegrator.parseActivityResult(requestCode, resultCode, intent);
+			input = scanResult != null ? scanResult.getContents() : null;
+		}
+
+		if (input == null)
+			return;
+
+		new StringInputParser(input)
+		{
+			@Override
+			protected void bitcoinRequest(@Nonnull final Address address, @Nullable final String addressLabel, @Nullable final BigInteger amount,
+					@Nullable final String bluetoothMac)
+			{
+				appendLine(address, amount);
+			}
+
+			@Override
+			protected void handlePrivateKey(@Nonnull final ECKey key)
+			{
+				cannotClassify(input);
+			}
+
+			@Override
+			protected void bitcoinClaimRequest(@Nonnull final String httpAddress)
+			{
+				cannotClassify(input);
+			}
+
+			@Override
+			protected void directTransaction(@Nonnull final Transaction transaction)
+			{
+				cannotClassify(input);
+			}
+
+			@Override
+			protected void error(final int messageResId, final Object... messageArgs)
+			{
+				dialog(SendBatchActivity.this, null, R.string.button_scan, messageResId, messageArgs);
+			}
+		}.parse();
+	}
+
+	private void handleScan()
+	{
+		if (prefs.getString(Constants.PREFS_KEY_QR_SCANNER, "").equals("internal"))
+			startActivityForResult(new Intent(this, ScanActivity.class), REQUEST_CODE_SCAN);
+		else
+			new IntentIntegrator(this).initiateScan();
+	}
+
+	private void handleAddressBook()
+	{
+		final Cursor cursor = getContentResolver().query(AddressBookProvider.contentUri(getPackageName()), null, null, null,
+				AddressBookProvider.KEY_LABEL + " COLLATE LOCALIZED ASC");
+		if (cursor == null)
+			return;
+
+		final List<String> addresses = new ArrayList<String>(cursor.getCount());
+		final List<String> labels = new ArrayList<String>(cursor.getCount());
+		try
+		{
+			while (cursor.moveToNext())
+			{
+				addresses.add(cursor.getString(cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_ADDRESS)));
+				labels.add(cursor.getString(cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_LABEL)));
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+
+		final boolean[] checked = new boolean[addresses.size()];
+		new AlertDialog.Builder(this).setTitle(R.string.address_book_activity_title)
+				.setMultiChoiceItems(labels.toArray(new String[labels.size()]), checked, new DialogInterface.OnMultiChoiceClickListener()
+				{
+					@Override
+					public void onClick(final DialogInterface dialog, final int which, final boolean isChecked)
+					{
+						checked[which] = isChecked;
+					}
+				}).setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener()
+				{
+					@Override
+					public void onClick(final DialogInterface dialog, final int which)
+					{
+						// amounts are to be filled in by hand
+						for (int i = 0; i < checked.length; i++)
+							if (checked[i])
+								appendText(addresses.get(i) + ",");
+					}
+				}).setNegativeButton(android.R.string.cancel, null).show();
+	}
+
+	private void appendLine(@Nonnull final Address address, @CheckForNull final BigInteger amount)
+	{
+		appendText(amount != null ? PaymentBatch.line(address, amount) : address + ",");
+	}
+
+	private void appendText(@Nonnull final String line)
+	{
+		final Editable text = paymentsView.getText();
+		if (text.length() > 0 && text.charAt(text.length() - 1) != '\n')
+			text.append('\n');
+		text.append(line);
+	}
+
+	private void updateView()
+	{
+		try
+		{
+			payments = PaymentBatch.parse(paymentsView.getText().toString(), Constants.NETWORK_PARAMETERS, Constants.NETWORK_PARAMETERS
+					.getMaxMoney().longValue());
+			summaryView.setText(getString(R.string.send_batch_summary, payments.size(),
+					GenericUtils.formatValue(PaymentBatch.total(payments), Constants.BTC_MAX_PRECISION, 0)));
+		}
+		catch (final ParseException x)
+		{
+			payments = Collections.emptyList();
+			summaryView.setText(getString(R.string.send_batch_error, x.getErrorOffset(), x.getMessage()));
+		}
+
+		goButton.setEnabled(!payments.isEmpty());
+	}
+
+	private void handleGo()
+	{
+		final List<TransactionPlanner.Payment> payments = this.payments;
+		final TransactionPlanner planner = new TransactionPlanner(Constants.TX_FEE_PER_KB, Constants.MIN_TX_FEE, Constants.CENT.divide(BigInteger
+				.valueOf(10)));
+		final Address changeAddress = WalletUtils.pickOldestKey(wallet).toAddress(Constants.NETWORK_PARAMETERS);
+
+		// the strategy sees the batch as one payment of the total to the first recipient
+		BigInteger total = BigInteger.ZERO;
+		for (final TransactionPlanner.Payment payment : payments)
+			total = total.add(payment.amount);
+		final CoinSelectionStrategy strategy = CoinSelectionStrategy.fromName(prefs.getString(Constants.PREFS_KEY_LABS_COIN_SELECTION, null));
+
+		final List<TransactionPlanner.Plan> plans;
+		try
+		{
+			final List<TransactionOutput> candidates = strategy.candidates(getWalletApplication().getUtxoIndex(), planner, wallet,
+					payments.get(0).to, total, changeAddress);
+			plans = planner.planBatch(wallet, candidates, payments, changeAddress, Transaction.MAX_STANDARD_TX_SIZE);
+		}
+		catch (final InsufficientMoneyException x)
+		{
+			final BigInteger missing = x.missing == null ? BigInteger.ZERO : x.missing;
+			new AlertDialog.Builder(this)
+					.setTitle(R.string.sendcoins_title_insufficientfunds)
+					.setMessage(
+							getString(R.string.sendcoins_insufficient_preamble) + " " + getString(R.string.sendcoins_insufficient_amount_prefix) + " "
+									+ GenericUtils.formatValue(missing, Constants.BTC_MAX_PRECISION, 0) + " "
+									+ getString(R.string.sendcoins_insufficient_amount_suffix)).setPositiveButton(android.R.string.ok, null).show();
+			return;
+		}
+		catch (final IllegalArgumentException x)
+		{
+			longToast(x.getMessage());
+			return;
+		}
+
+		BigInteger fee = BigInteger.ZERO;
+		for (final TransactionPlanner.Plan plan : plans)
+			fee = fee.add(plan.fee);
+
+		new AlertDialog.Builder(this)
+				.setTitle(R.string.send_batch_activity_title)
+				.setMessage(
+						getString(R.string.send_batch_confirm, payments.size(),
+								GenericUtils.formatValue(PaymentBatch.total(payments), Constants.BTC_MAX_PRECISION, 0), plans.size(),
+								GenericUtils.formatValue(fee, Constants.BTC_MAX_PRECISION, 0)))
+				.setPositiveButton(R.string.send_coins_fragment_button_send, new DialogInterface.OnClickListener()
+				{
+					@Override
+					public void onClick(final DialogInterface dialog, final int which)
+					{
+						send(planner, plans);
+					}
+				}).setNegativeButton(android.R.string.cancel, null).show();
+	}
+
+	private void send(@Nonnull final TransactionPlanner planner, @Nonnull final List<TransactionPlanner.Plan> plans)
+	{
+		goButton.setEnabled(false);
+
+		backgroundHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				// sign everything first, so nothing is committed if signing fails
+				final List<Transaction> txs = new ArrayList<Transaction>(plans.size());
+				try
+				{
+					for (final TransactionPlanner.Plan plan : plans)
+						txs.add(planner.complete(plan, wallet).tx);
+				}
+				catch (final ScriptException x)
+				{
+					log.info("problem signing batch", x);
+					failed(R.string.send_coins_error_msg);
+					return;
+				}
+
+				// the plans were made before the confirm dialog, some of their inputs may have been spent meanwhile
+				if (!TransactionPlanner.commitIfUnspent(wallet, txs))
+				{
+					log.info("batch conflicts with a spend committed meanwhile, not sent");
+					failed(R.string.send_batch_conflict);
+					return;
+				}
+
+				for (final Transaction tx : txs)
+					getWalletApplication().broadcastTransaction(tx);
+
+				handler.post(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						longToast(R.string.send_batch_sent, txs.size());
+						finish();
+					}
+				});
+			}
+		});
+	}
+
+	private void failed(final int messageResId)
+	{
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				longToast(messageResId);
+				goButton.setEnabled(!payments.isEmpty());
+			}
+		});
+	}
+}
@@ -83,6 +83,10 @@ public final class SendCoinsActivity extends AbstractBindServiceActivity
 				finish();
 				return true;
 
+			case R.id.send_coins_options_batch:
+				startActivity(new Intent(this, SendBatchActivity.class));
+				return true;
+
 			case R.id.send_coins_options_help:
 				HelpDialogFragment.page(getSupportFragmentManager(), R.string.help_send_coins);
 				return true;
@@ -18,6 +18,7 @@
 package de.schildbach.wallet.ui;
 
 import java.math.BigInteger;
+import java.util.List;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -25,10 +26,8 @@ import javax.annotation.Nullable;
 
 import android.app.AlertDialog;
 import android.util.Log;
-import android.widget.Toast;
 import com.google.bitcoin.core.ECKey;
 import com.google.bitcoin.core.InsufficientMoneyException;
-import com.google.bitcoin.core.TransactionOutput;
 import de.schildbach.wallet.util.IntentIntegratorSupportV4;
 import de.schildbach.wallet.util.IntentResult;
 import org.slf4j.Logger;
@@ -85,6 +84,7 @@ import com.google.bitcoin.core.Sha256Hash;
 import com.google.bitcoin.core.Transaction;
 import com.google.bitcoin.core.TransactionConfidence;
 import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.TransactionOutput;
 import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.core.Wallet.BalanceType;
 import com.google.bitcoin.core.Wallet.SendRequest;
@@ -97,7 +97,9 @@ import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.integration.android.BitcoinIntegration;
 import de.schildbach.wallet.offline.SendBluetoothTask;
 import de.schildbach.wallet.ui.InputParser.StringInputParser;
+import de.schildbach.wallet.util.CoinSelectionStrategy;
 import de.schildbach.wallet.util.GenericUtils;
+import de.schildbach.wallet.util.TransactionPlanner;
 import de.schildbach.wallet.util.WalletUtils;
 import de.schildbach.wallet_aur.R;
 
@@ -886,183 +888,101 @@ public final class SendCoinsFragment extends SherlockFragment
 		}
 	}
 
+	private CoinSelectionStrategy coinSelectionStrategy()
+	{
+		return CoinSelectionStrategy.fromName(prefs.getString(Constants.PREFS_KEY_LABS_COIN_SELECTION, null));
+	}
+
 	private void handleGo()
 	{
 		state = State.PREPARATION;
 		updateView();
 
-		// create spend
-		BigInteger amount = amountCalculatorLink.getAmount();
-        BigInteger origAmount = amount;
-		SendRequest baseSendRequest = SendRequest.to(validatedAddress.address, amount);
-        baseSendRequest.changeAddress = WalletUtils.pickOldestKey(wallet).toAddress(Constants.NETWORK_PARAMETERS);
-        baseSendRequest.emptyWallet = amount.equals(wallet.getBalance(BalanceType.AVAILABLE));
-
-        // Multi-part transaction creation to properly calculate fee
-        Log.i(TAG, "Initial outputs: ");
-        for(TransactionOutput o : baseSendRequest.tx.getOutputs()) {
-            Log.i(TAG, "\t" + o.getValue().toString());
-        }
-        // First, check if we're emptying the wallet
-        if(baseSendRequest.emptyWallet) {
-            // HACK to fix zero fee calculated by bitcoinj in this case
-            // We subtract the minimum TX fee to allow completeTx to correctly
-            // calculate the fee based on the TX size.
-            // NOTE: Emptying is the ONLY case where it is OK to subtract a
-            // higher fee from the
-            Log.i(TAG, "Wallet empty: ");
-            for(TransactionOutput o : baseSendRequest.tx.getOutputs()) {
-                Log.i(TAG, "\t" + o.getValue().toString());
-            }
-            amount = amount.subtract(Constants.MIN_TX_FEE);
-            baseSendRequest = SendRequest.to(validatedAddress.address, amount);
-            Log.i(TAG, "After refactoring: ");
-            for(TransactionOutput o : baseSendRequest.tx.getOutputs()) {
-                Log.i(TAG, "\t" + o.getValue().toString());
-            }
-            // Complete the transaction in order to get the final size
-            try {
-                wallet.completeTx(baseSendRequest);
-            } catch (InsufficientMoneyException e) {
-                // This will happen if the fee needs to be larger than the minimum.
-                // Recalculate and try again.
-                amount = amount.subtract(e.missing);
-                baseSendRequest = SendRequest.to(validatedAddress.address, amount);
-                Log.e(TAG, "Trying tx: ");
-                for(TransactionOutput o : baseSendRequest.tx.getOutputs()) {
-                    Log.i(TAG, "\t" + o.getValue().toString());
-                }
-                try {
-                    wallet.completeTx(baseSendRequest);
-                } catch(InsufficientMoneyException f) {
-                    // We tried - it didn't work.
-                    Log.i(TAG, "Insufficient funds when completing tx: ");
-                    for(TransactionOutput o : baseSendRequest.tx.getOutputs()) {
-                        Log.i(TAG, "\t" + o.getValue().toString());
-                    }
-                    Toast
-                      .makeText(getActivity(), "Unexpected Error: Insufficient Funds when recreating emptying tx. " +
-                                    "Please report this as a bug!", Toast.LENGTH_LONG)
-                      .show();
-                    state = State.INPUT;
-                    updateView();
-                    return;
-                }
-            }
-            final SendRequest dialogSendRequest = baseSendRequest;
-            new AlertDialog.Builder(SendCoinsFragment.this.getActivity())
-                    .setTitle(activity.getString(R.string.sendcoins_fee_required))
-                    .setMessage("A fee of " +
-                            GenericUtils.formatValue(origAmount.subtract(amount), Constants.BTC_MAX_PRECISION, 0) +
-                            " is required to complete this transaction.")
-                    .setCancelable(true)
-                    .setNeutralButton(android.R.string.cancel,
-                            new DialogInterface.OnClickListener() {
-                                public void onClick(DialogInterface dialog, int whichButton) {
-                                    state = State.INPUT;
-                                    updateView();
-                                }
-                            })
-                    .setPositiveButton(android.R.string.ok,
-                            new DialogInterface.OnClickListener() {
-                                public void onClick(DialogInterface dialogInterface, int i) {
-                                    finalizeSend(dialogSendRequest);
-                                }
-                            })
-                    .show();
-        }
-        else {
-            // We're not emptying.
-            try {
-                wallet.completeTx(baseSendRequest);
-            } catch (InsufficientMoneyException e) {
-                Log.i(TAG, "Current TX: " + baseSendRequest.tx.toString());
-                Log.i(TAG, "Insufficient funds when completing tx: ");
-                for(TransactionOutput o : baseSendRequest.tx.getOutputs()) {
-                    Log.i(TAG, "\t" + o.getValue().toString());
-                }
-                // This is likely due to fees, since the wallet checks the value against the wallet
-                // on input field change.  Here's the rub: obviously our wallet doesn't have enough to
-                // pay the whole fee.  We should just let the user know so they can manually adjust
-                // their transaction.
-                BigInteger missing = e.missing == null ? new BigInteger("0") : e.missing;
-                new AlertDialog.Builder(SendCoinsFragment.this.getActivity())
-                        .setTitle(activity.getString(R.string.sendcoins_title_insufficientfunds))
-                        .setMessage(activity.getString(R.string.sendcoins_insufficient_preamble) + " " +
-                                activity.getString(R.string.sendcoins_insufficient_amount_prefix) + " " +
-                                GenericUtils.formatValue(missing, Constants.BTC_MAX_PRECISION, 0) + " " +
-                                activity.getString(R.string.sendcoins_insufficient_amount_suffix) + " " +
-                                activity.getString(R.string.sendcoins_insufficient_instructions))
-                        .setPositiveButton(android.R.string.ok,
-                                new DialogInterface.OnClickListener() {
-                                    public void onClick(DialogInterface dialogInterface, int i) {
-                                        state = State.INPUT;
-                                        updateView();
-                                    }
-                                })
-                        .show();
-                return;
-            }
-            // We have enough money to complete the transaction
-            // Now that the transaction is complete, adjust the outputs so change goes to fee
-            // if < 0.001 LTC.  Otherwise, we would need to add a penalty for the output that is
-            // larger than the output itself, so it costs LESS to just throw it into the fee.
-            for(TransactionOutput o: baseSendRequest.tx.getOutputs()) {
-                if(o.isMine(wallet) &&
-                        o.getValue().compareTo(Constants.CENT.divide(new BigInteger("10"))) < 0) {
-                    Log.i(TAG, "Found a small change output of " + o.getValue() + "; putting in fee.");
-                    // Removing the output means the value will go to fee
-                    baseSendRequest.tx.removeOutput(o);
-                    try {
-                        baseSendRequest.setCompleted(false);
-                        wallet.completeTx(baseSendRequest);
-                    } catch (InsufficientMoneyException e) {
-                        // This should never happen because we're only changing where outputs go
-                        Log.e(TAG, "UNEXPECTED ERROR: InsufficientMoneyException when redirecting outputs!");
-                        Toast
-                                .makeText(getActivity(), "Unexpected Error: Insufficient Funds when moving change to fee.  " +
-                                        "Please report this as a bug!", Toast.LENGTH_LONG)
-                                .show();
-                        state = State.INPUT;
-                        updateView();
-                        return;
-                    }
-                }
-            }
-            Log.i(TAG, "Current TX: " + baseSendRequest.tx.toString());
-            // Inform the user of any extra fees if necessary
-            if(baseSendRequest.fee.compareTo(Constants.MIN_TX_FEE) > 0) {
-                // User can continue or cancel, go to finalizeSend on continue
-                BigInteger difference = baseSendRequest.fee.subtract(Constants.MIN_TX_FEE);
-                final SendRequest dialogSendRequest = baseSendRequest;
-                new AlertDialog.Builder(SendCoinsFragment.this.getActivity())
-                    .setTitle(activity.getString(R.string.sendcoins_fee_required))
-                    .setMessage("An extra fee of " +
-                            GenericUtils.formatValue(difference, Constants.BTC_MAX_PRECISION, 0) +
-                            " is required to complete this transaction.")
-                    .setCancelable(true)
-                    .setNeutralButton(android.R.string.cancel,
-                            new DialogInterface.OnClickListener() {
-                                public void onClick(DialogInterface dialog, int whichButton) {
-                                    state = State.INPUT;
-                                    updateView();
-                                }
-                            })
-                    .setPositiveButton(android.R.string.ok,
-                            new DialogInterface.OnClickListener() {
-                                public void onClick(DialogInterface dialogInterface, int i) {
-                                    finalizeSend(dialogSendRequest);
-                                }
-                            })
-                    .show();
-            }
-            else {
-                Log.i(TAG, "Current TX: " + baseSendRequest.tx.toString());
-                // Default fee - just continue to the confirmation dialog
-                finalizeSend(baseSendRequest);
-            }
-        }
-    }
+		// plan spend, including size based fee and folding of small change into the fee
+		final BigInteger amount = amountCalculatorLink.getAmount();
+		final boolean emptyWallet = amount.equals(wallet.getBalance(BalanceType.AVAILABLE));
+		final Address changeAddress = WalletUtils.pickOldestKey(wallet).toAddress(Constants.NETWORK_PARAMETERS);
+		final TransactionPlanner planner = new TransactionPlanner(Constants.TX_FEE_PER_KB, Constants.MIN_TX_FEE, Constants.CENT.divide(BigInteger
+				.valueOf(10)));
+
+		final TransactionPlanner.Plan plan;
+		try
+		{
+			final List<TransactionOutput> candidates = coinSelectionStrategy().candidates(application.getUtxoIndex(), planner, wallet,
+					validatedAddress.address, amount, changeAddress);
+			plan = planner.plan(wallet, candidates, validatedAddress.address, amount, changeAddress, emptyWallet);
+		}
+		catch (final InsufficientMoneyException x)
+		{
+			Log.i(TAG, "Insufficient funds when planning tx, missing: " + x.missing);
+
+			// This is likely due to fees, since the wallet checks the value against the wallet
+			// on input field change. We should just let the user know so they can manually adjust
+			// their transaction.
+			final BigInteger missing = x.missing == null ? BigInteger.ZERO : x.missing;
+			new AlertDialog.Builder(SendCoinsFragment.this.getActivity())
+					.setTitle(activity.getString(R.string.sendcoins_title_insufficientfunds))
+					.setMessage(activity.getString(R.string.sendcoins_insufficient_preamble) + " " +
+							activity.getString(R.string.sendcoins_insufficient_amount_prefix) + " " +
+							GenericUtils.formatValue(missing, Constants.BTC_MAX_PRECISION, 0) + " " +
+							activity.getString(R.string.sendcoins_insufficient_amount_suffix) + " " +
+							activity.getString(R.string.sendcoins_insufficient_instructions))
+					.setPositiveButton(android.R.string.ok,
+							new DialogInterface.OnClickListener() {
+								public void onClick(DialogInterface dialogInterface, int i) {
+									state = State.INPUT;
+									updateView();
+								}
+							})
+					.show();
+			return;
+		}
+		Log.i(TAG, "Planned tx: " + plan);
+
+		// sign once
+		final SendRequest sendRequest = planner.complete(plan, wallet);
+		Log.i(TAG, "Current TX: " + sendRequest.tx.toString());
+
+		// Inform the user of any fees beyond the minimum fee; when emptying the wallet, the whole fee is
+		// subtracted from the amount
+		final String feeMessage;
+		if (emptyWallet)
+			feeMessage = "A fee of " + GenericUtils.formatValue(plan.fee, Constants.BTC_MAX_PRECISION, 0)
+					+ " is required to complete this transaction.";
+		else if (plan.fee.compareTo(Constants.MIN_TX_FEE) > 0)
+			feeMessage = "An extra fee of " + GenericUtils.formatValue(plan.fee.subtract(Constants.MIN_TX_FEE), Constants.BTC_MAX_PRECISION, 0)
+					+ " is required to complete this transaction.";
+		else
+			feeMessage = null;
+
+		if (feeMessage != null)
+		{
+			// User can continue or cancel, go to finalizeSend on continue
+			new AlertDialog.Builder(SendCoinsFragment.this.getActivity())
+				.setTitle(activity.getString(R.string.sendcoins_fee_required))
+				.setMessage(feeMessage)
+				.setCancelable(true)
+				.setNeutralButton(android.R.string.cancel,
+						new DialogInterface.OnClickListener() {
+							public void onClick(DialogInterface dialog, int whichButton) {
+								state = State.INPUT;
+								updateView();
+							}
+						})
+				.setPositiveButton(android.R.string.ok,
+						new DialogInterface.OnClickListener() {
+							public void onClick(DialogInterface dialogInterface, int i) {
+								finalizeSend(sendRequest);
+							}
+						})
+				.show();
+		}
+		else
+		{
+			// Default fee - just continue to the confirmation dialog
+			finalizeSend(sendRequest);
+		}
+	}
 
     private void finalizeSend(SendRequest baseSendRequest) {
         // Lock in sendRequest
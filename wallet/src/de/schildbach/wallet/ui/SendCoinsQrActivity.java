@@ -31,6 +31,7 @@ import com.google.bitcoin.core.Transaction;
 
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.ui.InputParser.StringInputParser;
+import de.schildbach.wallet_aur.R;
 
 import javax.annotation.Nonnull;
 
@@ -81,6 +82,14 @@ public final class SendCoinsQrActivity extends AbstractOnDemandServiceActivity
 					SendCoinsQrActivity.this.finish();
 				}
 
+				@Override
+				protected void transactionPart(final int numPartsReceived, final int numParts)
+				{
+					toast(getString(R.string.input_parser_transaction_part, numPartsReceived, numParts));
+
+					startActivityForResult(new Intent(SendCoinsQrActivity.this, ScanActivity.class), REQUEST_CODE_SCAN);
+				}
+
 				@Override
 				protected void error(final int messageResId, final Object... messageArgs)
 				{
@@ -34,6 +34,7 @@ import com.google.bitcoin.core.*;
 import de.schildbach.wallet.AddressBookProvider;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
+import de.schildbach.wallet.service.BroadcastQueue;
 import de.schildbach.wallet.util.*;
 import de.schildbach.wallet_aur.R;
 
@@ -231,6 +232,23 @@ public final class TransactionFragment extends SherlockFragment
 		else
 			viewStatus.setText(R.string.transaction_fragment_status_unknown);
 
+		final BroadcastQueue.Entry broadcast = ((WalletApplication) activity.getApplication()).getBroadcastQueue().getEntry(tx.getHash());
+		view.findViewById(R.id.transaction_fragment_broadcast_row).setVisibility(broadcast != null ? View.VISIBLE : View.GONE);
+		if (broadcast != null)
+		{
+			final TextView viewBroadcast = (TextView) view.findViewById(R.id.transaction_fragment_broadcast);
+			if (broadcast.state == BroadcastQueue.State.QUEUED && broadcast.numAttempts == 0)
+				viewBroadcast.setText(R.string.transaction_fragment_broadcast_queued);
+			else if (broadcast.state != BroadcastQueue.State.CONFIRMED)
+				viewBroadcast.setText(getString(R.string.transaction_fragment_broadcast_sending, broadcast.numSentTo, broadcast.numAttempts,
+						broadcast.numRelays, broadcast.relayTarget));
+			else if (broadcast.getTimeToRelayTarget() >= 0)
+				viewBroadcast.setText(getString(R.string.transaction_fragment_broadcast_relayed, broadcast.numRelays,
+						broadcast.getTimeToRelayTarget() / 1000f, broadcast.getTimeToFirstRelay() / 1000f));
+			else
+				viewBroadcast.setText(getString(R.string.transaction_fragment_broadcast_confirmed, broadcast.numAttempts));
+		}
+
         final TextView viewConfirmations = (TextView)view.findViewById(R.id.transaction_fragment_confirmations);
         viewConfirmations.setText(String.valueOf(confidence.getDepthInBlocks()));
 
@@ -340,8 +340,11 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 			private void handleShowQr()
 			{
 				final int size = (int) (384 * getResources().getDisplayMetrics().density);
-				final Bitmap qrCodeBitmap = Qr.bitmap(Qr.encodeBinary(serializedTx), size);
-				BitmapFragment.show(getFragmentManager(), qrCodeBitmap);
+				final List<String> parts = Qr.encodeBinaryParts(serializedTx, Qr.MAX_PART_LENGTH);
+				final Bitmap[] qrCodeBitmaps = new Bitmap[parts.size()];
+				for (int i = 0; i < qrCodeBitmaps.length; i++)
+					qrCodeBitmaps[i] = Qr.bitmap(parts.get(i), size);
+				BitmapFragment.show(getFragmentManager(), qrCodeBitmaps);
 			}
 		});
 	}
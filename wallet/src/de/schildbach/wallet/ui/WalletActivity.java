@@ -17,16 +17,18 @@
 
 package de.schildbach.wallet.ui;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.math.BigInteger;
 import java.net.SocketException;
@@ -37,16 +39,18 @@ import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.TreeMap;
 
 import javax.annotation.Nonnull;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.content.ContentValues;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.content.DialogInterface.OnClickListener;
@@ -55,12 +59,16 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.database.Cursor;
 import android.content.res.Resources;
 import android.net.Uri;
 import android.nfc.NdefMessage;
 import android.nfc.NfcAdapter;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.preference.PreferenceManager;
 import android.text.format.DateUtils;
 import android.util.Log;
@@ -81,6 +89,8 @@ import com.google.bitcoin.core.Wallet;
 import de.schildbach.wallet.util.GenericUtils;
 import de.schildbach.wallet.util.IntentIntegrator;
 import de.schildbach.wallet.util.IntentResult;
+import de.schildbach.wallet.util.KeyImporter;
+import de.schildbach.wallet.AddressBookProvider;
 import de.schildbach.wallet.Constants;
 import de.schildbach.wallet.WalletApplication;
 import de.schildbach.wallet.ui.InputParser.BinaryInputParser;
@@ -89,6 +99,7 @@ import de.schildbach.wallet.util.CrashReporter;
 import de.schildbach.wallet.util.Crypto;
 import de.schildbach.wallet.util.HttpGetThread;
 import de.schildbach.wallet.util.Nfc;
+import de.schildbach.wallet.util.WalletBackup;
 import de.schildbach.wallet.util.WalletUtils;
 import de.schildbach.wallet_aur.R;
 
@@ -105,6 +116,11 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 	private Wallet wallet;
 	private SharedPreferences prefs;
 
+	private HandlerThread backgroundThread;
+	private Handler backgroundHandler;
+	private final Handler handler = new Handler();
+	private boolean destroyed = false;
+
 	private static final int REQUEST_CODE_SCAN = 0;
 
 	@Override
@@ -116,6 +132,10 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 		wallet = application.getWallet();
 		prefs = PreferenceManager.getDefaultSharedPreferences(this);
 
+		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+		backgroundThread.start();
+		backgroundHandler = new Handler(backgroundThread.getLooper());
+
 		setContentView(R.layout.wallet_content);
 
 		if (savedInstanceState == null)
@@ -138,6 +158,17 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 		log.info("WalletActivity, onresume done");
 	}
 
+	@Override
+	protected void onDestroy()
+	{
+		// a restore still running finishes in the background, but doesn't report to this instance anymore
+		destroyed = true;
+		handler.removeCallbacksAndMessages(null);
+		backgroundThread.getLooper().quit();
+
+		super.onDestroy();
+	}
+
 	@Override
 	protected void onNewIntent(final Intent intent)
 	{
@@ -581,6 +612,7 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 	{
 		final View view = getLayoutInflater().inflate(R.layout.export_keys_dialog, null);
 		final EditText passwordView = (EditText) view.findViewById(R.id.export_keys_dialog_password);
+		final CheckBox textFormatView = (CheckBox) view.findViewById(R.id.export_keys_dialog_text_format);
 
 		final AlertDialog.Builder builder = new AlertDialog.Builder(this);
 		builder.setInverseBackgroundForced(true);
@@ -594,7 +626,7 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 				final String password = passwordView.getText().toString().trim();
 				passwordView.setText(null); // get rid of it asap
 
-				exportPrivateKeys(password);
+				exportPrivateKeys(password, textFormatView.isChecked());
 			}
 		});
 		builder.setNegativeButton(R.string.button_cancel, new OnClickListener()
@@ -880,102 +912,155 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 
 	private void importPrivateKeys(@Nonnull final File file, @Nonnull final String password)
 	{
-		try
+		backgroundHandler.post(new Runnable()
 		{
-			final Reader plainReader;
-			if (Crypto.OPENSSL_FILE_FILTER.accept(file))
+			@Override
+			public void run()
 			{
-				final BufferedReader cipherIn = new BufferedReader(new InputStreamReader(new FileInputStream(file), Constants.UTF_8));
-				final StringBuilder cipherText = new StringBuilder();
-				while (true)
+				try
 				{
-					final String line = cipherIn.readLine();
-					if (line == null)
-						break;
+					final InputStream plainIn;
+					if (Crypto.OPENSSL_FILE_FILTER.accept(file))
+					{
+						plainIn = new BufferedInputStream(Crypto.decryptingInputStream(new BufferedInputStream(new FileInputStream(file)),
+								password.toCharArray()));
+					}
+					else if (WalletUtils.KEYS_FILE_FILTER.accept(file))
+					{
+						plainIn = new BufferedInputStream(new FileInputStream(file));
+					}
+					else
+					{
+						throw new IllegalStateException(file.getAbsolutePath());
+					}
 
-					cipherText.append(line);
-				}
-				cipherIn.close();
+					final List<ECKey> importedKeys;
+					final Map<String, String> notes;
+					final Map<String, String> labels;
+					if (WalletBackup.isWalletBackup(plainIn))
+					{
+						// transactions are recovered from the block chain after the reset
+						final WalletBackup backup = WalletBackup.read(plainIn, Constants.NETWORK_PARAMETERS,
+								EnumSet.of(WalletBackup.Section.KEYS, WalletBackup.Section.NOTES, WalletBackup.Section.LABELS));
+						importedKeys = backup.getKeys();
+						notes = backup.getNotes();
+						labels = backup.getLabels();
+					}
+					else
+					{
+						final Reader plainReader = new InputStreamReader(plainIn, Constants.UTF_8);
+						final BufferedReader keyReader = new BufferedReader(plainReader);
+						importedKeys = new KeyImporter().readKeys(keyReader, Constants.NETWORK_PARAMETERS);
+						final BufferedReader noteReader = new BufferedReader(plainReader);
+						notes = WalletUtils.readNotes(noteReader);
+						labels = Collections.emptyMap();
+					}
+					plainIn.close();
 
-				final String plainText = Crypto.decrypt(cipherText.toString(), password.toCharArray());
-				plainReader = new StringReader(plainText);
-			}
-			else if (WalletUtils.KEYS_FILE_FILTER.accept(file))
-			{
-				plainReader = new InputStreamReader(new FileInputStream(file), Constants.UTF_8);
-			}
-			else
-			{
-				throw new IllegalStateException(file.getAbsolutePath());
-			}
+					final int numKeysToImport = importedKeys.size();
+					final int numKeysImported = KeyImporter.addKeys(wallet, importedKeys);
 
-			final BufferedReader keyReader = new BufferedReader(plainReader);
-			final List<ECKey> importedKeys = WalletUtils.readKeys(keyReader);
-            final BufferedReader noteReader = new BufferedReader(plainReader);
-            final Map<String, String> notes = WalletUtils.readNotes(noteReader);
+					// write each transaction note to shared preferences
+					final SharedPreferences.Editor editor = prefs.edit();
+					for (final Map.Entry<String, String> entry : notes.entrySet())
+						editor.putString(entry.getKey(), entry.getValue());
+					editor.commit();
 
-			final int numKeysToImport = importedKeys.size();
-			final int numKeysImported = wallet.addKeys(importedKeys);
+					// restore labels, but keep the ones already in the address book
+					for (final Map.Entry<String, String> entry : labels.entrySet())
+					{
+						if (AddressBookProvider.resolveLabel(WalletActivity.this, entry.getKey()) == null)
+						{
+							final ContentValues values = new ContentValues();
+							values.put(AddressBookProvider.KEY_LABEL, entry.getValue());
+							getContentResolver().insert(
+									AddressBookProvider.contentUri(getPackageName()).buildUpon().appendPath(entry.getKey()).build(), values);
+						}
+					}
 
-            // Write each transaction to shared preferences
-            Iterator it = notes.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry pair = (Map.Entry)it.next();
-                prefs.edit().putString((String)pair.getKey(), (String)pair.getValue()).commit();
-                it.remove(); // avoids a ConcurrentModificationException
-            }
+					log.info("imported " + numKeysImported + " of " + numKeysToImport + " private keys");
 
-			final AlertDialog.Builder dialog = new AlertDialog.Builder(this);
-			dialog.setInverseBackgroundForced(true);
-			final StringBuilder message = new StringBuilder();
-			if (numKeysImported > 0)
-				message.append(getString(R.string.import_keys_dialog_success_imported, numKeysImported));
-			if (numKeysImported < numKeysToImport)
-			{
-				if (message.length() > 0)
-					message.append('\n');
-				message.append(getString(R.string.import_keys_dialog_success_existing, numKeysToImport - numKeysImported));
-			}
-			if (numKeysImported > 0)
-			{
-				if (message.length() > 0)
-					message.append("\n\n");
-				message.append(getString(R.string.import_keys_dialog_success_reset));
-			}
-			dialog.setMessage(message);
-			if (numKeysImported > 0)
-			{
-				dialog.setPositiveButton(R.string.import_keys_dialog_button_reset_blockchain, new DialogInterface.OnClickListener()
+					handler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							if (destroyed || isFinishing())
+								return;
+
+							showImportResult(numKeysImported, numKeysToImport);
+						}
+					});
+				}
+				catch (final IOException x)
 				{
-					@Override
-					public void onClick(final DialogInterface dialog, final int id)
+					log.info("problem reading private keys", x);
+
+					handler.post(new Runnable()
 					{
-						getWalletApplication().resetBlockchain();
-						finish();
-					}
-				});
-				dialog.setNegativeButton(R.string.button_dismiss, null);
-			}
-			else
-			{
-				dialog.setNeutralButton(R.string.button_dismiss, null);
+						@Override
+						public void run()
+						{
+							if (destroyed || isFinishing())
+								return;
+
+							new AlertDialog.Builder(WalletActivity.this).setInverseBackgroundForced(true)
+									.setIcon(android.R.drawable.ic_dialog_alert).setTitle(R.string.import_export_keys_dialog_failure_title)
+									.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage()))
+									.setNeutralButton(R.string.button_dismiss, null).show();
+						}
+					});
+				}
 			}
-			dialog.show();
+		});
+	}
 
-			log.info("imported " + numKeysImported + " of " + numKeysToImport + " private keys");
+	private void showImportResult(final int numKeysImported, final int numKeysToImport)
+	{
+		final AlertDialog.Builder dialog = new AlertDialog.Builder(this);
+		dialog.setInverseBackgroundForced(true);
+		final StringBuilder message = new StringBuilder();
+		if (numKeysImported > 0)
+			message.append(getString(R.string.import_keys_dialog_success_imported, numKeysImported));
+		if (numKeysImported < numKeysToImport)
+		{
+			if (message.length() > 0)
+				message.append('\n');
+			message.append(getString(R.string.import_keys_dialog_success_existing, numKeysToImport - numKeysImported));
 		}
-		catch (final IOException x)
+		if (numKeysImported > 0)
 		{
-			new AlertDialog.Builder(this).setInverseBackgroundForced(true).setIcon(android.R.drawable.ic_dialog_alert)
-					.setTitle(R.string.import_export_keys_dialog_failure_title)
-					.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage())).setNeutralButton(R.string.button_dismiss, null)
-					.show();
-
-			log.info("problem reading private keys", x);
+			if (message.length() > 0)
+				message.append("\n\n");
+			message.append(getString(R.string.import_keys_dialog_success_reset));
+		}
+		dialog.setMessage(message);
+		if (numKeysImported > 0)
+		{
+			dialog.setPositiveButton(R.string.import_keys_dialog_button_reset_blockchain, new DialogInterface.OnClickListener()
+			{
+				@Override
+				public void onClick(final DialogInterface dialog, final int id)
+				{
+					getWalletApplication().resetBlockchain();
+					finish();
+				}
+			});
+			dialog.setNegativeButton(R.string.button_dismiss, null);
+		}
+		else
+		{
+			dialog.setNeutralButton(R.string.button_dismiss, null);
 		}
+		dialog.show();
 	}
 
-	private void exportPrivateKeys(@Nonnull final String password)
+	/**
+	 * @param textFormat
+	 *            write the keys in the text format of older versions instead of a {@link WalletBackup}, as older
+	 *            versions cannot restore the latter
+	 */
+	private void exportPrivateKeys(@Nonnull final String password, final boolean textFormat)
 	{
 		try
 		{
@@ -992,16 +1077,43 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 				if (!wallet.isKeyRotating(key))
 					keys.add(key);
 
-			final StringWriter plainOut = new StringWriter();
-			WalletUtils.writeKeys(plainOut, keys);
-			plainOut.close();
-			final String plainText = plainOut.toString();
-
-			final String cipherText = Crypto.encrypt(plainText, password.toCharArray());
+			// the text format holds keys only
+			final Map<String, String> notes = new TreeMap<String, String>();
+			if (!textFormat)
+				for (final Map.Entry<String, ?> entry : prefs.getAll().entrySet())
+					if (entry.getKey().startsWith("tx:") && entry.getValue() instanceof String)
+						notes.put(entry.getKey(), (String) entry.getValue());
+
+			final Map<String, String> labels = new TreeMap<String, String>();
+			final Cursor cursor = !textFormat ? getContentResolver().query(AddressBookProvider.contentUri(getPackageName()), null, null,
+					null, null) : null;
+			if (cursor != null)
+			{
+				try
+				{
+					while (cursor.moveToNext())
+						labels.put(cursor.getString(cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_ADDRESS)),
+								cursor.getString(cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_LABEL)));
+				}
+				finally
+				{
+					cursor.close();
+				}
+			}
 
-			final Writer cipherOut = new OutputStreamWriter(new FileOutputStream(file), Constants.UTF_8);
-			cipherOut.write(cipherText);
-			cipherOut.close();
+			final OutputStream plainOut = Crypto.encryptingOutputStream(new BufferedOutputStream(new FileOutputStream(file)),
+					password.toCharArray());
+			if (textFormat)
+			{
+				final Writer plainWriter = new OutputStreamWriter(plainOut, Constants.UTF_8);
+				WalletUtils.writeKeys(plainWriter, keys);
+				plainWriter.close();
+			}
+			else
+			{
+				WalletBackup.write(plainOut, keys, notes, labels, wallet.getTransactions(false));
+				plainOut.close();
+			}
 
 			final AlertDialog.Builder dialog = new AlertDialog.Builder(this).setInverseBackgroundForced(true).setMessage(
 					getString(R.string.export_keys_dialog_success, file));
@@ -1016,7 +1128,7 @@ public final class WalletActivity extends AbstractOnDemandServiceActivity
 			dialog.setNegativeButton(R.string.button_dismiss, null);
 			dialog.show();
 
-			log.info("exported " + keys.size() + " private keys to " + file);
+			log.info("exported " + keys.size() + " private keys, " + notes.size() + " notes and " + labels.size() + " labels to " + file);
 		}
 		catch (final IOException x)
 		{
@@ -156,6 +156,9 @@ public final class WalletAddressesFragment extends SherlockListFragment
 					{
 						application.addNewKeyToWallet();
 
+						// usually issued from the key pool, without the wallet announcing a new key
+						walletListener.onKeysAdded(null, null);
+
 						activity.updateFragments();
 					}
 				}).setNegativeButton(R.string.button_cancel, null).show();
@@ -291,7 +294,7 @@ public final class WalletAddressesFragment extends SherlockListFragment
 		@Override
 		public void onKeysAdded(final Wallet w, final List<ECKey> keysAdded)
 		{
-			final List<ECKey> keys = wallet.getKeys();
+			final List<ECKey> keys = application.getKeyPool().getIssuedKeys();
 
 			Collections.sort(keys, new Comparator<ECKey>()
 			{
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+
+import javax.annotation.Nonnull;
+
+import de.schildbach.wallet.Constants;
+
+/**
+ * Reusable, allocation free version of {@link GenericUtils#formatValue(BigInteger, String, String, int, int)}. The
+ * formatted value is kept in an internal buffer exposed as {@link CharSequence}, together with the end of its
+ * significant part as used for {@link WalletUtils#formatSignificant(android.text.Editable, android.text.style.RelativeSizeSpan)}.
+ *
+ * Instances are not thread safe; typically every view keeps its own.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public final class AmountFormatter implements CharSequence
+{
+	private static final int SIGNIFICANT_DECIMALS = 2;
+
+	private char[] chars = new char[32];
+	private int length = 0;
+	private int significantEnd = 0;
+
+	public AmountFormatter format(final long value, final int precision, final int shift)
+	{
+		return format(value, "", "-", precision, shift);
+	}
+
+	public AmountFormatter format(final long value, @Nonnull final String plusSign, @Nonnull final String minusSign, final int precision,
+			final int shift)
+	{
+		long longValue = value;
+
+		final String sign = longValue < 0 ? minusSign : plusSign;
+
+		final long unit;
+		final int maxDecimals;
+		if (shift == 0)
+		{
+			if (precision == 2)
+				longValue = longValue - longValue % 1000000 + longValue % 1000000 / 500000 * 1000000;
+			else if (precision == 4)
+				longValue = longValue - longValue % 10000 + longValue % 10000 / 5000 * 10000;
+			else if (precision == 6)
+				longValue = longValue - longValue % 100 + longValue % 100 / 50 * 100;
+			else if (precision == 8)
+				;
+			else
+				throw new IllegalArgumentException("cannot handle precision/shift: " + precision + "/" + shift);
+
+			unit = AmountMath.ONE_BTC;
+			maxDecimals = 8;
+		}
+		else if (shift == 3)
+		{
+			if (precision == 2)
+				longValue = longValue - longValue % 1000 + longValue % 1000 / 500 * 1000;
+			else if (precision == 4)
+				longValue = longValue - longValue % 10 + longValue % 10 / 5 * 10;
+			else if (precision == 5)
+				;
+			else
+				throw new IllegalArgumentException("cannot handle precision/shift: " + precision + "/" + shift);
+
+			unit = AmountMath.ONE_BTC / 1000;
+			maxDecimals = 5;
+		}
+		else
+		{
+			throw new IllegalArgumentException("cannot handle shift: " + shift);
+		}
+
+		final long absValue = Math.abs(longValue);
+		if (absValue < 0)
+		{
+			// Long.MIN_VALUE, which has no absolute value; not worth a fast path
+			setChars(GenericUtils.formatValue(BigInteger.valueOf(value), plusSign, minusSign, precision, shift));
+			return this;
+		}
+
+		final long coins = absValue / unit;
+		long fraction = absValue % unit;
+
+		// strip trailing zeros in steps of two decimals, like the format patterns of formatValue do
+		int numDecimals = maxDecimals;
+		long divisor = 1;
+		while (numDecimals > SIGNIFICANT_DECIMALS)
+		{
+			final int step = (numDecimals - SIGNIFICANT_DECIMALS) % 2 == 1 ? 1 : 2;
+			final long stepDivisor = step == 2 ? 100 : 10;
+			if (fraction % (divisor * stepDivisor) != 0)
+				break;
+			divisor *= stepDivisor;
+			numDecimals -= step;
+		}
+		fraction /= divisor;
+
+		final int signLength = sign.length();
+		final int numCoinDigits = numDigits(coins);
+		ensureCapacity(signLength + numCoinDigits + 1 + numDecimals);
+
+		sign.getChars(0, signLength, chars, 0);
+		int end = signLength + numCoinDigits;
+		writeDigits(coins, signLength, end);
+		chars[end++] = '.';
+		writeDigits(fraction, end, end + numDecimals);
+		length = end + numDecimals;
+
+		// the significant part spans the sign, coins and first decimals, unless it already ends within the sign
+		final int signSignificantEnd = significantEnd(sign);
+		if (signSignificantEnd == signLength && sign.indexOf('.') == -1)
+			significantEnd = end + SIGNIFICANT_DECIMALS;
+		else
+			significantEnd = significantEnd(this);
+
+		return this;
+	}
+
+	/**
+	 * @return end of the significant part of the formatted value
+	 */
+	public int significantEnd()
+	{
+		return significantEnd;
+	}
+
+	/**
+	 * Finds the end of the significant part of a formatted amount: an optional sign followed by a thin space, the coins
+	 * and the first two decimals.
+	 */
+	public static int significantEnd(@Nonnull final CharSequence s)
+	{
+		final int len = s.length();
+		int i = 0;
+
+		if (len >= 2 && (s.charAt(0) == '-' || s.charAt(0) == '+') && s.charAt(1) == Constants.CHAR_THIN_SPACE)
+			i = 2;
+
+		while (i < len && isDigit(s.charAt(i)))
+			i++;
+
+		if (i < len && s.charAt(i) == '.')
+		{
+			i++;
+			for (int d = 0; d < SIGNIFICANT_DECIMALS && i < len && isDigit(s.charAt(i)); d++)
+				i++;
+		}
+
+		return i;
+	}
+
+	@Override
+	public int length()
+	{
+		return length;
+	}
+
+	@Override
+	public char charAt(final int index)
+	{
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+
+		return chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence(final int start, final int end)
+	{
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+
+		return new String(chars, start, end - start);
+	}
+
+	@Override
+	public String toString()
+	{
+		return new String(chars, 0, length);
+	}
+
+	private void setChars(@Nonnull final String s)
+	{
+		ensureCapacity(s.length());
+		s.getChars(0, s.length(), chars, 0);
+		length = s.length();
+		significantEnd = significantEnd(this);
+	}
+
+	private void writeDigits(long value, final int start, int end)
+	{
+		while (end > start)
+		{
+			chars[--end] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	private void ensureCapacity(final int capacity)
+	{
+		if (chars.length < capacity)
+			chars = new char[Math.max(capacity, chars.length * 2)];
+	}
+
+	private static int numDigits(long value)
+	{
+		int numDigits = 1;
+		while (value >= 10)
+		{
+			value /= 10;
+			numDigits++;
+		}
+		return numDigits;
+	}
+
+	private static boolean isDigit(final char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Fixed-point amount arithmetic on plain longs holding nanocoins (8 decimals), for the paths that run on every keystroke
+ * or rate update. Nothing here allocates; results and rounding are the same as the BigInteger/BigDecimal based code in
+ * {@link GenericUtils} and {@link WalletUtils}, except that results not representable as a long throw
+ * {@link ArithmeticException}.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class AmountMath
+{
+	public static final long ONE_BTC = 100000000l;
+
+	private static final int BTC_DECIMALS = 8;
+
+	/**
+	 * Parses a decimal string the same way as {@code new BigDecimal(value).movePointRight(8 - shift).toBigIntegerExact()}
+	 * followed by the range checks of {@link GenericUtils#toNanoCoins(String, int)}.
+	 *
+	 * @throws NumberFormatException
+	 *             if the string is not a valid decimal number
+	 * @throws ArithmeticException
+	 *             if the value has more decimals than nanocoins can represent
+	 * @throws IllegalArgumentException
+	 *             if the value is negative or larger than maxValue
+	 */
+	public static long parseNanoCoins(@Nonnull final String value, final int shift, final long maxValue)
+	{
+		final int len = value.length();
+		int i = 0;
+
+		// sign
+		boolean negative = false;
+		if (i < len && (value.charAt(i) == '-' || value.charAt(i) == '+'))
+		{
+			negative = value.charAt(i) == '-';
+			i++;
+		}
+
+		// significand, first pass: validate and count digits
+		final int significandStart = i;
+		int numDigits = 0;
+		int numFractionDigits = 0;
+		boolean point = false;
+		for (; i < len; i++)
+		{
+			final char c = value.charAt(i);
+			if (c == '.')
+			{
+				if (point)
+					throw new NumberFormatException("Character array contains more than one decimal point.");
+				point = true;
+			}
+			else if (Character.digit(c, 10) >= 0)
+			{
+				numDigits++;
+				if (point)
+					numFractionDigits++;
+			}
+			else
+			{
+				break;
+			}
+		}
+		final int significandEnd = i;
+		if (numDigits == 0)
+			throw new NumberFormatException("No digits found.");
+
+		// exponent
+		long exponent = 0;
+		if (i < len)
+		{
+			final char e = value.charAt(i++);
+			if (e != 'e' && e != 'E')
+				throw new NumberFormatException("Character " + e + " is neither a decimal digit number, decimal point, nor \"e\" notation exponential mark.");
+
+			boolean negativeExponent = false;
+			if (i < len && (value.charAt(i) == '-' || value.charAt(i) == '+'))
+			{
+				negativeExponent = value.charAt(i) == '-';
+				i++;
+			}
+			if (i == len)
+				throw new NumberFormatException("No exponent digits.");
+
+			for (; i < len; i++)
+			{
+				final int digit = Character.digit(value.charAt(i), 10);
+				if (digit < 0)
+					throw new NumberFormatException("Exponent contains non-digit character.");
+				exponent = exponent * 10 + digit;
+				if (exponent > (long) Integer.MAX_VALUE + 1)
+					throw new NumberFormatException("Exponent overflow.");
+			}
+			if (negativeExponent)
+				exponent = -exponent;
+			if (exponent > Integer.MAX_VALUE || exponent < Integer.MIN_VALUE)
+				throw new NumberFormatException("Exponent overflow.");
+		}
+		if (numFractionDigits - exponent > Integer.MAX_VALUE || numFractionDigits - exponent < Integer.MIN_VALUE)
+			throw new NumberFormatException("Scale out of range.");
+
+		// significand, second pass: accumulate digits with non-negative decimal power, check the rest are zero
+		final long lastDigitPower = exponent - numFractionDigits + BTC_DECIMALS - shift;
+		long accumulator = 0;
+		boolean tooLarge = false;
+		boolean inexact = false;
+		int digitIndex = 0;
+		for (i = significandStart; i < significandEnd; i++)
+		{
+			final int digit = Character.digit(value.charAt(i), 10);
+			if (digit < 0)
+				continue; // decimal point
+
+			final long power = lastDigitPower + (numDigits - 1 - digitIndex++);
+			if (power >= 0)
+			{
+				if (!tooLarge)
+				{
+					if (accumulator > (maxValue - digit) / 10)
+						tooLarge = true;
+					else
+						accumulator = accumulator * 10 + digit;
+				}
+			}
+			else if (digit != 0)
+			{
+				inexact = true;
+				break;
+			}
+		}
+
+		if (inexact)
+			throw new ArithmeticException("Rounding necessary");
+
+		if (!tooLarge && accumulator != 0)
+		{
+			for (long power = lastDigitPower; power > 0; power--)
+			{
+				if (accumulator > maxValue / 10)
+				{
+					tooLarge = true;
+					break;
+				}
+				accumulator *= 10;
+			}
+		}
+
+		if (negative && (accumulator != 0 || tooLarge))
+			throw new IllegalArgumentException("negative amount: " + value);
+		if (tooLarge || accumulator > maxValue)
+			throw new IllegalArgumentException("amount too large: " + value);
+
+		return accumulator;
+	}
+
+	/**
+	 * Same as {@code btcValue * rate / ONE_BTC} in BigInteger arithmetic, truncating towards zero.
+	 */
+	public static long localValue(final long btcValue, final long rate)
+	{
+		if (btcValue == Long.MIN_VALUE || rate == Long.MIN_VALUE)
+			throw new ArithmeticException("long overflow");
+
+		final long a = Math.abs(btcValue);
+		final long b = Math.abs(rate);
+
+		// a * b / 1e8 = a1 * b + a0 * b1 + a0 * b0 / 1e8, with a = a1 * 1e8 + a0 and b = b1 * 1e8 + b0
+		final long a1 = a / ONE_BTC, a0 = a % ONE_BTC;
+		final long b1 = b / ONE_BTC, b0 = b % ONE_BTC;
+		final long result = addExact(addExact(multiplyExact(a1, b), multiplyExact(a0, b1)), a0 * b0 / ONE_BTC);
+
+		return (btcValue < 0) != (rate < 0) ? -result : result;
+	}
+
+	/**
+	 * Same as {@code localValue * ONE_BTC / rate} in BigInteger arithmetic, truncating towards zero.
+	 */
+	public static long btcValue(final long localValue, final long rate)
+	{
+		if (rate == 0)
+			throw new ArithmeticException("BigInteger divide by zero");
+		if (localValue == Long.MIN_VALUE || rate == Long.MIN_VALUE)
+			throw new ArithmeticException("long overflow");
+
+		final long a = Math.abs(localValue);
+		final long b = Math.abs(rate);
+
+		// common case, product fits
+		if (a <= Long.MAX_VALUE / ONE_BTC)
+		{
+			final long result = a * ONE_BTC / b;
+			return (localValue < 0) != (rate < 0) ? -result : result;
+		}
+
+		// a * 1e8 / b = q * 1e8 + r * 1e8 / b, with a = q * b + r; the latter term is long divided digit by digit
+		final long q = a / b;
+		long r = a % b;
+		long fraction = 0;
+		for (int d = 0; d < BTC_DECIMALS; d++)
+		{
+			// r * 10 = digit * b + r', computed without ever exceeding b
+			int digit = 0;
+			long r10 = 0;
+			for (int k = 0; k < 10; k++)
+			{
+				if (r10 >= b - r)
+				{
+					r10 -= b - r;
+					digit++;
+				}
+				else
+				{
+					r10 += r;
+				}
+			}
+			r = r10;
+			fraction = fraction * 10 + digit;
+		}
+		final long result = addExact(multiplyExact(q, ONE_BTC), fraction);
+
+		return (localValue < 0) != (rate < 0) ? -result : result;
+	}
+
+	private static long multiplyExact(final long a, final long b)
+	{
+		final long result = a * b;
+		if (((Math.abs(a) | Math.abs(b)) >>> 31 != 0) && ((b != 0 && result / b != a) || (a == Long.MIN_VALUE && b == -1)))
+			throw new ArithmeticException("long overflow");
+		return result;
+	}
+
+	private static long addExact(final long a, final long b)
+	{
+		final long result = a + b;
+		if (((a ^ result) & (b ^ result)) < 0)
+			throw new ArithmeticException("long overflow");
+		return result;
+	}
+}
@@ -16,20 +16,32 @@
 
 package de.schildbach.wallet.util;
 
-import java.nio.charset.Charset;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 
 import javax.annotation.Nonnull;
 
 /**
- * Base43, derived from bitcoinj Base58
+ * Base43, derived from bitcoinj Base58. Leading zero bytes are encoded as leading '0' digits, the rest as a big
+ * endian number.
+ * 
+ * The number is converted in limbs: while encoding, four input bytes at a time are multiplied into limbs of five
+ * Base43 digits; while decoding, five digits at a time are multiplied into limbs of four bytes. Input is consumed
+ * front to back, so it can come from a stream.
+ * 
+ * Each chunk is still multiplied into every limb, so conversion remains quadratic in the length, like converting digit
+ * by digit; limbs only take about a twentieth of the steps. Subquadratic conversion would need divide and conquer over
+ * fast multiplication, which doesn't pay off for payloads that fit into QR codes.
  * 
  * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
  */
 public class Base43
 {
-	private static final char[] ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ$*+-./:".toCharArray();
+	static final char[] ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ$*+-./:".toCharArray();
 
-	private static final int[] INDEXES = new int[128];
+	static final int[] INDEXES = new int[128];
 	static
 	{
 		for (int i = 0; i < INDEXES.length; i++)
@@ -39,128 +51,322 @@ public class Base43
 			INDEXES[ALPHABET[i]] = i;
 	}
 
-	public static String encode(@Nonnull byte[] input)
+	private static final int DIGITS_PER_LIMB = 5;
+	private static final long DIGIT_LIMB_BASE = 43 * 43 * 43 * 43 * 43;
+	private static final int BYTES_PER_LIMB = 4;
+	private static final long BYTE_LIMB_BASE = 1l << 32;
+
+	public static String encode(@Nonnull final byte[] input)
 	{
-		if (input.length == 0)
-			return "";
+		final char[] output = new char[maxEncodedLength(input.length)];
+		final int length = encode(input, 0, input.length, output, 0);
 
-		input = copyOfRange(input, 0, input.length);
+		return new String(output, 0, length);
+	}
+
+	/**
+	 * Encodes into the given buffer, which must have room for {@link #maxEncodedLength(int)} characters.
+	 * 
+	 * @return number of characters written
+	 */
+	public static int encode(@Nonnull final byte[] input, final int offset, final int length, @Nonnull final char[] output,
+			final int outputOffset)
+	{
+		final int end = offset + length;
 
-		// Count leading zeroes.
 		int zeroCount = 0;
-		while (zeroCount < input.length && input[zeroCount] == 0)
+		while (zeroCount < length && input[offset + zeroCount] == 0)
 			++zeroCount;
 
-		// The actual encoding.
-		final byte[] temp = new byte[input.length * 2];
-		int j = temp.length;
-
-		int startAt = zeroCount;
-		while (startAt < input.length)
+		final Limbs number = new Limbs(maxEncodedLength(length - zeroCount) / DIGITS_PER_LIMB + 1);
+		int i = offset + zeroCount;
+		// first chunk takes the odd bytes, so all following chunks are full limbs
+		int chunkLength = (end - i) % BYTES_PER_LIMB;
+		if (chunkLength == 0)
+			chunkLength = BYTES_PER_LIMB;
+		while (i < end)
 		{
-			byte mod = divmod43(input, startAt);
-			if (input[startAt] == 0)
-				++startAt;
-			temp[--j] = (byte) ALPHABET[mod];
+			long chunk = 0;
+			for (int j = 0; j < chunkLength; j++)
+				chunk = (chunk << 8) | (input[i++] & 0xff);
+			number.multiplyAdd(1l << (8 * chunkLength), chunk, DIGIT_LIMB_BASE);
+			chunkLength = BYTES_PER_LIMB;
 		}
 
-		// Strip extra '1' if there are some after decoding.
-		while (j < temp.length && temp[j] == ALPHABET[0])
-			++j;
-
-		// Add as many leading '1' as there were leading zeros.
-		while (--zeroCount >= 0)
-			temp[--j] = (byte) ALPHABET[0];
-
-		final byte[] output = copyOfRange(temp, j, temp.length);
+		int j = outputOffset;
+		for (int k = 0; k < zeroCount; k++)
+			output[j++] = ALPHABET[0];
 
-		return new String(output, Charset.forName("US-ASCII"));
+		return j + number.toDigits(output, j) - outputOffset;
 	}
 
-	public static byte[] decode(@Nonnull final String input) throws IllegalArgumentException
+	/**
+	 * Encodes the stream until its end. As the most significant digits depend on all input, nothing is appended before
+	 * the end of the stream. Doesn't close the stream.
+	 */
+	public static void encode(@Nonnull final InputStream input, @Nonnull final Appendable output) throws IOException
 	{
-		if (input.length() == 0)
-			return new byte[0];
+		final Limbs number = new Limbs(16);
+		final byte[] buf = new byte[4096];
+		int zeroCount = 0;
+		boolean leading = true;
+		long chunk = 0;
+		int chunkLength = 0;
 
-		final byte[] input43 = new byte[input.length()];
-		// Transform the String to a base43 byte sequence
-		for (int i = 0; i < input.length(); ++i)
+		int read;
+		while (-1 != (read = input.read(buf)))
 		{
-			final char c = input.charAt(i);
+			for (int i = 0; i < read; i++)
+			{
+				final int b = buf[i] & 0xff;
+				if (leading && b == 0)
+				{
+					zeroCount++;
+					continue;
+				}
+				leading = false;
+
+				chunk = (chunk << 8) | b;
+				if (++chunkLength == BYTES_PER_LIMB)
+				{
+					number.multiplyAdd(BYTE_LIMB_BASE, chunk, DIGIT_LIMB_BASE);
+					chunk = 0;
+					chunkLength = 0;
+				}
+			}
+		}
+		if (chunkLength > 0)
+			number.multiplyAdd(1l << (8 * chunkLength), chunk, DIGIT_LIMB_BASE);
 
-			int digit43 = -1;
+		final char[] digits = new char[number.size * DIGITS_PER_LIMB];
+		final int length = number.toDigits(digits, 0);
 
-			if (c >= 0 && c < 128)
-				digit43 = INDEXES[c];
+		for (int i = 0; i < zeroCount; i++)
+			output.append(ALPHABET[0]);
+		for (int i = 0; i < length; i++)
+			output.append(digits[i]);
+	}
 
-			if (digit43 < 0)
-				throw new IllegalArgumentException("Illegal character " + c + " at " + i);
+	public static byte[] decode(@Nonnull final String input) throws IllegalArgumentException
+	{
+		final byte[] output = new byte[maxDecodedLength(input.length())];
+		final int length = decode(input, 0, input.length(), output, 0);
 
-			input43[i] = (byte) digit43;
-		}
+		return copyOfRange(output, 0, length);
+	}
+
+	/**
+	 * Decodes into the given buffer, which must have room for {@link #maxDecodedLength(int)} bytes.
+	 * 
+	 * @return number of bytes written
+	 */
+	public static int decode(@Nonnull final CharSequence input, final int offset, final int length, @Nonnull final byte[] output,
+			final int outputOffset) throws IllegalArgumentException
+	{
+		final int end = offset + length;
 
-		// Count leading zeroes
 		int zeroCount = 0;
-		while (zeroCount < input43.length && input43[zeroCount] == 0)
+		while (zeroCount < length && input.charAt(offset + zeroCount) == ALPHABET[0])
 			++zeroCount;
 
-		// The encoding
-		final byte[] temp = new byte[input.length()];
-		int j = temp.length;
-
-		int startAt = zeroCount;
-		while (startAt < input43.length)
+		// log(43) / log(256) = 0.67828...
+		final Limbs number = new Limbs((int) ((length - zeroCount) * 6783l / 10000) / BYTES_PER_LIMB + 1);
+		int i = offset + zeroCount;
+		// first chunk takes the odd digits, so all following chunks are full limbs
+		int chunkLength = (end - i) % DIGITS_PER_LIMB;
+		if (chunkLength == 0)
+			chunkLength = DIGITS_PER_LIMB;
+		while (i < end)
 		{
-			byte mod = divmod256(input43, startAt);
-			if (input43[startAt] == 0)
-				++startAt;
-
-			temp[--j] = mod;
+			long chunk = 0;
+			long multiplier = 1;
+			for (int j = 0; j < chunkLength; j++)
+			{
+				chunk = chunk * 43 + digit(input.charAt(i), i - offset);
+				multiplier *= 43;
+				i++;
+			}
+			number.multiplyAdd(multiplier, chunk, BYTE_LIMB_BASE);
+			chunkLength = DIGITS_PER_LIMB;
 		}
 
-		// Do no add extra leading zeroes, move j to first non null byte.
-		while (j < temp.length && temp[j] == 0)
-			++j;
+		int j = outputOffset;
+		for (int k = 0; k < zeroCount; k++)
+			output[j++] = 0;
 
-		return copyOfRange(temp, j - zeroCount, temp.length);
+		return j + number.toBytes(output, j) - outputOffset;
 	}
 
-	//
-	// number -> number / 43, returns number % 43
-	//
-	private static byte divmod43(final byte[] number, final int startAt)
+	/**
+	 * Decodes the reader until its end. As the most significant bytes depend on all input, nothing is written before
+	 * the end of the input. Doesn't close the reader or the stream.
+	 */
+	public static void decode(@Nonnull final Reader input, @Nonnull final OutputStream output) throws IOException, IllegalArgumentException
 	{
-		int remainder = 0;
-		for (int i = startAt; i < number.length; i++)
+		final Limbs number = new Limbs(16);
+		final char[] buf = new char[4096];
+		int position = 0;
+		int zeroCount = 0;
+		boolean leading = true;
+		long chunk = 0;
+		long multiplier = 1;
+
+		int read;
+		while (-1 != (read = input.read(buf)))
 		{
-			final int digit256 = (int) number[i] & 0xFF;
-			final int temp = remainder * 256 + digit256;
+			for (int i = 0; i < read; i++, position++)
+			{
+				final char c = buf[i];
+				if (leading && c == ALPHABET[0])
+				{
+					zeroCount++;
+					continue;
+				}
+				leading = false;
+
+				chunk = chunk * 43 + digit(c, position);
+				multiplier *= 43;
+				if (multiplier == DIGIT_LIMB_BASE)
+				{
+					number.multiplyAdd(DIGIT_LIMB_BASE, chunk, BYTE_LIMB_BASE);
+					chunk = 0;
+					multiplier = 1;
+				}
+			}
+		}
+		if (multiplier > 1)
+			number.multiplyAdd(multiplier, chunk, BYTE_LIMB_BASE);
 
-			number[i] = (byte) (temp / 43);
+		final byte[] bytes = new byte[number.size * BYTES_PER_LIMB];
+		final int length = number.toBytes(bytes, 0);
 
-			remainder = temp % 43;
-		}
+		for (int i = 0; i < zeroCount; i++)
+			output.write(0);
+		output.write(bytes, 0, length);
+	}
+
+	/**
+	 * @return upper bound of the number of characters the given number of bytes encode to
+	 */
+	public static int maxEncodedLength(final int numBytes)
+	{
+		// log(256) / log(43) = 1.47431...
+		return (int) (numBytes * 14744l / 10000) + 1;
+	}
+
+	/**
+	 * @return upper bound of the number of bytes the given number of characters decode to, which is one per character
+	 *         as each leading '0' decodes to a zero byte
+	 */
+	public static int maxDecodedLength(final int numChars)
+	{
+		return numChars;
+	}
+
+	private static int digit(final char c, final int position)
+	{
+		final int digit43 = c < 128 ? INDEXES[c] : -1;
+		if (digit43 < 0)
+			throw new IllegalArgumentException("Illegal character " + c + " at " + position);
 
-		return (byte) remainder;
+		return digit43;
 	}
 
-	//
-	// number -> number / 256, returns number % 256
-	//
-	private static byte divmod256(final byte[] number43, final int startAt)
+	/**
+	 * Unsigned number in limbs of a base, least significant limb first.
+	 */
+	private static final class Limbs
 	{
-		int remainder = 0;
-		for (int i = startAt; i < number43.length; i++)
+		private long[] limbs;
+		private int size = 0;
+
+		public Limbs(final int capacity)
 		{
-			final int digit58 = (int) number43[i] & 0xFF;
-			final int temp = remainder * 43 + digit58;
+			limbs = new long[Math.max(capacity, 1)];
+		}
 
-			number43[i] = (byte) (temp / 256);
+		/**
+		 * number = number * multiplier + addend, both below 2^32
+		 */
+		public void multiplyAdd(final long multiplier, final long addend, final long base)
+		{
+			long carry = addend;
+			for (int i = 0; i < size; i++)
+			{
+				final long t = limbs[i] * multiplier + carry;
+				limbs[i] = t % base;
+				carry = t / base;
+			}
+
+			while (carry != 0)
+			{
+				if (size == limbs.length)
+				{
+					final long[] grown = new long[limbs.length * 2];
+					System.arraycopy(limbs, 0, grown, 0, size);
+					limbs = grown;
+				}
+				limbs[size++] = carry % base;
+				carry /= base;
+			}
+		}
 
-			remainder = temp % 256;
+		/**
+		 * Writes the digits of a number in limbs of {@link #DIGIT_LIMB_BASE}, without leading zeros.
+		 * 
+		 * @return number of digits written
+		 */
+		public int toDigits(final char[] output, final int offset)
+		{
+			if (size == 0)
+				return 0;
+
+			int j = offset;
+			final char[] limbDigits = new char[DIGITS_PER_LIMB];
+			for (int i = size - 1; i >= 0; i--)
+			{
+				long limb = limbs[i];
+				for (int k = DIGITS_PER_LIMB - 1; k >= 0; k--)
+				{
+					limbDigits[k] = ALPHABET[(int) (limb % 43)];
+					limb /= 43;
+				}
+
+				int k = 0;
+				if (i == size - 1)
+					while (limbDigits[k] == ALPHABET[0])
+						k++;
+				while (k < DIGITS_PER_LIMB)
+					output[j++] = limbDigits[k++];
+			}
+
+			return j - offset;
 		}
 
-		return (byte) remainder;
+		/**
+		 * Writes the bytes of a number in limbs of {@link #BYTE_LIMB_BASE}, without leading zeros.
+		 * 
+		 * @return number of bytes written
+		 */
+		public int toBytes(final byte[] output, final int offset)
+		{
+			if (size == 0)
+				return 0;
+
+			int j = offset;
+			for (int i = size - 1; i >= 0; i--)
+			{
+				final long limb = limbs[i];
+				int shift = 8 * (BYTES_PER_LIMB - 1);
+				if (i == size - 1)
+					while ((limb >>> shift) == 0)
+						shift -= 8;
+				for (; shift >= 0; shift -= 8)
+					output[j++] = (byte) (limb >>> shift);
+			}
+
+			return j - offset;
+		}
 	}
 
 	private static byte[] copyOfRange(final byte[] source, final int from, final int to)
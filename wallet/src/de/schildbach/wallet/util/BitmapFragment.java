@@ -23,6 +23,8 @@ import android.app.Activity;
 import android.app.Dialog;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Parcelable;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.app.FragmentManager;
 import android.view.View;
@@ -37,26 +39,41 @@ public class BitmapFragment extends DialogFragment
 {
 	private static final String FRAGMENT_TAG = BitmapFragment.class.getName();
 
-	private static final String KEY_BITMAP = "bitmap";
+	private static final String KEY_BITMAPS = "bitmaps";
+
+	private static final long CYCLE_INTERVAL_MS = 1000;
 
 	public static void show(final FragmentManager fm, @Nonnull final Bitmap bitmap)
 	{
-		final DialogFragment newFragment = instance(bitmap);
+		show(fm, new Bitmap[] { bitmap });
+	}
+
+	/**
+	 * Shows the bitmaps one after another in a loop, like the parts of a QR code sequence.
+	 */
+	public static void show(final FragmentManager fm, @Nonnull final Bitmap[] bitmaps)
+	{
+		final DialogFragment newFragment = instance(bitmaps);
 		newFragment.show(fm, FRAGMENT_TAG);
 	}
 
-	private static BitmapFragment instance(@Nonnull final Bitmap bitmap)
+	private static BitmapFragment instance(@Nonnull final Bitmap[] bitmaps)
 	{
 		final BitmapFragment fragment = new BitmapFragment();
 
 		final Bundle args = new Bundle();
-		args.putParcelable(KEY_BITMAP, bitmap);
+		args.putParcelableArray(KEY_BITMAPS, bitmaps);
 		fragment.setArguments(args);
 
 		return fragment;
 	}
 
 	private Activity activity;
+	private ImageView imageView;
+	private Parcelable[] bitmaps;
+	private int index = 0;
+
+	private final Handler handler = new Handler();
 
 	@Override
 	public void onAttach(final Activity activity)
@@ -69,15 +86,15 @@ public class BitmapFragment extends DialogFragment
 	@Override
 	public Dialog onCreateDialog(final Bundle savedInstanceState)
 	{
-		final Bitmap bitmap = (Bitmap) getArguments().getParcelable(KEY_BITMAP);
+		bitmaps = getArguments().getParcelableArray(KEY_BITMAPS);
 
 		final Dialog dialog = new Dialog(activity);
 		dialog.requestWindowFeature(Window.FEATURE_NO_TITLE);
 		dialog.setContentView(R.layout.bitmap_dialog);
 		dialog.setCanceledOnTouchOutside(true);
 
-		final ImageView imageView = (ImageView) dialog.findViewById(R.id.bitmap_dialog_image);
-		imageView.setImageBitmap(bitmap);
+		imageView = (ImageView) dialog.findViewById(R.id.bitmap_dialog_image);
+		imageView.setImageBitmap((Bitmap) bitmaps[index]);
 		imageView.setOnClickListener(new View.OnClickListener()
 		{
 			@Override
@@ -89,4 +106,33 @@ public class BitmapFragment extends DialogFragment
 
 		return dialog;
 	}
+
+	@Override
+	public void onResume()
+	{
+		super.onResume();
+
+		if (bitmaps.length > 1)
+			handler.postDelayed(cycleRunnable, CYCLE_INTERVAL_MS);
+	}
+
+	@Override
+	public void onPause()
+	{
+		handler.removeCallbacks(cycleRunnable);
+
+		super.onPause();
+	}
+
+	private final Runnable cycleRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			index = (index + 1) % bitmaps.length;
+			imageView.setImageBitmap((Bitmap) bitmaps[index]);
+
+			handler.postDelayed(this, CYCLE_INTERVAL_MS);
+		}
+	};
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+
+/**
+ * Orders the spendable outputs of a {@link UtxoIndex} for {@link TransactionPlanner#plan}, which takes candidates
+ * in order until amount and fee are covered. Every strategy returns all spendable outputs, so emptying the wallet works
+ * with any of them.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public enum CoinSelectionStrategy
+{
+	/**
+	 * Same order as bitcoinj's default coin selector, which prefers coin depth (depth times value).
+	 */
+	DEFAULT
+	{
+		@Override
+		public List<TransactionOutput> candidates(final UtxoIndex index, final TransactionPlanner planner, final Wallet wallet, final Address to,
+				final BigInteger amount, final Address changeAddress)
+		{
+			return index.byDefaultOrder();
+		}
+	},
+
+	/**
+	 * Largest outputs first, for the smallest possible transaction.
+	 */
+	MIN_INPUTS
+	{
+		@Override
+		public List<TransactionOutput> candidates(final UtxoIndex index, final TransactionPlanner planner, final Wallet wallet, final Address to,
+				final BigInteger amount, final Address changeAddress)
+		{
+			return index.byValue();
+		}
+	},
+
+	/**
+	 * The smallest output that pays on its own, so the fee is the one of a single input transaction while large
+	 * outputs stay intact. Falls back to largest outputs first.
+	 */
+	MIN_FEE
+	{
+		@Override
+		public List<TransactionOutput> candidates(final UtxoIndex index, final TransactionPlanner planner, final Wallet wallet, final Address to,
+				final BigInteger amount, final Address changeAddress)
+		{
+			final List<TransactionOutput> byValue = index.byValue();
+			final TransactionOutput single = planner.smallestCovering(wallet, byValue, to, changeAddress, amount.longValue());
+			if (single == null)
+				return byValue;
+
+			final List<TransactionOutput> candidates = new ArrayList<TransactionOutput>(byValue.size());
+			candidates.add(single);
+			for (final TransactionOutput output : byValue)
+				if (output != single)
+					candidates.add(output);
+			return candidates;
+		}
+	},
+
+	/**
+	 * Spends up to {@link #MAX_DUST_INPUTS} outputs below {@link #DUST_VALUE} along with the payment, smallest first,
+	 * then continues with the largest outputs.
+	 */
+	CONSOLIDATE_DUST
+	{
+		@Override
+		public List<TransactionOutput> candidates(final UtxoIndex index, final TransactionPlanner planner, final Wallet wallet, final Address to,
+				final BigInteger amount, final Address changeAddress)
+		{
+			final List<TransactionOutput> byValue = index.byValue();
+			final List<TransactionOutput> candidates = new ArrayList<TransactionOutput>(byValue.size());
+
+			for (int i = byValue.size() - 1; i >= 0 && candidates.size() < MAX_DUST_INPUTS; i--)
+			{
+				final TransactionOutput output = byValue.get(i);
+				if (output.getValue().longValue() >= DUST_VALUE)
+					break;
+				candidates.add(output);
+			}
+
+			final int numDust = candidates.size();
+			for (int i = 0; i < byValue.size() - numDust; i++)
+				candidates.add(byValue.get(i));
+
+			return candidates;
+		}
+	},
+
+	/**
+	 * A set of outputs that matches amount and fee exactly enough to need no change output, found by branch and bound.
+	 * Falls back to largest outputs first.
+	 */
+	BRANCH_AND_BOUND
+	{
+		@Override
+		public List<TransactionOutput> candidates(final UtxoIndex index, final TransactionPlanner planner, final Wallet wallet, final Address to,
+				final BigInteger amount, final Address changeAddress)
+		{
+			final List<TransactionOutput> byValue = index.byValue();
+			final List<TransactionOutput> match = planner.exactMatch(wallet, byValue, to, amount.longValue());
+			if (match == null)
+				return byValue;
+
+			final Set<TransactionOutput> matched = new HashSet<TransactionOutput>(match);
+			final List<TransactionOutput> candidates = new ArrayList<TransactionOutput>(byValue.size());
+			candidates.addAll(match);
+			for (final TransactionOutput output : byValue)
+				if (!matched.contains(output))
+					candidates.add(output);
+			return candidates;
+		}
+	};
+
+	public static final long DUST_VALUE = 1000000l;
+	public static final int MAX_DUST_INPUTS = 50;
+
+	/**
+	 * @return the strategy of that name, or {@link #DEFAULT} for no or an unknown name
+	 */
+	public static CoinSelectionStrategy fromName(@Nullable final String name)
+	{
+		if (name == null)
+			return DEFAULT;
+
+		try
+		{
+			return valueOf(name);
+		}
+		catch (final IllegalArgumentException x)
+		{
+			return DEFAULT;
+		}
+	}
+
+	/**
+	 * @return all spendable outputs of the index, in the order they should be spent
+	 */
+	public abstract List<TransactionOutput> candidates(@Nonnull UtxoIndex index, @Nonnull TransactionPlanner planner, @Nonnull Wallet wallet,
+			@Nonnull Address to, @Nonnull BigInteger amount, @Nonnull Address changeAddress);
+}
@@ -20,9 +20,13 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.nio.charset.Charset;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 import javax.annotation.Nonnull;
 
@@ -33,12 +37,15 @@ import org.spongycastle.crypto.InvalidCipherTextException;
 import org.spongycastle.crypto.PBEParametersGenerator;
 import org.spongycastle.crypto.engines.AESFastEngine;
 import org.spongycastle.crypto.generators.OpenSSLPBEParametersGenerator;
+import org.spongycastle.crypto.io.CipherInputStream;
+import org.spongycastle.crypto.io.CipherOutputStream;
 import org.spongycastle.crypto.modes.CBCBlockCipher;
 import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.ParametersWithIV;
 
 import android.util.Base64;
-import de.schildbach.wallet.Constants;
+import android.util.Base64InputStream;
+import android.util.Base64OutputStream;
 
 /**
  * This class encrypts and decrypts a string in a manner that is compatible with OpenSSL.
@@ -50,6 +57,9 @@ import de.schildbach.wallet.Constants;
  * 
  * substitute your password for "aTestPassword" or remove the "-pass" parameter to be prompted.
  * 
+ * For large amounts of data, {@link #encryptingOutputStream} and {@link #decryptingInputStream} produce and consume the
+ * same format in constant memory.
+ * 
  * @author jim
  * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
  */
@@ -75,6 +85,8 @@ public class Crypto
 	 */
 	private static final int SALT_LENGTH = 8;
 
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	/**
 	 * OpenSSL salted prefix text.
 	 */
@@ -83,13 +95,13 @@ public class Crypto
 	/**
 	 * OpenSSL salted prefix bytes - also used as magic number for encrypted key file.
 	 */
-	private static final byte[] OPENSSL_SALTED_BYTES = OPENSSL_SALTED_TEXT.getBytes(Constants.UTF_8);
+	private static final byte[] OPENSSL_SALTED_BYTES = OPENSSL_SALTED_TEXT.getBytes(UTF_8);
 
 	/**
 	 * Magic text that appears at the beginning of every OpenSSL encrypted file. Used in identifying encrypted key
 	 * files.
 	 */
-	private static final String OPENSSL_MAGIC_TEXT = new String(encodeBase64(Crypto.OPENSSL_SALTED_BYTES), Constants.UTF_8).substring(0,
+	private static final String OPENSSL_MAGIC_TEXT = new String(encodeBase64(Crypto.OPENSSL_SALTED_BYTES), UTF_8).substring(0,
 			Crypto.NUMBER_OF_CHARACTERS_TO_MATCH_IN_OPENSSL_MAGIC_TEXT);
 
 	private static final int NUMBER_OF_CHARACTERS_TO_MATCH_IN_OPENSSL_MAGIC_TEXT = 10;
@@ -127,14 +139,14 @@ public class Crypto
 	 */
 	public static String encrypt(@Nonnull final String plainText, @Nonnull final char[] password) throws IOException
 	{
-		final byte[] plainTextAsBytes = plainText.getBytes(Constants.UTF_8);
+		final byte[] plainTextAsBytes = plainText.getBytes(UTF_8);
 
 		final byte[] encryptedBytes = encrypt(plainTextAsBytes, password);
 
 		// OpenSSL prefixes the salt bytes + encryptedBytes with Salted___ and then base64 encodes it
 		final byte[] encryptedBytesPlusSaltedText = concat(OPENSSL_SALTED_BYTES, encryptedBytes);
 
-		return new String(encodeBase64(encryptedBytesPlusSaltedText), Constants.UTF_8);
+		return new String(encodeBase64(encryptedBytesPlusSaltedText), UTF_8);
 	}
 
 	/**
@@ -178,6 +190,63 @@ public class Crypto
 		}
 	}
 
+	/**
+	 * Password based encryption using AES - CBC 256 bits, in the format of {@link #encrypt(String, char[])}. Closing the
+	 * returned stream writes the final block and closes the underlying stream.
+	 * 
+	 * @param out
+	 *            stream the Base64 encoded cipher text is written to
+	 * @param password
+	 *            The password to use for encryption
+	 * @return stream to write the plain bytes to
+	 */
+	public static OutputStream encryptingOutputStream(@Nonnull final OutputStream out, @Nonnull final char[] password) throws IOException
+	{
+		final byte[] salt = new byte[SALT_LENGTH];
+		secureRandom.nextBytes(salt);
+
+		final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+		cipher.init(true, getAESPasswordKey(password, salt));
+
+		final OutputStream base64Out = new Base64OutputStream(out, Base64.DEFAULT);
+		base64Out.write(OPENSSL_SALTED_BYTES);
+		base64Out.write(salt);
+
+		return new CipherOutputStream(base64Out, cipher);
+	}
+
+	/**
+	 * Decrypt a stream previously encrypted with this class. A wrong password shows as an {@link IOException} when the
+	 * end of the stream is reached, if not earlier.
+	 * 
+	 * @param in
+	 *            stream to read the Base64 encoded cipher text from
+	 * @param password
+	 *            password to use for decryption
+	 * @return stream to read the plain bytes from
+	 */
+	public static InputStream decryptingInputStream(@Nonnull final InputStream in, @Nonnull final char[] password) throws IOException
+	{
+		final InputStream base64In = new Base64InputStream(in, Base64.DEFAULT);
+
+		final byte[] header = new byte[OPENSSL_SALTED_BYTES.length + SALT_LENGTH];
+		for (int offset = 0; offset < header.length;)
+		{
+			final int read = base64In.read(header, offset, header.length - offset);
+			if (read == -1)
+				throw new IOException("out of salt");
+			offset += read;
+		}
+		if (!Arrays.equals(Arrays.copyOf(header, OPENSSL_SALTED_BYTES.length), OPENSSL_SALTED_BYTES))
+			throw new IOException("not salted");
+		final byte[] salt = Arrays.copyOfRange(header, OPENSSL_SALTED_BYTES.length, header.length);
+
+		final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+		cipher.init(false, getAESPasswordKey(password, salt));
+
+		return new CipherInputStream(base64In, cipher);
+	}
+
 	/**
 	 * Decrypt text previously encrypted with this class.
 	 * 
@@ -190,7 +259,7 @@ public class Crypto
 	 */
 	public static String decrypt(@Nonnull final String textToDecode, @Nonnull final char[] password) throws IOException
 	{
-		final byte[] decodeTextAsBytes = decodeBase64(textToDecode.getBytes(Constants.UTF_8));
+		final byte[] decodeTextAsBytes = decodeBase64(textToDecode.getBytes(UTF_8));
 
 		if (decodeTextAsBytes.length < OPENSSL_SALTED_BYTES.length)
 			throw new IOException("out of salt");
@@ -200,7 +269,7 @@ public class Crypto
 
 		final byte[] decryptedBytes = decrypt(cipherBytes, password);
 
-		return new String(decryptedBytes, Constants.UTF_8).trim();
+		return new String(decryptedBytes, UTF_8).trim();
 	}
 
 	/**
@@ -287,7 +356,7 @@ public class Crypto
 			Reader in = null;
 			try
 			{
-				in = new InputStreamReader(new FileInputStream(file), Constants.UTF_8);
+				in = new InputStreamReader(new FileInputStream(file), UTF_8);
 				if (in.read(buf) == -1)
 					return false;
 				final String str = new String(buf);
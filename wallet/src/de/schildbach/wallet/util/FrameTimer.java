@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Times the frames of a view hierarchy without Choreographer, which needs API level 16. For each frame following a
+ * {@link #changed()}, it measures the delay from the change to the start of the frame and the time the main thread
+ * then spends measuring, laying out and drawing. A frame is slow if both together exceed {@link #FRAME_BUDGET_MS}.
+ * Must be used on the main thread.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public final class FrameTimer implements ViewTreeObserver.OnPreDrawListener
+{
+	public static final long FRAME_BUDGET_MS = 16;
+
+	private final String name;
+	private final Handler handler = new Handler();
+
+	private long changedAt = -1;
+	private int numFrames;
+	private int numSlowFrames;
+	private long maxDelayMs;
+	private long maxDrawMs;
+
+	private static final Logger log = LoggerFactory.getLogger(FrameTimer.class);
+
+	public FrameTimer(@Nonnull final String name)
+	{
+		this.name = name;
+	}
+
+	public void attach(@Nonnull final View view)
+	{
+		view.getViewTreeObserver().addOnPreDrawListener(this);
+	}
+
+	public void detach(@Nonnull final View view)
+	{
+		final ViewTreeObserver observer = view.getViewTreeObserver();
+		if (observer.isAlive())
+			observer.removeOnPreDrawListener(this);
+
+		handler.removeCallbacksAndMessages(null);
+		changedAt = -1;
+	}
+
+	/**
+	 * Marks the view state as changed, so the next frame is timed. Of several changes before a frame, the first one
+	 * counts.
+	 */
+	public void changed()
+	{
+		if (changedAt < 0)
+			changedAt = SystemClock.uptimeMillis();
+	}
+
+	@Override
+	public boolean onPreDraw()
+	{
+		if (changedAt >= 0)
+		{
+			final long start = SystemClock.uptimeMillis();
+			final long delayMs = start - changedAt;
+			changedAt = -1;
+
+			// runs right after the traversal that is calling us
+			handler.postAtFrontOfQueue(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final long drawMs = SystemClock.uptimeMillis() - start;
+
+					numFrames++;
+					if (delayMs + drawMs > FRAME_BUDGET_MS)
+						numSlowFrames++;
+					maxDelayMs = Math.max(maxDelayMs, delayMs);
+					maxDrawMs = Math.max(maxDrawMs, drawMs);
+				}
+			});
+		}
+
+		return true;
+	}
+
+	/**
+	 * Logs the frames timed since the last call and starts over.
+	 */
+	public void logAndReset()
+	{
+		if (numFrames > 0)
+			log.debug("{}: {} frames, {} slow, max change to frame {}ms, max draw {}ms", new Object[] { name, numFrames, numSlowFrames,
+					maxDelayMs, maxDrawMs });
+
+		numFrames = 0;
+		numSlowFrames = 0;
+		maxDelayMs = 0;
+		maxDrawMs = 0;
+	}
+}
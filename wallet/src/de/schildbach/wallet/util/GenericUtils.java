@@ -110,14 +110,12 @@ public class GenericUtils
 
 	public static BigInteger toNanoCoins(final String value, final int shift)
 	{
-		final BigInteger nanoCoins = new BigDecimal(value).movePointRight(8 - shift).toBigIntegerExact();
-
-		if (nanoCoins.signum() < 0)
-			throw new IllegalArgumentException("negative amount: " + value);
-		if (nanoCoins.compareTo(Constants.NETWORK_PARAMETERS.getMaxMoney()) > 0)
-			throw new IllegalArgumentException("amount too large: " + value);
+		return BigInteger.valueOf(parseNanoCoins(value, shift));
+	}
 
-		return nanoCoins;
+	public static long parseNanoCoins(final String value, final int shift)
+	{
+		return AmountMath.parseNanoCoins(value, shift, Constants.NETWORK_PARAMETERS.getMaxMoney().longValue());
 	}
 
     public static BigDecimal fromNanoCoins(final BigInteger value, final int shift)
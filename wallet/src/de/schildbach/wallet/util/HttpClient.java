@@ -0,0 +1,480 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.res.AssetManager;
+import de.schildbach.wallet.Constants;
+
+/**
+ * Shared HTTP GET client for all outbound fetches of the wallet.
+ *
+ * Responses are always read to the end and closed without disconnecting, so the platform can put the underlying socket
+ * back into its keep-alive pool. Bodies are requested gzip compressed, and responses carrying an ETag or Last-Modified
+ * header are remembered so that the next fetch of the same URL can be made conditional.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class HttpClient
+{
+	private static final int MAX_CACHED_RESPONSES = 16;
+	private static final String KEYSTORE_ASSET = "ssl-keystore";
+	private static final char[] KEYSTORE_PASSWORD = "password".toCharArray();
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@CheckForNull
+	private static HttpClient defaultClient = null;
+	@CheckForNull
+	private static HttpClient keystoreClient = null;
+
+	@CheckForNull
+	private final SSLSocketFactory sslSocketFactory;
+	private final Map<String, Integer> hostTimeouts = new HashMap<String, Integer>();
+	private final Map<String, Stats> hostStats = new HashMap<String, Stats>();
+	private final Map<String, CachedResponse> responseCache = new LinkedHashMap<String, CachedResponse>(MAX_CACHED_RESPONSES, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, CachedResponse> eldest)
+		{
+			return size() > MAX_CACHED_RESPONSES;
+		}
+	};
+	private int defaultTimeoutMs = Constants.HTTP_TIMEOUT_MS;
+	private String userAgent = null;
+
+	private static final Logger log = LoggerFactory.getLogger(HttpClient.class);
+
+	/**
+	 * Client using the platform trust store.
+	 */
+	public static synchronized HttpClient defaultClient()
+	{
+		if (defaultClient == null)
+			defaultClient = new HttpClient(null);
+
+		return defaultClient;
+	}
+
+	/**
+	 * Client trusting only the certificates bundled in the ssl-keystore asset. The SSL context is built once and reused
+	 * for all requests.
+	 */
+	public static synchronized HttpClient keystoreClient(@Nonnull final AssetManager assets) throws IOException
+	{
+		if (keystoreClient == null)
+			keystoreClient = new HttpClient(keystoreSocketFactory(assets));
+
+		return keystoreClient;
+	}
+
+	private static SSLSocketFactory keystoreSocketFactory(@Nonnull final AssetManager assets) throws IOException
+	{
+		final InputStream keystoreInputStream = assets.open(KEYSTORE_ASSET);
+
+		try
+		{
+			final KeyStore keystore = KeyStore.getInstance("BKS");
+			keystore.load(keystoreInputStream, KEYSTORE_PASSWORD);
+
+			final TrustManagerFactory tmf = TrustManagerFactory.getInstance("X509");
+			tmf.init(keystore);
+
+			final SSLContext sslContext = SSLContext.getInstance("TLS");
+			sslContext.init(null, tmf.getTrustManagers(), null);
+
+			return sslContext.getSocketFactory();
+		}
+		catch (final GeneralSecurityException x)
+		{
+			throw new IOException("cannot initialize ssl context from " + KEYSTORE_ASSET, x);
+		}
+		finally
+		{
+			keystoreInputStream.close();
+		}
+	}
+
+	public HttpClient(@Nullable final SSLSocketFactory sslSocketFactory)
+	{
+		this.sslSocketFactory = sslSocketFactory;
+	}
+
+	public synchronized void setDefaultTimeout(final int timeoutMs)
+	{
+		this.defaultTimeoutMs = timeoutMs;
+	}
+
+	/**
+	 * Overrides connect and read timeout for all requests to the given host.
+	 */
+	public synchronized void setTimeout(@Nonnull final String host, final int timeoutMs)
+	{
+		hostTimeouts.put(host.toLowerCase(), timeoutMs);
+	}
+
+	public synchronized void setUserAgent(@Nullable final String userAgent)
+	{
+		this.userAgent = userAgent;
+	}
+
+	public synchronized int timeoutFor(@Nonnull final String host)
+	{
+		final Integer timeout = hostTimeouts.get(host.toLowerCase());
+
+		return timeout != null ? timeout : defaultTimeoutMs;
+	}
+
+	/**
+	 * Fetches the given URL. Returns the response for any status code; on 304 Not Modified the body of the previously
+	 * cached response is returned together with {@link HttpURLConnection#HTTP_OK}.
+	 */
+	public Response get(@Nonnull final URL url) throws IOException
+	{
+		final String key = url.toString();
+		final String host = url.getHost();
+		final int timeoutMs = timeoutFor(host);
+		final CachedResponse cached;
+		final String userAgent;
+		synchronized (this)
+		{
+			cached = responseCache.get(key);
+			userAgent = this.userAgent;
+		}
+
+		final long start = System.currentTimeMillis();
+
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+		try
+		{
+			if (sslSocketFactory != null && connection instanceof HttpsURLConnection)
+				((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+
+			connection.setConnectTimeout(timeoutMs);
+			connection.setReadTimeout(timeoutMs);
+			connection.setUseCaches(false);
+			connection.setRequestProperty("Accept-Charset", "utf-8");
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+			if (userAgent != null)
+				connection.setRequestProperty("User-Agent", userAgent);
+
+			if (cached != null)
+			{
+				if (cached.etag != null)
+					connection.setRequestProperty("If-None-Match", cached.etag);
+				if (cached.lastModified > 0)
+					connection.setIfModifiedSince(cached.lastModified);
+			}
+
+			connection.connect();
+
+			final int responseCode = connection.getResponseCode();
+			final long serverTime = connection.getDate();
+
+			final CountingInputStream wire = new CountingInputStream(responseCode < 400 ? connection.getInputStream()
+					: connection.getErrorStream());
+			final byte[] body;
+			try
+			{
+				final boolean hasBody = wire.hasContent() && responseCode != HttpURLConnection.HTTP_NOT_MODIFIED
+						&& responseCode != HttpURLConnection.HTTP_NO_CONTENT;
+				final InputStream is = hasBody && "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(wire) : wire;
+				final ByteArrayOutputStream os = new ByteArrayOutputStream();
+				Io.copy(is, os);
+				body = os.toByteArray();
+			}
+			finally
+			{
+				wire.close();
+			}
+
+			final long latencyMs = System.currentTimeMillis() - start;
+			final Charset charset = charset(connection.getContentType());
+			final boolean notModified = responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null;
+
+			final Response response;
+			if (notModified)
+			{
+				response = new Response(HttpURLConnection.HTTP_OK, cached.body, cached.charset, serverTime, true, wire.count, latencyMs);
+			}
+			else
+			{
+				response = new Response(responseCode, body, charset, serverTime, false, wire.count, latencyMs);
+
+				if (responseCode == HttpURLConnection.HTTP_OK)
+				{
+					final String etag = connection.getHeaderField("ETag");
+					final long lastModified = connection.getLastModified();
+
+					synchronized (this)
+					{
+						if (etag != null || lastModified > 0)
+							responseCache.put(key, new CachedResponse(etag, lastModified, body, charset));
+						else
+							responseCache.remove(key);
+					}
+				}
+			}
+
+			record(host, response);
+
+			log.debug("GET {} -> {}{}, {} bytes, took {}ms", new Object[] { url, responseCode, notModified ? " (cached)" : "", wire.count,
+					latencyMs });
+
+			return response;
+		}
+		catch (final IOException x)
+		{
+			// don't return a broken connection to the pool
+			connection.disconnect();
+
+			synchronized (this)
+			{
+				stats(host).failures++;
+			}
+
+			throw x;
+		}
+	}
+
+	private synchronized void record(@Nonnull final String host, @Nonnull final Response response)
+	{
+		final Stats stats = stats(host);
+		stats.requests++;
+		if (response.notModified)
+			stats.notModified++;
+		stats.bytes += response.bytes;
+		stats.latencyMs += response.latencyMs;
+	}
+
+	private Stats stats(@Nonnull final String host)
+	{
+		Stats stats = hostStats.get(host);
+		if (stats == null)
+		{
+			stats = new Stats();
+			hostStats.put(host, stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Snapshot of the accumulated per-host statistics.
+	 */
+	public synchronized Map<String, Stats> getStats()
+	{
+		final Map<String, Stats> snapshot = new HashMap<String, Stats>(hostStats.size());
+		for (final Map.Entry<String, Stats> entry : hostStats.entrySet())
+			snapshot.put(entry.getKey(), entry.getValue().copy());
+		return snapshot;
+	}
+
+	/**
+	 * @return the charset named by the charset parameter of a Content-Type header, or UTF-8 if there is none or it is
+	 *         not supported
+	 */
+	static Charset charset(@Nullable final String contentType)
+	{
+		if (contentType == null)
+			return UTF_8;
+
+		final String[] params = contentType.split(";");
+		for (int i = 1; i < params.length; i++)
+		{
+			final String param = params[i].trim();
+			if (param.regionMatches(true, 0, "charset=", 0, 8))
+			{
+				String name = param.substring(8).trim();
+				if (name.length() >= 2 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"')
+					name = name.substring(1, name.length() - 1);
+
+				try
+				{
+					return Charset.forName(name);
+				}
+				catch (final IllegalArgumentException x)
+				{
+					// illegal or unsupported charset name
+					log.info("unsupported charset in content type: " + contentType);
+
+					return UTF_8;
+				}
+			}
+		}
+
+		return UTF_8;
+	}
+
+	public static final class Response
+	{
+		public final int responseCode;
+		public final byte[] body;
+		public final Charset charset;
+		public final long serverTime;
+		public final boolean notModified;
+		public final long bytes;
+		public final long latencyMs;
+
+		private Response(final int responseCode, @Nonnull final byte[] body, @Nonnull final Charset charset, final long serverTime,
+				final boolean notModified, final long bytes, final long latencyMs)
+		{
+			this.responseCode = responseCode;
+			this.body = body;
+			this.charset = charset;
+			this.serverTime = serverTime;
+			this.notModified = notModified;
+			this.bytes = bytes;
+			this.latencyMs = latencyMs;
+		}
+
+		public boolean isOk()
+		{
+			return responseCode == HttpURLConnection.HTTP_OK;
+		}
+
+		public String content()
+		{
+			return new String(body, charset);
+		}
+
+		@CheckForNull
+		public String firstLine()
+		{
+			final String content = content();
+			if (content.length() == 0)
+				return null;
+
+			final int eol = content.indexOf('\n');
+			return (eol >= 0 ? content.substring(0, eol) : content).trim();
+		}
+	}
+
+	public static final class Stats
+	{
+		public int requests;
+		public int notModified;
+		public int failures;
+		public long bytes;
+		public long latencyMs;
+
+		private Stats copy()
+		{
+			final Stats copy = new Stats();
+			copy.requests = requests;
+			copy.notModified = notModified;
+			copy.failures = failures;
+			copy.bytes = bytes;
+			copy.latencyMs = latencyMs;
+			return copy;
+		}
+
+		@Override
+		public String toString()
+		{
+			return requests + " requests (" + notModified + " not modified, " + failures + " failed), " + bytes + " bytes, "
+					+ (requests > 0 ? latencyMs / requests : 0) + "ms avg";
+		}
+	}
+
+	private static final class CachedResponse
+	{
+		public final String etag;
+		public final long lastModified;
+		public final byte[] body;
+		public final Charset charset;
+
+		public CachedResponse(@Nullable final String etag, final long lastModified, @Nonnull final byte[] body,
+				@Nonnull final Charset charset)
+		{
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.body = body;
+			this.charset = charset;
+		}
+	}
+
+	private static final class CountingInputStream extends FilterInputStream
+	{
+		public long count = 0;
+
+		public CountingInputStream(@Nullable final InputStream in)
+		{
+			super(in);
+		}
+
+		public boolean hasContent()
+		{
+			return in != null;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (in == null)
+				return -1;
+
+			final int b = in.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException
+		{
+			if (in == null)
+				return -1;
+
+			final int n = in.read(buffer, offset, length);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (in != null)
+				in.close();
+		}
+	}
+}
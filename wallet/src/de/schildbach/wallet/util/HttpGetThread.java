@@ -17,23 +17,15 @@
 
 package de.schildbach.wallet.util;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.IOException;
 import java.net.URL;
-import java.security.KeyStore;
 
 import javax.annotation.Nonnull;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManagerFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.content.res.AssetManager;
-import de.schildbach.wallet.Constants;
 
 /**
  * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
@@ -54,57 +46,25 @@ public abstract class HttpGetThread extends Thread
 	@Override
 	public void run()
 	{
-		HttpURLConnection connection = null;
-
 		log.debug("querying \"" + url + "\"...");
 
 		try
 		{
-			connection = (HttpURLConnection) new URL(url).openConnection();
-
-			if (connection instanceof HttpsURLConnection)
-			{
-				final InputStream keystoreInputStream = assets.open("ssl-keystore");
-
-				final KeyStore keystore = KeyStore.getInstance("BKS");
-				keystore.load(keystoreInputStream, "password".toCharArray());
-				keystoreInputStream.close();
-
-				final TrustManagerFactory tmf = TrustManagerFactory.getInstance("X509");
-				tmf.init(keystore);
-
-				final SSLContext sslContext = SSLContext.getInstance("TLS");
-				sslContext.init(null, tmf.getTrustManagers(), null);
+			final HttpClient.Response response = HttpClient.keystoreClient(assets).get(new URL(url));
 
-				((HttpsURLConnection) connection).setSSLSocketFactory(sslContext.getSocketFactory());
-			}
-
-			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setRequestProperty("Accept-Charset", "utf-8");
-			connection.connect();
-
-			if (connection.getResponseCode() == HttpURLConnection.HTTP_OK)
+			if (response.isOk())
 			{
-				final long serverTime = connection.getDate();
-				// TODO parse connection.getContentType() for charset
+				final String line = response.firstLine();
+				if (line == null)
+					throw new IOException("empty response from " + url);
 
-				final BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), Constants.UTF_8), 64);
-				final String line = reader.readLine().trim();
-				reader.close();
-
-				handleLine(line, serverTime);
+				handleLine(line, response.serverTime);
 			}
 		}
 		catch (final Exception x)
 		{
 			handleException(x);
 		}
-		finally
-		{
-			if (connection != null)
-				connection.disconnect();
-		}
 	}
 
 	protected abstract void handleLine(@Nonnull String line, long serverTime);
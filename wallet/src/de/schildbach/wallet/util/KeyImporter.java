@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.AddressFormatException;
+import com.google.bitcoin.core.DumpedPrivateKey;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Wallet;
+
+/**
+ * Bulk key import. Reads the text format of {@link WalletUtils#writeKeys}, decoding Base58 and deriving public keys in
+ * parallel chunks on a bounded pool, and adds the keys not yet in the wallet in one go, so listeners see a single
+ * {@link com.google.bitcoin.core.WalletEventListener#onKeysAdded} event.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class KeyImporter
+{
+	private static final int MIN_CHUNK_SIZE = 32;
+
+	private final int numThreads;
+
+	private static final Logger log = LoggerFactory.getLogger(KeyImporter.class);
+
+	public KeyImporter()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public KeyImporter(final int numThreads)
+	{
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Reads keys in the text format of {@link WalletUtils#writeKeys}, skipping blank and comment lines, and returns them
+	 * in file order.
+	 */
+	public List<ECKey> readKeys(@Nonnull final BufferedReader in, @Nonnull final NetworkParameters params) throws IOException
+	{
+		final List<String> lines = new ArrayList<String>();
+		while (true)
+		{
+			final String line = in.readLine();
+			if (line == null)
+				break; // eof
+			if (line.trim().isEmpty() || line.charAt(0) == '#')
+				continue; // skip comment
+
+			lines.add(line);
+		}
+
+		final long start = System.currentTimeMillis();
+
+		final int chunkSize = Math.max(MIN_CHUNK_SIZE, (lines.size() + numThreads * 4 - 1) / (numThreads * 4));
+		final List<ECKey> keys = new ArrayList<ECKey>(lines.size());
+
+		if (numThreads == 1 || lines.size() <= chunkSize)
+		{
+			keys.addAll(decodeChunk(lines, params));
+		}
+		else
+		{
+			final ExecutorService executor = Executors.newFixedThreadPool(numThreads, new NamedThreadFactory("key importer"));
+			try
+			{
+				final List<Future<List<ECKey>>> futures = new ArrayList<Future<List<ECKey>>>();
+				for (int from = 0; from < lines.size(); from += chunkSize)
+				{
+					final List<String> chunk = lines.subList(from, Math.min(from + chunkSize, lines.size()));
+					futures.add(executor.submit(new Callable<List<ECKey>>()
+					{
+						@Override
+						public List<ECKey> call() throws IOException
+						{
+							return decodeChunk(chunk, params);
+						}
+					}));
+				}
+
+				for (final Future<List<ECKey>> future : futures)
+					keys.addAll(future.get());
+			}
+			catch (final InterruptedException x)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while reading keys", x);
+			}
+			catch (final ExecutionException x)
+			{
+				final Throwable cause = x.getCause();
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				throw new IOException("problem reading keys", cause);
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
+		}
+
+		final long duration = Math.max(System.currentTimeMillis() - start, 1);
+		log.info("{} keys decoded in {}ms on {} threads ({} keys/s)", new Object[] { keys.size(), duration, numThreads,
+				keys.size() * 1000l / duration });
+
+		return keys;
+	}
+
+	private static List<ECKey> decodeChunk(@Nonnull final List<String> lines, @Nonnull final NetworkParameters params) throws IOException
+	{
+		// date formats are not thread safe
+		final DateFormat format = Iso8601Format.newDateTimeFormatT();
+		final List<ECKey> keys = new ArrayList<ECKey>(lines.size());
+
+		try
+		{
+			for (final String line : lines)
+			{
+				final String[] parts = line.split(" ");
+
+				final ECKey key = new DumpedPrivateKey(params, parts[0]).getKey();
+				key.setCreationTimeSeconds(parts.length >= 2 ? format.parse(parts[1]).getTime() / 1000 : 0);
+
+				keys.add(key);
+			}
+
+			return keys;
+		}
+		catch (final AddressFormatException x)
+		{
+			throw new IOException("AddressFormatException when reading keys", x);
+		}
+		catch (final ParseException x)
+		{
+			throw new IOException("ParseException when reading keys", x);
+		}
+	}
+
+	/**
+	 * Adds the keys that are neither in the wallet nor duplicated within the list, with one call to
+	 * {@link Wallet#addKeys}.
+	 *
+	 * @return number of keys added
+	 */
+	public static int addKeys(@Nonnull final Wallet wallet, @Nonnull final List<ECKey> keys)
+	{
+		final long start = System.currentTimeMillis();
+
+		final Set<ByteBuffer> pubKeys = new HashSet<ByteBuffer>();
+		for (final ECKey key : wallet.getKeys())
+			pubKeys.add(ByteBuffer.wrap(key.getPubKey()));
+
+		final List<ECKey> newKeys = new ArrayList<ECKey>(keys.size());
+		for (final ECKey key : keys)
+			if (pubKeys.add(ByteBuffer.wrap(key.getPubKey())))
+				newKeys.add(key);
+
+		final int numKeysAdded = newKeys.isEmpty() ? 0 : wallet.addKeys(newKeys);
+
+		log.info("{} of {} keys added in {}ms", new Object[] { numKeysAdded, keys.size(), System.currentTimeMillis() - start });
+
+		return numKeysAdded;
+	}
+}
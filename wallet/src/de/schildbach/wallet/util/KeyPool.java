@@ -0,0 +1,445 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Wallet;
+
+/**
+ * Generates keys ahead of use on a background thread and adds them to the wallet in batches, so the bloom filter is
+ * recalculated and resent to peers once per batch rather than once per address. Keys in the pool are not issued yet
+ * and should not be shown; {@link #issue()} hands them out without generating or touching the wallet. The hashes of
+ * the unissued keys are kept in a file.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class KeyPool
+{
+	public interface Listener
+	{
+		/**
+		 * Called after keys were added to the wallet, on the thread that added them.
+		 */
+		void onKeysAdded(@Nonnull List<ECKey> keys);
+	}
+
+	private static final int FILE_VERSION = 1;
+
+	private final File file;
+	private final Wallet wallet;
+	private final NetworkParameters params;
+	private final int lookahead;
+	private final SecureRandom random;
+	@Nullable
+	private final Listener listener;
+
+	private final LinkedList<ECKey> ready = new LinkedList<ECKey>();
+	private final Set<Address> unissued = new HashSet<Address>();
+	private boolean refillPending = false;
+	private boolean savePending = false;
+	private int numBatches = 0;
+	private int numExhausted = 0;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("key pool generator",
+			Thread.MIN_PRIORITY));
+
+	private static final Logger log = LoggerFactory.getLogger(KeyPool.class);
+
+	/**
+	 * Loads the unissued keys from the file, if it exists, and starts topping up the pool in the background.
+	 *
+	 * @param lookahead
+	 *            number of unissued keys to keep; a batch is generated once less than half of it is left
+	 * @param random
+	 *            source of the private keys
+	 */
+	public KeyPool(@Nonnull final File file, @Nonnull final Wallet wallet, final int lookahead, @Nonnull final SecureRandom random,
+			@Nullable final Listener listener)
+	{
+		if (lookahead < 1)
+			throw new IllegalArgumentException("illegal lookahead: " + lookahead);
+
+		this.file = file;
+		this.wallet = wallet;
+		this.params = wallet.getNetworkParameters();
+		this.lookahead = lookahead;
+		this.random = random;
+		this.listener = listener;
+
+		if (file.exists())
+		{
+			try
+			{
+				load();
+			}
+			catch (final IOException x)
+			{
+				log.warn("problem loading key pool, starting empty", x);
+				ready.clear();
+				unissued.clear();
+			}
+		}
+
+		synchronized (this)
+		{
+			refillIfLow();
+		}
+	}
+
+	/**
+	 * Hands out the next key of the pool. Only if the pool is exhausted, a key is generated and added to the wallet on
+	 * the calling thread.
+	 */
+	@Nonnull
+	public ECKey issue()
+	{
+		return issue(1).get(0);
+	}
+
+	/**
+	 * Hands out the next keys of the pool. Keys the pool cannot supply are generated and added to the wallet on the
+	 * calling thread, all at once.
+	 */
+	@Nonnull
+	public List<ECKey> issue(final int numKeys)
+	{
+		final List<ECKey> keys = new ArrayList<ECKey>(numKeys);
+
+		synchronized (this)
+		{
+			while (keys.size() < numKeys && !ready.isEmpty())
+			{
+				final ECKey key = ready.removeFirst();
+				unissued.remove(toAddress(key));
+				keys.add(key);
+			}
+
+			if (keys.size() < numKeys)
+				numExhausted++;
+
+			refillIfLow();
+			scheduleSave();
+		}
+
+		if (keys.size() < numKeys)
+		{
+			final List<ECKey> generated = generate(numKeys - keys.size());
+			wallet.addKeys(generated);
+			if (listener != null)
+				listener.onKeysAdded(generated);
+			keys.addAll(generated);
+
+			log.info("key pool exhausted, generated {} keys in place", generated.size());
+		}
+
+		return keys;
+	}
+
+	/**
+	 * @return true unless the key was added by the pool and not handed out yet
+	 */
+	public synchronized boolean isIssued(@Nonnull final ECKey key)
+	{
+		return !unissued.contains(toAddress(key));
+	}
+
+	/**
+	 * @return the keys of the wallet without the ones waiting in the pool
+	 */
+	public List<ECKey> getIssuedKeys()
+	{
+		final List<ECKey> keys = wallet.getKeys();
+
+		synchronized (this)
+		{
+			final List<ECKey> issued = new ArrayList<ECKey>(keys.size());
+			for (final ECKey key : keys)
+				if (!unissued.contains(toAddress(key)))
+					issued.add(key);
+			return issued;
+		}
+	}
+
+	public synchronized int getNumReady()
+	{
+		return ready.size();
+	}
+
+	/**
+	 * @return number of batches added to the wallet by the background thread, each recalculating the bloom filter
+	 */
+	public synchronized int getNumBatches()
+	{
+		return numBatches;
+	}
+
+	/**
+	 * @return number of times keys had to be generated in place, because the pool was empty
+	 */
+	public synchronized int getNumExhausted()
+	{
+		return numExhausted;
+	}
+
+	/**
+	 * Waits for a pending refill and save to finish.
+	 */
+	public void flush()
+	{
+		try
+		{
+			executor.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+				}
+			}).get();
+		}
+		catch (final InterruptedException x)
+		{
+			throw new RuntimeException(x);
+		}
+		catch (final ExecutionException x)
+		{
+			throw new RuntimeException(x.getCause());
+		}
+	}
+
+	private void refillIfLow()
+	{
+		if (refillPending || ready.size() >= (lookahead + 1) / 2)
+			return;
+
+		refillPending = true;
+		executor.execute(refillRunnable);
+	}
+
+	private final Runnable refillRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			final int numKeys;
+			synchronized (KeyPool.this)
+			{
+				numKeys = lookahead - ready.size();
+			}
+
+			final long start = System.currentTimeMillis();
+			final List<ECKey> keys = generate(numKeys);
+
+			// hide the keys and save them as unissued before the wallet announces them, so a crash in between doesn't
+			// make them look issued on the next start
+			final byte[] bytes;
+			synchronized (KeyPool.this)
+			{
+				for (final ECKey key : keys)
+					unissued.add(toAddress(key));
+				savePending = false;
+				bytes = serialize(keys);
+			}
+
+			save(bytes);
+
+			wallet.addKeys(keys);
+			if (listener != null)
+				listener.onKeysAdded(keys);
+
+			synchronized (KeyPool.this)
+			{
+				ready.addAll(keys);
+				numBatches++;
+				refillPending = false;
+
+				// keys might have been issued meanwhile
+				refillIfLow();
+			}
+
+			log.info("added {} keys to pool, took {} ms", keys.size(), System.currentTimeMillis() - start);
+		}
+	};
+
+	private List<ECKey> generate(final int numKeys)
+	{
+		final BigInteger n = ECKey.CURVE.getN();
+		final long creationTimeSeconds = System.currentTimeMillis() / 1000;
+		final List<ECKey> keys = new ArrayList<ECKey>(numKeys);
+		final byte[] bytes = new byte[32];
+
+		while (keys.size() < numKeys)
+		{
+			random.nextBytes(bytes);
+			final BigInteger privKey = new BigInteger(1, bytes);
+			if (privKey.signum() == 0 || privKey.compareTo(n) >= 0)
+				continue; // out of range, try again
+
+			final ECKey key = new ECKey(privKey, null, true);
+			key.setCreationTimeSeconds(creationTimeSeconds);
+			keys.add(key);
+		}
+
+		return keys;
+	}
+
+	private Address toAddress(final ECKey key)
+	{
+		return new Address(params, key.getPubKeyHash());
+	}
+
+	private void scheduleSave()
+	{
+		if (savePending)
+			return;
+
+		savePending = true;
+		executor.execute(saveRunnable);
+	}
+
+	private final Runnable saveRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			final byte[] bytes;
+			synchronized (KeyPool.this)
+			{
+				if (!savePending)
+					return;
+
+				savePending = false;
+				bytes = serialize(Collections.<ECKey> emptyList());
+			}
+
+			save(bytes);
+		}
+	};
+
+	private void load() throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+		try
+		{
+			final int version = is.readInt();
+			if (version != FILE_VERSION)
+				throw new IOException("unknown version: " + version);
+
+			final int numKeys = is.readInt();
+			for (int i = 0; i < numKeys; i++)
+			{
+				final byte[] hash160 = new byte[20];
+				is.readFully(hash160);
+
+				// keys the wallet doesn't know anymore, e.g. after restoring a backup, are dropped
+				final ECKey key = wallet.findKeyFromPubHash(hash160);
+				if (key != null && !wallet.isKeyRotating(key))
+				{
+					ready.add(key);
+					unissued.add(toAddress(key));
+				}
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	/**
+	 * @param adding
+	 *            keys about to join the pool
+	 */
+	private byte[] serialize(final List<ECKey> adding)
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + (ready.size() + adding.size()) * 20);
+		final DataOutputStream os = new DataOutputStream(bytes);
+
+		try
+		{
+			os.writeInt(FILE_VERSION);
+			os.writeInt(ready.size() + adding.size());
+			for (final ECKey key : ready)
+				os.write(key.getPubKeyHash());
+			for (final ECKey key : adding)
+				os.write(key.getPubKeyHash());
+		}
+		catch (final IOException x)
+		{
+			// cannot happen in memory
+			throw new RuntimeException(x);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private void save(final byte[] bytes)
+	{
+		final File tempFile = new File(file.getAbsolutePath() + ".tmp");
+
+		try
+		{
+			final OutputStream os = new FileOutputStream(tempFile);
+
+			try
+			{
+				os.write(bytes);
+			}
+			finally
+			{
+				os.close();
+			}
+
+			if (!tempFile.renameTo(file))
+				throw new IOException("cannot rename " + tempFile + " to " + file);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving key pool", x);
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Transaction.Purpose;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.Wallet.SendRequest;
+import com.google.bitcoin.script.Script;
+
+/**
+ * Moves funds off rotating keys in batches of bounded size, as opposed to bitcoinj's key rotation which spends all of
+ * them in one transaction while holding the wallet lock. Each batch pays the fee rate of {@link TransactionPlanner} and
+ * is only built if its fee fits into what is left of the fee budget. Outputs worth less than the fee their input adds
+ * are left alone.
+ *
+ * The rotator keeps no state of its own: committed batches have spent their outputs, so the next call carries on where
+ * the previous one stopped, even after the process has died. Only the fee paid so far has to be kept by the caller.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class KeyRotator
+{
+	private final TransactionPlanner planner;
+	private final int maxInputs;
+
+	public static final class Progress
+	{
+		/** rotating outputs still to be moved */
+		public final int numOutputs;
+		public final BigInteger value;
+		/** rotating outputs not worth moving */
+		public final int numUneconomicOutputs;
+
+		private Progress(final int numOutputs, final long value, final int numUneconomicOutputs)
+		{
+			this.numOutputs = numOutputs;
+			this.value = BigInteger.valueOf(value);
+			this.numUneconomicOutputs = numUneconomicOutputs;
+		}
+
+		public boolean isDone()
+		{
+			return numOutputs == 0;
+		}
+
+		@Override
+		public String toString()
+		{
+			return getClass().getSimpleName() + "[" + numOutputs + " outputs, value " + value + ", " + numUneconomicOutputs + " uneconomic]";
+		}
+	}
+
+	public static final class Batch
+	{
+		public final SendRequest sendRequest;
+		public final int numInputs;
+		public final BigInteger value;
+		public final BigInteger fee;
+
+		private Batch(@Nonnull final SendRequest sendRequest, final long value)
+		{
+			this.sendRequest = sendRequest;
+			this.numInputs = sendRequest.tx.getInputs().size();
+			this.value = BigInteger.valueOf(value);
+			this.fee = sendRequest.fee;
+		}
+
+		@Override
+		public String toString()
+		{
+			return getClass().getSimpleName() + "[" + numInputs + " inputs, value " + value + ", fee " + fee + "]";
+		}
+	}
+
+	/**
+	 * Thrown if the next batch costs more fee than is left of the budget. Unlike a batch that isn't worth building right
+	 * now, this doesn't go away by waiting.
+	 */
+	public static final class FeeBudgetExceededException extends Exception
+	{
+		public final BigInteger fee;
+
+		private FeeBudgetExceededException(final long fee, @Nonnull final BigInteger feeBudget)
+		{
+			super("fee " + fee + " exceeds budget " + feeBudget);
+
+			this.fee = BigInteger.valueOf(fee);
+		}
+	}
+
+	/**
+	 * @param maxInputs
+	 *            spend at most this many outputs per batch
+	 */
+	public KeyRotator(@Nonnull final TransactionPlanner planner, final int maxInputs)
+	{
+		if (maxInputs < 1)
+			throw new IllegalArgumentException("illegal limit: " + maxInputs);
+
+		this.planner = planner;
+		this.maxInputs = maxInputs;
+	}
+
+	/**
+	 * @param candidates
+	 *            spendable outputs
+	 */
+	public Progress progress(@Nonnull final Wallet wallet, @Nonnull final List<TransactionOutput> candidates)
+	{
+		int numOutputs = 0;
+		long value = 0;
+		int numUneconomicOutputs = 0;
+
+		for (final TransactionOutput candidate : candidates)
+		{
+			if (!isRotating(wallet, candidate))
+				continue;
+
+			if (isEconomic(wallet, candidate))
+			{
+				numOutputs++;
+				value += candidate.getValue().longValue();
+			}
+			else
+			{
+				numUneconomicOutputs++;
+			}
+		}
+
+		return new Progress(numOutputs, value, numUneconomicOutputs);
+	}
+
+	/**
+	 * Builds and signs the next batch, but doesn't commit it.
+	 *
+	 * @param candidates
+	 *            spendable outputs, largest first. Large outputs are moved first, so that an exhausted fee budget
+	 *            leaves behind as little value as possible.
+	 * @param address
+	 *            destination, must not belong to a rotating key
+	 * @param feeBudget
+	 *            fee that may still be spent on rotation
+	 * @return batch, or null if there is nothing to move or the next batch would leave only dust after its fee
+	 * @throws FeeBudgetExceededException
+	 *             if the fee budget doesn't cover the next batch
+	 */
+	@CheckForNull
+	public Batch nextBatch(@Nonnull final Wallet wallet, @Nonnull final List<TransactionOutput> candidates, @Nonnull final Address address,
+			@Nonnull final BigInteger feeBudget) throws FeeBudgetExceededException
+	{
+		final int toSize = TransactionPlanner.outputSize(address);
+		final List<TransactionOutput> inputs = new ArrayList<TransactionOutput>();
+		long value = 0;
+		int inputsSize = 0;
+
+		for (final TransactionOutput candidate : candidates)
+		{
+			if (inputs.size() == maxInputs)
+				break;
+			if (!isRotating(wallet, candidate))
+				continue;
+
+			final int inputSize = TransactionPlanner.inputSize(wallet, candidate);
+			if (candidate.getValue().longValue() <= planner.marginalFee(inputSize))
+				continue;
+
+			inputs.add(candidate);
+			value += candidate.getValue().longValue();
+			inputsSize += inputSize;
+		}
+
+		if (inputs.isEmpty())
+			return null;
+
+		final long fee = planner.fee(TransactionPlanner.txSize(inputs.size(), inputsSize, 1, toSize));
+		if (fee > feeBudget.longValue())
+			throw new FeeBudgetExceededException(fee, feeBudget);
+		if (value - fee < Transaction.MIN_NONDUST_OUTPUT.longValue())
+			return null;
+
+		final Transaction tx = new Transaction(wallet.getParams());
+		tx.addOutput(BigInteger.valueOf(value - fee), address);
+		for (final TransactionOutput input : inputs)
+			tx.addInput(input);
+		tx.setPurpose(Purpose.KEY_ROTATION);
+		new ParallelInputSigner().signInputs(tx, wallet);
+
+		final SendRequest sendRequest = SendRequest.forTx(tx);
+		sendRequest.fee = BigInteger.valueOf(fee);
+
+		return new Batch(sendRequest, value);
+	}
+
+	private boolean isEconomic(@Nonnull final Wallet wallet, @Nonnull final TransactionOutput output)
+	{
+		return output.getValue().longValue() > planner.marginalFee(TransactionPlanner.inputSize(wallet, output));
+	}
+
+	/**
+	 * @return true if the output is paid to a key that is being rotated
+	 */
+	public static boolean isRotating(@Nonnull final Wallet wallet, @Nonnull final TransactionOutput output)
+	{
+		final Script script = output.getScriptPubKey();
+
+		final ECKey key;
+		if (script.isSentToAddress())
+			key = wallet.findKeyFromPubHash(script.getPubKeyHash());
+		else if (script.isSentToRawPubKey())
+			key = wallet.findKeyFromPubKey(script.getPubKey());
+		else
+			return false;
+
+		return key != null && wallet.isKeyRotating(key);
+	}
+}
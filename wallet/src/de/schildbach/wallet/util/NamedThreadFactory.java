@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Creates daemon threads named after their pool and numbered, so they don't keep the process alive and are easy to
+ * tell apart in traces.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public final class NamedThreadFactory implements ThreadFactory
+{
+	private final String name;
+	private final int priority;
+	private final AtomicInteger count = new AtomicInteger();
+
+	public NamedThreadFactory(@Nonnull final String name)
+	{
+		this(name, Thread.NORM_PRIORITY);
+	}
+
+	public NamedThreadFactory(@Nonnull final String name, final int priority)
+	{
+		this.name = name;
+		this.priority = priority;
+	}
+
+	@Override
+	public Thread newThread(final Runnable runnable)
+	{
+		final Thread thread = new Thread(runnable, name + " " + count.incrementAndGet());
+		thread.setDaemon(true);
+		thread.setPriority(priority);
+		return thread;
+	}
+}
@@ -38,6 +38,19 @@ public class Nfc
 	private static final byte[] RTD_ANDROID_APP = "android.com:pkg".getBytes(Constants.US_ASCII);
 
 	public static boolean publishUri(@Nullable final NfcManager nfcManager, final Activity activity, @Nonnull final String uri)
+	{
+		return publish(nfcManager, activity, uriMessage(uri, activity.getPackageName()));
+	}
+
+	/**
+	 * Builds the message {@link #publishUri} publishes. Doesn't need the main thread.
+	 */
+	public static NdefMessage uriMessage(@Nonnull final String uri, @Nonnull final String packageName)
+	{
+		return ndefMessage(wellKnownUriRecord(uri), true, packageName);
+	}
+
+	public static boolean publish(@Nullable final NfcManager nfcManager, final Activity activity, @Nonnull final NdefMessage message)
 	{
 		if (nfcManager == null)
 			return false;
@@ -46,8 +59,7 @@ public class Nfc
 		if (adapter == null)
 			return false;
 
-		final NdefRecord uriRecord = wellKnownUriRecord(uri);
-		adapter.enableForegroundNdefPush(activity, ndefMessage(uriRecord, true, activity.getPackageName()));
+		adapter.enableForegroundNdefPush(activity, message);
 
 		return true;
 	}
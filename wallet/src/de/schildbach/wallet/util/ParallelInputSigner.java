@@ -0,0 +1,268 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.macs.HMac;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.crypto.TransactionSignature;
+import com.google.bitcoin.script.Script;
+import com.google.bitcoin.script.ScriptBuilder;
+
+/**
+ * Signs the inputs of a transaction with {@link Transaction.SigHash#ALL}, computing signature hashes and signatures of
+ * independent inputs in parallel chunks on a bounded pool shared by all signers. Input scripts are then set in one
+ * ordered pass on the calling thread.
+ *
+ * Nonces are derived from key and signature hash as per RFC 6979 rather than drawn from a random source, so the signed
+ * transaction is the same no matter how many threads sign it, and the same on every run. Signatures are made canonical
+ * (low S) like the ones of {@link ECKey#sign}. As a faulty signature with a deterministic nonce can leak the private key,
+ * every signature is verified against the public key before any input script is set.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class ParallelInputSigner
+{
+	private static final int MIN_CHUNK_SIZE = 8;
+	private static final int MAX_THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("input signer"));
+
+	static
+	{
+		// no idle threads between spends
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private final int numThreads;
+
+	private static final Logger log = LoggerFactory.getLogger(ParallelInputSigner.class);
+
+	public ParallelInputSigner()
+	{
+		this(MAX_THREADS);
+	}
+
+	/**
+	 * @param numThreads
+	 *            number of chunks to sign at once; the shared pool runs no more than one per processor
+	 */
+	public ParallelInputSigner(final int numThreads)
+	{
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Signs all inputs of a transaction. Inputs must be connected to outputs of the wallet and not yet be signed.
+	 * Transactions spending keys without a plain private key are signed by {@link Transaction#signInputs} instead.
+	 */
+	public void signInputs(@Nonnull final Transaction tx, @Nonnull final Wallet wallet) throws ScriptException
+	{
+		final List<TransactionInput> inputs = tx.getInputs();
+		final int numInputs = inputs.size();
+		final byte[][] connectedScripts = new byte[numInputs][];
+		final ECKey[] keys = new ECKey[numInputs];
+
+		for (int i = 0; i < numInputs; i++)
+		{
+			final TransactionInput input = inputs.get(i);
+			if (input.getOutpoint().getConnectedOutput() == null)
+				throw new ScriptException("input " + i + " is not connected");
+
+			final ECKey key = input.getOutpoint().getConnectedKey(wallet);
+			if (key == null)
+				throw new ScriptException("input " + i + " spends " + input.getOutpoint().getHash() + " without a key in the wallet");
+			if (!key.hasPrivKey())
+			{
+				tx.signInputs(Transaction.SigHash.ALL, wallet);
+				return;
+			}
+
+			connectedScripts[i] = input.getOutpoint().getConnectedOutput().getScriptBytes();
+			keys[i] = key;
+		}
+
+		final long start = System.currentTimeMillis();
+
+		final TransactionSignature[] signatures = new TransactionSignature[numInputs];
+		final int chunkSize = Math.max(MIN_CHUNK_SIZE, (numInputs + numThreads * 4 - 1) / (numThreads * 4));
+		final int numChunks = (numInputs + chunkSize - 1) / chunkSize;
+
+		if (numThreads == 1 || numChunks <= 1)
+		{
+			signChunk(tx, 0, numInputs, connectedScripts, keys, signatures);
+		}
+		else
+		{
+			// hashForSignature() temporarily modifies the transaction, so every chunk hashes its own copy
+			final byte[] unsignedTx = tx.bitcoinSerialize();
+			final List<Future<Void>> futures = new ArrayList<Future<Void>>(numChunks);
+
+			try
+			{
+				for (int from = 0; from < numInputs; from += chunkSize)
+				{
+					final int chunkFrom = from;
+					final int chunkTo = Math.min(from + chunkSize, numInputs);
+					futures.add(executor.submit(new Callable<Void>()
+					{
+						@Override
+						public Void call()
+						{
+							final Transaction copy = new Transaction(tx.getParams(), unsignedTx);
+							signChunk(copy, chunkFrom, chunkTo, connectedScripts, keys, signatures);
+							return null;
+						}
+					}));
+				}
+
+				for (final Future<Void> future : futures)
+					future.get();
+			}
+			catch (final InterruptedException x)
+			{
+				Thread.currentThread().interrupt();
+				throw new ScriptException("interrupted while signing");
+			}
+			catch (final ExecutionException x)
+			{
+				final Throwable cause = x.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				throw new RuntimeException(cause);
+			}
+			finally
+			{
+				// after a failure, don't keep the shared pool busy with the other chunks
+				for (final Future<Void> future : futures)
+					future.cancel(true);
+			}
+		}
+
+		// ordered pass, like Transaction.signInputs()
+		for (int i = 0; i < numInputs; i++)
+		{
+			final TransactionInput input = inputs.get(i);
+			final TransactionOutput connectedOutput = input.getOutpoint().getConnectedOutput();
+			final Script scriptPubKey = connectedOutput.getScriptPubKey();
+			if (scriptPubKey.isSentToAddress())
+				input.setScriptSig(ScriptBuilder.createInputScript(signatures[i], keys[i]));
+			else if (scriptPubKey.isSentToRawPubKey())
+				input.setScriptSig(ScriptBuilder.createInputScript(signatures[i]));
+			else
+				throw new ScriptException("Do not understand script type: " + scriptPubKey);
+		}
+
+		log.debug("{} inputs signed and verified in {}ms, {} chunks", new Object[] { numInputs, System.currentTimeMillis() - start,
+				numChunks });
+	}
+
+	private static void signChunk(@Nonnull final Transaction tx, final int from, final int to, @Nonnull final byte[][] connectedScripts,
+			@Nonnull final ECKey[] keys, @Nonnull final TransactionSignature[] signatures)
+	{
+		for (int i = from; i < to; i++)
+		{
+			final Sha256Hash hash = tx.hashForSignature(i, connectedScripts[i], Transaction.SigHash.ALL, false);
+			final ECKey.ECDSASignature signature = sign(keys[i], hash);
+			if (!keys[i].verify(hash, signature))
+				throw new ScriptException("signature of input " + i + " does not verify");
+			signatures[i] = new TransactionSignature(signature, Transaction.SigHash.ALL, false);
+		}
+	}
+
+	/**
+	 * ECDSA signature with a deterministic nonce, see RFC 6979 section 3.2.
+	 */
+	static ECKey.ECDSASignature sign(@Nonnull final ECKey key, @Nonnull final Sha256Hash hash)
+	{
+		final BigInteger n = ECKey.CURVE.getN();
+		final BigInteger d = new BigInteger(1, key.getPrivKeyBytes());
+		final BigInteger e = new BigInteger(1, hash.getBytes());
+
+		final byte[] x = Utils.bigIntegerToBytes(d, 32);
+		final byte[] h = Utils.bigIntegerToBytes(e.mod(n), 32);
+		final HMac hmac = new HMac(new SHA256Digest());
+		byte[] k = new byte[32];
+		byte[] v = new byte[32];
+		Arrays.fill(v, (byte) 0x01);
+
+		k = hmac(hmac, k, v, new byte[] { 0x00 }, x, h);
+		v = hmac(hmac, k, v);
+		k = hmac(hmac, k, v, new byte[] { 0x01 }, x, h);
+		v = hmac(hmac, k, v);
+
+		while (true)
+		{
+			v = hmac(hmac, k, v);
+			final BigInteger nonce = new BigInteger(1, v);
+
+			if (nonce.signum() > 0 && nonce.compareTo(n) < 0)
+			{
+				final BigInteger r = ECKey.CURVE.getG().multiply(nonce).getX().toBigInteger().mod(n);
+				if (r.signum() != 0)
+				{
+					final BigInteger s = nonce.modInverse(n).multiply(e.add(d.multiply(r))).mod(n);
+					if (s.signum() != 0)
+					{
+						final ECKey.ECDSASignature signature = new ECKey.ECDSASignature(r, s);
+						signature.ensureCanonical();
+						return signature;
+					}
+				}
+			}
+
+			k = hmac(hmac, k, v, new byte[] { 0x00 });
+			v = hmac(hmac, k, v);
+		}
+	}
+
+	private static byte[] hmac(@Nonnull final HMac hmac, @Nonnull final byte[] key, @Nonnull final byte[]... data)
+	{
+		hmac.init(new KeyParameter(key));
+		for (final byte[] bytes : data)
+			hmac.update(bytes, 0, bytes.length);
+		final byte[] result = new byte[hmac.getMacSize()];
+		hmac.doFinal(result, 0);
+		return result;
+	}
+}
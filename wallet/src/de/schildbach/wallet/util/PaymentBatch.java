@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.AddressFormatException;
+import com.google.bitcoin.core.NetworkParameters;
+
+import de.schildbach.wallet.Constants;
+
+/**
+ * Parses a list of payments, one {@code address,amount} pair per line as exported by spreadsheets. Fields may also be
+ * separated by semicolons, tabs or spaces. Empty lines, lines starting with {@code #} and a header line starting with
+ * "address" are skipped. Amounts are in full coins.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class PaymentBatch
+{
+	private static final Pattern P_SEPARATOR = Pattern.compile("\\s*[,;\\t ]\\s*");
+
+	/**
+	 * @throws ParseException
+	 *             with the line number (starting at 1) as error offset
+	 */
+	public static List<TransactionPlanner.Payment> parse(@Nonnull final String text, @Nonnull final NetworkParameters params,
+			final long maxValue) throws ParseException
+	{
+		final List<TransactionPlanner.Payment> payments = new ArrayList<TransactionPlanner.Payment>();
+		final String[] lines = text.split("\r?\n|\r");
+		boolean first = true;
+
+		for (int i = 0; i < lines.length; i++)
+		{
+			final String line = lines[i].trim();
+			final int lineNumber = i + 1;
+			if (line.length() == 0 || line.charAt(0) == '#')
+				continue;
+
+			if (first && line.toLowerCase(Locale.US).startsWith("address"))
+			{
+				first = false;
+				continue;
+			}
+			first = false;
+
+			final String[] fields = P_SEPARATOR.split(line);
+			if (fields.length != 2)
+				throw new ParseException("expected address and amount: " + line, lineNumber);
+
+			final Address address;
+			try
+			{
+				address = new Address(params, fields[0]);
+			}
+			catch (final AddressFormatException x)
+			{
+				throw new ParseException("bad address: " + fields[0], lineNumber);
+			}
+
+			final long amount;
+			try
+			{
+				amount = AmountMath.parseNanoCoins(fields[1], 0, maxValue);
+			}
+			catch (final RuntimeException x) // NumberFormatException, ArithmeticException, IllegalArgumentException
+			{
+				throw new ParseException("bad amount: " + fields[1], lineNumber);
+			}
+			if (amount == 0)
+				throw new ParseException("zero amount: " + fields[1], lineNumber);
+
+			payments.add(new TransactionPlanner.Payment(address, BigInteger.valueOf(amount)));
+		}
+
+		return payments;
+	}
+
+	public static BigInteger total(@Nonnull final List<TransactionPlanner.Payment> payments)
+	{
+		BigInteger total = BigInteger.ZERO;
+		for (final TransactionPlanner.Payment payment : payments)
+			total = total.add(payment.amount);
+		return total;
+	}
+
+	/**
+	 * @return line in the format understood by {@link #parse}
+	 */
+	public static String line(@Nonnull final Address address, @Nonnull final BigInteger amount)
+	{
+		return address + "," + GenericUtils.formatValue(amount, Constants.BTC_MAX_PRECISION, 0);
+	}
+}
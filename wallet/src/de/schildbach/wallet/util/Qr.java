@@ -21,58 +21,120 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Hashtable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
+import android.support.v4.util.LruCache;
 
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.EncodeHintType;
 import com.google.zxing.WriterException;
-import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
 
 /**
  * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
  */
 public class Qr
 {
-	private final static QRCodeWriter QR_CODE_WRITER = new QRCodeWriter();
+	private static final byte DARK = (byte) 0xff;
+	private static final int CACHE_SIZE_BYTES = 2 * 1024 * 1024;
+
+	/** Number of characters per code above which binary content is split into parts. */
+	public static final int MAX_PART_LENGTH = 600;
+
+	private static final char FORMAT_DEFLATE = 'D';
+	private static final char FORMAT_GZIP = 'Z';
+	private static final char FORMAT_RAW = '-';
+	private static final char FORMAT_PART = 'P';
+	private static final char DICTIONARY_VERSION = '1';
+
+	// part marker, index, number of parts and checksum, each index and number one Base43 digit
+	private static final int PART_CHECKSUM_LENGTH = 6;
+	private static final int PART_HEADER_LENGTH = 3 + PART_CHECKSUM_LENGTH;
+	private static final int MAX_PARTS = 42;
+
+	private static final int MAX_BINARY_SIZE = 100 * 1024;
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * Preset dictionary of templates found in most transactions: version, signature and public key pushes of inputs,
+	 * sequence, pay-to-pubkey-hash and pay-to-script-hash output scripts and lock time. The most common templates go
+	 * last, as deflate encodes short distances cheaper. Changing it requires a new {@link #DICTIONARY_VERSION}.
+	 */
+	private static final byte[] DICTIONARY_V1 = Hex.decode("0100000001" + "17a914" + "87" + "4104" + "6a47304402200220" + "0121"
+			+ "6b4830450221000220" + "012102" + "012103" + "ffffffff" + "1976a914" + "88ac" + "00000000");
+
+	private static final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(CACHE_SIZE_BYTES)
+	{
+		@Override
+		protected int sizeOf(final String key, final Bitmap bitmap)
+		{
+			return bitmap.getRowBytes() * bitmap.getHeight();
+		}
+	};
 
 	private static final Logger log = LoggerFactory.getLogger(Qr.class);
 
+	/**
+	 * Returns a QR code of the content, drawn in the paint color on transparent. Bitmaps are cached by content and size,
+	 * so the returned bitmap is shared and must not be modified or recycled.
+	 */
 	public static Bitmap bitmap(@Nonnull final String content, final int size)
+	{
+		final String key = size + ":" + content;
+		final Bitmap cached = cache.get(key);
+		if (cached != null)
+			return cached;
+
+		final Bitmap bitmap = bitmap(content, size, null);
+		if (bitmap != null)
+			cache.put(key, bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * Like {@link #bitmap(String, int)}, but bypasses the cache and renders into the given bitmap if it is a mutable
+	 * {@link Bitmap.Config#ALPHA_8} bitmap of the right size. Meant for QR codes that change often, like while typing.
+	 */
+	public static Bitmap bitmap(@Nonnull final String content, final int size, @Nullable final Bitmap reuse)
 	{
 		try
 		{
-			final Hashtable<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
-			hints.put(EncodeHintType.MARGIN, 0);
-			hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.H);
-			final BitMatrix result = QR_CODE_WRITER.encode(content, BarcodeFormat.QR_CODE, size, size, hints);
+			final ByteMatrix matrix = encode(content);
+			final int outputSize = outputSize(matrix, size);
 
-			final int width = result.getWidth();
-			final int height = result.getHeight();
-			final int[] pixels = new int[width * height];
+			final Bitmap bitmap;
+			if (reuse != null && reuse.isMutable() && reuse.getConfig() == Bitmap.Config.ALPHA_8 && reuse.getWidth() == outputSize
+					&& reuse.getHeight() == outputSize)
+				bitmap = reuse;
+			else
+				bitmap = Bitmap.createBitmap(outputSize, outputSize, Bitmap.Config.ALPHA_8);
 
-			for (int y = 0; y < height; y++)
-			{
-				final int offset = y * width;
-				for (int x = 0; x < width; x++)
-				{
-					pixels[offset + x] = result.get(x, y) ? Color.BLACK : Color.TRANSPARENT;
-				}
-			}
+			final int stride = bitmap.getRowBytes();
+			final byte[] pixels = new byte[stride * outputSize];
+			render(matrix, outputSize, pixels, stride);
+			bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
 
-			final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-			bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
 			return bitmap;
 		}
 		catch (final WriterException x)
@@ -82,6 +144,69 @@ public class Qr
 		}
 	}
 
+	/**
+	 * @return one entry per module, 1 for dark
+	 */
+	static ByteMatrix encode(@Nonnull final String content) throws WriterException
+	{
+		return Encoder.encode(content, ErrorCorrectionLevel.H).getMatrix();
+	}
+
+	/**
+	 * @return width and height of the rendered code, the requested size unless the code has more modules
+	 */
+	static int outputSize(@Nonnull final ByteMatrix matrix, final int size)
+	{
+		return Math.max(size, matrix.getWidth());
+	}
+
+	/**
+	 * Scales the modules by the largest whole multiple that fits and centers them, like {@link QRCodeWriter} does
+	 * without margin. Each module row is filled run by run, then copied to the other pixel rows it covers.
+	 *
+	 * @param pixels
+	 *            one byte per pixel, {@link #DARK} or 0
+	 */
+	static void render(@Nonnull final ByteMatrix matrix, final int outputSize, @Nonnull final byte[] pixels, final int stride)
+	{
+		final int modules = matrix.getWidth();
+		final int multiple = outputSize / modules;
+		final int padding = (outputSize - modules * multiple) / 2;
+		final byte[][] rows = matrix.getArray();
+
+		Arrays.fill(pixels, 0, stride * outputSize, (byte) 0);
+
+		for (int y = 0; y < modules; y++)
+		{
+			final byte[] row = rows[y];
+			final int offset = (padding + y * multiple) * stride + padding;
+
+			int x = 0;
+			while (x < modules)
+			{
+				if (row[x] != 1)
+				{
+					x++;
+					continue;
+				}
+
+				int end = x + 1;
+				while (end < modules && row[end] == 1)
+					end++;
+				Arrays.fill(pixels, offset + x * multiple, offset + end * multiple, DARK);
+				x = end;
+			}
+
+			for (int i = 1; i < multiple; i++)
+				System.arraycopy(pixels, offset, pixels, offset + i * stride, modules * multiple);
+		}
+	}
+
+	/**
+	 * Encodes binary data, like a signed transaction, into a single QR code content, in the format all versions can
+	 * read. The first character tells the format: {@link #FORMAT_GZIP} for gzip, or {@link #FORMAT_RAW} if compression
+	 * doesn't pay off. The rest is Base43, which fits the alphanumeric mode of QR codes.
+	 */
 	public static String encodeBinary(@Nonnull final byte[] bytes)
 	{
 		try
@@ -92,11 +217,11 @@ public class Qr
 			gos.close();
 
 			final byte[] gzippedBytes = bos.toByteArray();
-			final boolean useCompressioon = gzippedBytes.length < bytes.length;
+			final boolean useCompression = gzippedBytes.length < bytes.length;
 
 			final StringBuilder str = new StringBuilder();
-			str.append(useCompressioon ? 'Z' : '-');
-			str.append(Base43.encode(useCompressioon ? gzippedBytes : bytes));
+			str.append(useCompression ? FORMAT_GZIP : FORMAT_RAW);
+			str.append(Base43.encode(useCompression ? gzippedBytes : bytes));
 
 			return str.toString();
 		}
@@ -106,23 +231,281 @@ public class Qr
 		}
 	}
 
-	public static byte[] decodeBinary(@Nonnull final String content) throws IOException
+	/**
+	 * Like {@link #encodeBinary(byte[])}, but {@link #FORMAT_DEFLATE} followed by the dictionary version for raw
+	 * deflate with a preset dictionary. Shorter for transactions, but only readable by versions knowing the dictionary.
+	 */
+	static String encodeDictionary(@Nonnull final byte[] bytes)
 	{
-		final boolean useCompression = content.charAt(0) == 'Z';
-		final byte[] bytes = Base43.decode(content.substring(1));
+		final byte[] deflatedBytes = deflate(bytes);
+		final boolean useCompression = deflatedBytes.length < bytes.length;
 
-		InputStream is = new ByteArrayInputStream(bytes);
+		final StringBuilder str = new StringBuilder();
 		if (useCompression)
-			is = new GZIPInputStream(is);
+			str.append(FORMAT_DEFLATE).append(DICTIONARY_VERSION);
+		else
+			str.append(FORMAT_RAW);
+		str.append(Base43.encode(useCompression ? deflatedBytes : bytes));
+
+		return str.toString();
+	}
+
+	/**
+	 * Encodes binary data like {@link #encodeBinary(byte[])} whenever it is not longer than the given length, so that
+	 * older versions can scan it. Only larger data is encoded like {@link #encodeDictionary(byte[])} and, if still
+	 * longer than the given length, split into parts of about the same length, so that no code grows beyond a version
+	 * that scans quickly. Parts can be scanned in any order and put back together by a {@link PartAssembler}.
+	 */
+	public static List<String> encodeBinaryParts(@Nonnull final byte[] bytes, final int maxPartLength)
+	{
+		final String legacyContent = encodeBinary(bytes);
+		if (legacyContent.length() <= maxPartLength)
+			return Collections.singletonList(legacyContent);
+
+		return split(encodeDictionary(bytes), maxPartLength);
+	}
+
+	/**
+	 * @return the content if it is not longer than the given length, or parts of it
+	 */
+	static List<String> split(@Nonnull final String content, final int maxPartLength)
+	{
+		if (content.length() <= maxPartLength)
+			return Collections.singletonList(content);
+
+		final int maxPayloadLength = maxPartLength - PART_HEADER_LENGTH;
+		final int numParts = (content.length() + maxPayloadLength - 1) / maxPayloadLength;
+		if (numParts > MAX_PARTS)
+			throw new IllegalArgumentException("too large for " + MAX_PARTS + " parts: " + content.length());
+
+		final int payloadLength = (content.length() + numParts - 1) / numParts;
+		final String checksum = checksum(content);
+		final List<String> parts = new ArrayList<String>(numParts);
+		for (int i = 0; i < numParts; i++)
+		{
+			final StringBuilder part = new StringBuilder(PART_HEADER_LENGTH + payloadLength);
+			part.append(FORMAT_PART).append(Base43.ALPHABET[i]).append(Base43.ALPHABET[numParts]).append(checksum);
+			part.append(content, i * payloadLength, Math.min((i + 1) * payloadLength, content.length()));
+			parts.add(part.toString());
+		}
+
+		return parts;
+	}
+
+	public static byte[] decodeBinary(@Nonnull final String content) throws IOException
+	{
+		if (content.length() == 0)
+			throw new IOException("empty content");
+
+		final char format = content.charAt(0);
+		if (format == FORMAT_DEFLATE)
+		{
+			if (content.length() < 2 || content.charAt(1) != DICTIONARY_VERSION)
+				throw new IOException("unknown dictionary version: " + content.substring(0, Math.min(content.length(), 2)));
+
+			return inflate(base43Decode(content.substring(2)));
+		}
+		else if (format == FORMAT_GZIP)
+		{
+			return gunzip(base43Decode(content.substring(1)));
+		}
+		else if (format == FORMAT_RAW)
+		{
+			return base43Decode(content.substring(1));
+		}
+		else
+		{
+			throw new IOException("unknown format: " + format);
+		}
+	}
+
+	/**
+	 * @return true if the content is one of several parts made by {@link #encodeBinaryParts(byte[], int)}
+	 */
+	public static boolean isPart(@Nonnull final String content)
+	{
+		return content.length() > PART_HEADER_LENGTH && content.charAt(0) == FORMAT_PART;
+	}
+
+	/**
+	 * Collects parts made by {@link #encodeBinaryParts(byte[], int)}, in any order. A part of a different sequence
+	 * starts over.
+	 */
+	public static final class PartAssembler
+	{
+		private String checksum = null;
+		private String[] payloads = null;
+		private int numPartsReceived = 0;
+
+		/**
+		 * @return the content once all parts of the sequence have been added, or null while parts are missing
+		 * @throws IOException
+		 *             if the part is malformed, or the assembled content doesn't match its checksum
+		 */
+		@CheckForNull
+		public synchronized String add(@Nonnull final String part) throws IOException
+		{
+			if (!isPart(part))
+				throw new IOException("not a part");
+
+			final int index = digit(part.charAt(1));
+			final int numParts = digit(part.charAt(2));
+			if (numParts < 2 || index < 0 || index >= numParts)
+				throw new IOException("illegal part: " + part.substring(0, PART_HEADER_LENGTH));
+
+			final String partChecksum = part.substring(3, PART_HEADER_LENGTH);
+			if (!partChecksum.equals(checksum) || payloads.length != numParts)
+			{
+				checksum = partChecksum;
+				payloads = new String[numParts];
+				numPartsReceived = 0;
+			}
+
+			if (payloads[index] == null)
+			{
+				payloads[index] = part.substring(PART_HEADER_LENGTH);
+				numPartsReceived++;
+			}
+
+			if (numPartsReceived < numParts)
+				return null;
+
+			final StringBuilder content = new StringBuilder();
+			for (final String payload : payloads)
+				content.append(payload);
+			reset();
+
+			if (!checksum(content.toString()).equals(partChecksum))
+				throw new IOException("checksum mismatch");
+
+			return content.toString();
+		}
+
+		public synchronized int getNumParts()
+		{
+			return payloads != null ? payloads.length : 0;
+		}
+
+		public synchronized int getNumPartsReceived()
+		{
+			return numPartsReceived;
+		}
+
+		public synchronized void reset()
+		{
+			checksum = null;
+			payloads = null;
+			numPartsReceived = 0;
+		}
+	}
+
+	private static byte[] deflate(final byte[] bytes)
+	{
+		final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		try
+		{
+			deflater.setDictionary(DICTIONARY_V1);
+			deflater.setInput(bytes);
+			deflater.finish();
+
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length);
+			final byte[] buf = new byte[4096];
+			while (!deflater.finished())
+				bos.write(buf, 0, deflater.deflate(buf));
+
+			return bos.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(final byte[] bytes) throws IOException
+	{
+		final Inflater inflater = new Inflater(true);
+		try
+		{
+			inflater.setDictionary(DICTIONARY_V1);
+			// without zlib header, the inflater wants an extra dummy byte
+			inflater.setInput(Arrays.copyOf(bytes, bytes.length + 1));
+
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length * 2);
+			final byte[] buf = new byte[4096];
+			while (!inflater.finished())
+			{
+				final int read = inflater.inflate(buf);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("truncated");
+				bos.write(buf, 0, read);
+				if (bos.size() > MAX_BINARY_SIZE)
+					throw new IOException("exceeds " + MAX_BINARY_SIZE + " bytes");
+			}
+
+			return bos.toByteArray();
+		}
+		catch (final DataFormatException x)
+		{
+			throw new IOException(x.getMessage());
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	private static byte[] gunzip(final byte[] bytes) throws IOException
+	{
+		final InputStream is = new GZIPInputStream(new ByteArrayInputStream(bytes));
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
 		final byte[] buf = new byte[4096];
 		int read;
 		while (-1 != (read = is.read(buf)))
+		{
 			baos.write(buf, 0, read);
+			if (baos.size() > MAX_BINARY_SIZE)
+				throw new IOException("exceeds " + MAX_BINARY_SIZE + " bytes");
+		}
 		baos.close();
 		is.close();
 
 		return baos.toByteArray();
 	}
+
+	private static byte[] base43Decode(final String str) throws IOException
+	{
+		try
+		{
+			return Base43.decode(str);
+		}
+		catch (final IllegalArgumentException x)
+		{
+			throw new IOException(x.getMessage());
+		}
+	}
+
+	/**
+	 * @return CRC32 of the content as a fixed number of Base43 digits
+	 */
+	private static String checksum(final String content)
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(content.getBytes(US_ASCII));
+
+		long value = crc.getValue();
+		final char[] digits = new char[PART_CHECKSUM_LENGTH];
+		for (int i = digits.length - 1; i >= 0; i--)
+		{
+			digits[i] = Base43.ALPHABET[(int) (value % Base43.ALPHABET.length)];
+			value /= Base43.ALPHABET.length;
+		}
+
+		return new String(digits);
+	}
+
+	private static int digit(final char c)
+	{
+		return c < Base43.INDEXES.length ? Base43.INDEXES[c] : -1;
+	}
 }
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local history of exchange rates, one append-only file per currency and resolution. Each resolution keeps the first
+ * rate seen per interval. Records are stored as zig-zag varint deltas of interval number and rate, so a sample
+ * typically takes 2-4 bytes.
+ *
+ * Files are compacted to their retention once they grew by half of it, which bounds disk use to about
+ * {@code 1.5 * retention} records per currency and resolution. Series are kept in memory after first use, so range
+ * queries are a binary search plus a copy.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class RateHistory
+{
+	public enum Resolution
+	{
+		HOUR(60 * 60 * 1000l, 24 * 31), DAY(24 * 60 * 60 * 1000l, 2 * 366), WEEK(7 * 24 * 60 * 60 * 1000l, 10 * 53);
+
+		public final long intervalMs;
+		public final int retention;
+
+		private Resolution(final long intervalMs, final int retention)
+		{
+			this.intervalMs = intervalMs;
+			this.retention = retention;
+		}
+
+		public long retentionMs()
+		{
+			return intervalMs * retention;
+		}
+
+		/**
+		 * @return finest resolution that still covers the given time
+		 */
+		public static Resolution forRange(final long fromMs, final long now)
+		{
+			for (final Resolution resolution : values())
+				if (now - fromMs <= resolution.retentionMs())
+					return resolution;
+
+			return WEEK;
+		}
+	}
+
+	public static final class Sample
+	{
+		public final long time;
+		public final long rate;
+
+		public Sample(final long time, final long rate)
+		{
+			this.time = time;
+			this.rate = rate;
+		}
+
+		@Override
+		public boolean equals(final Object o)
+		{
+			if (!(o instanceof Sample))
+				return false;
+
+			final Sample other = (Sample) o;
+			return time == other.time && rate == other.rate;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (int) (time ^ (time >>> 32)) * 31 + (int) (rate ^ (rate >>> 32));
+		}
+
+		@Override
+		public String toString()
+		{
+			return getClass().getSimpleName() + '[' + time + ':' + rate + ']';
+		}
+	}
+
+	private static final Pattern P_CURRENCY_CODE = Pattern.compile("[A-Z0-9]{1,10}");
+
+	private final File dir;
+	private final Map<String, Series> series = new HashMap<String, Series>();
+
+	private static final Logger log = LoggerFactory.getLogger(RateHistory.class);
+
+	public RateHistory(@Nonnull final File dir)
+	{
+		this.dir = dir;
+	}
+
+	/**
+	 * Records a rate. Rates older than the latest recorded interval of a resolution are ignored by that resolution.
+	 */
+	public synchronized void add(@Nonnull final String currencyCode, final long time, final long rate) throws IOException
+	{
+		for (final Resolution resolution : Resolution.values())
+			series(currencyCode, resolution).add(time / resolution.intervalMs, rate);
+	}
+
+	/**
+	 * @return samples with time between fromMs and toMs (inclusive), in chronological order
+	 */
+	public synchronized List<Sample> query(@Nonnull final String currencyCode, @Nonnull final Resolution resolution, final long fromMs,
+			final long toMs) throws IOException
+	{
+		final Series s = series(currencyCode, resolution);
+		final long fromInterval = (fromMs + resolution.intervalMs - 1) / resolution.intervalMs;
+
+		int i = Arrays.binarySearch(s.intervals, 0, s.size, fromInterval);
+		if (i < 0)
+			i = -i - 1;
+
+		final List<Sample> samples = new ArrayList<Sample>();
+		for (; i < s.size; i++)
+		{
+			final long time = s.intervals[i] * resolution.intervalMs;
+			if (time > toMs)
+				break;
+			samples.add(new Sample(time, s.rates[i]));
+		}
+		return samples;
+	}
+
+	private Series series(@Nonnull final String currencyCode, @Nonnull final Resolution resolution) throws IOException
+	{
+		if (!P_CURRENCY_CODE.matcher(currencyCode).matches())
+			throw new IllegalArgumentException("illegal currency code: " + currencyCode);
+
+		final String name = currencyCode + '.' + resolution.name().toLowerCase(Locale.US);
+		Series s = series.get(name);
+		if (s == null)
+		{
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("cannot create " + dir);
+
+			s = new Series(new File(dir, name), resolution.retention);
+			series.put(name, s);
+		}
+		return s;
+	}
+
+	private static final class Series
+	{
+		private final File file;
+		private final int retention;
+
+		private long[] intervals = new long[16];
+		private long[] rates = new long[16];
+		private int size = 0;
+		private int sizeOnDisk = 0;
+
+		public Series(@Nonnull final File file, final int retention) throws IOException
+		{
+			this.file = file;
+			this.retention = retention;
+
+			if (file.exists())
+				load();
+		}
+
+		public void add(final long interval, final long rate) throws IOException
+		{
+			if (size > 0 && interval <= intervals[size - 1])
+				return;
+
+			final ByteArrayOutputStream record = new ByteArrayOutputStream(20);
+			writeRecord(record, interval, rate, size > 0 ? intervals[size - 1] : 0, size > 0 ? rates[size - 1] : 0);
+
+			final OutputStream os = new FileOutputStream(file, true);
+			try
+			{
+				record.writeTo(os);
+			}
+			finally
+			{
+				os.close();
+			}
+
+			append(interval, rate);
+			sizeOnDisk++;
+
+			if (sizeOnDisk > compactionThreshold())
+				compact();
+		}
+
+		private void load() throws IOException
+		{
+			final byte[] bytes = new byte[(int) file.length()];
+			final InputStream is = new FileInputStream(file);
+			try
+			{
+				int read = 0;
+				while (read < bytes.length)
+				{
+					final int n = is.read(bytes, read, bytes.length - read);
+					if (n == -1)
+						break;
+					read += n;
+				}
+			}
+			finally
+			{
+				is.close();
+			}
+
+			final int[] pos = new int[1];
+			int validLength = 0;
+			long interval = 0;
+			long rate = 0;
+			while (pos[0] < bytes.length)
+			{
+				final long intervalDelta = readVarLong(bytes, pos);
+				final long rateDelta = intervalDelta != Long.MIN_VALUE ? readVarLong(bytes, pos) : Long.MIN_VALUE;
+				if (rateDelta == Long.MIN_VALUE)
+					break;
+
+				interval += intervalDelta;
+				rate += rateDelta;
+				append(interval, rate);
+				validLength = pos[0];
+			}
+			sizeOnDisk = size;
+
+			if (validLength < bytes.length)
+			{
+				// torn write at the end, probably the process died while appending
+				log.info("truncating {} from {} to {} bytes", new Object[] { file, bytes.length, validLength });
+
+				final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try
+				{
+					raf.setLength(validLength);
+				}
+				finally
+				{
+					raf.close();
+				}
+			}
+
+			if (sizeOnDisk > compactionThreshold())
+				compact();
+		}
+
+		private int compactionThreshold()
+		{
+			return retention + retention / 2;
+		}
+
+		private void compact() throws IOException
+		{
+			final int start = Math.max(0, size - retention);
+			final File tmpFile = new File(file.getPath() + ".tmp");
+			final OutputStream os = new FileOutputStream(tmpFile);
+			try
+			{
+				final ByteArrayOutputStream buffer = new ByteArrayOutputStream((size - start) * 4);
+				for (int i = start; i < size; i++)
+					writeRecord(buffer, intervals[i], rates[i], i > start ? intervals[i - 1] : 0, i > start ? rates[i - 1] : 0);
+				buffer.writeTo(os);
+			}
+			finally
+			{
+				os.close();
+			}
+
+			if (!tmpFile.renameTo(file))
+				throw new IOException("cannot rename " + tmpFile + " to " + file);
+
+			System.arraycopy(intervals, start, intervals, 0, size - start);
+			System.arraycopy(rates, start, rates, 0, size - start);
+			size -= start;
+			sizeOnDisk = size;
+		}
+
+		private void append(final long interval, final long rate)
+		{
+			if (size == intervals.length)
+			{
+				intervals = Arrays.copyOf(intervals, size * 2);
+				rates = Arrays.copyOf(rates, size * 2);
+			}
+
+			intervals[size] = interval;
+			rates[size] = rate;
+			size++;
+		}
+	}
+
+	private static void writeRecord(@Nonnull final ByteArrayOutputStream os, final long interval, final long rate, final long previousInterval,
+			final long previousRate)
+	{
+		writeVarLong(os, interval - previousInterval);
+		writeVarLong(os, rate - previousRate);
+	}
+
+	private static void writeVarLong(@Nonnull final ByteArrayOutputStream os, final long value)
+	{
+		long zigZag = (value << 1) ^ (value >> 63);
+		while ((zigZag & ~0x7fl) != 0)
+		{
+			os.write((int) ((zigZag & 0x7f) | 0x80));
+			zigZag >>>= 7;
+		}
+		os.write((int) zigZag);
+	}
+
+	/**
+	 * @return decoded value, or {@link Long#MIN_VALUE} if the input ends prematurely
+	 */
+	private static long readVarLong(@Nonnull final byte[] bytes, @Nonnull final int[] pos)
+	{
+		long zigZag = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			if (pos[0] >= bytes.length)
+				return Long.MIN_VALUE;
+
+			final byte b = bytes[pos[0]++];
+			zigZag |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return (zigZag >>> 1) ^ -(zigZag & 1);
+		}
+		return Long.MIN_VALUE;
+	}
+}
@@ -0,0 +1,583 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.InsufficientMoneyException;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.VerificationException;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.Wallet.SendRequest;
+import com.google.bitcoin.script.Script;
+import com.google.bitcoin.wallet.DefaultCoinSelector;
+
+/**
+ * Plans a spend in one pass over the spendable outputs: inputs are added in the order of {@link DefaultCoinSelector}
+ * until they cover amount and fee, with the fee derived from the exact size the signed transaction will have. Change
+ * below a threshold is given to the miners rather than creating an output that costs more to spend than it's worth.
+ * The planned transaction is then built and signed once.
+ *
+ * Fees follow the rule {@code max(minFee, feePerKb * (1 + size / 1000))}.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public final class TransactionPlanner
+{
+	// version, lock time
+	private static final int TX_OVERHEAD_SIZE = 4 + 4;
+	// outpoint, script length, sequence
+	private static final int INPUT_OVERHEAD_SIZE = 32 + 4 + 1 + 4;
+	// DER signature including sighash byte, at most
+	private static final int MAX_SIGNATURE_SIZE = 73;
+	// value, script length
+	private static final int OUTPUT_OVERHEAD_SIZE = 8 + 1;
+	private static final int PAY_TO_ADDRESS_SCRIPT_SIZE = 25;
+	private static final int PAY_TO_SCRIPT_HASH_SCRIPT_SIZE = 23;
+	private static final int UNCOMPRESSED_PUBKEY_SIZE = 65;
+
+	private static final int MAX_EXACT_MATCH_TRIES = 100000;
+
+	private final long feePerKb;
+	private final long minFee;
+	private final long minChange;
+
+	public static final class Payment
+	{
+		public final Address to;
+		public final BigInteger amount;
+
+		public Payment(@Nonnull final Address to, @Nonnull final BigInteger amount)
+		{
+			this.to = to;
+			this.amount = amount;
+		}
+
+		@Override
+		public String toString()
+		{
+			return getClass().getSimpleName() + '[' + to + ", " + amount + ']';
+		}
+	}
+
+	public static final class Plan
+	{
+		public final List<TransactionOutput> inputs;
+		public final List<Payment> payments;
+		/** sum of all payments */
+		public final BigInteger amount;
+		public final BigInteger fee;
+		@CheckForNull
+		public final Address changeAddress;
+		public final BigInteger change;
+		public final int size;
+
+		private Plan(@Nonnull final List<TransactionOutput> inputs, @Nonnull final List<Payment> payments, final long amount, final long fee,
+				@Nullable final Address changeAddress, final long change, final int size)
+		{
+			this.inputs = inputs;
+			this.payments = payments;
+			this.amount = BigInteger.valueOf(amount);
+			this.fee = BigInteger.valueOf(fee);
+			this.changeAddress = change > 0 ? changeAddress : null;
+			this.change = BigInteger.valueOf(change);
+			this.size = size;
+		}
+
+		@Override
+		public String toString()
+		{
+			return getClass().getSimpleName() + "[" + inputs.size() + " inputs, " + payments.size() + " payments, amount " + amount + ", fee " + fee + ", change " + change
+					+ ", " + size + " bytes]";
+		}
+	}
+
+	/**
+	 * @param minChange
+	 *            change below this value is added to the fee
+	 */
+	public TransactionPlanner(@Nonnull final BigInteger feePerKb, @Nonnull final BigInteger minFee, @Nonnull final BigInteger minChange)
+	{
+		this.feePerKb = feePerKb.longValue();
+		this.minFee = minFee.longValue();
+		this.minChange = minChange.longValue();
+	}
+
+	public long fee(final int size)
+	{
+		return Math.max(minFee, feePerKb * (1 + size / 1000));
+	}
+
+	/**
+	 * @return fee rate applied to the given number of bytes, without rounding up to whole kilobytes or the minimum fee
+	 */
+	public long marginalFee(final int size)
+	{
+		return feePerKb * size / 1000;
+	}
+
+	/**
+	 * Plans sending the given amount. If emptyWallet is set, all candidates are spent and the fee is subtracted from
+	 * the amount instead.
+	 *
+	 * @param candidates
+	 *            spendable outputs in order of preference, see {@link #spendCandidates(Wallet)}
+	 * @throws InsufficientMoneyException
+	 *             if the candidates don't cover amount and fee
+	 */
+	public Plan plan(@Nonnull final Wallet wallet, @Nonnull final List<TransactionOutput> candidates, @Nonnull final Address to,
+			@Nonnull final BigInteger amount, @Nonnull final Address changeAddress, final boolean emptyWallet) throws InsufficientMoneyException
+	{
+		final int toSize = outputSize(to);
+		final int changeSize = outputSize(changeAddress);
+
+		long value = 0;
+		int inputsSize = 0;
+
+		if (emptyWallet)
+		{
+			for (final TransactionOutput candidate : candidates)
+			{
+				value += candidate.getValue().longValue();
+				inputsSize += inputSize(wallet, candidate);
+			}
+
+			final int size = txSize(candidates.size(), inputsSize, 1, toSize);
+			final long fee = fee(size);
+			final long sendAmount = value - fee;
+			if (sendAmount < Transaction.MIN_NONDUST_OUTPUT.longValue())
+				throw new InsufficientMoneyException(BigInteger.valueOf(Transaction.MIN_NONDUST_OUTPUT.longValue() - sendAmount));
+
+			return new Plan(Collections.unmodifiableList(new ArrayList<TransactionOutput>(candidates)), Collections.singletonList(new Payment(to,
+					BigInteger.valueOf(sendAmount))), sendAmount, fee, changeAddress, 0, size);
+		}
+
+		final long target = amount.longValue();
+		final List<Payment> payments = Collections.singletonList(new Payment(to, amount));
+		final List<TransactionOutput> inputs = new ArrayList<TransactionOutput>();
+		long missing = target + fee(txSize(0, 0, 1, toSize));
+
+		for (final TransactionOutput candidate : candidates)
+		{
+			inputs.add(candidate);
+			value += candidate.getValue().longValue();
+			inputsSize += inputSize(wallet, candidate);
+
+			final int sizeWithoutChange = txSize(inputs.size(), inputsSize, 1, toSize);
+			final long feeWithoutChange = fee(sizeWithoutChange);
+			missing = target + feeWithoutChange - value;
+			if (missing > 0)
+				continue;
+
+			final int sizeWithChange = txSize(inputs.size(), inputsSize, 2, toSize + changeSize);
+			final long change = value - target - fee(sizeWithChange);
+			if (change >= minChange)
+				return new Plan(Collections.unmodifiableList(inputs), payments, target, fee(sizeWithChange), changeAddress, change, sizeWithChange);
+
+			// change too small to be worth an output, fold it into the fee
+			return new Plan(Collections.unmodifiableList(inputs), payments, target, value - target, changeAddress, 0, sizeWithoutChange);
+		}
+
+		throw new InsufficientMoneyException(BigInteger.valueOf(missing));
+	}
+
+	/**
+	 * Plans paying all given payments in as few transactions as the size limit allows. Candidates are walked once: each
+	 * transaction takes the next candidates until they cover its payments and fee, and is closed as soon as another
+	 * payment would make it exceed maxSize.
+	 *
+	 * @param candidates
+	 *            spendable outputs in order of preference, see {@link #spendCandidates(Wallet)}
+	 * @throws InsufficientMoneyException
+	 *             if the candidates don't cover all payments and fees
+	 * @throws IllegalArgumentException
+	 *             if a single payment, with the inputs it needs, doesn't fit into maxSize
+	 */
+	public List<Plan> planBatch(@Nonnull final Wallet wallet, @Nonnull final List<TransactionOutput> candidates,
+			@Nonnull final List<Payment> payments, @Nonnull final Address changeAddress, final int maxSize) throws InsufficientMoneyException
+	{
+		final int changeSize = outputSize(changeAddress);
+		final List<Plan> plans = new ArrayList<Plan>();
+
+		int firstPayment = 0;
+		int firstInput = 0;
+		int cursor = 0;
+		long value = 0;
+		int inputsSize = 0;
+		long target = 0;
+		int outputsSize = 0;
+
+		int i = 0;
+		while (i < payments.size())
+		{
+			final Payment payment = payments.get(i);
+			final int savedCursor = cursor;
+			final long savedValue = value;
+			final int savedInputsSize = inputsSize;
+
+			final long paymentTarget = target + payment.amount.longValue();
+			final int paymentOutputsSize = outputsSize + outputSize(payment.to);
+			final int numOutputs = i - firstPayment + 1;
+
+			long missing = paymentTarget + fee(txSize(cursor - firstInput, inputsSize, numOutputs, paymentOutputsSize)) - value;
+			while (missing > 0 && cursor < candidates.size())
+			{
+				final TransactionOutput candidate = candidates.get(cursor++);
+				value += candidate.getValue().longValue();
+				inputsSize += inputSize(wallet, candidate);
+				missing = paymentTarget + fee(txSize(cursor - firstInput, inputsSize, numOutputs, paymentOutputsSize)) - value;
+			}
+
+			if (missing > 0)
+			{
+				for (int j = i + 1; j < payments.size(); j++)
+					missing += payments.get(j).amount.longValue();
+				throw new InsufficientMoneyException(BigInteger.valueOf(missing));
+			}
+
+			if (txSize(cursor - firstInput, inputsSize, numOutputs + 1, paymentOutputsSize + changeSize) > maxSize)
+			{
+				if (i == firstPayment)
+					throw new IllegalArgumentException("payment doesn't fit into " + maxSize + " bytes: " + payment);
+
+				// close the transaction without this payment, which starts the next one
+				plans.add(finishBatch(candidates.subList(firstInput, savedCursor), payments.subList(firstPayment, i), savedValue,
+						savedInputsSize, target, outputsSize, changeAddress, changeSize));
+
+				firstPayment = i;
+				firstInput = savedCursor;
+				cursor = savedCursor;
+				value = 0;
+				inputsSize = 0;
+				target = 0;
+				outputsSize = 0;
+				continue;
+			}
+
+			target = paymentTarget;
+			outputsSize = paymentOutputsSize;
+			i++;
+		}
+
+		if (firstPayment < payments.size())
+			plans.add(finishBatch(candidates.subList(firstInput, cursor), payments.subList(firstPayment, payments.size()), value, inputsSize,
+					target, outputsSize, changeAddress, changeSize));
+
+		return plans;
+	}
+
+	private Plan finishBatch(@Nonnull final List<TransactionOutput> inputs, @Nonnull final List<Payment> payments, final long value,
+			final int inputsSize, final long target, final int outputsSize, @Nonnull final Address changeAddress, final int changeSize)
+	{
+		final List<TransactionOutput> planInputs = Collections.unmodifiableList(new ArrayList<TransactionOutput>(inputs));
+		final List<Payment> planPayments = Collections.unmodifiableList(new ArrayList<Payment>(payments));
+
+		final int sizeWithChange = txSize(inputs.size(), inputsSize, payments.size() + 1, outputsSize + changeSize);
+		final long change = value - target - fee(sizeWithChange);
+		if (change >= minChange)
+			return new Plan(planInputs, planPayments, target, fee(sizeWithChange), changeAddress, change, sizeWithChange);
+
+		// change too small to be worth an output, fold it into the fee
+		final int sizeWithoutChange = txSize(inputs.size(), inputsSize, payments.size(), outputsSize);
+		return new Plan(planInputs, planPayments, target, value - target, changeAddress, 0, sizeWithoutChange);
+	}
+
+	/**
+	 * Searches, by branch and bound, for a set of candidates that pays amount and fee without a change output, giving
+	 * less than the minimum change to the miners.
+	 *
+	 * @param candidates
+	 *            spendable outputs, largest first
+	 * @return matching outputs, largest first, or null if there is no match or the search gave up
+	 */
+	@CheckForNull
+	public List<TransactionOutput> exactMatch(@Nonnull final Wallet wallet, @Nonnull final List<TransactionOutput> candidates,
+			@Nonnull final Address to, final long amount)
+	{
+		final int n = candidates.size();
+		final int toSize = outputSize(to);
+		final long[] values = new long[n];
+		final int[] sizes = new int[n];
+		final long[] remaining = new long[n + 1];
+		for (int i = n - 1; i >= 0; i--)
+		{
+			final TransactionOutput candidate = candidates.get(i);
+			values[i] = candidate.getValue().longValue();
+			sizes[i] = inputSize(wallet, candidate);
+			remaining[i] = remaining[i + 1] + values[i];
+		}
+
+		final boolean[] selected = new boolean[n];
+		int depth = 0;
+		long value = 0;
+		int numInputs = 0;
+		int inputsSize = 0;
+
+		for (int tries = 0; tries < MAX_EXACT_MATCH_TRIES; tries++)
+		{
+			final long needed = amount + fee(txSize(numInputs, inputsSize, 1, toSize));
+
+			if (value >= needed && value - needed < minChange)
+			{
+				final List<TransactionOutput> match = new ArrayList<TransactionOutput>(numInputs);
+				for (int i = 0; i < depth; i++)
+					if (selected[i])
+						match.add(candidates.get(i));
+				return match;
+			}
+
+			// fees only grow with more inputs, so neither overshooting nor falling short can be repaired further down
+			if (value >= needed || depth == n || value + remaining[depth] < needed)
+			{
+				// backtrack to the most recently selected candidate and try without it
+				while (depth > 0 && !selected[depth - 1])
+					depth--;
+				if (depth == 0)
+					return null;
+
+				depth--;
+				selected[depth] = false;
+				value -= values[depth];
+				numInputs--;
+				inputsSize -= sizes[depth];
+				depth++;
+
+				// leaving out an equal value is the same as leaving out this one
+				while (depth < n && values[depth] == values[depth - 1])
+					depth++;
+			}
+			else
+			{
+				selected[depth] = true;
+				value += values[depth];
+				numInputs++;
+				inputsSize += sizes[depth];
+				depth++;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param candidates
+	 *            spendable outputs, largest first
+	 * @return smallest candidate that pays amount and fee on its own, either with a proper change output or with change
+	 *         small enough to be given to the miners, or null if there is none
+	 */
+	@CheckForNull
+	public TransactionOutput smallestCovering(@Nonnull final Wallet wallet, @Nonnull final List<TransactionOutput> candidates,
+			@Nonnull final Address to, @Nonnull final Address changeAddress, final long amount)
+	{
+		final int toSize = outputSize(to);
+		final int changeSize = outputSize(changeAddress);
+
+		for (int i = candidates.size() - 1; i >= 0; i--)
+		{
+			final TransactionOutput candidate = candidates.get(i);
+			final long value = candidate.getValue().longValue();
+			if (value < amount + minFee)
+				continue;
+
+			final int inputSize = inputSize(wallet, candidate);
+
+			final long neededWithoutChange = amount + fee(txSize(1, inputSize, 1, toSize));
+			if (value >= neededWithoutChange && value - neededWithoutChange < minChange)
+				return candidate;
+			if (value >= amount + fee(txSize(1, inputSize, 2, toSize + changeSize)) + minChange)
+				return candidate;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Builds the planned transaction and signs it.
+	 */
+	public SendRequest complete(@Nonnull final Plan plan, @Nonnull final Wallet wallet) throws ScriptException
+	{
+		final Transaction tx = new Transaction(wallet.getParams());
+		for (final Payment payment : plan.payments)
+			tx.addOutput(payment.amount, payment.to);
+		if (plan.changeAddress != null)
+			tx.addOutput(plan.change, plan.changeAddress);
+		for (final TransactionOutput input : plan.inputs)
+			tx.addInput(input);
+
+		new ParallelInputSigner().signInputs(tx, wallet);
+
+		final SendRequest sendRequest = SendRequest.forTx(tx);
+		sendRequest.fee = plan.fee;
+		sendRequest.changeAddress = plan.changeAddress;
+		return sendRequest;
+	}
+
+	/**
+	 * Commits a completed spend unless one of its inputs was spent since it was planned, e.g. by a send committed
+	 * meanwhile. The wallet itself accepts a second pending transaction spending the same output, so this is checked
+	 * under the wallet lock right before committing.
+	 *
+	 * @return false if an input is no longer available, in which case nothing was committed
+	 */
+	public static boolean commitIfUnspent(@Nonnull final Wallet wallet, @Nonnull final Transaction tx) throws VerificationException
+	{
+		return commitIfUnspent(wallet, Collections.singletonList(tx));
+	}
+
+	/**
+	 * Commits spends of disjoint inputs all together, or none of them if any input was spent since they were planned.
+	 *
+	 * @return false if an input is no longer available, in which case nothing was committed
+	 */
+	public static boolean commitIfUnspent(@Nonnull final Wallet wallet, @Nonnull final List<Transaction> txs) throws VerificationException
+	{
+		final Lock lock = wallet.getLock();
+		lock.lock();
+		try
+		{
+			for (final Transaction tx : txs)
+			{
+				for (final TransactionInput input : tx.getInputs())
+				{
+					final TransactionOutPoint outpoint = input.getOutpoint();
+					final Transaction connectedTx = wallet.getTransaction(outpoint.getHash());
+					if (connectedTx == null || outpoint.getIndex() >= connectedTx.getOutputs().size())
+						return false;
+					if (!connectedTx.getOutput((int) outpoint.getIndex()).isAvailableForSpending())
+						return false;
+				}
+			}
+
+			for (final Transaction tx : txs)
+				wallet.commitTx(tx);
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return outputs the wallet can spend, in the order {@link DefaultCoinSelector} would pick them
+	 */
+	public static List<TransactionOutput> spendCandidates(@Nonnull final Wallet wallet)
+	{
+		return sortedCandidates(wallet.calculateAllSpendCandidates(true));
+	}
+
+	public static List<TransactionOutput> sortedCandidates(@Nonnull final Collection<TransactionOutput> outputs)
+	{
+		final List<TransactionOutput> candidates = new ArrayList<TransactionOutput>(outputs.size());
+		for (final TransactionOutput output : outputs)
+			if (DefaultCoinSelector.isSelectable(output.getParentTransaction()))
+				candidates.add(output);
+
+		Collections.sort(candidates, DEFAULT_ORDER);
+
+		return candidates;
+	}
+
+	static final Comparator<TransactionOutput> DEFAULT_ORDER = new Comparator<TransactionOutput>()
+	{
+		@Override
+		public int compare(final TransactionOutput lhs, final TransactionOutput rhs)
+		{
+			final BigInteger lhsValue = lhs.getValue();
+			final BigInteger rhsValue = rhs.getValue();
+
+			// prefer coin depth, which is depth times value
+			final int depthComparison = rhsValue.multiply(BigInteger.valueOf(depth(rhs))).compareTo(
+					lhsValue.multiply(BigInteger.valueOf(depth(lhs))));
+			if (depthComparison != 0)
+				return depthComparison;
+
+			// then larger values
+			final int valueComparison = rhsValue.compareTo(lhsValue);
+			if (valueComparison != 0)
+				return valueComparison;
+
+			// then something stable
+			return lhs.getParentTransaction().getHash().toBigInteger().compareTo(rhs.getParentTransaction().getHash().toBigInteger());
+		}
+
+		private int depth(@Nonnull final TransactionOutput output)
+		{
+			final Transaction tx = output.getParentTransaction();
+			return tx.getConfidence().getConfidenceType() == ConfidenceType.BUILDING ? tx.getConfidence().getDepthInBlocks() : 0;
+		}
+	};
+
+	static int txSize(final int numInputs, final int inputsSize, final int numOutputs, final int outputsSize)
+	{
+		return TX_OVERHEAD_SIZE + varIntSize(numInputs) + inputsSize + varIntSize(numOutputs) + outputsSize;
+	}
+
+	/**
+	 * @return size of the signed input spending the given output, erring on the larger side
+	 */
+	public static int inputSize(@Nonnull final Wallet wallet, @Nonnull final TransactionOutput output)
+	{
+		final Script script = output.getScriptPubKey();
+
+		if (script.isSentToRawPubKey())
+			return INPUT_OVERHEAD_SIZE + 1 + MAX_SIGNATURE_SIZE;
+
+		int pubKeySize = UNCOMPRESSED_PUBKEY_SIZE;
+		if (script.isSentToAddress())
+		{
+			final ECKey key = wallet.findKeyFromPubHash(script.getPubKeyHash());
+			if (key != null)
+				pubKeySize = key.getPubKey().length;
+		}
+
+		return INPUT_OVERHEAD_SIZE + 1 + MAX_SIGNATURE_SIZE + 1 + pubKeySize;
+	}
+
+	public static int outputSize(@Nonnull final Address address)
+	{
+		return OUTPUT_OVERHEAD_SIZE + (address.isP2SHAddress() ? PAY_TO_SCRIPT_HASH_SCRIPT_SIZE : PAY_TO_ADDRESS_SCRIPT_SIZE);
+	}
+
+	private static int varIntSize(final int value)
+	{
+		if (value < 0xfd)
+			return 1;
+		else if (value <= 0xffff)
+			return 3;
+		else
+			return 5;
+	}
+}
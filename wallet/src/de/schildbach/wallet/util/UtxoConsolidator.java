@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.InsufficientMoneyException;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.Wallet.SendRequest;
+
+/**
+ * Merges small spendable outputs into one output paid to the wallet itself, so that later sends need fewer inputs.
+ * Consolidation pays the fee rate of {@link TransactionPlanner} and only spends outputs that are worth more than the
+ * fee their input adds; smaller outputs are left alone because consolidating them would lose money.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class UtxoConsolidator
+{
+	private final TransactionPlanner planner;
+	private final long threshold;
+	private final int minInputs;
+	private final int maxInputs;
+
+	public static final class Result
+	{
+		public final SendRequest sendRequest;
+		public final int numInputs;
+		public final BigInteger fee;
+		/** average number of inputs of the reference sends before consolidation, NaN if there are none */
+		public final double inputsPerSendBefore;
+		/** average number of inputs of the reference sends after consolidation, NaN if there are none */
+		public final double inputsPerSendAfter;
+
+		private Result(@Nonnull final SendRequest sendRequest, final double inputsPerSendBefore, final double inputsPerSendAfter)
+		{
+			this.sendRequest = sendRequest;
+			this.numInputs = sendRequest.tx.getInputs().size();
+			this.fee = sendRequest.fee;
+			this.inputsPerSendBefore = inputsPerSendBefore;
+			this.inputsPerSendAfter = inputsPerSendAfter;
+		}
+
+		@Override
+		public String toString()
+		{
+			return getClass().getSimpleName() + "[" + numInputs + " inputs, fee " + fee + ", inputs per send "
+					+ String.format("%.1f -> %.1f", inputsPerSendBefore, inputsPerSendAfter) + "]";
+		}
+	}
+
+	/**
+	 * @param threshold
+	 *            outputs below this value are consolidated
+	 * @param minInputs
+	 *            consolidate only if at least this many outputs qualify
+	 * @param maxInputs
+	 *            spend at most this many outputs per consolidation
+	 */
+	public UtxoConsolidator(@Nonnull final TransactionPlanner planner, @Nonnull final BigInteger threshold, final int minInputs,
+			final int maxInputs)
+	{
+		if (minInputs < 2 || maxInputs < minInputs)
+			throw new IllegalArgumentException("illegal limits: " + minInputs + ", " + maxInputs);
+
+		this.planner = planner;
+		this.threshold = threshold.longValue();
+		this.minInputs = minInputs;
+		this.maxInputs = maxInputs;
+	}
+
+	/**
+	 * Builds and signs a consolidation transaction, but doesn't commit it.
+	 *
+	 * @param candidates
+	 *            spendable outputs, largest first
+	 * @param referenceAmounts
+	 *            amounts of typical sends, used to estimate the effect. The estimate spends the smallest outputs first,
+	 *            which is the worst case and the way a wallet that has received many small payments ends up with
+	 *            large transactions.
+	 * @return consolidation, or null if not enough outputs qualify
+	 */
+	@CheckForNull
+	public Result consolidate(@Nonnull final Wallet wallet, @Nonnull final List<TransactionOutput> candidates, @Nonnull final Address address,
+			@Nonnull final Collection<BigInteger> referenceAmounts)
+	{
+		final int toSize = TransactionPlanner.outputSize(address);
+		final List<TransactionOutput> inputs = new ArrayList<TransactionOutput>();
+		long value = 0;
+		int inputsSize = 0;
+
+		// smallest first, as they are the ones that bloat sends
+		for (int i = candidates.size() - 1; i >= 0 && inputs.size() < maxInputs; i--)
+		{
+			final TransactionOutput candidate = candidates.get(i);
+			final long candidateValue = candidate.getValue().longValue();
+			if (candidateValue >= threshold)
+				break;
+
+			final int inputSize = TransactionPlanner.inputSize(wallet, candidate);
+			if (candidateValue <= planner.marginalFee(inputSize))
+				continue;
+
+			inputs.add(candidate);
+			value += candidateValue;
+			inputsSize += inputSize;
+		}
+
+		if (inputs.size() < minInputs)
+			return null;
+
+		final long fee = planner.fee(TransactionPlanner.txSize(inputs.size(), inputsSize, 1, toSize));
+		if (value - fee < Transaction.MIN_NONDUST_OUTPUT.longValue())
+			return null;
+
+		final Transaction tx = new Transaction(wallet.getParams());
+		tx.addOutput(BigInteger.valueOf(value - fee), address);
+		for (final TransactionOutput input : inputs)
+			tx.addInput(input);
+		new ParallelInputSigner().signInputs(tx, wallet);
+
+		final SendRequest sendRequest = SendRequest.forTx(tx);
+		sendRequest.fee = BigInteger.valueOf(fee);
+
+		// estimate the effect on typical sends
+		final Map<TransactionOutput, Boolean> spent = new IdentityHashMap<TransactionOutput, Boolean>();
+		for (final TransactionOutput input : inputs)
+			spent.put(input, Boolean.TRUE);
+		final List<TransactionOutput> candidatesBefore = new ArrayList<TransactionOutput>(candidates);
+		final List<TransactionOutput> candidatesAfter = new ArrayList<TransactionOutput>(candidates.size() - inputs.size() + 1);
+		for (final TransactionOutput candidate : candidates)
+			if (!spent.containsKey(candidate))
+				candidatesAfter.add(candidate);
+		candidatesAfter.add(tx.getOutput(0));
+		Collections.sort(candidatesBefore, SMALLEST_FIRST);
+		Collections.sort(candidatesAfter, SMALLEST_FIRST);
+
+		return new Result(sendRequest, inputsPerSend(wallet, candidatesBefore, address, referenceAmounts), inputsPerSend(wallet,
+				candidatesAfter, address, referenceAmounts));
+	}
+
+	private double inputsPerSend(@Nonnull final Wallet wallet, @Nonnull final List<TransactionOutput> candidates, @Nonnull final Address address,
+			@Nonnull final Collection<BigInteger> amounts)
+	{
+		int numSends = 0;
+		int numInputs = 0;
+
+		for (final BigInteger amount : amounts)
+		{
+			try
+			{
+				numInputs += planner.plan(wallet, candidates, address, amount, address, false).inputs.size();
+				numSends++;
+			}
+			catch (final InsufficientMoneyException x)
+			{
+				// can't be sent either way
+			}
+		}
+
+		return numSends > 0 ? (double) numInputs / numSends : Double.NaN;
+	}
+
+	private static final Comparator<TransactionOutput> SMALLEST_FIRST = new Comparator<TransactionOutput>()
+	{
+		@Override
+		public int compare(final TransactionOutput lhs, final TransactionOutput rhs)
+		{
+			return lhs.getValue().compareTo(rhs.getValue());
+		}
+	};
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+
+import com.google.bitcoin.core.AbstractWalletEventListener;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence;
+import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.wallet.DefaultCoinSelector;
+
+/**
+ * Spendable outputs of a wallet, kept ordered by value and by confirmation height so that coin selection doesn't need
+ * to collect and sort every output per send. The index is updated per transaction from wallet events; only a
+ * reorganize rebuilds it from scratch. {@link Wallet#clearTransactions(int)} sends no event, so callers clearing the
+ * wallet need to {@link #rebuild()} afterwards.
+ *
+ * Confirmation height rather than depth is indexed, because depth changes with every block while the height an output
+ * appeared at doesn't. Events may be delivered late, so every read re-checks that an output is still unspent.
+ *
+ * The order of bitcoinj's default coin selector depends on depth, so it can't be a key of the index. Instead the last
+ * list in that order is kept and sorted again after changes; as it is mostly in order already, that is close to linear.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class UtxoIndex extends AbstractWalletEventListener
+{
+	public static final class Entry
+	{
+		public final TransactionOutput output;
+		public final long value;
+		/** chain height the output appeared at, {@link Integer#MAX_VALUE} if unconfirmed */
+		public final int height;
+
+		private final Sha256Hash hash;
+		private final int index;
+
+		private Entry(@Nonnull final TransactionOutput output, @Nonnull final Sha256Hash hash, final int index, final int height)
+		{
+			this.output = output;
+			this.value = output.getValue().longValue();
+			this.height = height;
+			this.hash = hash;
+			this.index = index;
+		}
+
+		@Override
+		public String toString()
+		{
+			return getClass().getSimpleName() + '[' + hash + ':' + index + ", " + value + " @ " + height + ']';
+		}
+	}
+
+	private final Wallet wallet;
+	private final Map<TransactionOutPoint, Entry> entries = new HashMap<TransactionOutPoint, Entry>();
+	private final TreeSet<Entry> byValue = new TreeSet<Entry>(VALUE_ORDER);
+	private final TreeSet<Entry> byHeight = new TreeSet<Entry>(HEIGHT_ORDER);
+	private List<TransactionOutput> byDefaultOrder = new ArrayList<TransactionOutput>();
+	private boolean byDefaultOrderDirty = true;
+
+	public UtxoIndex(@Nonnull final Wallet wallet)
+	{
+		this.wallet = wallet;
+
+		rebuild();
+	}
+
+	public synchronized void rebuild()
+	{
+		entries.clear();
+		byValue.clear();
+		byHeight.clear();
+		byDefaultOrder.clear();
+		byDefaultOrderDirty = true;
+
+		for (final TransactionOutput output : wallet.calculateAllSpendCandidates(true))
+		{
+			final Transaction tx = output.getParentTransaction();
+			final int index = tx.getOutputs().indexOf(output);
+			if (DefaultCoinSelector.isSelectable(tx))
+				put(new Entry(output, tx.getHash(), index, height(tx)));
+		}
+	}
+
+	/**
+	 * Re-examines the outputs of a transaction and the outputs its inputs spend.
+	 */
+	public synchronized void update(@Nonnull final Transaction tx)
+	{
+		for (int i = 0; i < tx.getOutputs().size(); i++)
+			update(tx, i);
+
+		// spent outputs leave the index, outputs of a spend that died come back
+		for (final TransactionInput input : tx.getInputs())
+		{
+			final TransactionOutPoint outpoint = input.getOutpoint();
+			final Transaction parent = wallet.getTransaction(outpoint.getHash());
+			if (parent != null && outpoint.getIndex() < parent.getOutputs().size())
+				update(parent, (int) outpoint.getIndex());
+		}
+	}
+
+	private void update(@Nonnull final Transaction tx, final int index)
+	{
+		final TransactionOutput output = tx.getOutputs().get(index);
+		final boolean selectable = DefaultCoinSelector.isSelectable(tx) && (!tx.isCoinBase() || tx.isMature());
+
+		if (selectable && output.isAvailableForSpending() && output.isMine(wallet))
+			put(new Entry(output, tx.getHash(), index, height(tx)));
+		else
+			remove(key(tx.getHash(), index));
+	}
+
+	/**
+	 * @return spendable outputs, largest first
+	 */
+	public synchronized List<TransactionOutput> byValue()
+	{
+		return outputs(byValue);
+	}
+
+	/**
+	 * @return spendable outputs, longest confirmed first
+	 */
+	public synchronized List<TransactionOutput> byHeight()
+	{
+		return outputs(byHeight);
+	}
+
+	/**
+	 * @return spendable outputs, in the order {@link DefaultCoinSelector} would pick them
+	 */
+	public synchronized List<TransactionOutput> byDefaultOrder()
+	{
+		if (byDefaultOrderDirty)
+		{
+			final Set<TransactionOutput> present = Collections.newSetFromMap(new IdentityHashMap<TransactionOutput, Boolean>(entries.size()));
+			for (final Entry entry : entries.values())
+				present.add(entry.output);
+
+			// keep the previous order of the outputs still present, so sorting mostly merges runs
+			final List<TransactionOutput> sorted = new ArrayList<TransactionOutput>(entries.size());
+			for (final TransactionOutput output : byDefaultOrder)
+				if (present.remove(output))
+					sorted.add(output);
+			sorted.addAll(present);
+			Collections.sort(sorted, TransactionPlanner.DEFAULT_ORDER);
+
+			byDefaultOrder = sorted;
+			byDefaultOrderDirty = false;
+		}
+
+		final List<TransactionOutput> outputs = new ArrayList<TransactionOutput>(byDefaultOrder.size());
+		for (final TransactionOutput output : byDefaultOrder)
+			if (output.isAvailableForSpending())
+				outputs.add(output);
+		return outputs;
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	private List<TransactionOutput> outputs(@Nonnull final TreeSet<Entry> set)
+	{
+		final List<TransactionOutput> outputs = new ArrayList<TransactionOutput>(set.size());
+		for (final Entry entry : set)
+			if (entry.output.isAvailableForSpending())
+				outputs.add(entry.output);
+		return outputs;
+	}
+
+	private void put(@Nonnull final Entry entry)
+	{
+		final TransactionOutPoint key = key(entry.hash, entry.index);
+		final Entry previous = entries.put(key, entry);
+		if (previous != null)
+		{
+			byValue.remove(previous);
+			byHeight.remove(previous);
+		}
+		byValue.add(entry);
+		byHeight.add(entry);
+		byDefaultOrderDirty = true;
+	}
+
+	private void remove(@Nonnull final TransactionOutPoint key)
+	{
+		final Entry entry = entries.remove(key);
+		if (entry != null)
+		{
+			byValue.remove(entry);
+			byHeight.remove(entry);
+			byDefaultOrderDirty = true;
+		}
+	}
+
+	private TransactionOutPoint key(@Nonnull final Sha256Hash hash, final int index)
+	{
+		return new TransactionOutPoint(wallet.getParams(), index, hash);
+	}
+
+	private static int height(@Nonnull final Transaction tx)
+	{
+		final TransactionConfidence confidence = tx.getConfidence();
+		return confidence.getConfidenceType() == ConfidenceType.BUILDING ? confidence.getAppearedAtChainHeight() : Integer.MAX_VALUE;
+	}
+
+	@Override
+	public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+	{
+		update(tx);
+	}
+
+	@Override
+	public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+	{
+		update(tx);
+	}
+
+	@Override
+	public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+	{
+		update(tx);
+	}
+
+	@Override
+	public void onReorganize(final Wallet wallet)
+	{
+		rebuild();
+	}
+
+	private static final Comparator<Entry> VALUE_ORDER = new Comparator<Entry>()
+	{
+		@Override
+		public int compare(final Entry lhs, final Entry rhs)
+		{
+			if (lhs.value != rhs.value)
+				return lhs.value > rhs.value ? -1 : 1;
+
+			return compareOutPoint(lhs, rhs);
+		}
+	};
+
+	private static final Comparator<Entry> HEIGHT_ORDER = new Comparator<Entry>()
+	{
+		@Override
+		public int compare(final Entry lhs, final Entry rhs)
+		{
+			if (lhs.height != rhs.height)
+				return lhs.height < rhs.height ? -1 : 1;
+
+			return VALUE_ORDER.compare(lhs, rhs);
+		}
+	};
+
+	private static int compareOutPoint(@Nonnull final Entry lhs, @Nonnull final Entry rhs)
+	{
+		final int hashComparison = lhs.hash.toBigInteger().compareTo(rhs.hash.toBigInteger());
+		if (hashComparison != 0)
+			return hashComparison;
+
+		return lhs.index - rhs.index;
+	}
+}
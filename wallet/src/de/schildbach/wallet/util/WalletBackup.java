@@ -0,0 +1,431 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.bitcoin.core.Transaction;
+
+/**
+ * Versioned binary wallet backup. The container starts with a magic number, a version and an index of its sections.
+ * Each index entry carries the section type, its number of items, its length and a CRC32 of its content, so a reader
+ * can verify each section on its own and skip the ones it does not need, or does not know.
+ *
+ * Keys are stored as raw private keys in sections of at most {@link #KEYS_PER_SECTION}. Deriving the public keys is
+ * what makes restoring large wallets slow, so key sections are decoded in parallel on a bounded pool and concatenated in
+ * their original order. Notes are keyed like in the preferences ("tx:" plus transaction hash, see
+ * {@link WalletUtils#readNotes}), labels by address.
+ *
+ * The old text format of {@link WalletUtils#writeKeys} stays readable; use {@link #isWalletBackup} to tell them apart.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public final class WalletBackup
+{
+	public enum Section
+	{
+		KEYS(1), NOTES(2), LABELS(3), TRANSACTIONS(4);
+
+		private final int type;
+
+		private Section(final int type)
+		{
+			this.type = type;
+		}
+
+		private static Section forType(final int type)
+		{
+			for (final Section section : values())
+				if (section.type == type)
+					return section;
+			return null;
+		}
+	}
+
+	public static final int VERSION = 1;
+	public static final int KEYS_PER_SECTION = 1000;
+
+	private static final byte[] MAGIC = { 'A', 'U', 'R', 'B' };
+	private static final int KEY_LENGTH = 32;
+	private static final int KEY_ENTRY_LENGTH = KEY_LENGTH + 8 + 1; // private key, creation time, flags
+	private static final int FLAG_COMPRESSED = 1;
+
+	private final List<ECKey> keys;
+	private final Map<String, String> notes;
+	private final Map<String, String> labels;
+	private final List<Transaction> transactions;
+
+	private static final Logger log = LoggerFactory.getLogger(WalletBackup.class);
+
+	private WalletBackup(@Nonnull final List<ECKey> keys, @Nonnull final Map<String, String> notes, @Nonnull final Map<String, String> labels,
+			@Nonnull final List<Transaction> transactions)
+	{
+		this.keys = keys;
+		this.notes = notes;
+		this.labels = labels;
+		this.transactions = transactions;
+	}
+
+	public List<ECKey> getKeys()
+	{
+		return keys;
+	}
+
+	public Map<String, String> getNotes()
+	{
+		return notes;
+	}
+
+	public Map<String, String> getLabels()
+	{
+		return labels;
+	}
+
+	public List<Transaction> getTransactions()
+	{
+		return transactions;
+	}
+
+	/**
+	 * Checks for the magic number without consuming it. The stream must support {@link InputStream#mark}.
+	 */
+	public static boolean isWalletBackup(@Nonnull final InputStream is) throws IOException
+	{
+		is.mark(MAGIC.length);
+		try
+		{
+			final byte[] magic = new byte[MAGIC.length];
+			int offset = 0;
+			while (offset < magic.length)
+			{
+				final int read = is.read(magic, offset, magic.length - offset);
+				if (read == -1)
+					return false;
+				offset += read;
+			}
+			return Arrays.equals(magic, MAGIC);
+		}
+		finally
+		{
+			is.reset();
+		}
+	}
+
+	public static void write(@Nonnull final OutputStream os, @Nonnull final List<ECKey> keys, @Nonnull final Map<String, String> notes,
+			@Nonnull final Map<String, String> labels, @Nonnull final Collection<Transaction> transactions) throws IOException
+	{
+		final List<Section> types = new ArrayList<Section>();
+		final List<Integer> counts = new ArrayList<Integer>();
+		final List<byte[]> contents = new ArrayList<byte[]>();
+
+		for (int from = 0; from < keys.size(); from += KEYS_PER_SECTION)
+		{
+			final List<ECKey> chunk = keys.subList(from, Math.min(from + KEYS_PER_SECTION, keys.size()));
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(chunk.size() * KEY_ENTRY_LENGTH);
+			final DataOutputStream out = new DataOutputStream(bytes);
+			for (final ECKey key : chunk)
+			{
+				out.write(key.getPrivKeyBytes());
+				out.writeLong(key.getCreationTimeSeconds());
+				out.writeByte(key.isCompressed() ? FLAG_COMPRESSED : 0);
+			}
+			types.add(Section.KEYS);
+			counts.add(chunk.size());
+			contents.add(bytes.toByteArray());
+		}
+
+		types.add(Section.NOTES);
+		counts.add(notes.size());
+		contents.add(writeStrings(notes));
+
+		types.add(Section.LABELS);
+		counts.add(labels.size());
+		contents.add(writeStrings(labels));
+
+		final ByteArrayOutputStream txBytes = new ByteArrayOutputStream();
+		final DataOutputStream txOut = new DataOutputStream(txBytes);
+		for (final Transaction tx : transactions)
+		{
+			final byte[] bytes = tx.bitcoinSerialize();
+			txOut.writeInt(bytes.length);
+			txOut.write(bytes);
+		}
+		types.add(Section.TRANSACTIONS);
+		counts.add(transactions.size());
+		contents.add(txBytes.toByteArray());
+
+		final DataOutputStream out = new DataOutputStream(os);
+		out.write(MAGIC);
+		out.writeByte(VERSION);
+		out.writeInt(contents.size());
+		final CRC32 crc = new CRC32();
+		for (int i = 0; i < contents.size(); i++)
+		{
+			final byte[] content = contents.get(i);
+			crc.reset();
+			crc.update(content);
+
+			out.writeByte(types.get(i).type);
+			out.writeInt(counts.get(i));
+			out.writeInt(content.length);
+			out.writeInt((int) crc.getValue());
+		}
+		for (final byte[] content : contents)
+			out.write(content);
+		out.flush();
+	}
+
+	public static WalletBackup read(@Nonnull final InputStream is, @Nonnull final NetworkParameters params, @Nonnull final Set<Section> sections)
+			throws IOException
+	{
+		return read(is, params, sections, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Reads the given sections and skips all others. Every section read is checked against its checksum.
+	 */
+	public static WalletBackup read(@Nonnull final InputStream is, @Nonnull final NetworkParameters params, @Nonnull final Set<Section> sections,
+			final int numThreads) throws IOException
+	{
+		final long start = System.currentTimeMillis();
+
+		final DataInputStream in = new DataInputStream(is);
+		final byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC))
+			throw new IOException("not a wallet backup");
+		final int version = in.readUnsignedByte();
+		if (version > VERSION)
+			throw new IOException("unsupported wallet backup version: " + version);
+
+		final int numSections = in.readInt();
+		if (numSections < 0)
+			throw new IOException("illegal number of sections: " + numSections);
+		final int[] types = new int[numSections];
+		final int[] counts = new int[numSections];
+		final int[] lengths = new int[numSections];
+		final int[] checksums = new int[numSections];
+		for (int i = 0; i < numSections; i++)
+		{
+			types[i] = in.readUnsignedByte();
+			counts[i] = in.readInt();
+			lengths[i] = in.readInt();
+			checksums[i] = in.readInt();
+			if (counts[i] < 0 || lengths[i] < 0)
+				throw new IOException("illegal index entry for section " + i);
+		}
+
+		final List<ECKey> keys = new ArrayList<ECKey>();
+		final Map<String, String> notes = new LinkedHashMap<String, String>();
+		final Map<String, String> labels = new LinkedHashMap<String, String>();
+		final List<Transaction> transactions = new ArrayList<Transaction>();
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads), new NamedThreadFactory("backup restorer"));
+		try
+		{
+			final List<Future<List<ECKey>>> keyFutures = new ArrayList<Future<List<ECKey>>>();
+
+			for (int i = 0; i < numSections; i++)
+			{
+				final Section section = Section.forType(types[i]);
+				if (section == null || !sections.contains(section))
+				{
+					skipFully(in, lengths[i]);
+					continue;
+				}
+
+				final byte[] content = new byte[lengths[i]];
+				in.readFully(content);
+				final CRC32 crc = new CRC32();
+				crc.update(content);
+				if ((int) crc.getValue() != checksums[i])
+					throw new IOException("checksum mismatch in section " + i + " (" + section + ")");
+
+				final int count = counts[i];
+				if (section == Section.KEYS)
+				{
+					if (content.length != count * KEY_ENTRY_LENGTH)
+						throw new IOException("illegal length of section " + i + " (" + section + ")");
+
+					keyFutures.add(executor.submit(new Callable<List<ECKey>>()
+					{
+						@Override
+						public List<ECKey> call() throws IOException
+						{
+							return readKeys(content, count);
+						}
+					}));
+				}
+				else if (section == Section.NOTES)
+				{
+					readStrings(content, count, notes);
+				}
+				else if (section == Section.LABELS)
+				{
+					readStrings(content, count, labels);
+				}
+				else if (section == Section.TRANSACTIONS)
+				{
+					readTransactions(content, count, params, transactions);
+				}
+			}
+
+			for (final Future<List<ECKey>> future : keyFutures)
+				keys.addAll(future.get());
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while restoring", x);
+		}
+		catch (final ExecutionException x)
+		{
+			final Throwable cause = x.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException("problem restoring keys", cause);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		log.info("restored {} keys, {} notes, {} labels and {} transactions from version {} backup in {}ms", new Object[] { keys.size(),
+				notes.size(), labels.size(), transactions.size(), version, System.currentTimeMillis() - start });
+
+		return new WalletBackup(keys, notes, labels, transactions);
+	}
+
+	public static WalletBackup read(@Nonnull final InputStream is, @Nonnull final NetworkParameters params) throws IOException
+	{
+		return read(is, params, EnumSet.allOf(Section.class));
+	}
+
+	private static List<ECKey> readKeys(@Nonnull final byte[] content, final int count) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+		final List<ECKey> keys = new ArrayList<ECKey>(count);
+		final byte[] privKeyBytes = new byte[KEY_LENGTH];
+		for (int i = 0; i < count; i++)
+		{
+			in.readFully(privKeyBytes);
+			final long creationTimeSeconds = in.readLong();
+			final int flags = in.readUnsignedByte();
+
+			final BigInteger privKey = new BigInteger(1, privKeyBytes);
+			if (privKey.signum() == 0 || privKey.compareTo(ECKey.CURVE.getN()) >= 0)
+				throw new IOException("illegal private key");
+
+			final ECKey key = new ECKey(privKey, null, (flags & FLAG_COMPRESSED) != 0);
+			key.setCreationTimeSeconds(creationTimeSeconds);
+			keys.add(key);
+		}
+		return keys;
+	}
+
+	private static byte[] writeStrings(@Nonnull final Map<String, String> strings) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		for (final Map.Entry<String, String> entry : strings.entrySet())
+		{
+			out.writeUTF(entry.getKey());
+			out.writeUTF(entry.getValue());
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void readStrings(@Nonnull final byte[] content, final int count, @Nonnull final Map<String, String> strings)
+			throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+		for (int i = 0; i < count; i++)
+			strings.put(in.readUTF(), in.readUTF());
+	}
+
+	private static void readTransactions(@Nonnull final byte[] content, final int count, @Nonnull final NetworkParameters params,
+			@Nonnull final List<Transaction> transactions) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+		for (int i = 0; i < count; i++)
+		{
+			final int length = in.readInt();
+			if (length < 0 || length > in.available())
+				throw new IOException("illegal transaction length: " + length);
+			final byte[] bytes = new byte[length];
+			in.readFully(bytes);
+
+			try
+			{
+				transactions.add(new Transaction(params, bytes));
+			}
+			catch (final ProtocolException x)
+			{
+				throw new IOException("problem parsing transaction", x);
+			}
+		}
+	}
+
+	private static void skipFully(@Nonnull final InputStream in, final long length) throws IOException
+	{
+		long remaining = length;
+		while (remaining > 0)
+		{
+			final long skipped = in.skip(remaining);
+			if (skipped > 0)
+			{
+				remaining -= skipped;
+			}
+			else
+			{
+				if (in.read() == -1)
+					throw new IOException("unexpected end of wallet backup");
+				remaining--;
+			}
+		}
+	}
+}
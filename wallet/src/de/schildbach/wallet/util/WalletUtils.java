@@ -26,10 +26,8 @@ import java.io.InputStreamReader;
 import java.io.Writer;
 import java.math.BigInteger;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -49,8 +47,6 @@ import android.text.style.StyleSpan;
 import android.text.style.TypefaceSpan;
 
 import com.google.bitcoin.core.Address;
-import com.google.bitcoin.core.AddressFormatException;
-import com.google.bitcoin.core.DumpedPrivateKey;
 import com.google.bitcoin.core.ECKey;
 import com.google.bitcoin.core.ScriptException;
 import com.google.bitcoin.core.Sha256Hash;
@@ -113,7 +109,6 @@ public class WalletUtils
 		return builder;
 	}
 
-	private static final Pattern P_SIGNIFICANT = Pattern.compile("^([-+]" + Constants.CHAR_THIN_SPACE + ")?\\d*(\\.\\d{0,2})?");
 	private static final Object SIGNIFICANT_SPAN = new StyleSpan(Typeface.BOLD);
 	public static final RelativeSizeSpan SMALLER_SPAN = new RelativeSizeSpan(0.85f);
 
@@ -123,23 +118,61 @@ public class WalletUtils
 		if (insignificantRelativeSizeSpan != null)
 			s.removeSpan(insignificantRelativeSizeSpan);
 
-		final Matcher m = P_SIGNIFICANT.matcher(s);
-		if (m.find())
-		{
-			final int pivot = m.group().length();
-			s.setSpan(SIGNIFICANT_SPAN, 0, pivot, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-			if (s.length() > pivot && insignificantRelativeSizeSpan != null)
-				s.setSpan(insignificantRelativeSizeSpan, pivot, s.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-		}
+		setSignificantSpans(s, AmountFormatter.significantEnd(s), insignificantRelativeSizeSpan);
+	}
+
+	/**
+	 * Replaces the content of the given editable with the formatted value, spanned like
+	 * {@link #formatSignificant(Editable, RelativeSizeSpan)} would do.
+	 */
+	public static void formatValue(@Nonnull final Editable s, @Nonnull final AmountFormatter value,
+			@Nullable final RelativeSizeSpan insignificantRelativeSizeSpan)
+	{
+		s.clearSpans();
+		s.clear();
+		s.append(value);
+
+		setSignificantSpans(s, value.significantEnd(), insignificantRelativeSizeSpan);
+	}
+
+	private static void setSignificantSpans(@Nonnull final Editable s, final int pivot, @Nullable final RelativeSizeSpan insignificantRelativeSizeSpan)
+	{
+		s.setSpan(SIGNIFICANT_SPAN, 0, pivot, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+		if (s.length() > pivot && insignificantRelativeSizeSpan != null)
+			s.setSpan(insignificantRelativeSizeSpan, pivot, s.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
 	}
 
 	public static BigInteger localValue(@Nonnull final BigInteger btcValue, @Nonnull final BigInteger rate)
 	{
+		if (btcValue.bitLength() < 64 && rate.bitLength() < 64)
+		{
+			try
+			{
+				return BigInteger.valueOf(AmountMath.localValue(btcValue.longValue(), rate.longValue()));
+			}
+			catch (final ArithmeticException x)
+			{
+				// fall through to arbitrary precision
+			}
+		}
+
 		return btcValue.multiply(rate).divide(GenericUtils.ONE_BTC);
 	}
 
 	public static BigInteger btcValue(@Nonnull final BigInteger localValue, @Nonnull final BigInteger rate)
 	{
+		if (localValue.bitLength() < 64 && rate.bitLength() < 64)
+		{
+			try
+			{
+				return BigInteger.valueOf(AmountMath.btcValue(localValue.longValue(), rate.longValue()));
+			}
+			catch (final ArithmeticException x)
+			{
+				// fall through to arbitrary precision
+			}
+		}
+
 		return localValue.multiply(GenericUtils.ONE_BTC).divide(rate);
 	}
 
@@ -230,40 +263,11 @@ public class WalletUtils
 
 	public static List<ECKey> readKeys(@Nonnull final BufferedReader in) throws IOException
 	{
-		try
-		{
-			final DateFormat format = Iso8601Format.newDateTimeFormatT();
-
-			final List<ECKey> keys = new LinkedList<ECKey>();
-
-			while (true)
-			{
-				final String line = in.readLine();
-				if (line == null)
-					break; // eof
-				if (line.trim().isEmpty() || line.charAt(0) == '#')
-					continue; // skip comment
-
-				final String[] parts = line.split(" ");
-
-				final ECKey key = new DumpedPrivateKey(Constants.NETWORK_PARAMETERS, parts[0]).getKey();
-				key.setCreationTimeSeconds(parts.length >= 2 ? format.parse(parts[1]).getTime() / DateUtils.SECOND_IN_MILLIS : 0);
-
-				keys.add(key);
-			}
-
-			return keys;
-		}
-		catch (final AddressFormatException x)
-		{
-			throw new IOException("AddressFormatException when reading keys", x);
-		}
-		catch (final ParseException x)
-		{
-			throw new IOException("ParseException when reading keys", x);
-		}
+		return new KeyImporter().readKeys(in, Constants.NETWORK_PARAMETERS);
 	}
 
+    private static final Pattern PATTERN_TX_NOTE = Pattern.compile("^# (tx:\\w+) (.+)");
+
     public static Map<String, String> readNotes(@Nonnull final BufferedReader in) throws IOException
     {
         final DateFormat format = Iso8601Format.newDateTimeFormatT();
@@ -279,8 +283,7 @@ public class WalletUtils
                 continue; // skip
 
             // Format: # tx:TXID Notes...
-            Pattern txnotePattern = Pattern.compile("^# (tx:\\w+) (.+)");
-            Matcher txnoteMatch = txnotePattern.matcher(line);
+            Matcher txnoteMatch = PATTERN_TX_NOTE.matcher(line);
             if(txnoteMatch.matches()) {
                 String txid = txnoteMatch.group(1);
                 String txnote = txnoteMatch.group(2);
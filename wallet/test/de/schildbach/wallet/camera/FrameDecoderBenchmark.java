@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.camera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+
+/**
+ * Measures frames decoded per second when frames without a code come in as fast as they can be taken, and time from
+ * the first frame showing a code to the result when replaying 1280x720 preview frames at 30 frames per second, one
+ * second without a code, then the code. Compares the former one-shot loop, which only gets the next frame after a decode
+ * has finished, to {@link FrameDecoder} on 1 and 2 workers. Not a unit test; run manually via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class FrameDecoderBenchmark
+{
+	private static final String CONTENT = "auroracoin:AKrwbvEHvFS7oJAGMFs9jzDLYFhuVaSKt6?amount=1.2345";
+	private static final int WIDTH = 1280, HEIGHT = 720;
+	private static final int CROP_LEFT = 340, CROP_TOP = 60, CROP_SIZE = 600;
+	private static final int NUM_BLANK_FRAMES = 30, NUM_FRAMES = 60;
+	private static final long FRAME_INTERVAL_MS = 33;
+	private static final long THROUGHPUT_MS = 2000;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final byte[][] frames = new byte[NUM_FRAMES][];
+		for (int i = 0; i < NUM_FRAMES; i++)
+			frames[i] = FrameDecoderTest.createFrame(WIDTH, HEIGHT, i < NUM_BLANK_FRAMES ? null : CONTENT, CROP_LEFT + 100 + i % 3,
+					CROP_TOP + 100 + i % 2, 400, i);
+
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores");
+
+		// second round is after warm up
+		for (int round = 0; round < 2; round++)
+		{
+			final List<String> results = new ArrayList<String>();
+			results.add(oneShotThroughput(frames));
+			for (int numWorkers = 1; numWorkers <= 2; numWorkers++)
+				results.add(pipelineThroughput(frames, numWorkers));
+			results.add(oneShotLatency(frames));
+			for (int numWorkers = 1; numWorkers <= 2; numWorkers++)
+				results.add(pipelineLatency(frames, numWorkers));
+
+			if (round > 0)
+				for (final String result : results)
+					System.out.println(result);
+		}
+	}
+
+	private static String oneShotThroughput(final byte[][] frames)
+	{
+		final QRCodeReader reader = new QRCodeReader();
+		final long start = System.currentTimeMillis();
+		int numFramesDecoded = 0;
+
+		while (System.currentTimeMillis() - start < THROUGHPUT_MS)
+		{
+			decode(reader, frames[numFramesDecoded % NUM_BLANK_FRAMES]);
+			numFramesDecoded++;
+		}
+
+		return "one shot: " + numFramesDecoded * 1000l / (System.currentTimeMillis() - start) + " frames/s";
+	}
+
+	private static String pipelineThroughput(final byte[][] frames, final int numWorkers)
+	{
+		final FrameDecoder decoder = newDecoder(numWorkers, null, null);
+		final long start = System.currentTimeMillis();
+
+		for (int i = 0; System.currentTimeMillis() - start < THROUGHPUT_MS; i++)
+		{
+			decoder.offer(frames[i % NUM_BLANK_FRAMES]);
+			Thread.yield();
+		}
+
+		decoder.stop();
+		return "pipeline, " + numWorkers + " workers: " + decoder.getNumFramesDecoded() * 1000l / (System.currentTimeMillis() - start)
+				+ " frames/s, " + decoder.getNumFramesDropped() + " of " + decoder.getNumFramesOffered() + " offered frames dropped";
+	}
+
+	private static String oneShotLatency(final byte[][] frames) throws InterruptedException
+	{
+		final QRCodeReader reader = new QRCodeReader();
+		final long start = System.currentTimeMillis();
+
+		int i = 0;
+		while (i < NUM_FRAMES)
+		{
+			final long sleep = start + i * FRAME_INTERVAL_MS - System.currentTimeMillis();
+			if (sleep > 0)
+				Thread.sleep(sleep);
+
+			if (decode(reader, frames[i]))
+			{
+				return latency("one shot", start, System.currentTimeMillis());
+			}
+
+			// a one-shot callback gets the first frame after it was requested
+			i = (int) ((System.currentTimeMillis() - start) / FRAME_INTERVAL_MS) + 1;
+		}
+
+		return "one shot: no result";
+	}
+
+	private static String pipelineLatency(final byte[][] frames, final int numWorkers) throws InterruptedException
+	{
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicLong resultTime = new AtomicLong();
+		final FrameDecoder decoder = newDecoder(numWorkers, latch, resultTime);
+
+		final long start = System.currentTimeMillis();
+		for (int i = 0; i < NUM_FRAMES && !decoder.isDone(); i++)
+		{
+			final long sleep = start + i * FRAME_INTERVAL_MS - System.currentTimeMillis();
+			if (sleep > 0)
+				Thread.sleep(sleep);
+			decoder.offer(frames[i]);
+		}
+		latch.await(10, TimeUnit.SECONDS);
+
+		decoder.stop();
+		return latency("pipeline, " + numWorkers + " workers", start, resultTime.get());
+	}
+
+	private static boolean decode(final QRCodeReader reader, final byte[] frame)
+	{
+		final PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, CROP_LEFT, CROP_TOP, CROP_SIZE, CROP_SIZE,
+				false);
+
+		try
+		{
+			reader.decode(new BinaryBitmap(new HybridBinarizer(source)));
+			return true;
+		}
+		catch (final ReaderException x)
+		{
+			return false;
+		}
+		finally
+		{
+			reader.reset();
+		}
+	}
+
+	private static FrameDecoder newDecoder(final int numWorkers, final CountDownLatch latch, final AtomicLong resultTime)
+	{
+		return new FrameDecoder(WIDTH, CROP_LEFT, CROP_TOP, CROP_SIZE, CROP_SIZE, numWorkers, 2, Collections.<DecodeHintType, Object> emptyMap(),
+				new FrameDecoder.Listener()
+				{
+					@Override
+					public void onResult(final Result result, final PlanarYUVLuminanceSource source)
+					{
+						if (latch != null)
+						{
+							resultTime.set(System.currentTimeMillis());
+							latch.countDown();
+						}
+					}
+				});
+	}
+
+	private static String latency(final String name, final long start, final long resultTime)
+	{
+		final long timeToResult = resultTime - start - NUM_BLANK_FRAMES * FRAME_INTERVAL_MS;
+		return name + ": " + timeToResult + "ms from code to result";
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class FrameDecoderTest
+{
+	private static final String CONTENT = "auroracoin:AKrwbvEHvFS7oJAGMFs9jzDLYFhuVaSKt6?amount=1.2345";
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 480;
+	private static final int CROP_LEFT = 160, CROP_TOP = 80, CROP_SIZE = 320;
+
+	@Test
+	public void decode() throws Exception
+	{
+		final Capture capture = new Capture();
+		final FrameDecoder decoder = newDecoder(2, 2, capture);
+
+		assertTrue(decoder.offer(createFrame(WIDTH, HEIGHT, null, 0, 0, 0, 1)));
+		assertTrue(decoder.offer(createFrame(WIDTH, HEIGHT, CONTENT, CROP_LEFT + 40, CROP_TOP + 40, 240, 2)));
+
+		assertEquals(CONTENT, capture.await());
+		assertTrue(decoder.isDone());
+		assertFalse(decoder.offer(createFrame(WIDTH, HEIGHT, null, 0, 0, 0, 3)));
+		decoder.stop();
+	}
+
+	@Test
+	public void newestFrameSurvivesFlood() throws Exception
+	{
+		final Capture capture = new Capture();
+		final FrameDecoder decoder = newDecoder(1, 1, capture);
+
+		final byte[] blank = createFrame(WIDTH, HEIGHT, null, 0, 0, 0, 4);
+		for (int i = 0; i < 100; i++)
+			assertTrue(decoder.offer(blank));
+		decoder.offer(createFrame(WIDTH, HEIGHT, CONTENT, CROP_LEFT + 40, CROP_TOP + 40, 240, 5));
+
+		assertEquals(CONTENT, capture.await());
+		assertEquals(101, decoder.getNumFramesOffered());
+		assertTrue(decoder.getNumFramesDropped() > 0);
+		assertTrue(decoder.getNumFramesDecoded() + decoder.getNumFramesDropped() <= decoder.getNumFramesOffered());
+		decoder.stop();
+	}
+
+	@Test
+	public void outsideCropIsIgnored() throws Exception
+	{
+		final Capture capture = new Capture();
+		final FrameDecoder decoder = newDecoder(1, 1, capture);
+
+		// code in the top left corner, outside the crop
+		decoder.offer(createFrame(WIDTH, HEIGHT, CONTENT, 0, 0, 150, 6));
+		while (decoder.getNumFramesDecoded() == 0)
+			Thread.sleep(10);
+
+		assertFalse(decoder.isDone());
+		assertNull(capture.text.get());
+
+		decoder.stop();
+		assertFalse(decoder.offer(createFrame(WIDTH, HEIGHT, CONTENT, CROP_LEFT + 40, CROP_TOP + 40, 240, 7)));
+	}
+
+	private static FrameDecoder newDecoder(final int numWorkers, final int maxQueued, final FrameDecoder.Listener listener)
+	{
+		return new FrameDecoder(WIDTH, CROP_LEFT, CROP_TOP, CROP_SIZE, CROP_SIZE, numWorkers, maxQueued,
+				Collections.<DecodeHintType, Object> emptyMap(), listener);
+	}
+
+	private static final class Capture implements FrameDecoder.Listener
+	{
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private final AtomicReference<String> text = new AtomicReference<String>();
+
+		@Override
+		public void onResult(final Result result, final PlanarYUVLuminanceSource source)
+		{
+			text.set(result.getText());
+			latch.countDown();
+		}
+
+		public String await() throws InterruptedException
+		{
+			latch.await(30, TimeUnit.SECONDS);
+			return text.get();
+		}
+	}
+
+	/**
+	 * Creates an NV21 preview frame with the given content as a QR code, dark modules on a light background, with
+	 * some noise.
+	 *
+	 * @param content
+	 *            or null for a frame without code
+	 */
+	public static byte[] createFrame(final int width, final int height, final String content, final int left, final int top, final int size,
+			final long seed) throws Exception
+	{
+		final byte[] frame = new byte[width * height * 3 / 2];
+		Arrays.fill(frame, (byte) 128);
+
+		final Random random = new Random(seed);
+		for (int i = 0; i < width * height; i++)
+			frame[i] = (byte) (200 + random.nextInt(20));
+
+		if (content != null)
+		{
+			final Hashtable<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
+			hints.put(EncodeHintType.MARGIN, 2);
+			final BitMatrix code = new QRCodeWriter().encode(content, BarcodeFormat.QR_CODE, size, size, hints);
+			for (int y = 0; y < code.getHeight(); y++)
+				for (int x = 0; x < code.getWidth(); x++)
+					if (code.get(x, y))
+						frame[(top + y) * width + left + x] = (byte) (30 + random.nextInt(20));
+		}
+
+		return frame;
+	}
+}
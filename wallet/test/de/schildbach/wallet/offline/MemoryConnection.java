@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.offline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * In-memory stand-in for a socket: two bounded pipes, one per direction. Unlike piped streams, any thread may read or
+ * write.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public final class MemoryConnection implements Closeable
+{
+	private final Pipe toAcceptor = new Pipe();
+	private final Pipe toPayer = new Pipe();
+
+	public InputStream getAcceptorInputStream()
+	{
+		return toAcceptor.in;
+	}
+
+	public OutputStream getAcceptorOutputStream()
+	{
+		return toPayer.out;
+	}
+
+	public InputStream getPayerInputStream()
+	{
+		return toPayer.in;
+	}
+
+	public OutputStream getPayerOutputStream()
+	{
+		return toAcceptor.out;
+	}
+
+	@Override
+	public void close()
+	{
+		toAcceptor.close();
+		toPayer.close();
+	}
+
+	private static final class Pipe
+	{
+		private final byte[] buffer = new byte[16 * 1024];
+		private int readPos = 0;
+		private int count = 0;
+		private boolean closed = false;
+
+		private synchronized int read(final byte[] b, final int off, final int len) throws IOException
+		{
+			while (count == 0 && !closed)
+				await();
+			if (count == 0)
+				return -1;
+
+			final int n = Math.min(len, Math.min(count, buffer.length - readPos));
+			System.arraycopy(buffer, readPos, b, off, n);
+			readPos = (readPos + n) % buffer.length;
+			count -= n;
+			notifyAll();
+			return n;
+		}
+
+		private synchronized void write(final byte[] b, int off, int len) throws IOException
+		{
+			while (len > 0)
+			{
+				while (count == buffer.length && !closed)
+					await();
+				if (closed)
+					throw new IOException("closed");
+
+				final int writePos = (readPos + count) % buffer.length;
+				final int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+				System.arraycopy(b, off, buffer, writePos, n);
+				count += n;
+				off += n;
+				len -= n;
+				notifyAll();
+			}
+		}
+
+		private synchronized void close()
+		{
+			closed = true;
+			notifyAll();
+		}
+
+		private void await() throws InterruptedIOException
+		{
+			try
+			{
+				wait();
+			}
+			catch (final InterruptedException x)
+			{
+				throw new InterruptedIOException();
+			}
+		}
+
+		private final InputStream in = new InputStream()
+		{
+			@Override
+			public int read() throws IOException
+			{
+				final byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException
+			{
+				return Pipe.this.read(b, off, len);
+			}
+
+			@Override
+			public void close()
+			{
+				Pipe.this.close();
+			}
+		};
+
+		private final OutputStream out = new OutputStream()
+		{
+			@Override
+			public void write(final int b) throws IOException
+			{
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len) throws IOException
+			{
+				Pipe.this.write(b, off, len);
+			}
+
+			@Override
+			public void close()
+			{
+				Pipe.this.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.offline;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures transactions per second when several payers send at the same time over in-memory connections, with a
+ * handler that takes {@link #HANDLE_MS} per transaction, like parsing it and adding it to the wallet. Compares the
+ * former acceptor, serving one connection at a time with one transaction per connection, to concurrent sessions.
+ * Not a unit test; run manually via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class PaymentAcceptorBenchmark
+{
+	private static final int NUM_PAYERS = 8;
+	private static final int TXS_PER_PAYER = 10;
+	private static final int TX_SIZE = 400;
+	private static final long HANDLE_MS = 3;
+
+	private static final PaymentAcceptor.TransactionHandler HANDLER = new PaymentAcceptor.TransactionHandler()
+	{
+		@Override
+		public boolean handleTx(final byte[] msg)
+		{
+			try
+			{
+				Thread.sleep(HANDLE_MS);
+			}
+			catch (final InterruptedException x)
+			{
+				// ignore
+			}
+			return true;
+		}
+	};
+
+	public static void main(final String[] args) throws Exception
+	{
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores, " + NUM_PAYERS + " payers sending " + TXS_PER_PAYER
+				+ " transactions each");
+
+		// second round is after warm up
+		for (int round = 0; round < 2; round++)
+		{
+			final String former = run("one at a time", 1, 1);
+			final String concurrent = run("4 sessions, 2 workers", 4, 2);
+
+			if (round > 0)
+			{
+				System.out.println(former);
+				System.out.println(concurrent);
+			}
+		}
+	}
+
+	private static String run(final String name, final int maxSessions, final int numWorkers) throws Exception
+	{
+		final PaymentAcceptor acceptor = new PaymentAcceptor(maxSessions, numWorkers, HANDLER);
+		final List<Thread> payers = new ArrayList<Thread>();
+
+		final long start = System.currentTimeMillis();
+		for (int i = 0; i < NUM_PAYERS; i++)
+		{
+			final Thread payer = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int j = 0; j < TXS_PER_PAYER; j++)
+							send(acceptor);
+					}
+					catch (final Exception x)
+					{
+						throw new RuntimeException(x);
+					}
+				}
+			};
+			payer.start();
+			payers.add(payer);
+		}
+		for (final Thread payer : payers)
+			payer.join();
+		final long duration = System.currentTimeMillis() - start;
+
+		acceptor.shutdown();
+		return name + ": " + NUM_PAYERS * TXS_PER_PAYER * 1000l / duration + " tx/s";
+	}
+
+	private static void send(final PaymentAcceptor acceptor) throws Exception
+	{
+		final MemoryConnection connection = connect(acceptor);
+		final DataOutputStream os = new DataOutputStream(connection.getPayerOutputStream());
+		os.writeInt(1);
+		os.writeInt(TX_SIZE);
+		os.write(new byte[TX_SIZE]);
+
+		if (!new DataInputStream(connection.getPayerInputStream()).readBoolean())
+			throw new IllegalStateException("nack");
+	}
+
+	private static MemoryConnection connect(final PaymentAcceptor acceptor)
+	{
+		final MemoryConnection connection = new MemoryConnection();
+		acceptor.accept(connection.getAcceptorInputStream(), connection.getAcceptorOutputStream(), connection);
+		return connection;
+	}
+}
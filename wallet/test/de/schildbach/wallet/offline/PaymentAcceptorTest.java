@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.offline;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class PaymentAcceptorTest
+{
+	// accepts messages starting with an even byte
+	private static final PaymentAcceptor.TransactionHandler EVEN = new PaymentAcceptor.TransactionHandler()
+	{
+		@Override
+		public boolean handleTx(final byte[] msg)
+		{
+			return msg[0] % 2 == 0;
+		}
+	};
+
+	private PaymentAcceptor acceptor;
+
+	@After
+	public void tearDown()
+	{
+		if (acceptor != null)
+			acceptor.shutdown();
+	}
+
+	@Test
+	public void acksAllMessages() throws Exception
+	{
+		acceptor = new PaymentAcceptor(2, 2, EVEN);
+
+		assertTrue(send(new byte[][] { { 2, 1 }, { 4 } }));
+		assertFalse(send(new byte[][] { { 2 }, { 3, 0 }, { 4 } }));
+	}
+
+	@Test
+	public void sessionsAreConcurrent() throws Exception
+	{
+		final int numSessions = 3;
+		final CountDownLatch allArrived = new CountDownLatch(numSessions);
+		acceptor = new PaymentAcceptor(numSessions, numSessions, new PaymentAcceptor.TransactionHandler()
+		{
+			@Override
+			public boolean handleTx(final byte[] msg)
+			{
+				// served one by one, the first transaction would wait for the others forever
+				allArrived.countDown();
+				try
+				{
+					return allArrived.await(10, TimeUnit.SECONDS);
+				}
+				catch (final InterruptedException x)
+				{
+					return false;
+				}
+			}
+		});
+
+		final MemoryConnection[] connections = new MemoryConnection[numSessions];
+		for (int i = 0; i < numSessions; i++)
+		{
+			connections[i] = connect();
+			final DataOutputStream os = new DataOutputStream(connections[i].getPayerOutputStream());
+			os.writeInt(1);
+			os.writeInt(1);
+			os.write(0);
+		}
+
+		for (final MemoryConnection connection : connections)
+			assertTrue(new DataInputStream(connection.getPayerInputStream()).readBoolean());
+	}
+
+	@Test
+	public void illegalLengthEndsSession() throws Exception
+	{
+		acceptor = new PaymentAcceptor(1, 1, EVEN);
+		final MemoryConnection connection = connect();
+		final DataOutputStream os = new DataOutputStream(connection.getPayerOutputStream());
+
+		os.writeInt(1);
+		os.writeInt(PaymentAcceptor.MAX_MESSAGE_LENGTH + 1);
+
+		assertEndOfStream(new DataInputStream(connection.getPayerInputStream()));
+
+		// next session is served
+		assertTrue(send(new byte[][] { { 0 } }));
+	}
+
+	private MemoryConnection connect()
+	{
+		final MemoryConnection connection = new MemoryConnection();
+		acceptor.accept(connection.getAcceptorInputStream(), connection.getAcceptorOutputStream(), connection);
+		return connection;
+	}
+
+	private boolean send(final byte[][] msgs) throws IOException
+	{
+		final MemoryConnection connection = connect();
+		final DataOutputStream os = new DataOutputStream(connection.getPayerOutputStream());
+		final DataInputStream is = new DataInputStream(connection.getPayerInputStream());
+
+		os.writeInt(msgs.length);
+		for (final byte[] msg : msgs)
+		{
+			os.writeInt(msg.length);
+			os.write(msg);
+		}
+
+		final boolean ack = is.readBoolean();
+		assertEndOfStream(is);
+		return ack;
+	}
+
+	private static void assertEndOfStream(final DataInputStream is) throws IOException
+	{
+		try
+		{
+			is.readByte();
+			throw new AssertionError("expected end of stream");
+		}
+		catch (final EOFException x)
+		{
+			// expected
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.pos;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * Load test of a point of sale with thousands of open invoices. Measures opening the invoices, then matching simulated
+ * incoming transactions, each paying one invoice plus change to an unrelated address. Matching is compared to scanning
+ * all open invoices per output; opening is compared to adding one key per invoice to the wallet, which recalculates
+ * the bloom filter each time. Not a unit test; run manually via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class InvoiceBookBenchmark
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+	private static final int NUM_INVOICES = 5000;
+	private static final int NUM_PAYMENTS = 2000;
+	private static final int POOL_SIZE = 500;
+	private static final BigInteger AMOUNT = BigInteger.valueOf(100000);
+
+	public static void main(final String[] args) throws Exception
+	{
+		// second round is after warm up
+		for (int round = 0; round < 2; round++)
+		{
+			final List<String> results = new ArrayList<String>();
+			final File file = File.createTempFile("invoices", null);
+			file.delete();
+
+			// open invoices
+			final Wallet wallet = new Wallet(PARAMS);
+			final InvoiceBookTest.WalletKeySource keySource = new InvoiceBookTest.WalletKeySource(wallet, POOL_SIZE);
+			final InvoiceBook book = new InvoiceBook(file, PARAMS, keySource);
+			long start = System.nanoTime();
+			for (int i = 0; i < NUM_INVOICES; i++)
+				book.create(AMOUNT, i);
+			results.add("pool: " + NUM_INVOICES + " invoices opened in " + (System.nanoTime() - start) / 1000000 + " ms, "
+					+ keySource.numBatches + " filter updates");
+
+			final Wallet perKeyWallet = new Wallet(PARAMS);
+			final InvoiceBookTest.WalletKeySource perKeySource = new InvoiceBookTest.WalletKeySource(perKeyWallet, 1);
+			start = System.nanoTime();
+			for (int i = 0; i < NUM_INVOICES; i++)
+				perKeySource.issue();
+			results.add("key per invoice: " + NUM_INVOICES + " keys added in " + (System.nanoTime() - start) / 1000000 + " ms, "
+					+ perKeySource.numBatches + " filter updates");
+
+			// simulate payments
+			final List<InvoiceBook.Invoice> open = book.getOpenInvoices();
+			final Random random = new Random(round);
+			final List<Transaction> txs = new ArrayList<Transaction>(NUM_PAYMENTS);
+			for (int i = 0; i < NUM_PAYMENTS; i++)
+			{
+				final byte[] changeHash = new byte[20];
+				random.nextBytes(changeHash);
+				txs.add(InvoiceBookTest.tx(i, new Address(PARAMS, changeHash), BigInteger.valueOf(random.nextInt(1000000)),
+						open.get(random.nextInt(open.size())).address, AMOUNT));
+			}
+
+			final long[] scanNanos = new long[NUM_PAYMENTS];
+			for (int i = 0; i < NUM_PAYMENTS; i++)
+			{
+				final long txStart = System.nanoTime();
+				scan(open, txs.get(i));
+				scanNanos[i] = System.nanoTime() - txStart;
+			}
+
+			final long[] matchNanos = new long[NUM_PAYMENTS];
+			int numPaid = 0;
+			for (int i = 0; i < NUM_PAYMENTS; i++)
+			{
+				final long txStart = System.nanoTime();
+				numPaid += book.match(txs.get(i)).size();
+				matchNanos[i] = System.nanoTime() - txStart;
+			}
+
+			results.add("scan: " + percentiles(scanNanos) + " per transaction");
+			results.add("index: " + percentiles(matchNanos) + " per transaction, " + numPaid + " invoices paid, " + book.getNumOpen()
+					+ " still open");
+
+			book.flush();
+			file.delete();
+
+			if (round > 0)
+				for (final String result : results)
+					System.out.println(result);
+		}
+	}
+
+	private static InvoiceBook.Invoice scan(final List<InvoiceBook.Invoice> open, final Transaction tx) throws Exception
+	{
+		for (final TransactionOutput output : tx.getOutputs())
+		{
+			final Address address = output.getScriptPubKey().getToAddress(PARAMS);
+			for (final InvoiceBook.Invoice invoice : open)
+				if (invoice.address.equals(address))
+					return invoice;
+		}
+
+		return null;
+	}
+
+	private static String percentiles(final long[] nanos)
+	{
+		Arrays.sort(nanos);
+		return String.format("%.3f ms median, %.3f ms 99th percentile, %.3f ms max", nanos[nanos.length / 2] / 1000000.0,
+				nanos[nanos.length * 99 / 100] / 1000000.0, nanos[nanos.length - 1] / 1000000.0);
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.pos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class InvoiceBookTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+	private static final BigInteger COIN = BigInteger.valueOf(100000000);
+
+	private File file;
+	private Wallet wallet;
+	private WalletKeySource keySource;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		file = File.createTempFile("invoices", null);
+		file.delete();
+		wallet = new Wallet(PARAMS);
+		keySource = new WalletKeySource(wallet, 10);
+	}
+
+	@After
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	@Test
+	public void keyIssuedPerInvoice() throws Exception
+	{
+		final InvoiceBook book = new InvoiceBook(file, PARAMS, keySource);
+
+		final Set<Address> addresses = new HashSet<Address>();
+		for (int i = 0; i < 6; i++)
+			addresses.add(book.create(COIN, i).address);
+
+		// no keys are held back by the book
+		assertEquals(6, addresses.size());
+		assertEquals(6, keySource.numIssued);
+		for (final Address address : addresses)
+			assertTrue(wallet.isPubKeyHashMine(address.getHash160()));
+		assertEquals(6, book.getNumOpen());
+	}
+
+	@Test
+	public void paymentsAreMatched() throws Exception
+	{
+		final InvoiceBook book = new InvoiceBook(file, PARAMS, keySource);
+		final InvoiceBook.Invoice invoice1 = book.create(COIN, 0);
+		final InvoiceBook.Invoice invoice2 = book.create(COIN.multiply(BigInteger.valueOf(2)), 0);
+		final InvoiceBook.Invoice anyAmount = book.create(null, 0);
+
+		final List<InvoiceBook.Invoice> notified = new ArrayList<InvoiceBook.Invoice>();
+		book.addListener(new InvoiceBook.Listener()
+		{
+			@Override
+			public void onInvoicePayment(final InvoiceBook.Invoice invoice, final Transaction tx)
+			{
+				notified.add(invoice);
+			}
+		});
+
+		// one transaction paying invoice 1 in full and invoice 2 in part, plus change
+		final Transaction tx1 = tx(1, invoice1.address, COIN, invoice2.address, COIN, new ECKey().toAddress(PARAMS), COIN);
+		book.onCoinsReceived(wallet, tx1, BigInteger.ZERO, BigInteger.ZERO);
+		assertEquals(2, notified.size());
+		assertEquals(InvoiceBook.State.PAID, book.getInvoice(invoice1.address).state);
+		assertEquals(InvoiceBook.State.OPEN, book.getInvoice(invoice2.address).state);
+		assertEquals(COIN, book.getInvoice(invoice2.address).received);
+
+		// the same transaction again doesn't count
+		book.onCoinsReceived(wallet, tx1, BigInteger.ZERO, BigInteger.ZERO);
+		assertEquals(2, notified.size());
+
+		final Transaction tx2 = tx(2, invoice2.address, COIN, anyAmount.address, BigInteger.ONE);
+		book.onCoinsReceived(wallet, tx2, BigInteger.ZERO, BigInteger.ZERO);
+		assertEquals(4, notified.size());
+		final InvoiceBook.Invoice paid2 = book.getInvoice(invoice2.address);
+		assertEquals(InvoiceBook.State.PAID, paid2.state);
+		assertEquals(2, paid2.numPayments);
+		assertEquals(InvoiceBook.State.PAID, book.getInvoice(anyAmount.address).state);
+		assertEquals(0, book.getNumOpen());
+
+		// paid invoices take no more payments
+		book.onCoinsReceived(wallet, tx(3, invoice1.address, COIN), BigInteger.ZERO, BigInteger.ZERO);
+		assertEquals(4, notified.size());
+		assertEquals(COIN, book.getInvoice(invoice1.address).received);
+	}
+
+	@Test
+	public void cancelled() throws Exception
+	{
+		final InvoiceBook book = new InvoiceBook(file, PARAMS, keySource);
+		final InvoiceBook.Invoice invoice = book.create(COIN, 0);
+
+		book.cancel(invoice.address);
+		assertEquals(0, book.getNumOpen());
+		assertTrue(book.getOpenInvoices().isEmpty());
+
+		assertTrue(book.match(tx(1, invoice.address, COIN)).isEmpty());
+		assertEquals(InvoiceBook.State.CANCELLED, book.getInvoice(invoice.address).state);
+	}
+
+	@Test
+	public void survivesRestart() throws Exception
+	{
+		final InvoiceBook book = new InvoiceBook(file, PARAMS, keySource);
+		final InvoiceBook.Invoice invoice1 = book.create(COIN, 1000);
+		final InvoiceBook.Invoice invoice2 = book.create(null, 2000);
+		book.match(tx(1, invoice1.address, COIN.divide(BigInteger.valueOf(2))));
+		book.flush();
+
+		final InvoiceBook restarted = new InvoiceBook(file, PARAMS, keySource);
+		final List<InvoiceBook.Invoice> open = restarted.getOpenInvoices();
+		assertEquals(2, open.size());
+		assertEquals(invoice1.address, open.get(0).address);
+		assertEquals(COIN, open.get(0).amount);
+		assertEquals(COIN.divide(BigInteger.valueOf(2)), open.get(0).received);
+		assertEquals(1000, open.get(0).createdAt);
+		assertNull(open.get(1).amount);
+
+		// the payment seen before doesn't count twice
+		assertTrue(restarted.match(tx(1, invoice1.address, COIN.divide(BigInteger.valueOf(2)))).isEmpty());
+		assertEquals(InvoiceBook.State.PAID, restarted.match(tx(2, invoice1.address, COIN)).get(0).state);
+		final InvoiceBook.Invoice invoice3 = restarted.create(COIN, 3000);
+		assertTrue(!invoice3.address.equals(invoice1.address) && !invoice3.address.equals(invoice2.address));
+		assertEquals(3, keySource.numIssued);
+	}
+
+	@Test
+	public void expired() throws Exception
+	{
+		final InvoiceBook book = new InvoiceBook(file, PARAMS, keySource);
+		final InvoiceBook.Invoice old = book.create(COIN, 1000);
+		final InvoiceBook.Invoice recent = book.create(COIN, 1000 + InvoiceBook.MAX_OPEN_AGE_MS);
+
+		// creating expires old invoices
+		final InvoiceBook.Invoice next = book.create(COIN, 2000 + InvoiceBook.MAX_OPEN_AGE_MS);
+		assertEquals(InvoiceBook.State.EXPIRED, book.getInvoice(old.address).state);
+		assertEquals(2, book.getNumOpen());
+		assertTrue(book.match(tx(1, old.address, COIN)).isEmpty());
+
+		assertEquals(2, book.expire(3000 + 2 * InvoiceBook.MAX_OPEN_AGE_MS));
+		assertEquals(InvoiceBook.State.EXPIRED, book.getInvoice(recent.address).state);
+		assertEquals(InvoiceBook.State.EXPIRED, book.getInvoice(next.address).state);
+		assertEquals(0, book.getNumOpen());
+	}
+
+	@Test
+	public void closedAreForgottenEventually() throws Exception
+	{
+		final InvoiceBook book = new InvoiceBook(file, PARAMS, keySource);
+		final InvoiceBook.Invoice first = book.create(COIN, 0);
+		book.cancel(first.address);
+		for (int i = 0; i < InvoiceBook.MAX_CLOSED; i++)
+			book.cancel(book.create(COIN, i).address);
+		final InvoiceBook.Invoice open = book.create(COIN, 0);
+
+		assertNull(book.getInvoice(first.address));
+		assertEquals(InvoiceBook.State.OPEN, book.getInvoice(open.address).state);
+		assertEquals(1, book.getNumOpen());
+	}
+
+	/**
+	 * @param outputs
+	 *            pairs of address and value
+	 */
+	static Transaction tx(final int index, final Object... outputs)
+	{
+		final Transaction tx = new Transaction(PARAMS);
+		tx.addInput(new TransactionInput(PARAMS, tx, new byte[] { 0 }, new TransactionOutPoint(PARAMS, index, Sha256Hash.ZERO_HASH)));
+		for (int i = 0; i < outputs.length; i += 2)
+			tx.addOutput((BigInteger) outputs[i + 1], (Address) outputs[i]);
+		return tx;
+	}
+
+	/**
+	 * Issues keys like the key pool, adding them to the wallet in batches. Adds public keys only, as creating thousands
+	 * of real keys would take many seconds.
+	 */
+	static final class WalletKeySource implements InvoiceBook.KeySource
+	{
+		private final Wallet wallet;
+		private final int batchSize;
+		private final LinkedList<ECKey> ready = new LinkedList<ECKey>();
+		private int numKeys = 0;
+		int numBatches = 0;
+		int numIssued = 0;
+
+		public WalletKeySource(final Wallet wallet, final int batchSize)
+		{
+			this.wallet = wallet;
+			this.batchSize = batchSize;
+		}
+
+		@Override
+		public ECKey issue()
+		{
+			if (ready.isEmpty())
+			{
+				final List<ECKey> keys = new ArrayList<ECKey>(batchSize);
+				for (int i = 0; i < batchSize; i++)
+				{
+					final byte[] pubKey = new byte[33];
+					pubKey[0] = 0x02;
+					System.arraycopy(Sha256Hash.create(BigInteger.valueOf(numKeys++).toByteArray()).getBytes(), 0, pubKey, 1, 32);
+					keys.add(new ECKey(null, pubKey));
+				}
+				wallet.addKeys(keys);
+				ready.addAll(keys);
+				numBatches++;
+			}
+
+			numIssued++;
+			return ready.removeFirst();
+		}
+	}
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.PeerAddress;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence;
+import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class BroadcastQueueTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+	private static final long BACKOFF = BroadcastQueue.INITIAL_BACKOFF_MS;
+	private static final List<FakePeer> NO_PEERS = Collections.emptyList();
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		file = File.createTempFile("broadcast-queue", null);
+		file.delete();
+	}
+
+	@After
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	@Test
+	public void orderedAndDeduplicated() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file, PARAMS, null);
+		final List<FakePeer> peers = peers(2);
+		final Transaction tx1 = tx(1), tx2 = tx(2), tx3 = tx(3);
+
+		assertTrue(queue.add(tx2, 0));
+		assertTrue(queue.add(tx1, 0));
+		assertFalse(queue.add(tx(2), 0));
+		assertTrue(queue.add(tx3, 0));
+
+		// nothing happens without peers
+		assertEquals(0, queue.broadcastDue(NO_PEERS, 1000));
+		assertEquals(BroadcastQueue.State.QUEUED, queue.getEntry(tx1.getHash()).state);
+
+		assertEquals(3, queue.broadcastDue(peers, 1000));
+		assertEquals(tx2.getHash(), peers.get(0).sent.get(0).getHash());
+		assertEquals(tx1.getHash(), peers.get(0).sent.get(1).getHash());
+		assertEquals(tx3.getHash(), peers.get(0).sent.get(2).getHash());
+		assertEquals(0, peers.get(1).sent.size());
+		assertEquals(BroadcastQueue.State.BROADCASTING, queue.getEntry(tx1.getHash()).state);
+		assertEquals(3, queue.getNumPending());
+	}
+
+	@Test
+	public void exponentialRetry() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file, PARAMS, null);
+		final List<FakePeer> peers = peers(1);
+		final Transaction tx = tx(1);
+		queue.add(tx, 0);
+
+		long now = 0;
+		assertEquals(1, queue.broadcastDue(peers, now));
+		for (int attempt = 1; attempt < 6; attempt++)
+		{
+			final long backoff = BACKOFF << (attempt - 1);
+			assertEquals(now + backoff, queue.getNextAttemptAt());
+			assertEquals(0, queue.broadcastDue(peers, now + backoff - 1));
+
+			now += backoff;
+			assertEquals(1, queue.broadcastDue(peers, now));
+			assertEquals(attempt + 1, queue.getEntry(tx.getHash()).numAttempts);
+		}
+
+		assertEquals(6, peers.get(0).sent.size());
+		assertEquals(BroadcastQueue.MAX_BACKOFF_MS, BroadcastQueue.backoff(100));
+	}
+
+	@Test
+	public void fanOutAndWatchOthers() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file, PARAMS, null);
+		final List<FakePeer> peers = peers(5);
+		final Transaction tx = tx(1);
+		queue.add(tx, 1000);
+		queue.broadcastDue(peers, 2000);
+
+		// sent to two, the other three are watched
+		assertEquals(1, peers.get(0).sent.size());
+		assertEquals(1, peers.get(1).sent.size());
+		assertEquals(0, peers.get(2).sent.size());
+		BroadcastQueue.Entry entry = queue.getEntry(tx.getHash());
+		assertEquals(2, entry.numSentTo);
+		assertEquals(3, entry.relayTarget);
+
+		// echo of a peer it was sent to doesn't count, neither does a repeated relay
+		queue.relayed(tx.getHash(), peers.get(0).address, 2100);
+		queue.relayed(tx.getHash(), peers.get(2).address, 2300);
+		queue.relayed(tx.getHash(), peers.get(2).address, 2400);
+		queue.relayed(tx.getHash(), peers.get(3).address, 2500);
+		entry = queue.getEntry(tx.getHash());
+		assertEquals(BroadcastQueue.State.BROADCASTING, entry.state);
+		assertEquals(2, entry.numRelays);
+		assertEquals(300, entry.getTimeToFirstRelay());
+		assertEquals(-1, entry.getTimeToRelayTarget());
+
+		queue.relayed(tx.getHash(), peers.get(4).address, 2900);
+		entry = queue.getEntry(tx.getHash());
+		assertEquals(BroadcastQueue.State.CONFIRMED, entry.state);
+		assertEquals(3, entry.numRelays);
+		assertEquals(900, entry.getTimeToRelayTarget());
+		assertEquals(1900, entry.getLatency());
+		assertEquals(Long.MAX_VALUE, queue.getNextAttemptAt());
+
+		final BroadcastQueue.Stats stats = queue.getStats();
+		assertEquals(300, stats.averageTimeToFirstRelay);
+		assertEquals(900, stats.averageTimeToRelayTarget);
+
+		// not broadcast again
+		assertEquals(0, queue.broadcastDue(peers, Long.MAX_VALUE / 2));
+	}
+
+	@Test
+	public void rebroadcastToNextPeers() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file, PARAMS, null);
+		final List<FakePeer> peers = peers(5);
+		final Transaction tx = tx(1);
+		queue.add(tx, 0);
+
+		queue.broadcastDue(peers.subList(0, 4), 0);
+		assertEquals(2, queue.getEntry(tx.getHash()).relayTarget);
+
+		// nobody relayed, next attempt goes to the other two, while a fifth peer has connected
+		assertEquals(1, queue.broadcastDue(peers, BACKOFF));
+		assertEquals(1, peers.get(2).sent.size());
+		assertEquals(1, peers.get(3).sent.size());
+		assertEquals(0, peers.get(4).sent.size());
+		assertEquals(2, queue.getEntry(tx.getHash()).numSentTo);
+		assertEquals(3, queue.getEntry(tx.getHash()).relayTarget);
+
+		// peers of the first attempt count again
+		queue.relayed(tx.getHash(), peers.get(4).address, BACKOFF + 500);
+		queue.relayed(tx.getHash(), peers.get(3).address, BACKOFF + 600);
+		queue.relayed(tx.getHash(), peers.get(0).address, BACKOFF + 700);
+		assertEquals(BroadcastQueue.State.BROADCASTING, queue.getEntry(tx.getHash()).state);
+		queue.relayed(tx.getHash(), peers.get(1).address, BACKOFF + 800);
+		final BroadcastQueue.Entry entry = queue.getEntry(tx.getHash());
+		assertEquals(BroadcastQueue.State.CONFIRMED, entry.state);
+		assertEquals(BACKOFF + 500, entry.getTimeToFirstRelay());
+		assertEquals(BACKOFF + 800, entry.getTimeToRelayTarget());
+		assertEquals(2, entry.numAttempts);
+	}
+
+	@Test
+	public void confirmedByRelaysAfterManyAttempts() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file, PARAMS, null);
+		final List<FakePeer> peers = peers(4);
+		final Transaction tx = tx(1);
+		queue.add(tx, 0);
+
+		// nobody relays the first two attempts, which together reach every peer
+		long now = 0;
+		for (int attempt = 1; attempt <= 3; attempt++)
+		{
+			assertEquals(1, queue.broadcastDue(peers, now));
+			now += BroadcastQueue.backoff(attempt);
+		}
+		for (final FakePeer peer : peers)
+			assertTrue(peer.sent.size() > 0);
+
+		// third attempt went to the first two again, the others are watched
+		final BroadcastQueue.Entry entry = queue.getEntry(tx.getHash());
+		assertEquals(3, entry.numAttempts);
+		assertEquals(2, peers.get(0).sent.size());
+		assertEquals(2, entry.relayTarget);
+
+		queue.relayed(tx.getHash(), peers.get(2).address, now);
+		queue.relayed(tx.getHash(), peers.get(3).address, now);
+		assertEquals(BroadcastQueue.State.CONFIRMED, queue.getEntry(tx.getHash()).state);
+	}
+
+	@Test
+	public void confirmedByConfidence() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file, PARAMS, null);
+		final List<FakePeer> peers = peers(2);
+		final Transaction tx1 = tx(1), tx2 = tx(2), tx3 = tx(3);
+		queue.add(tx1, 1000);
+		queue.add(tx2, 1000);
+		queue.add(tx3, 1000);
+		queue.broadcastDue(peers, 1000);
+
+		// bitcoinj noticed a relay by the watched peer, and a block
+		tx1.getConfidence().markBroadcastBy(new PeerAddress(peers.get(1).address.getAddress(), peers.get(1).address.getPort()));
+		tx2.getConfidence().setConfidenceType(ConfidenceType.BUILDING);
+		assertEquals(1, queue.broadcastDue(peers, 1000 + BACKOFF));
+
+		assertEquals(BroadcastQueue.State.CONFIRMED, queue.getEntry(tx1.getHash()).state);
+		assertEquals(BACKOFF, queue.getEntry(tx1.getHash()).getTimeToRelayTarget());
+		assertEquals(BroadcastQueue.State.CONFIRMED, queue.getEntry(tx2.getHash()).state);
+		assertEquals(-1, queue.getEntry(tx2.getHash()).getTimeToRelayTarget());
+		assertEquals(tx3.getHash(), peers.get(1).sent.get(0).getHash());
+
+		final BroadcastQueue.Stats stats = queue.getStats();
+		assertEquals(1, stats.numPending);
+		assertEquals(2, stats.numConfirmed);
+		assertEquals(BACKOFF, stats.averageLatency);
+		assertEquals(2, stats.maxAttempts);
+	}
+
+	@Test
+	public void survivesRestart() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file, PARAMS, null);
+		final List<FakePeer> peers = peers(2);
+		final Transaction tx1 = tx(1), tx2 = tx(2), tx3 = tx(3);
+		queue.add(tx1, 1000);
+		queue.add(tx2, 1000);
+		queue.add(tx3, 1000);
+		queue.broadcastDue(peers, 1000);
+		queue.relayed(tx2.getHash(), peers.get(1).address, 3000);
+
+		final BroadcastQueue restarted = new BroadcastQueue(file, PARAMS, null);
+		final List<BroadcastQueue.Entry> entries = restarted.getEntries();
+		assertEquals(3, entries.size());
+		assertEquals(tx1.getHash(), entries.get(0).hash);
+		assertEquals(BroadcastQueue.State.QUEUED, entries.get(0).state);
+		assertEquals(1, entries.get(0).numAttempts);
+		assertEquals(BroadcastQueue.State.CONFIRMED, entries.get(1).state);
+		assertEquals(2000, entries.get(1).getLatency());
+		assertEquals(2000, entries.get(1).getTimeToFirstRelay());
+		assertEquals(2000, entries.get(1).getTimeToRelayTarget());
+
+		// interrupted broadcasts are due right away
+		final List<FakePeer> otherPeers = peers(1);
+		assertEquals(2, restarted.broadcastDue(otherPeers, 1001));
+		assertEquals(tx1.getHash(), otherPeers.get(0).sent.get(0).getHash());
+		assertEquals(tx3.getHash(), otherPeers.get(0).sent.get(1).getHash());
+	}
+
+	@Test
+	public void confidenceLookedUpAfterRestart() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file, PARAMS, null);
+		final Transaction tx = tx(1);
+		queue.add(tx, 0);
+		queue.broadcastDue(peers(2), 0);
+
+		// the wallet keeps the confidence of its own copy up to date
+		final Map<Sha256Hash, TransactionConfidence> wallet = new HashMap<Sha256Hash, TransactionConfidence>();
+		final BroadcastQueue restarted = new BroadcastQueue(file, PARAMS, new BroadcastQueue.ConfidenceSource()
+		{
+			@Override
+			public TransactionConfidence getConfidence(final Sha256Hash hash)
+			{
+				return wallet.get(hash);
+			}
+		});
+		restarted.broadcastDue(NO_PEERS, 1000);
+		assertEquals(1, restarted.getNumPending());
+
+		wallet.put(tx.getHash(), tx.getConfidence());
+		tx.getConfidence().setConfidenceType(ConfidenceType.BUILDING);
+		restarted.broadcastDue(NO_PEERS, 2000);
+		assertEquals(BroadcastQueue.State.CONFIRMED, restarted.getEntry(tx.getHash()).state);
+		assertEquals(0, restarted.getNumPending());
+	}
+
+	@Test
+	public void deadAndExpiredAreDropped() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file, PARAMS, null);
+		final Transaction tx1 = tx(1), tx2 = tx(2), tx3 = tx(3);
+		queue.add(tx1, 0);
+		queue.add(tx2, 0);
+		queue.add(tx3, BroadcastQueue.MAX_AGE_MS);
+
+		// double spent
+		tx1.getConfidence().setConfidenceType(ConfidenceType.DEAD);
+		assertEquals(1, queue.broadcastDue(peers(1), 1000));
+		assertNull(queue.getEntry(tx1.getHash()));
+		assertEquals(2, queue.getNumPending());
+
+		// never relayed, nor mined
+		assertEquals(1, queue.broadcastDue(peers(1), BroadcastQueue.MAX_AGE_MS + 1));
+		assertNull(queue.getEntry(tx2.getHash()));
+		assertEquals(1, queue.getNumPending());
+		assertEquals(1, new BroadcastQueue(file, PARAMS, null).getNumPending());
+	}
+
+	@Test
+	public void confirmedAreForgottenEventually() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file, PARAMS, null);
+		final List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+		for (int i = 0; i < 50; i++)
+		{
+			final Transaction tx = tx(i);
+			queue.add(tx, i);
+			queue.confirmed(tx.getHash(), i + 1);
+			hashes.add(tx.getHash());
+		}
+
+		assertTrue(queue.getEntries().size() < 50);
+		assertEquals(null, queue.getEntry(hashes.get(0)));
+		assertEquals(BroadcastQueue.State.CONFIRMED, queue.getEntry(hashes.get(49)).state);
+	}
+
+	@Test
+	public void dump() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file, PARAMS, null);
+		final Transaction tx = tx(1);
+		queue.add(tx, 0);
+
+		final StringWriter writer = new StringWriter();
+		queue.dump(new PrintWriter(writer));
+		assertTrue(writer.toString().startsWith("broadcast queue: 1 pending"));
+		assertTrue(writer.toString().contains(tx.getHashAsString()));
+	}
+
+	private static Transaction tx(final int index)
+	{
+		final Transaction tx = new Transaction(PARAMS);
+		tx.addInput(new TransactionInput(PARAMS, tx, new byte[] { 0 }, new TransactionOutPoint(PARAMS, index, Sha256Hash.ZERO_HASH)));
+		tx.addOutput(BigInteger.valueOf(100000), new Address(PARAMS, new byte[20]));
+		return tx;
+	}
+
+	private static List<FakePeer> peers(final int numPeers) throws Exception
+	{
+		final List<FakePeer> peers = new ArrayList<FakePeer>();
+		for (int i = 0; i < numPeers; i++)
+			peers.add(new FakePeer(new InetSocketAddress(InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) (i + 1) }), 8333)));
+		return peers;
+	}
+
+	private static final class FakePeer implements BroadcastQueue.Connection
+	{
+		private final InetSocketAddress address;
+		private final List<Transaction> sent = new ArrayList<Transaction>();
+
+		public FakePeer(final InetSocketAddress address)
+		{
+			this.address = address;
+		}
+
+		@Override
+		public InetSocketAddress getAddress()
+		{
+			return address;
+		}
+
+		@Override
+		public void sendTransaction(final Transaction tx)
+		{
+			sent.add(tx);
+		}
+	}
+}
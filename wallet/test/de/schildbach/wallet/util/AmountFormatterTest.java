@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import de.schildbach.wallet.Constants;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class AmountFormatterTest
+{
+	// the pattern formatSignificant() used to apply
+	private static final Pattern P_SIGNIFICANT = Pattern.compile("^([-+]" + Constants.CHAR_THIN_SPACE + ")?\\d*(\\.\\d{0,2})?");
+
+	private static final int[][] PRECISIONS_SHIFTS = { { 2, 0 }, { 4, 0 }, { 6, 0 }, { 8, 0 }, { 2, 3 }, { 4, 3 }, { 5, 3 } };
+	private static final String[][] SIGNS = { { "", "-" }, { Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN },
+			{ "+", "-" + Constants.CHAR_THIN_SPACE + "1." }, { "12", "" } };
+
+	private final AmountFormatter formatter = new AmountFormatter();
+
+	@Test
+	public void format() throws Exception
+	{
+		assertEquals("1.00", formatter.format(100000000l, 4, 0).toString());
+		assertEquals("-1.50", formatter.format(-150000000l, 4, 0).toString());
+		assertEquals("0.0001", formatter.format(10000l, 4, 0).toString());
+		assertEquals("0.00", formatter.format(4999l, 4, 0).toString());
+		assertEquals("0.0001", formatter.format(5000l, 4, 0).toString());
+		assertEquals("0.00000001", formatter.format(1l, 8, 0).toString());
+		assertEquals("1000.00", formatter.format(100000000l, 2, 3).toString());
+		assertEquals("0.00001", formatter.format(1l, 5, 3).toString());
+		assertEquals("0.0010", formatter.format(100l, 5, 3).toString());
+		assertEquals("+ 1.00", formatter.format(100000000l, Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, 2, 0)
+				.toString());
+		assertEquals(6, formatter.significantEnd());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedPrecision() throws Exception
+	{
+		formatter.format(1, 3, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedShift() throws Exception
+	{
+		formatter.format(1, 2, 6);
+	}
+
+	@Test
+	public void goldenEdgeCases() throws Exception
+	{
+		final long[] values = { 0, 1, -1, 5, 49, 50, 99, 100, 499999, 500000, 999999, 1000000, 99999999, 100000000, -100000000, 2099999999999999l,
+				2100000000000000l, Long.MAX_VALUE, Long.MAX_VALUE - 1, Long.MIN_VALUE, Long.MIN_VALUE + 1, Long.MAX_VALUE - 499999,
+				Long.MIN_VALUE + 500000 };
+
+		for (final long value : values)
+			for (long delta = -10; delta <= 10; delta++)
+				assertGolden(value + delta);
+	}
+
+	@Test
+	public void goldenRandom() throws Exception
+	{
+		final Random random = new Random(0);
+
+		for (int i = 0; i < 20000; i++)
+			assertGolden(random.nextLong() >> random.nextInt(64));
+	}
+
+	@Test
+	public void significantEnd() throws Exception
+	{
+		final String alphabet = "0123456789.-+  ٠a";
+		final Random random = new Random(1);
+
+		for (int i = 0; i < 100000; i++)
+		{
+			final StringBuilder builder = new StringBuilder();
+			final int len = random.nextInt(12);
+			for (int j = 0; j < len; j++)
+				builder.append(alphabet.charAt(random.nextInt(random.nextBoolean() ? 11 : alphabet.length())));
+
+			assertEquals(builder.toString(), regexSignificantEnd(builder), AmountFormatter.significantEnd(builder));
+		}
+	}
+
+	private void assertGolden(final long value)
+	{
+		for (final int[] precisionShift : PRECISIONS_SHIFTS)
+		{
+			for (final String[] signs : SIGNS)
+			{
+				final int precision = precisionShift[0];
+				final int shift = precisionShift[1];
+				final String expected = GenericUtils.formatValue(BigInteger.valueOf(value), signs[0], signs[1], precision, shift);
+
+				formatter.format(value, signs[0], signs[1], precision, shift);
+
+				final String message = value + " " + precision + "/" + shift;
+				assertEquals(message, expected, formatter.toString());
+				assertEquals(message, expected.length(), formatter.length());
+				assertEquals(message, regexSignificantEnd(expected), formatter.significantEnd());
+			}
+
+			assertEquals(GenericUtils.formatValue(BigInteger.valueOf(value), precisionShift[0], precisionShift[1]),
+					formatter.format(value, precisionShift[0], precisionShift[1]).toString());
+		}
+	}
+
+	private static int regexSignificantEnd(final CharSequence s)
+	{
+		final Matcher m = P_SIGNIFICANT.matcher(s);
+		return m.find() ? m.group().length() : 0;
+	}
+}
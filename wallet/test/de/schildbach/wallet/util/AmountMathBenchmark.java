@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Compares the long based amount math against the BigInteger/BigDecimal implementation it replaces, on inputs typical
+ * for typing an amount and converting it with an exchange rate. Not a unit test; run manually via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class AmountMathBenchmark
+{
+	private static final int NUM_VALUES = 10000;
+	private static final int ROUNDS = 20;
+	private static final long MAX_MONEY = 21000000l * AmountMath.ONE_BTC;
+	private static final BigInteger ONE_BTC = BigInteger.valueOf(AmountMath.ONE_BTC);
+
+	private static long sink;
+
+	public static void main(final String[] args)
+	{
+		final Random random = new Random(0);
+		final String[] strings = new String[NUM_VALUES];
+		final long[] amounts = new long[NUM_VALUES];
+		final long[] rates = new long[NUM_VALUES];
+		for (int i = 0; i < NUM_VALUES; i++)
+		{
+			amounts[i] = (long) (random.nextDouble() * 1000 * AmountMath.ONE_BTC);
+			rates[i] = (long) (random.nextDouble() * 100000 * AmountMath.ONE_BTC);
+			strings[i] = new BigDecimal(BigInteger.valueOf(amounts[i]), 8).stripTrailingZeros().toPlainString();
+		}
+
+		for (int warmup = 0; warmup < 2; warmup++)
+		{
+			final boolean print = warmup == 1;
+
+			report(print, "parse, BigDecimal", measure(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for (final String string : strings)
+						sink += new BigDecimal(string).movePointRight(8).toBigIntegerExact().longValue();
+				}
+			}));
+			report(print, "parse, long", measure(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for (final String string : strings)
+						sink += AmountMath.parseNanoCoins(string, 0, MAX_MONEY);
+				}
+			}));
+			report(print, "localValue, BigInteger", measure(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < NUM_VALUES; i++)
+						sink += BigInteger.valueOf(amounts[i]).multiply(BigInteger.valueOf(rates[i])).divide(ONE_BTC).longValue();
+				}
+			}));
+			report(print, "localValue, long", measure(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < NUM_VALUES; i++)
+						sink += AmountMath.localValue(amounts[i], rates[i]);
+				}
+			}));
+			report(print, "btcValue, BigInteger", measure(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < NUM_VALUES; i++)
+						sink += BigInteger.valueOf(amounts[i]).multiply(ONE_BTC).divide(BigInteger.valueOf(rates[i])).longValue();
+				}
+			}));
+			report(print, "btcValue, long", measure(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < NUM_VALUES; i++)
+						sink += AmountMath.btcValue(amounts[i], rates[i]);
+				}
+			}));
+		}
+
+		System.out.println("(" + sink + ")");
+	}
+
+	private static long measure(final Runnable runnable)
+	{
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++)
+		{
+			final long start = System.nanoTime();
+			runnable.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / NUM_VALUES;
+	}
+
+	private static void report(final boolean print, final String name, final long nanosPerOp)
+	{
+		if (print)
+			System.out.println(name + ": " + nanosPerOp + "ns/op");
+	}
+}
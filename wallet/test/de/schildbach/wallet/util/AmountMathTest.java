@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class AmountMathTest
+{
+	private static final long MAX_MONEY = 21000000l * AmountMath.ONE_BTC;
+	private static final BigInteger ONE_BTC = BigInteger.valueOf(AmountMath.ONE_BTC);
+
+	@Test
+	public void parseNanoCoins() throws Exception
+	{
+		assertEquals(0, AmountMath.parseNanoCoins("0", 0, MAX_MONEY));
+		assertEquals(0, AmountMath.parseNanoCoins("-0", 0, MAX_MONEY));
+		assertEquals(0, AmountMath.parseNanoCoins("0.000", 0, MAX_MONEY));
+		assertEquals(100000000l, AmountMath.parseNanoCoins("1", 0, MAX_MONEY));
+		assertEquals(100000000l, AmountMath.parseNanoCoins("+1", 0, MAX_MONEY));
+		assertEquals(150000000l, AmountMath.parseNanoCoins("1.5", 0, MAX_MONEY));
+		assertEquals(50000000l, AmountMath.parseNanoCoins(".5", 0, MAX_MONEY));
+		assertEquals(500000000l, AmountMath.parseNanoCoins("5.", 0, MAX_MONEY));
+		assertEquals(1l, AmountMath.parseNanoCoins("0.00000001", 0, MAX_MONEY));
+		assertEquals(1l, AmountMath.parseNanoCoins("0.00001", 3, MAX_MONEY));
+		assertEquals(100000l, AmountMath.parseNanoCoins("1", 3, MAX_MONEY));
+		assertEquals(120000000l, AmountMath.parseNanoCoins("1.2e0", 0, MAX_MONEY));
+		assertEquals(1200000000l, AmountMath.parseNanoCoins("1.2E1", 0, MAX_MONEY));
+		assertEquals(12000000l, AmountMath.parseNanoCoins("1.2e-1", 0, MAX_MONEY));
+		assertEquals(1l, AmountMath.parseNanoCoins("1e-8", 0, MAX_MONEY));
+		assertEquals(MAX_MONEY, AmountMath.parseNanoCoins("21000000", 0, MAX_MONEY));
+		assertEquals(MAX_MONEY, AmountMath.parseNanoCoins("21000000000", 3, MAX_MONEY));
+		assertEquals(MAX_MONEY, AmountMath.parseNanoCoins("21000000.0000000000", 0, MAX_MONEY));
+		assertEquals(Long.MAX_VALUE, AmountMath.parseNanoCoins("92233720368.54775807", 0, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void parseNanoCoinsInvalid() throws Exception
+	{
+		for (final String value : new String[] { "", "-", "+", ".", "-.", "1.2.3", "1e", "1e+", "e5", "1,5", "1 ", " 1", "abc", "1e5x",
+				"0x10", "--1", "1e99999999999" })
+			assertSameFailure(value, 0, MAX_MONEY);
+	}
+
+	@Test
+	public void parseNanoCoinsOutOfRange() throws Exception
+	{
+		for (final String value : new String[] { "21000000.00000001", "21000001", "1e100", "-1", "-0.00000001", "-1e100",
+				"0.000000001", "-0.000000001", "1.000000000001", "92233720368.54775808", "99999999999999999999999999" })
+		{
+			assertSameFailure(value, 0, MAX_MONEY);
+			assertSameResult(value, 0, Long.MAX_VALUE);
+			assertSameResult(value, 3, MAX_MONEY);
+		}
+	}
+
+	@Test
+	public void parseNanoCoinsRandom() throws Exception
+	{
+		final Random random = new Random(0);
+
+		for (int i = 0; i < 100000; i++)
+		{
+			final int shift = random.nextBoolean() ? 0 : 3;
+			final String value = randomDecimal(random);
+
+			assertSameResult(value, shift, MAX_MONEY);
+			assertSameResult(value, shift, Long.MAX_VALUE);
+		}
+	}
+
+	@Test
+	public void localValue() throws Exception
+	{
+		assertEquals(0, AmountMath.localValue(0, 0));
+		assertEquals(60000000000l, AmountMath.localValue(100000000l, 60000000000l));
+		assertEquals(0, AmountMath.localValue(1, 99999999));
+		assertEquals(-1, AmountMath.localValue(-1, 100000000));
+		assertEquals(-1, AmountMath.localValue(1, -199999999));
+
+		assertLocalValue(MAX_MONEY, 1000000l * AmountMath.ONE_BTC);
+		assertLocalValue(Long.MAX_VALUE, AmountMath.ONE_BTC - 1);
+		assertLocalValue(Long.MAX_VALUE / AmountMath.ONE_BTC, Long.MAX_VALUE);
+
+		final Random random = new Random(1);
+		for (int i = 0; i < 100000; i++)
+			assertLocalValue(randomLong(random), randomLong(random));
+	}
+
+	@Test
+	public void btcValue() throws Exception
+	{
+		assertEquals(0, AmountMath.btcValue(0, 1));
+		assertEquals(100000000l, AmountMath.btcValue(60000000000l, 60000000000l));
+		assertEquals(33333333l, AmountMath.btcValue(1, 3));
+		assertEquals(-33333333l, AmountMath.btcValue(-1, 3));
+		assertEquals(-33333333l, AmountMath.btcValue(1, -3));
+
+		assertBtcValue(Long.MAX_VALUE, Long.MAX_VALUE);
+		assertBtcValue(Long.MAX_VALUE, Long.MAX_VALUE - 1);
+		assertBtcValue(Long.MAX_VALUE / AmountMath.ONE_BTC, 1);
+		assertBtcValue(Long.MAX_VALUE / AmountMath.ONE_BTC + 1, 1);
+		assertBtcValue(1, Long.MAX_VALUE);
+
+		final Random random = new Random(2);
+		for (int i = 0; i < 100000; i++)
+		{
+			final long rate = randomLong(random);
+			if (rate != 0)
+				assertBtcValue(randomLong(random), rate);
+		}
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void btcValueZeroRate() throws Exception
+	{
+		AmountMath.btcValue(1, 0);
+	}
+
+	private static void assertLocalValue(final long btcValue, final long rate)
+	{
+		final BigInteger expected = BigInteger.valueOf(btcValue).multiply(BigInteger.valueOf(rate)).divide(ONE_BTC);
+
+		try
+		{
+			assertEquals(expected.longValue(), AmountMath.localValue(btcValue, rate));
+			assertEquals(expected, BigInteger.valueOf(expected.longValue()));
+		}
+		catch (final ArithmeticException x)
+		{
+			if (expected.bitLength() < 64)
+				fail(btcValue + " * " + rate + ": " + x);
+		}
+	}
+
+	private static void assertBtcValue(final long localValue, final long rate)
+	{
+		final BigInteger expected = BigInteger.valueOf(localValue).multiply(ONE_BTC).divide(BigInteger.valueOf(rate));
+
+		try
+		{
+			assertEquals(expected.longValue(), AmountMath.btcValue(localValue, rate));
+			assertEquals(expected, BigInteger.valueOf(expected.longValue()));
+		}
+		catch (final ArithmeticException x)
+		{
+			if (expected.bitLength() < 64)
+				fail(localValue + " / " + rate + ": " + x);
+		}
+	}
+
+	private static void assertSameResult(final String value, final int shift, final long maxValue)
+	{
+		final Object expected = reference(value, shift, maxValue);
+		final Object actual;
+		try
+		{
+			actual = AmountMath.parseNanoCoins(value, shift, maxValue);
+		}
+		catch (final RuntimeException x)
+		{
+			if (!(expected instanceof RuntimeException))
+				fail(value + " (shift " + shift + "): expected " + expected + " but got " + x);
+			assertEquals(value, expected.getClass(), x.getClass());
+			return;
+		}
+
+		assertEquals(value + " (shift " + shift + ")", expected, actual);
+	}
+
+	private static void assertSameFailure(final String value, final int shift, final long maxValue)
+	{
+		final Object expected = reference(value, shift, maxValue);
+		if (!(expected instanceof RuntimeException))
+			fail("reference accepted " + value);
+
+		assertSameResult(value, shift, maxValue);
+	}
+
+	/**
+	 * The BigDecimal based implementation {@link GenericUtils#toNanoCoins(String, int)} used to have.
+	 */
+	private static Object reference(final String value, final int shift, final long maxValue)
+	{
+		try
+		{
+			final BigInteger nanoCoins = new BigDecimal(value).movePointRight(8 - shift).toBigIntegerExact();
+
+			if (nanoCoins.signum() < 0)
+				throw new IllegalArgumentException("negative amount: " + value);
+			if (nanoCoins.compareTo(BigInteger.valueOf(maxValue)) > 0)
+				throw new IllegalArgumentException("amount too large: " + value);
+
+			return nanoCoins.longValue();
+		}
+		catch (final RuntimeException x)
+		{
+			return x;
+		}
+	}
+
+	private static String randomDecimal(final Random random)
+	{
+		final StringBuilder builder = new StringBuilder();
+
+		final int sign = random.nextInt(10);
+		if (sign == 0)
+			builder.append('-');
+		else if (sign == 1)
+			builder.append('+');
+
+		final int numIntegerDigits = random.nextInt(random.nextBoolean() ? 4 : 22);
+		for (int i = 0; i < numIntegerDigits; i++)
+			builder.append((char) ('0' + random.nextInt(10)));
+		if (random.nextInt(3) > 0)
+		{
+			builder.append('.');
+			final int numFractionDigits = random.nextInt(random.nextBoolean() ? 4 : 14);
+			for (int i = 0; i < numFractionDigits; i++)
+				builder.append((char) ('0' + (random.nextInt(3) == 0 ? random.nextInt(10) : 0)));
+		}
+
+		if (random.nextInt(10) == 0)
+		{
+			builder.append(random.nextBoolean() ? 'e' : 'E');
+			if (random.nextBoolean())
+				builder.append(random.nextBoolean() ? '-' : '+');
+			builder.append(random.nextInt(25));
+		}
+
+		if (random.nextInt(200) == 0)
+			builder.insert(random.nextInt(builder.length() + 1), "x.-+".charAt(random.nextInt(4)));
+
+		return builder.toString();
+	}
+
+	private static long randomLong(final Random random)
+	{
+		final long value = random.nextLong() >> random.nextInt(64);
+		return value == Long.MIN_VALUE ? 0 : value;
+	}
+}
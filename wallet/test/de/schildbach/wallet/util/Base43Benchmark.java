@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.util.Random;
+
+/**
+ * Measures encoding and decoding of random payloads from 100 bytes to 100 kilobytes, converting digit by digit like
+ * the former implementation and in limbs. Not a unit test; run manually via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class Base43Benchmark
+{
+	private static final int[] SIZES = { 100, 1000, 10000, 100000 };
+	private static final int BYTES_PER_SIZE = 200000;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final Random random = new Random(0);
+
+		// warm up
+		final byte[] warmUp = new byte[1000];
+		random.nextBytes(warmUp);
+		for (int i = 0; i < 200; i++)
+		{
+			Base43Test.referenceDecode(Base43Test.referenceEncode(warmUp));
+			Base43.decode(Base43.encode(warmUp));
+		}
+
+		for (final int size : SIZES)
+		{
+			final byte[] bytes = new byte[size];
+			random.nextBytes(bytes);
+			final String str = Base43.encode(bytes);
+			final int iterations = Math.max(1, BYTES_PER_SIZE / size);
+
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+				Base43Test.referenceEncode(bytes);
+			final long referenceEncode = (System.nanoTime() - start) / 1000 / iterations;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+				Base43.encode(bytes);
+			final long encode = (System.nanoTime() - start) / 1000 / iterations;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+				Base43Test.referenceDecode(str);
+			final long referenceDecode = (System.nanoTime() - start) / 1000 / iterations;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+				Base43.decode(str);
+			final long decode = (System.nanoTime() - start) / 1000 / iterations;
+
+			System.out.println(size + " bytes: encode " + referenceEncode + "us -> " + encode + "us, decode " + referenceDecode + "us -> "
+					+ decode + "us");
+		}
+	}
+}
@@ -19,6 +19,13 @@ package de.schildbach.wallet.util;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -50,4 +57,185 @@ public class Base43Test
 
 		assertArrayEquals("Hello World".getBytes(), Base43.decode("RNO2-MYFN0D35RHM"));
 	}
+
+	@Test
+	public void sameAsDigitByDigit() throws Exception
+	{
+		final Random random = new Random(0);
+		for (int i = 0; i < 2000; i++)
+		{
+			final byte[] bytes = randomBytes(random, random.nextInt(i < 1000 ? 20 : 600));
+			final String expected = referenceEncode(bytes);
+
+			assertEquals(expected, Base43.encode(bytes));
+			assertArrayEquals(expected, referenceDecode(expected), Base43.decode(expected));
+			assertArrayEquals(bytes, Base43.decode(expected));
+		}
+	}
+
+	@Test
+	public void decodeNonCanonical() throws Exception
+	{
+		// any digit string decodes, not just those made by encode
+		final Random random = new Random(1);
+		for (int i = 0; i < 1000; i++)
+		{
+			final char[] digits = new char[random.nextInt(i < 500 ? 12 : 300)];
+			for (int j = 0; j < digits.length; j++)
+				digits[j] = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ$*+-./:".charAt(random.nextInt(random.nextInt(4) == 0 ? 2 : 43));
+			final String str = new String(digits);
+
+			assertArrayEquals(str, referenceDecode(str), Base43.decode(str));
+		}
+	}
+
+	@Test
+	public void buffers() throws Exception
+	{
+		final byte[] bytes = randomBytes(new Random(2), 100);
+		final String expected = referenceEncode(Arrays.copyOfRange(bytes, 10, 90));
+
+		final char[] chars = new char[3 + Base43.maxEncodedLength(80)];
+		final int numChars = Base43.encode(bytes, 10, 80, chars, 3);
+		assertEquals(expected, new String(chars, 3, numChars));
+
+		final String padded = "XY" + expected + "Z";
+		final byte[] decoded = new byte[5 + Base43.maxDecodedLength(expected.length())];
+		final int numBytes = Base43.decode(padded, 2, expected.length(), decoded, 5);
+		assertArrayEquals(Arrays.copyOfRange(bytes, 10, 90), Arrays.copyOfRange(decoded, 5, 5 + numBytes));
+	}
+
+	@Test
+	public void streams() throws Exception
+	{
+		final Random random = new Random(3);
+		for (final int length : new int[] { 0, 1, 3, 4, 5, 4095, 4096, 4097, 10000 })
+		{
+			final byte[] bytes = randomBytes(random, length);
+
+			final StringBuilder encoded = new StringBuilder();
+			Base43.encode(new ByteArrayInputStream(bytes), encoded);
+			assertEquals(Base43.encode(bytes), encoded.toString());
+
+			final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+			Base43.decode(new StringReader(encoded.toString()), decoded);
+			assertArrayEquals(bytes, decoded.toByteArray());
+		}
+	}
+
+	@Test
+	public void maxLengths() throws Exception
+	{
+		for (int length = 0; length < 2000; length++)
+		{
+			final byte[] ones = new byte[length];
+			Arrays.fill(ones, (byte) 0xff);
+			assertTrue(Base43.encode(ones).length() <= Base43.maxEncodedLength(length));
+
+			final char[] digits = new char[length];
+			Arrays.fill(digits, ':');
+			assertTrue(Base43.decode(new String(digits)).length <= Base43.maxDecodedLength(length));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void decodeIllegalCharacter() throws Exception
+	{
+		Base43.decode("RNO2-MYFN0D35rHM");
+	}
+
+	/**
+	 * @return random bytes, sometimes with leading zeros
+	 */
+	private static byte[] randomBytes(final Random random, final int length)
+	{
+		final byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		final int numZeros = random.nextInt(4) == 0 ? random.nextInt(length + 1) : 0;
+		Arrays.fill(bytes, 0, Math.min(numZeros, Math.min(3, length)), (byte) 0);
+		return bytes;
+	}
+
+	private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ$*+-./:";
+
+	/**
+	 * Former implementation, converting digit by digit.
+	 */
+	static String referenceEncode(final byte[] source)
+	{
+		if (source.length == 0)
+			return "";
+
+		final byte[] input = Arrays.copyOf(source, source.length);
+
+		int zeroCount = 0;
+		while (zeroCount < input.length && input[zeroCount] == 0)
+			++zeroCount;
+
+		final char[] temp = new char[input.length * 2];
+		int j = temp.length;
+
+		int startAt = zeroCount;
+		while (startAt < input.length)
+		{
+			int remainder = 0;
+			for (int i = startAt; i < input.length; i++)
+			{
+				final int t = remainder * 256 + (input[i] & 0xff);
+				input[i] = (byte) (t / 43);
+				remainder = t % 43;
+			}
+			if (input[startAt] == 0)
+				++startAt;
+			temp[--j] = ALPHABET.charAt(remainder);
+		}
+
+		while (j < temp.length && temp[j] == '0')
+			++j;
+
+		while (--zeroCount >= 0)
+			temp[--j] = '0';
+
+		return new String(temp, j, temp.length - j);
+	}
+
+	/**
+	 * Former implementation, converting digit by digit.
+	 */
+	static byte[] referenceDecode(final String input)
+	{
+		if (input.length() == 0)
+			return new byte[0];
+
+		final byte[] input43 = new byte[input.length()];
+		for (int i = 0; i < input.length(); ++i)
+			input43[i] = (byte) ALPHABET.indexOf(input.charAt(i));
+
+		int zeroCount = 0;
+		while (zeroCount < input43.length && input43[zeroCount] == 0)
+			++zeroCount;
+
+		final byte[] temp = new byte[input.length()];
+		int j = temp.length;
+
+		int startAt = zeroCount;
+		while (startAt < input43.length)
+		{
+			int remainder = 0;
+			for (int i = startAt; i < input43.length; i++)
+			{
+				final int t = remainder * 43 + (input43[i] & 0xff);
+				input43[i] = (byte) (t / 256);
+				remainder = t % 256;
+			}
+			if (input43[startAt] == 0)
+				++startAt;
+			temp[--j] = (byte) remainder;
+		}
+
+		while (j < temp.length && temp[j] == 0)
+			++j;
+
+		return Arrays.copyOfRange(temp, j - zeroCount, temp.length);
+	}
 }
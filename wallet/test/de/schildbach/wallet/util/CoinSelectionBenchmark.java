@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Random;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * Measures candidate collection via the UTXO index against collecting and sorting all spend candidates per send, and
+ * compares the coin selection strategies by time, inputs and fee, over synthetic wallets of 1k to 50k outputs. Wallets
+ * and amounts are derived from fixed seeds, so input counts and fees are the same on every run. Not a unit test; run
+ * manually via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class CoinSelectionBenchmark
+{
+	private static final int[] NUM_OUTPUTS = { 1000, 10000, 50000 };
+	private static final int NUM_KEYS = 20;
+	private static final long OUTPUT_VALUE = 2000000;
+	private static final int NUM_AMOUNTS = 20;
+	private static final int ROUNDS = 5;
+
+	private static final BigInteger FEE = BigInteger.valueOf(100000);
+	private static final TransactionPlanner PLANNER = new TransactionPlanner(FEE, FEE, FEE);
+
+	public static void main(final String[] args) throws Exception
+	{
+		final Address to = new ECKey().toAddress(UnitTestParams.get());
+
+		for (final int numOutputs : NUM_OUTPUTS)
+		{
+			final Wallet wallet = TestWallets.createWallet(NUM_KEYS, numOutputs, OUTPUT_VALUE, numOutputs);
+			final Address changeAddress = wallet.getKeys().get(0).toAddress(UnitTestParams.get());
+			final long balance = wallet.getBalance(Wallet.BalanceType.AVAILABLE).longValue();
+
+			final Random random = new Random(numOutputs);
+			final BigInteger[] amounts = new BigInteger[NUM_AMOUNTS];
+			for (int i = 0; i < NUM_AMOUNTS; i++)
+				amounts[i] = BigInteger.valueOf(100000 + (long) (random.nextDouble() * Math.min(balance / 2, 100 * OUTPUT_VALUE)));
+
+			long best = Long.MAX_VALUE;
+			for (int r = 0; r < ROUNDS; r++)
+			{
+				final long start = System.nanoTime();
+				TransactionPlanner.spendCandidates(wallet);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.println(numOutputs + " outputs, collect and sort: " + best / 1000 + "us");
+
+			final long indexStart = System.nanoTime();
+			final UtxoIndex index = new UtxoIndex(wallet);
+			System.out.println(numOutputs + " outputs, index build: " + (System.nanoTime() - indexStart) / 1000 + "us");
+
+			best = Long.MAX_VALUE;
+			for (int r = 0; r < ROUNDS; r++)
+			{
+				final long start = System.nanoTime();
+				index.update(index.byValue().get(r).getParentTransaction());
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.println(numOutputs + " outputs, index update per transaction: " + best / 1000 + "us");
+
+			best = Long.MAX_VALUE;
+			for (int r = 0; r < ROUNDS; r++)
+			{
+				final long start = System.nanoTime();
+				index.byValue();
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.println(numOutputs + " outputs, index read: " + best / 1000 + "us");
+
+			best = Long.MAX_VALUE;
+			for (int r = 0; r < ROUNDS; r++)
+			{
+				index.update(index.byValue().get(r).getParentTransaction());
+				final long start = System.nanoTime();
+				index.byDefaultOrder();
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.println(numOutputs + " outputs, index read in default order after a change: " + best / 1000 + "us");
+
+			for (final CoinSelectionStrategy strategy : CoinSelectionStrategy.values())
+			{
+				long totalInputs = 0;
+				long totalFee = 0;
+				int numChange = 0;
+				best = Long.MAX_VALUE;
+				for (int r = 0; r < ROUNDS; r++)
+				{
+					final long start = System.nanoTime();
+					for (final BigInteger amount : amounts)
+					{
+						final List<TransactionOutput> candidates = strategy.candidates(index, PLANNER, wallet, to, amount, changeAddress);
+						final TransactionPlanner.Plan plan = PLANNER.plan(wallet, candidates, to, amount, changeAddress, false);
+						if (r == 0)
+						{
+							totalInputs += plan.inputs.size();
+							totalFee += plan.fee.longValue();
+							if (plan.changeAddress != null)
+								numChange++;
+						}
+					}
+					best = Math.min(best, System.nanoTime() - start);
+				}
+				System.out.println(numOutputs + " outputs, " + strategy + ": " + best / NUM_AMOUNTS / 1000 + "us per send, " + totalInputs
+						+ " inputs, " + totalFee + " fees, " + numChange + "/" + NUM_AMOUNTS + " with change");
+			}
+		}
+	}
+}
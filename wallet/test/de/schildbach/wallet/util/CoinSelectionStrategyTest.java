@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class CoinSelectionStrategyTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+	private static final BigInteger MIN_TX_FEE = BigInteger.valueOf(100000);
+	private static final BigInteger TX_FEE_PER_KB = BigInteger.valueOf(100000);
+	private static final BigInteger MIN_CHANGE = BigInteger.valueOf(100000);
+
+	private final TransactionPlanner planner = new TransactionPlanner(TX_FEE_PER_KB, MIN_TX_FEE, MIN_CHANGE);
+	private final Address to = new ECKey().toAddress(PARAMS);
+
+	@Test
+	public void allStrategiesReturnAllOutputs() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(3, 100, 5000000, 0);
+		TestWallets.addOutputs(wallet, 1000, 5000, 20000, 300000, 999999);
+		final UtxoIndex index = new UtxoIndex(wallet);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		for (final CoinSelectionStrategy strategy : CoinSelectionStrategy.values())
+		{
+			final List<TransactionOutput> candidates = strategy.candidates(index, planner, wallet, to, BigInteger.valueOf(12000000), changeAddress);
+			assertEquals(strategy.name(), 105, candidates.size());
+			assertEquals(strategy.name(), new HashSet<TransactionOutput>(index.byValue()), new HashSet<TransactionOutput>(candidates));
+
+			// emptying works with any order
+			final BigInteger balance = wallet.getBalance(Wallet.BalanceType.AVAILABLE);
+			final TransactionPlanner.Plan plan = planner.plan(wallet, candidates, to, balance, changeAddress, true);
+			assertEquals(105, plan.inputs.size());
+		}
+	}
+
+	@Test
+	public void minInputs() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(3, 100, 5000000, 1);
+		final UtxoIndex index = new UtxoIndex(wallet);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+		final BigInteger amount = BigInteger.valueOf(40000000);
+
+		final int minInputs = plan(CoinSelectionStrategy.MIN_INPUTS, index, wallet, amount, changeAddress).inputs.size();
+		for (final CoinSelectionStrategy strategy : CoinSelectionStrategy.values())
+			assertTrue(strategy.name(), plan(strategy, index, wallet, amount, changeAddress).inputs.size() >= minInputs);
+	}
+
+	@Test
+	public void minFeeUsesSmallestSufficientOutput() throws Exception
+	{
+		final Wallet wallet = new Wallet(PARAMS);
+		wallet.addKey(new ECKey());
+		TestWallets.addOutputs(wallet, 1000000, 3000000, 5000000, 50000000);
+		final UtxoIndex index = new UtxoIndex(wallet);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		final TransactionPlanner.Plan plan = plan(CoinSelectionStrategy.MIN_FEE, index, wallet, BigInteger.valueOf(2500000), changeAddress);
+		assertEquals(1, plan.inputs.size());
+		assertEquals(BigInteger.valueOf(3000000), plan.inputs.get(0).getValue());
+		assertEquals(MIN_TX_FEE, plan.fee);
+
+		// largest first spends the big output
+		final TransactionPlanner.Plan minInputsPlan = plan(CoinSelectionStrategy.MIN_INPUTS, index, wallet, BigInteger.valueOf(2500000),
+				changeAddress);
+		assertEquals(BigInteger.valueOf(50000000), minInputsPlan.inputs.get(0).getValue());
+	}
+
+	@Test
+	public void consolidateDust() throws Exception
+	{
+		final Wallet wallet = new Wallet(PARAMS);
+		wallet.addKey(new ECKey());
+		TestWallets.addOutputs(wallet, 100000000, 200000, 300000, 400000, 500000);
+		final UtxoIndex index = new UtxoIndex(wallet);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		final TransactionPlanner.Plan plan = plan(CoinSelectionStrategy.CONSOLIDATE_DUST, index, wallet, BigInteger.valueOf(10000000),
+				changeAddress);
+		assertEquals(5, plan.inputs.size());
+		assertEquals(BigInteger.valueOf(200000), plan.inputs.get(0).getValue());
+	}
+
+	@Test
+	public void branchAndBoundFindsExactMatch() throws Exception
+	{
+		final Wallet wallet = new Wallet(PARAMS);
+		wallet.addKey(new ECKey());
+		TestWallets.addOutputs(wallet, 30000000, 20000000, 17000000, 13000000, 5000000);
+		final UtxoIndex index = new UtxoIndex(wallet);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		// 20 + 13 pays amount and the minimum fee, with 10 satoshis left over
+		final BigInteger amount = BigInteger.valueOf(33000000 - 100000 - 10);
+		final TransactionPlanner.Plan plan = plan(CoinSelectionStrategy.BRANCH_AND_BOUND, index, wallet, amount, changeAddress);
+		assertEquals(2, plan.inputs.size());
+		assertNull(plan.changeAddress);
+		assertEquals(BigInteger.valueOf(100010), plan.fee);
+
+		// largest first needs change
+		final TransactionPlanner.Plan minInputsPlan = plan(CoinSelectionStrategy.MIN_INPUTS, index, wallet, amount, changeAddress);
+		assertEquals(changeAddress, minInputsPlan.changeAddress);
+	}
+
+	@Test
+	public void branchAndBoundWithoutMatch() throws Exception
+	{
+		final Wallet wallet = new Wallet(PARAMS);
+		wallet.addKey(new ECKey());
+		TestWallets.addOutputs(wallet, 30000000, 20000000);
+		final UtxoIndex index = new UtxoIndex(wallet);
+
+		assertNull(planner.exactMatch(wallet, index.byValue(), to, 25000000));
+	}
+
+	@Test
+	public void branchAndBoundRandom() throws Exception
+	{
+		final Random random = new Random(0);
+		for (int i = 0; i < 20; i++)
+		{
+			final Wallet wallet = TestWallets.createWallet(2, 5 + random.nextInt(40), 1000000 + random.nextInt(10000000), i);
+			final UtxoIndex index = new UtxoIndex(wallet);
+			final List<TransactionOutput> byValue = index.byValue();
+
+			// pick a random subset and ask for its value minus the fee
+			long value = 0;
+			int numInputs = 0;
+			for (final TransactionOutput output : byValue)
+			{
+				if (random.nextBoolean())
+				{
+					value += output.getValue().longValue();
+					numInputs++;
+				}
+			}
+			if (numInputs == 0)
+				continue;
+			final long amount = value - planner.fee(numInputs * 180 + 50) - random.nextInt(50000);
+
+			final List<TransactionOutput> match = planner.exactMatch(wallet, byValue, to, amount);
+			if (match != null)
+			{
+				final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+				final TransactionPlanner.Plan plan = planner.plan(wallet, match, to, BigInteger.valueOf(amount), changeAddress, false);
+				assertNull(plan.changeAddress);
+				assertTrue(plan.fee.longValue() < planner.fee(plan.size) + MIN_CHANGE.longValue());
+			}
+		}
+	}
+
+	@Test
+	public void fromName() throws Exception
+	{
+		assertEquals(CoinSelectionStrategy.MIN_FEE, CoinSelectionStrategy.fromName("MIN_FEE"));
+		assertEquals(CoinSelectionStrategy.DEFAULT, CoinSelectionStrategy.fromName("NO_SUCH_STRATEGY"));
+		assertEquals(CoinSelectionStrategy.DEFAULT, CoinSelectionStrategy.fromName(null));
+	}
+
+	private TransactionPlanner.Plan plan(final CoinSelectionStrategy strategy, final UtxoIndex index, final Wallet wallet,
+			final BigInteger amount, final Address changeAddress) throws Exception
+	{
+		final List<TransactionOutput> candidates = strategy.candidates(index, planner, wallet, to, amount, changeAddress);
+		return planner.plan(wallet, candidates, to, amount, changeAddress, false);
+	}
+}
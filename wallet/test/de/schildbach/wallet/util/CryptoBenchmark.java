@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * Measures time and allocated bytes of writing and reading an encrypted key backup of 10000 and 50000 keys, buffered as
+ * whole strings like before and through the streams of {@link Crypto}. Not a unit test; run manually via its main
+ * method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class CryptoBenchmark
+{
+	private static final int[] NUM_KEYS = { 10000, 50000 };
+	private static final char[] PASSWORD = "aTestPassword".toCharArray();
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int ROUNDS = 3;
+
+	private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(final String[] args) throws Exception
+	{
+		final File file = File.createTempFile("keys", ".txt");
+		file.deleteOnExit();
+
+		for (final int numKeys : NUM_KEYS)
+		{
+			final List<String> lines = new ArrayList<String>(numKeys);
+			final ECKey key = new ECKey();
+			final String encoded = key.getPrivateKeyEncoded(UnitTestParams.get()).toString();
+			for (int i = 0; i < numKeys; i++)
+				lines.add(encoded + " 2014-06-01T12:00:00Z");
+
+			final long[] buffered = measure(new Backup()
+			{
+				@Override
+				public void write() throws Exception
+				{
+					final StringWriter plainOut = new StringWriter();
+					writeLines(plainOut, lines);
+					plainOut.close();
+					final String cipherText = Crypto.encrypt(plainOut.toString(), PASSWORD);
+					final Writer cipherOut = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+					cipherOut.write(cipherText);
+					cipherOut.close();
+				}
+
+				@Override
+				public int read() throws Exception
+				{
+					final BufferedReader cipherIn = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+					final StringBuilder cipherText = new StringBuilder();
+					String line;
+					while ((line = cipherIn.readLine()) != null)
+						cipherText.append(line);
+					cipherIn.close();
+					return countLines(new BufferedReader(new StringReader(Crypto.decrypt(cipherText.toString(), PASSWORD))));
+				}
+			});
+
+			final long[] streamed = measure(new Backup()
+			{
+				@Override
+				public void write() throws Exception
+				{
+					final Writer plainOut = new OutputStreamWriter(Crypto.encryptingOutputStream(new BufferedOutputStream(new FileOutputStream(file)),
+							PASSWORD), UTF_8);
+					writeLines(plainOut, lines);
+					plainOut.close();
+				}
+
+				@Override
+				public int read() throws Exception
+				{
+					return countLines(new BufferedReader(new InputStreamReader(Crypto.decryptingInputStream(new BufferedInputStream(
+							new FileInputStream(file)), PASSWORD), UTF_8)));
+				}
+			});
+
+			System.out.println(numKeys + " keys (" + file.length() / 1024 + " kB), buffered: write " + buffered[0] + "ms/"
+					+ buffered[1] / 1024 + " kB, read " + buffered[2] + "ms/" + buffered[3] / 1024 + " kB");
+			System.out.println(numKeys + " keys (" + file.length() / 1024 + " kB), streamed: write " + streamed[0] + "ms/"
+					+ streamed[1] / 1024 + " kB, read " + streamed[2] + "ms/" + streamed[3] / 1024 + " kB");
+		}
+	}
+
+	private interface Backup
+	{
+		void write() throws Exception;
+
+		int read() throws Exception;
+	}
+
+	private static long[] measure(final Backup backup) throws Exception
+	{
+		// warm up
+		backup.write();
+		backup.read();
+
+		final long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		final long threadId = Thread.currentThread().getId();
+		for (int i = 0; i < ROUNDS; i++)
+		{
+			long bytes = threadBean.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			backup.write();
+			best[0] = Math.min(best[0], (System.nanoTime() - start) / 1000000);
+			best[1] = Math.min(best[1], threadBean.getThreadAllocatedBytes(threadId) - bytes);
+
+			bytes = threadBean.getThreadAllocatedBytes(threadId);
+			start = System.nanoTime();
+			backup.read();
+			best[2] = Math.min(best[2], (System.nanoTime() - start) / 1000000);
+			best[3] = Math.min(best[3], threadBean.getThreadAllocatedBytes(threadId) - bytes);
+		}
+		return best;
+	}
+
+	private static void writeLines(final Writer out, final List<String> lines) throws Exception
+	{
+		out.write("# KEEP YOUR PRIVATE KEYS SAFE! Anyone who can read this can spend your Auroracoins.\n");
+		for (final String line : lines)
+		{
+			out.write(line);
+			out.write('\n');
+		}
+	}
+
+	private static int countLines(final BufferedReader in) throws Exception
+	{
+		int count = 0;
+		while (in.readLine() != null)
+			count++;
+		in.close();
+		return count;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class CryptoTest
+{
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final char[] PASSWORD = "aTestPassword".toCharArray();
+	private static final String PLAIN_TEXT = "# KEEP YOUR PRIVATE KEYS SAFE! Anyone who can read this can spend your Auroracoins.\n"
+			+ "Q2bhsFXqAKKq4d2QSXVFZ6YD3RTJXeC7RWNpXMn1T2W5QV7ZtUsu 2014-06-01T12:00:00Z\n";
+
+	// openssl enc -aes-256-cbc -a -md md5 -salt -pass pass:aTestPassword
+	private static final String OPENSSL_CIPHER_TEXT = "U2FsdGVkX1/FoXZyFuJjigQjw4rttZexZaAIzkQq34VAAoVEFurPrbPpJ9dCbxcv\n"
+			+ "h6UgUVD/YsOlu4wsqVusKcbr9COSGNPLlpXIhWo8souiqql0SybU9zLA9FC1PnZ7\n"
+			+ "ddvdjUaNwFq+0A04z/Rw9dTLYuMev+PcRGWAt15H4s0sdijWScrG+K9ARSCSwAQC\n" + "yf2mYWTKIX3UI+a5PiOQbeKzwRWRi444H38yobxWdgQ=\n";
+
+	@Test
+	public void decryptOpenSSL() throws Exception
+	{
+		assertEquals(PLAIN_TEXT.trim(), Crypto.decrypt(OPENSSL_CIPHER_TEXT, PASSWORD));
+		assertEquals(PLAIN_TEXT, streamDecrypt(OPENSSL_CIPHER_TEXT, PASSWORD));
+	}
+
+	@Test
+	public void stringToStream() throws Exception
+	{
+		assertEquals(PLAIN_TEXT, streamDecrypt(Crypto.encrypt(PLAIN_TEXT, PASSWORD), PASSWORD));
+	}
+
+	@Test
+	public void streamToString() throws Exception
+	{
+		assertEquals(PLAIN_TEXT.trim(), Crypto.decrypt(streamEncrypt(PLAIN_TEXT, PASSWORD), PASSWORD));
+	}
+
+	@Test
+	public void sameLayoutAsString() throws Exception
+	{
+		for (final int length : new int[] { 0, 1, 2, 3, 40, 41, 56, 57, 58, 1000 })
+		{
+			final StringBuilder plainText = new StringBuilder();
+			for (int i = 0; i < length; i++)
+				plainText.append((char) ('a' + i % 26));
+
+			final String string = Crypto.encrypt(plainText.toString(), PASSWORD);
+			final String stream = streamEncrypt(plainText.toString(), PASSWORD);
+
+			assertEquals(string.length(), stream.length());
+			assertEquals(lineLengths(string), lineLengths(stream));
+			assertTrue(stream.startsWith("U2FsdGVkX1"));
+			assertTrue(stream.endsWith("\n"));
+		}
+	}
+
+	@Test
+	public void manyLines() throws Exception
+	{
+		final StringBuilder plainText = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			plainText.append("Q2bhsFXqAKKq4d2QSXVFZ6YD3RTJXeC7RWNpXMn1T2W5QV7ZtUsu 2014-06-01T12:00:").append(i).append("Z\n");
+
+		final String cipherText = streamEncrypt(plainText.toString(), PASSWORD);
+
+		assertEquals(plainText.toString(), streamDecrypt(cipherText, PASSWORD));
+		assertEquals(plainText.toString().trim(), Crypto.decrypt(cipherText, PASSWORD));
+	}
+
+	@Test
+	public void singleByteReads() throws Exception
+	{
+		final InputStream is = Crypto.decryptingInputStream(new ByteArrayInputStream(OPENSSL_CIPHER_TEXT.getBytes(UTF_8)),
+				PASSWORD);
+		final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		int b;
+		while ((b = is.read()) != -1)
+			plain.write(b);
+		is.close();
+
+		assertArrayEquals(PLAIN_TEXT.getBytes(UTF_8), plain.toByteArray());
+	}
+
+	@Test(expected = IOException.class)
+	public void wrongPassword() throws Exception
+	{
+		streamDecrypt(OPENSSL_CIPHER_TEXT, "wrongPassword".toCharArray());
+	}
+
+	@Test(expected = IOException.class)
+	public void notSalted() throws Exception
+	{
+		streamDecrypt("bm90IHNhbHRlZCBhdCBhbGwgYW5kIHRoZW4gc29tZQ==\n", PASSWORD);
+	}
+
+	private static String streamEncrypt(final String plainText, final char[] password) throws IOException
+	{
+		final ByteArrayOutputStream cipherText = new ByteArrayOutputStream();
+		final OutputStream os = Crypto.encryptingOutputStream(cipherText, password);
+		os.write(plainText.getBytes(UTF_8));
+		os.close();
+
+		return new String(cipherText.toByteArray(), UTF_8);
+	}
+
+	private static String streamDecrypt(final String cipherText, final char[] password) throws IOException
+	{
+		final InputStream is = Crypto.decryptingInputStream(new ByteArrayInputStream(cipherText.getBytes(UTF_8)), password);
+		final ByteArrayOutputStream plainText = new ByteArrayOutputStream();
+		final byte[] buf = new byte[100];
+		int read;
+		while ((read = is.read(buf)) != -1)
+			plainText.write(buf, 0, read);
+		is.close();
+
+		return new String(plainText.toByteArray(), UTF_8);
+	}
+
+	private static String lineLengths(final String text)
+	{
+		final StringBuilder lengths = new StringBuilder();
+		for (final String line : text.split("\n", -1))
+			lengths.append(line.length()).append(',');
+		return lengths.toString();
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class HttpClientTest
+{
+	private static final String CONTENT = "{\"ticker\":{\"avg\":\"0.0123\"}}\nsecond line";
+	private static final String ETAG = "\"v1\"";
+	private static final String LATIN1_CONTENT = "Kr\u00f3na";
+
+	private HttpServer server;
+	private String base;
+	private final AtomicInteger conditionalHits = new AtomicInteger();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/plain", new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				respond(exchange, 200, CONTENT.getBytes("UTF-8"));
+			}
+		});
+		server.createContext("/latin1", new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=\"ISO-8859-1\"");
+				respond(exchange, 200, LATIN1_CONTENT.getBytes("ISO-8859-1"));
+			}
+		});
+		server.createContext("/gzip", new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				if (acceptEncoding == null || !acceptEncoding.contains("gzip"))
+				{
+					respond(exchange, 406, new byte[0]);
+					return;
+				}
+
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+				gzip.write(CONTENT.getBytes("UTF-8"));
+				gzip.close();
+
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				respond(exchange, 200, bytes.toByteArray());
+			}
+		});
+		server.createContext("/etag", new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				exchange.getResponseHeaders().set("ETag", ETAG);
+
+				if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+				{
+					conditionalHits.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+				}
+				else
+				{
+					respond(exchange, 200, CONTENT.getBytes("UTF-8"));
+				}
+			}
+		});
+		server.createContext("/slow", new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				try
+				{
+					Thread.sleep(1000);
+				}
+				catch (final InterruptedException x)
+				{
+					// fall through
+				}
+
+				respond(exchange, 200, CONTENT.getBytes("UTF-8"));
+			}
+		});
+		server.start();
+
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop(0);
+	}
+
+	private static void respond(final HttpExchange exchange, final int status, final byte[] body) throws IOException
+	{
+		exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+		final OutputStream os = exchange.getResponseBody();
+		os.write(body);
+		os.close();
+	}
+
+	@Test
+	public void plain() throws Exception
+	{
+		final HttpClient client = new HttpClient(null);
+
+		final HttpClient.Response response = client.get(new URL(base + "/plain"));
+		assertTrue(response.isOk());
+		assertFalse(response.notModified);
+		assertEquals(CONTENT, response.content());
+		assertEquals("{\"ticker\":{\"avg\":\"0.0123\"}}", response.firstLine());
+		assertEquals(CONTENT.getBytes("UTF-8").length, response.bytes);
+	}
+
+	@Test
+	public void charsetFromContentType() throws Exception
+	{
+		final HttpClient client = new HttpClient(null);
+
+		final HttpClient.Response response = client.get(new URL(base + "/latin1"));
+		assertEquals(Charset.forName("ISO-8859-1"), response.charset);
+		assertEquals(LATIN1_CONTENT, response.content());
+
+		assertEquals(Charset.forName("UTF-8"), HttpClient.charset(null));
+		assertEquals(Charset.forName("UTF-8"), HttpClient.charset("application/json"));
+		assertEquals(Charset.forName("UTF-8"), HttpClient.charset("text/plain; charset=no-such-charset"));
+		assertEquals(Charset.forName("ISO-8859-1"), HttpClient.charset("text/html;Charset=iso-8859-1"));
+	}
+
+	@Test
+	public void gzip() throws Exception
+	{
+		final HttpClient client = new HttpClient(null);
+
+		final HttpClient.Response response = client.get(new URL(base + "/gzip"));
+		assertTrue(response.isOk());
+		assertEquals(CONTENT, response.content());
+		assertTrue(response.bytes > 0);
+	}
+
+	@Test
+	public void conditionalGet() throws Exception
+	{
+		final HttpClient client = new HttpClient(null);
+		final URL url = new URL(base + "/etag");
+
+		final HttpClient.Response first = client.get(url);
+		assertTrue(first.isOk());
+		assertFalse(first.notModified);
+		assertEquals(0, conditionalHits.get());
+
+		final HttpClient.Response second = client.get(url);
+		assertTrue(second.isOk());
+		assertTrue(second.notModified);
+		assertEquals(CONTENT, second.content());
+		assertEquals(0, second.bytes);
+		assertEquals(1, conditionalHits.get());
+	}
+
+	@Test
+	public void stats() throws Exception
+	{
+		final HttpClient client = new HttpClient(null);
+		final URL url = new URL(base + "/etag");
+
+		client.get(url);
+		client.get(url);
+		client.get(new URL(base + "/plain"));
+
+		final HttpClient.Stats stats = client.getStats().get("127.0.0.1");
+		assertEquals(3, stats.requests);
+		assertEquals(1, stats.notModified);
+		assertEquals(0, stats.failures);
+		assertEquals(2 * CONTENT.getBytes("UTF-8").length, stats.bytes);
+	}
+
+	@Test(expected = SocketTimeoutException.class)
+	public void perHostTimeout() throws Exception
+	{
+		final HttpClient client = new HttpClient(null);
+		client.setTimeout("127.0.0.1", 100);
+
+		try
+		{
+			client.get(new URL(base + "/slow"));
+		}
+		finally
+		{
+			assertEquals(1, client.getStats().get("127.0.0.1").failures);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * Measures decoding 2000 Base58 keys on 1 to N threads, and adding 4000 keys, half of them already present, to a wallet
+ * of 2000 keys, directly and through {@link KeyImporter#addKeys}. Not a unit test; run manually via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class KeyImporterBenchmark
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+	private static final int NUM_KEYS = 2000;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final List<ECKey> keys = new ArrayList<ECKey>(NUM_KEYS * 2);
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < NUM_KEYS * 2; i++)
+		{
+			final ECKey key = new ECKey(BigInteger.valueOf(i + 1).shiftLeft(100), null, true);
+			keys.add(key);
+			if (i < NUM_KEYS)
+				text.append(key.getPrivateKeyEncoded(PARAMS)).append(" 2014-06-01T12:00:00Z\n");
+		}
+
+		long serialMs = 0;
+		for (int numThreads = 1; numThreads <= Runtime.getRuntime().availableProcessors(); numThreads++)
+		{
+			final long start = System.nanoTime();
+			new KeyImporter(numThreads).readKeys(new BufferedReader(new StringReader(text.toString())), PARAMS);
+			final long ms = Math.max((System.nanoTime() - start) / 1000000, 1);
+			if (numThreads == 1)
+				serialMs = ms;
+			System.out.println("decode " + NUM_KEYS + " keys, " + numThreads + " threads: " + ms + "ms, " + NUM_KEYS * 1000l / ms
+					+ " keys/s (" + String.format("%.2f", (double) serialMs / ms) + "x)");
+		}
+
+		// second round is after warm up
+		for (int round = 0; round < 2; round++)
+		{
+			final Wallet direct = new Wallet(PARAMS);
+			direct.addKeys(new ArrayList<ECKey>(keys.subList(0, NUM_KEYS)));
+			long start = System.nanoTime();
+			final int numDirect = direct.addKeys(new ArrayList<ECKey>(keys));
+			final long directMs = (System.nanoTime() - start) / 1000000;
+
+			final Wallet deduped = new Wallet(PARAMS);
+			deduped.addKeys(new ArrayList<ECKey>(keys.subList(0, NUM_KEYS)));
+			start = System.nanoTime();
+			final int numDeduped = KeyImporter.addKeys(deduped, keys);
+			final long dedupedMs = (System.nanoTime() - start) / 1000000;
+
+			if (round > 0)
+			{
+				System.out.println("Wallet.addKeys: " + numDirect + " of " + keys.size() + " keys added in " + directMs + "ms");
+				System.out.println("KeyImporter.addKeys: " + numDeduped + " of " + keys.size() + " keys added in " + dedupedMs + "ms");
+			}
+		}
+	}
+}
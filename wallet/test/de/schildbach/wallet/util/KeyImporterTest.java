@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.AbstractWalletEventListener;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.bitcoin.utils.Threading;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class KeyImporterTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+	@Test
+	public void readKeys() throws Exception
+	{
+		final ECKey key1 = new ECKey(BigInteger.ONE, null, true);
+		final ECKey key2 = new ECKey(BigInteger.TEN, null, false);
+		final String text = "# KEEP YOUR PRIVATE KEYS SAFE! Anyone who can read this can spend your Auroracoins.\n" //
+				+ key1.getPrivateKeyEncoded(PARAMS) + " 2014-06-01T12:00:00Z\n" //
+				+ "\n" //
+				+ key2.getPrivateKeyEncoded(PARAMS) + "\n";
+
+		final List<ECKey> keys = new KeyImporter(1).readKeys(new BufferedReader(new StringReader(text)), PARAMS);
+
+		assertEquals(2, keys.size());
+		assertArrayEquals(key1.getPubKey(), keys.get(0).getPubKey());
+		assertEquals(1401624000l, keys.get(0).getCreationTimeSeconds());
+		assertArrayEquals(key2.getPubKey(), keys.get(1).getPubKey());
+		assertEquals(0, keys.get(1).getCreationTimeSeconds());
+	}
+
+	@Test
+	public void sameKeysOnAnyNumberOfThreads() throws Exception
+	{
+		final List<ECKey> keys = createKeys(200);
+		final String text = writeKeys(keys);
+
+		for (final int numThreads : new int[] { 1, 3 })
+		{
+			final List<ECKey> read = new KeyImporter(numThreads).readKeys(new BufferedReader(new StringReader(text)), PARAMS);
+
+			assertEquals(keys.size(), read.size());
+			for (int i = 0; i < keys.size(); i++)
+				assertArrayEquals(keys.get(i).getPubKey(), read.get(i).getPubKey());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void illegalKey() throws Exception
+	{
+		new KeyImporter(3).readKeys(new BufferedReader(new StringReader(writeKeys(createKeys(100)) + "notAKey\n")), PARAMS);
+	}
+
+	@Test
+	public void addKeysDedupes() throws Exception
+	{
+		final List<ECKey> keys = createKeys(10);
+		final Wallet wallet = new Wallet(PARAMS);
+		wallet.addKeys(new ArrayList<ECKey>(keys.subList(0, 3)));
+
+		final AtomicInteger numEvents = new AtomicInteger();
+		final AtomicInteger numKeysInEvents = new AtomicInteger();
+		wallet.addEventListener(new AbstractWalletEventListener()
+		{
+			@Override
+			public void onKeysAdded(final Wallet wallet, final List<ECKey> keysAdded)
+			{
+				numEvents.incrementAndGet();
+				numKeysInEvents.addAndGet(keysAdded.size());
+			}
+		}, Threading.SAME_THREAD);
+
+		final List<ECKey> imported = new ArrayList<ECKey>(keys);
+		imported.add(keys.get(5)); // duplicate within the import
+
+		assertEquals(7, KeyImporter.addKeys(wallet, imported));
+		assertEquals(10, wallet.getKeys().size());
+		assertEquals(1, numEvents.get());
+		assertEquals(7, numKeysInEvents.get());
+
+		assertEquals(0, KeyImporter.addKeys(wallet, keys));
+		assertEquals(1, numEvents.get());
+	}
+
+	private static List<ECKey> createKeys(final int numKeys)
+	{
+		final List<ECKey> keys = new ArrayList<ECKey>(numKeys);
+		for (int i = 0; i < numKeys; i++)
+			keys.add(new ECKey(BigInteger.valueOf(i + 1).shiftLeft(100), null, true));
+		return keys;
+	}
+
+	private static String writeKeys(final List<ECKey> keys)
+	{
+		final StringBuilder text = new StringBuilder();
+		for (final ECKey key : keys)
+			text.append(key.getPrivateKeyEncoded(PARAMS)).append(" 2014-06-01T12:00:00Z\n");
+		return text.toString();
+	}
+}
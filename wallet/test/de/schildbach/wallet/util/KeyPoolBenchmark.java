@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.File;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.bitcoin.core.AbstractWalletEventListener;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.bitcoin.utils.Threading;
+
+/**
+ * Issues 100 addresses, a few milliseconds apart, and measures how long each issue blocks the caller and how often the
+ * wallet announced new keys, each of which makes the peer group recalculate and resend the bloom filter. Compares
+ * generating a key per address to issuing from key pools of different lookahead. Not a unit test; run manually via
+ * its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class KeyPoolBenchmark
+{
+	private static final int NUM_ADDRESSES = 100;
+	private static final long INTERVAL_MS = 25;
+	private static final int[] LOOKAHEADS = { 20, 50 };
+
+	public static void main(final String[] args) throws Exception
+	{
+		final SecureRandom random = new SecureRandom();
+
+		// second round is after warm up
+		for (int round = 0; round < 2; round++)
+		{
+			final List<String> results = new ArrayList<String>();
+
+			final Wallet onDemandWallet = newWallet();
+			final KeysAddedCounter onDemandCounter = counter(onDemandWallet);
+			final long[] onDemandNanos = new long[NUM_ADDRESSES];
+			for (int i = 0; i < NUM_ADDRESSES; i++)
+			{
+				final long start = System.nanoTime();
+				onDemandWallet.addKey(new ECKey());
+				onDemandNanos[i] = System.nanoTime() - start;
+				Thread.sleep(INTERVAL_MS);
+			}
+			results.add("on demand: " + percentiles(onDemandNanos) + " per address, " + onDemandCounter.numEvents + " filter resends");
+
+			for (final int lookahead : LOOKAHEADS)
+			{
+				final File file = File.createTempFile("key-pool", null);
+				file.delete();
+
+				final Wallet wallet = newWallet();
+				final KeysAddedCounter counter = counter(wallet);
+				final KeyPool pool = new KeyPool(file, wallet, lookahead, random, null);
+				pool.flush();
+				final int numInitial = counter.numEvents;
+
+				final long[] nanos = new long[NUM_ADDRESSES];
+				for (int i = 0; i < NUM_ADDRESSES; i++)
+				{
+					final long start = System.nanoTime();
+					pool.issue();
+					nanos[i] = System.nanoTime() - start;
+					Thread.sleep(INTERVAL_MS);
+				}
+				pool.flush();
+
+				results.add("pool of " + lookahead + ": " + percentiles(nanos) + " per address, " + (counter.numEvents - numInitial)
+						+ " filter resends plus " + numInitial + " for the initial fill, exhausted " + pool.getNumExhausted() + " times");
+
+				file.delete();
+			}
+
+			if (round > 0)
+				for (final String result : results)
+					System.out.println(result);
+		}
+	}
+
+	private static Wallet newWallet()
+	{
+		return new Wallet(UnitTestParams.get());
+	}
+
+	private static KeysAddedCounter counter(final Wallet wallet)
+	{
+		final KeysAddedCounter counter = new KeysAddedCounter();
+		wallet.addEventListener(counter, Threading.SAME_THREAD);
+		return counter;
+	}
+
+	private static String percentiles(final long[] nanos)
+	{
+		Arrays.sort(nanos);
+		return String.format("%.3f ms median, %.3f ms 99th percentile, %.3f ms max", nanos[nanos.length / 2] / 1000000.0,
+				nanos[nanos.length * 99 / 100] / 1000000.0, nanos[nanos.length - 1] / 1000000.0);
+	}
+
+	private static final class KeysAddedCounter extends AbstractWalletEventListener
+	{
+		private volatile int numEvents = 0;
+
+		@Override
+		public void onKeysAdded(final Wallet wallet, final List<ECKey> keys)
+		{
+			numEvents++;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.security.SecureRandom;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.bitcoin.core.AbstractWalletEventListener;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.bitcoin.utils.Threading;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class KeyPoolTest
+{
+	private File file;
+	private Wallet wallet;
+	private KeysAddedCounter counter;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		file = File.createTempFile("key-pool", null);
+		file.delete();
+		wallet = new Wallet(UnitTestParams.get());
+		counter = new KeysAddedCounter();
+		wallet.addEventListener(counter, Threading.SAME_THREAD);
+	}
+
+	@After
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	@Test
+	public void issuedFromPool() throws Exception
+	{
+		final KeyPool pool = new KeyPool(file, wallet, 10, new SecureRandom(), null);
+		pool.flush();
+
+		assertEquals(10, wallet.getKeychainSize());
+		assertTrue(pool.getIssuedKeys().isEmpty());
+		assertEquals(1, counter.numEvents);
+
+		final List<ECKey> keys = pool.issue(5);
+		assertEquals(5, keys.size());
+		for (final ECKey key : keys)
+		{
+			assertTrue(wallet.hasKey(key));
+			assertTrue(pool.isIssued(key));
+		}
+		assertEquals(keys, pool.getIssuedKeys());
+		pool.flush();
+		assertEquals(10, wallet.getKeychainSize());
+		assertEquals(1, counter.numEvents);
+
+		// less than half left, topped up in one batch
+		final ECKey key = pool.issue();
+		pool.flush();
+		assertTrue(pool.isIssued(key));
+		assertEquals(16, wallet.getKeychainSize());
+		assertEquals(10, pool.getNumReady());
+		assertEquals(6, pool.getIssuedKeys().size());
+		assertEquals(2, pool.getNumBatches());
+		assertEquals(2, counter.numEvents);
+		assertEquals(0, pool.getNumExhausted());
+	}
+
+	@Test
+	public void exhausted() throws Exception
+	{
+		final KeyPool pool = new KeyPool(file, wallet, 2, new SecureRandom(), null);
+		pool.flush();
+
+		final List<ECKey> keys = pool.issue(5);
+		assertEquals(5, keys.size());
+		assertEquals(1, pool.getNumExhausted());
+		for (final ECKey key : keys)
+		{
+			assertTrue(wallet.hasKey(key));
+			assertTrue(pool.isIssued(key));
+			assertTrue(key.isCompressed());
+			assertTrue(key.getCreationTimeSeconds() > 0);
+		}
+		pool.flush();
+		assertEquals(2, pool.getNumReady());
+		assertEquals(7, wallet.getKeychainSize());
+	}
+
+	@Test
+	public void survivesRestart() throws Exception
+	{
+		final KeyPool pool = new KeyPool(file, wallet, 4, new SecureRandom(), null);
+		pool.flush();
+		final ECKey issued = pool.issue();
+		pool.flush();
+
+		final KeyPool restarted = new KeyPool(file, wallet, 4, new SecureRandom(), null);
+		restarted.flush();
+		assertEquals(3, restarted.getNumReady());
+		assertEquals(0, restarted.getNumBatches());
+		assertEquals(1, restarted.getIssuedKeys().size());
+		assertTrue(restarted.isIssued(issued));
+
+		final ECKey next = restarted.issue();
+		assertFalse(next.equals(issued));
+		assertTrue(wallet.hasKey(next));
+		assertEquals(4, wallet.getKeychainSize());
+	}
+
+	@Test
+	public void keysMissingFromWalletAreDropped() throws Exception
+	{
+		final KeyPool pool = new KeyPool(file, wallet, 4, new SecureRandom(), null);
+		pool.flush();
+
+		final Wallet restoredWallet = new Wallet(UnitTestParams.get());
+		final KeyPool restarted = new KeyPool(file, restoredWallet, 4, new SecureRandom(), null);
+		restarted.flush();
+		assertEquals(4, restarted.getNumReady());
+		assertEquals(1, restarted.getNumBatches());
+		for (final ECKey key : restoredWallet.getKeys())
+			assertFalse(wallet.hasKey(key));
+	}
+
+	@Test
+	public void savedBeforeKeysAreAdded() throws Exception
+	{
+		final KeyPool pool = new KeyPool(file, wallet, 10, new SecureRandom(), null);
+		pool.flush();
+
+		// a crash while the wallet adds the keys must not make them look issued
+		assertEquals(8 + 10 * 20, counter.fileLength);
+		assertTrue(pool.getIssuedKeys().isEmpty());
+	}
+
+	private final class KeysAddedCounter extends AbstractWalletEventListener
+	{
+		private int numEvents = 0;
+		private long fileLength = -1;
+
+		@Override
+		public void onKeysAdded(final Wallet wallet, final List<ECKey> keys)
+		{
+			numEvents++;
+			fileLength = file.length();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Transaction.Purpose;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class KeyRotatorTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+	private static final BigInteger FEE = BigInteger.valueOf(100000);
+	private static final BigInteger BUDGET = BigInteger.valueOf(10000000);
+
+	private final TransactionPlanner planner = new TransactionPlanner(FEE, FEE, FEE);
+	private final KeyRotator rotator = new KeyRotator(planner, 10);
+
+	@Test
+	public void rotateInBatches() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(3, 25, 400000, 0);
+		final Address address = rotate(wallet);
+
+		final KeyRotator.Progress before = rotator.progress(wallet, TransactionPlanner.spendCandidates(wallet));
+		assertEquals(25, before.numOutputs);
+		assertFalse(before.isDone());
+
+		BigInteger feePaid = BigInteger.ZERO;
+		int numBatches = 0;
+		while (true)
+		{
+			final List<TransactionOutput> candidates = new UtxoIndex(wallet).byValue();
+			final KeyRotator.Batch batch = rotator.nextBatch(wallet, candidates, address, BUDGET.subtract(feePaid));
+			if (batch == null)
+				break;
+
+			final Transaction tx = batch.sendRequest.tx;
+			assertTrue(batch.numInputs <= 10);
+			assertEquals(Purpose.KEY_ROTATION, tx.getPurpose());
+			assertEquals(1, tx.getOutputs().size());
+			assertEquals(address, tx.getOutput(0).getScriptPubKey().getToAddress(PARAMS));
+			assertEquals(batch.value.subtract(batch.fee), tx.getOutput(0).getValue());
+			assertEquals(BigInteger.valueOf(planner.fee(tx.bitcoinSerialize().length)), batch.fee);
+
+			// largest first
+			for (int i = 0; i < batch.numInputs; i++)
+				assertEquals(candidates.get(i), tx.getInput(i).getConnectedOutput());
+			for (final TransactionInput input : tx.getInputs())
+				input.verify();
+
+			wallet.commitTx(tx);
+			feePaid = feePaid.add(batch.fee);
+			numBatches++;
+		}
+
+		assertEquals(3, numBatches);
+		assertTrue(rotator.progress(wallet, TransactionPlanner.spendCandidates(wallet)).isDone());
+	}
+
+	@Test
+	public void feeBudgetExhausted() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 20, 400000, 1);
+		final Address address = rotate(wallet);
+		final List<TransactionOutput> candidates = new UtxoIndex(wallet).byValue();
+
+		final KeyRotator.Batch batch = rotator.nextBatch(wallet, candidates, address, BUDGET);
+		assertNotNull(batch);
+		try
+		{
+			rotator.nextBatch(wallet, candidates, address, batch.fee.subtract(BigInteger.ONE));
+			fail();
+		}
+		catch (final KeyRotator.FeeBudgetExceededException x)
+		{
+			assertEquals(batch.fee, x.fee);
+		}
+	}
+
+	@Test
+	public void nonRotatingOutputsLeftAlone() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(2, 20, 400000, 2);
+		final Address address = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		// nothing rotating yet
+		assertTrue(rotator.progress(wallet, new UtxoIndex(wallet).byValue()).isDone());
+		assertNull(rotator.nextBatch(wallet, new UtxoIndex(wallet).byValue(), address, BUDGET));
+
+		// rotate the second key only
+		final ECKey rotatingKey = wallet.getKeys().get(1);
+		wallet.setKeyRotationEnabled(false);
+		wallet.getKeys().get(0).setCreationTimeSeconds(2000000000l);
+		rotatingKey.setCreationTimeSeconds(1000000000l);
+		wallet.setKeyRotationTime(1500000000l);
+
+		final List<TransactionOutput> candidates = new UtxoIndex(wallet).byValue();
+		int numRotating = 0;
+		for (final TransactionOutput candidate : candidates)
+			if (candidate.getScriptPubKey().getToAddress(PARAMS).equals(rotatingKey.toAddress(PARAMS)))
+				numRotating++;
+		assertEquals(numRotating, rotator.progress(wallet, candidates).numOutputs);
+
+		final KeyRotator.Batch batch = rotator.nextBatch(wallet, candidates, address, BUDGET);
+		assertNotNull(batch);
+		assertEquals(Math.min(numRotating, 10), batch.numInputs);
+		for (final TransactionInput input : batch.sendRequest.tx.getInputs())
+			assertTrue(KeyRotator.isRotating(wallet, input.getConnectedOutput()));
+	}
+
+	@Test
+	public void uneconomicOutputsLeftAlone() throws Exception
+	{
+		// worth less than the fee of spending them
+		final Wallet wallet = TestWallets.createWallet(1, 30, 8000, 3);
+		final Address address = rotate(wallet);
+
+		final KeyRotator.Progress progress = rotator.progress(wallet, new UtxoIndex(wallet).byValue());
+		assertTrue(progress.isDone());
+		assertEquals(30, progress.numUneconomicOutputs);
+		assertNull(rotator.nextBatch(wallet, new UtxoIndex(wallet).byValue(), address, BUDGET));
+	}
+
+	private static Address rotate(final Wallet wallet)
+	{
+		wallet.setKeyRotationEnabled(false);
+		for (final ECKey key : wallet.getKeys())
+			key.setCreationTimeSeconds(1000000000l);
+		wallet.setKeyRotationTime(1500000000l);
+
+		final ECKey key = new ECKey();
+		key.setCreationTimeSeconds(2000000000l);
+		wallet.addKey(key);
+		return key.toAddress(PARAMS);
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.BlockChain;
+import com.google.bitcoin.core.BloomFilter;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.PeerGroup;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.bitcoin.store.MemoryBlockStore;
+
+/**
+ * Measures the cost of syncing 1 to 10 wallets through one shared block chain, which bitcoinj supports, against syncing
+ * each wallet through a chain of its own, as separate installs would. Also compares the size of the merged bloom
+ * filter against the sum of per-wallet filters. Every sync parses the blocks afresh. Not a unit test; run manually via
+ * its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class MultiWalletSyncBenchmark
+{
+	private static final int MAX_WALLETS = 10;
+	private static final int NUM_KEYS = 20;
+	private static final int NUM_BLOCKS = 2000;
+	private static final NetworkParameters PARAMS = new UnitTestParams()
+	{
+		{
+			// no difficulty transitions within the benchmark chain
+			interval = NUM_BLOCKS + 1;
+		}
+	};
+	private static final int TRANSACTIONS_PER_BLOCK = 2;
+	private static final long TWEAK = 0x12345678l;
+	private static final int ROUNDS = 3;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final Random random = new Random(0);
+
+		final List<List<ECKey>> walletKeys = new ArrayList<List<ECKey>>(MAX_WALLETS);
+		for (int i = 0; i < MAX_WALLETS; i++)
+		{
+			final List<ECKey> keys = new ArrayList<ECKey>(NUM_KEYS);
+			for (int j = 0; j < NUM_KEYS; j++)
+				keys.add(new ECKey());
+			walletKeys.add(keys);
+		}
+
+		final List<byte[]> blocks = createBlocks(walletKeys, random);
+		System.out.println(NUM_BLOCKS + " blocks, " + TRANSACTIONS_PER_BLOCK + " transactions per block to any of " + MAX_WALLETS
+				+ " wallets");
+
+		// warm up
+		syncShared(walletKeys, blocks, MAX_WALLETS);
+		syncSeparate(walletKeys, blocks, 1);
+
+		for (int numWallets = 1; numWallets <= MAX_WALLETS; numWallets++)
+		{
+			long sharedMs = Long.MAX_VALUE;
+			long separateMs = Long.MAX_VALUE;
+			for (int i = 0; i < ROUNDS; i++)
+			{
+				sharedMs = Math.min(sharedMs, syncShared(walletKeys, blocks, numWallets));
+				separateMs = Math.min(separateMs, syncSeparate(walletKeys, blocks, numWallets));
+			}
+
+			final List<Wallet> wallets = createWallets(walletKeys, numWallets);
+			int separateFilterBytes = 0;
+			int numElements = 0;
+			for (final Wallet wallet : wallets)
+			{
+				separateFilterBytes += wallet.getBloomFilter(wallet.getBloomFilterElementCount(), PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE, TWEAK)
+						.bitcoinSerialize().length;
+				numElements += wallet.getBloomFilterElementCount();
+			}
+			BloomFilter merged = null;
+			for (final Wallet wallet : wallets)
+			{
+				final BloomFilter filter = wallet.getBloomFilter(numElements, PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE, TWEAK);
+				if (merged == null)
+					merged = filter;
+				else
+					merged.merge(filter);
+			}
+
+			System.out.println(numWallets + " wallets: shared chain " + sharedMs + "ms, separate chains " + separateMs + "ms ("
+					+ String.format("%.2f", (double) separateMs / sharedMs) + "x), bloom filter " + merged.bitcoinSerialize().length
+					+ " bytes merged vs " + separateFilterBytes + " bytes separate");
+		}
+	}
+
+	private static long syncShared(final List<List<ECKey>> walletKeys, final List<byte[]> blocks, final int numWallets) throws Exception
+	{
+		final List<Wallet> wallets = createWallets(walletKeys, numWallets);
+
+		final long start = System.nanoTime();
+
+		final BlockChain chain = new BlockChain(PARAMS, wallets.get(0), new MemoryBlockStore(PARAMS));
+		for (int i = 1; i < numWallets; i++)
+			chain.addWallet(wallets.get(i));
+		for (final byte[] block : blocks)
+			chain.add(new Block(PARAMS, block));
+
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private static long syncSeparate(final List<List<ECKey>> walletKeys, final List<byte[]> blocks, final int numWallets) throws Exception
+	{
+		final List<Wallet> wallets = createWallets(walletKeys, numWallets);
+
+		final long start = System.nanoTime();
+
+		for (final Wallet wallet : wallets)
+		{
+			final BlockChain chain = new BlockChain(PARAMS, wallet, new MemoryBlockStore(PARAMS));
+			for (final byte[] block : blocks)
+				chain.add(new Block(PARAMS, block));
+		}
+
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private static List<Wallet> createWallets(final List<List<ECKey>> walletKeys, final int numWallets)
+	{
+		final List<Wallet> wallets = new ArrayList<Wallet>(numWallets);
+		for (int i = 0; i < numWallets; i++)
+		{
+			final Wallet wallet = new Wallet(PARAMS);
+			wallet.addKeys(new ArrayList<ECKey>(walletKeys.get(i)));
+			wallets.add(wallet);
+		}
+		return wallets;
+	}
+
+	private static List<byte[]> createBlocks(final List<List<ECKey>> walletKeys, final Random random)
+	{
+		final List<byte[]> blocks = new ArrayList<byte[]>(NUM_BLOCKS);
+		final ECKey minerKey = new ECKey();
+		Block previous = PARAMS.getGenesisBlock();
+
+		for (int i = 0; i < NUM_BLOCKS; i++)
+		{
+			final Block block = previous.createNextBlock(minerKey.toAddress(PARAMS));
+
+			for (int j = 0; j < TRANSACTIONS_PER_BLOCK; j++)
+			{
+				final Transaction tx = TestWallets.transaction(random);
+				final List<ECKey> keys = walletKeys.get(random.nextInt(walletKeys.size()));
+				tx.addOutput(BigInteger.valueOf(1000000), keys.get(random.nextInt(keys.size())).toAddress(PARAMS));
+				block.addTransaction(tx);
+			}
+			block.solve();
+
+			blocks.add(block.bitcoinSerialize());
+			previous = block;
+		}
+
+		return blocks;
+	}
+}
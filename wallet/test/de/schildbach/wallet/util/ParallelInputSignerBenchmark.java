@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * Measures wall-clock signing time of 100 and 1000 input transactions, serially by bitcoinj and by the parallel signer
+ * on 1 to N threads. Not a unit test; run manually via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class ParallelInputSignerBenchmark
+{
+	private static final int[] NUM_INPUTS = { 100, 1000 };
+	private static final int NUM_KEYS = 100;
+	private static final int ROUNDS = 3;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final int maxThreads = Runtime.getRuntime().availableProcessors();
+
+		for (final int numInputs : NUM_INPUTS)
+		{
+			final Wallet wallet = TestWallets.createWallet(NUM_KEYS, numInputs, 1000000, 0);
+			final List<TransactionOutput> candidates = TransactionPlanner.spendCandidates(wallet);
+
+			final long serialMs = measure(wallet, candidates, null);
+			System.out.println(numInputs + " inputs, bitcoinj: " + serialMs + "ms");
+
+			for (int numThreads = 1; numThreads <= maxThreads; numThreads++)
+			{
+				final long parallelMs = measure(wallet, candidates, new ParallelInputSigner(numThreads));
+				System.out.println(numInputs + " inputs, " + numThreads + " threads: " + parallelMs + "ms ("
+						+ String.format("%.2f", (double) serialMs / parallelMs) + "x)");
+			}
+		}
+	}
+
+	private static long measure(final Wallet wallet, final List<TransactionOutput> candidates, final ParallelInputSigner signer)
+	{
+		// warm up
+		sign(wallet, candidates, signer);
+
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++)
+		{
+			final long start = System.nanoTime();
+			sign(wallet, candidates, signer);
+			best = Math.min(best, (System.nanoTime() - start) / 1000000);
+		}
+		return Math.max(best, 1);
+	}
+
+	private static void sign(final Wallet wallet, final List<TransactionOutput> candidates, final ParallelInputSigner signer)
+	{
+		final Transaction tx = new Transaction(UnitTestParams.get());
+		tx.addOutput(BigInteger.valueOf(1000), new ECKey().toAddress(UnitTestParams.get()));
+		for (final TransactionOutput candidate : candidates)
+			tx.addInput(candidate);
+
+		if (signer != null)
+			signer.signInputs(tx, wallet);
+		else
+			tx.signInputs(Transaction.SigHash.ALL, wallet);
+	}
+}
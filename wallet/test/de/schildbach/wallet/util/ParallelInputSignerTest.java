@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class ParallelInputSignerTest
+{
+	private static final Address TO = new ECKey(BigInteger.TEN).toAddress(UnitTestParams.get());
+
+	@Test
+	public void deterministicSignature() throws Exception
+	{
+		final ECKey key = new ECKey(BigInteger.ONE);
+		final Sha256Hash hash = Sha256Hash.create("Satoshi Nakamoto".getBytes("UTF-8"));
+
+		final ECKey.ECDSASignature signature = ParallelInputSigner.sign(key, hash);
+
+		assertEquals(new BigInteger("934b1ea10a4b3c1757e2b0c017d0b6143ce3c9a7e6a4a49860d7a6ab210ee3d8", 16), signature.r);
+		assertEquals(new BigInteger("2442ce9d2b916064108014783e923ec36b49743e2ffa1c4496f01a512aafd9e5", 16), signature.s);
+		assertTrue(key.verify(hash, signature));
+	}
+
+	@Test
+	public void canonicalSignatures() throws Exception
+	{
+		final ECKey key = new ECKey();
+
+		for (int i = 0; i < 100; i++)
+		{
+			final Sha256Hash hash = Sha256Hash.create(new byte[] { (byte) i });
+			final ECKey.ECDSASignature signature = ParallelInputSigner.sign(key, hash);
+
+			assertTrue(signature.s.compareTo(ECKey.HALF_CURVE_ORDER) <= 0);
+			assertTrue(key.verify(hash, signature));
+		}
+	}
+
+	@Test
+	public void sameTransactionOnAnyNumberOfThreads() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(10, 100, 1000000, 0);
+
+		final Transaction serial = unsignedSpendAll(wallet);
+		new ParallelInputSigner(1).signInputs(serial, wallet);
+		verify(serial);
+
+		for (final int numThreads : new int[] { 2, 4, 7 })
+		{
+			final Transaction parallel = unsignedSpendAll(wallet);
+			new ParallelInputSigner(numThreads).signInputs(parallel, wallet);
+
+			assertArrayEquals(serial.bitcoinSerialize(), parallel.bitcoinSerialize());
+		}
+	}
+
+	@Test
+	public void singleInput() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 1, 1000000, 0);
+
+		final Transaction tx = unsignedSpendAll(wallet);
+		new ParallelInputSigner(4).signInputs(tx, wallet);
+		verify(tx);
+	}
+
+	@Test
+	public void signatureNotVerifyingFailsSigning() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 20, 1000000, 0);
+
+		// private key not matching the public key, as if signing went wrong
+		final ECKey faultyKey = new ECKey(BigInteger.valueOf(3), new ECKey(BigInteger.valueOf(5)).getPubKey(), true);
+		wallet.addKey(faultyKey);
+		final Transaction funding = TestWallets.transaction(new Random(0));
+		funding.addOutput(BigInteger.valueOf(1000000), faultyKey.toAddress(UnitTestParams.get()));
+		TestWallets.addUnspent(wallet, funding, 1);
+
+		for (final int numThreads : new int[] { 1, 4 })
+		{
+			final Transaction tx = unsignedSpendAll(wallet);
+			try
+			{
+				new ParallelInputSigner(numThreads).signInputs(tx, wallet);
+				fail("signed with a faulty key");
+			}
+			catch (final ScriptException x)
+			{
+				assertTrue(x.getMessage().contains("does not verify"));
+			}
+
+			for (final TransactionInput input : tx.getInputs())
+				assertEquals(0, input.getScriptBytes().length);
+		}
+	}
+
+	private static Transaction unsignedSpendAll(final Wallet wallet)
+	{
+		final Transaction tx = new Transaction(UnitTestParams.get());
+		tx.addOutput(BigInteger.valueOf(1000), TO);
+		for (final TransactionOutput output : TransactionPlanner.spendCandidates(wallet))
+			tx.addInput(output);
+		return tx;
+	}
+
+	private static void verify(final Transaction tx)
+	{
+		for (int i = 0; i < tx.getInputs().size(); i++)
+		{
+			final TransactionInput input = tx.getInput(i);
+			input.getScriptSig().correctlySpends(tx, i, input.getOutpoint().getConnectedOutput().getScriptPubKey(), true);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * Measures planning and signing of 1 to 500 payments as one batch against one transaction per payment. Not a unit test;
+ * run manually via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class PaymentBatchBenchmark
+{
+	private static final int[] NUM_PAYMENTS = { 1, 10, 50, 100, 250, 500 };
+	private static final int NUM_OUTPUTS = 1000;
+	private static final long OUTPUT_VALUE = 5000000;
+	private static final long PAYMENT_VALUE = 1000000;
+	private static final int ROUNDS = 3;
+
+	private static final BigInteger FEE = BigInteger.valueOf(100000);
+	private static final TransactionPlanner PLANNER = new TransactionPlanner(FEE, FEE, FEE);
+
+	public static void main(final String[] args) throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(20, NUM_OUTPUTS, OUTPUT_VALUE, 0);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(UnitTestParams.get());
+		final List<TransactionOutput> candidates = TransactionPlanner.spendCandidates(wallet);
+
+		// warm up
+		PLANNER.complete(PLANNER.plan(wallet, candidates, changeAddress, BigInteger.valueOf(PAYMENT_VALUE), changeAddress, false), wallet);
+
+		for (final int numPayments : NUM_PAYMENTS)
+		{
+			final List<TransactionPlanner.Payment> payments = new ArrayList<TransactionPlanner.Payment>(numPayments);
+			for (int i = 0; i < numPayments; i++)
+				payments.add(new TransactionPlanner.Payment(new ECKey().toAddress(UnitTestParams.get()), BigInteger.valueOf(PAYMENT_VALUE)));
+
+			long bestPlan = Long.MAX_VALUE;
+			long bestSign = Long.MAX_VALUE;
+			int numTransactions = 0;
+			BigInteger batchFee = BigInteger.ZERO;
+			for (int r = 0; r < ROUNDS; r++)
+			{
+				final long start = System.nanoTime();
+				final List<TransactionPlanner.Plan> plans = PLANNER.planBatch(wallet, candidates, payments, changeAddress,
+						Transaction.MAX_STANDARD_TX_SIZE);
+				final long planned = System.nanoTime();
+				for (final TransactionPlanner.Plan plan : plans)
+					PLANNER.complete(plan, wallet);
+				final long signed = System.nanoTime();
+
+				bestPlan = Math.min(bestPlan, planned - start);
+				bestSign = Math.min(bestSign, signed - planned);
+				numTransactions = plans.size();
+				batchFee = BigInteger.ZERO;
+				for (final TransactionPlanner.Plan plan : plans)
+					batchFee = batchFee.add(plan.fee);
+			}
+
+			long bestSeparate = Long.MAX_VALUE;
+			BigInteger separateFee = BigInteger.ZERO;
+			for (int r = 0; r < ROUNDS; r++)
+			{
+				separateFee = BigInteger.ZERO;
+				final long start = System.nanoTime();
+				for (final TransactionPlanner.Payment payment : payments)
+				{
+					final TransactionPlanner.Plan plan = PLANNER.plan(wallet, candidates, payment.to, payment.amount, changeAddress, false);
+					PLANNER.complete(plan, wallet);
+					separateFee = separateFee.add(plan.fee);
+				}
+				bestSeparate = Math.min(bestSeparate, System.nanoTime() - start);
+			}
+
+			System.out.println(numPayments + " payments, batch: " + numTransactions + " tx, plan " + bestPlan / 1000 + "us, sign "
+					+ bestSign / 1000000 + "ms, fee " + batchFee + "; separate: " + numPayments + " tx, " + bestSeparate / 1000000 + "ms, fee "
+					+ separateFee);
+		}
+	}
+}
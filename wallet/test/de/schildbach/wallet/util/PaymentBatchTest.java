@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class PaymentBatchTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+	private static final long MAX_VALUE = 21000000l * AmountMath.ONE_BTC;
+
+	private final Address address1 = new ECKey().toAddress(PARAMS);
+	private final Address address2 = new ECKey().toAddress(PARAMS);
+	private final Address address3 = new ECKey().toAddress(PARAMS);
+
+	@Test
+	public void parse() throws Exception
+	{
+		final String text = "Address,Amount\n" + address1 + ",1.5\r\n\n# comment\n" + address2 + " ; 0.001\n" + address3 + "\t2";
+		final List<TransactionPlanner.Payment> payments = PaymentBatch.parse(text, PARAMS, MAX_VALUE);
+
+		assertEquals(3, payments.size());
+		assertEquals(address1, payments.get(0).to);
+		assertEquals(BigInteger.valueOf(150000000), payments.get(0).amount);
+		assertEquals(address2, payments.get(1).to);
+		assertEquals(BigInteger.valueOf(100000), payments.get(1).amount);
+		assertEquals(address3, payments.get(2).to);
+		assertEquals(BigInteger.valueOf(200000000), payments.get(2).amount);
+		assertEquals(BigInteger.valueOf(350100000), PaymentBatch.total(payments));
+	}
+
+	@Test
+	public void empty() throws Exception
+	{
+		assertEquals(0, PaymentBatch.parse("", PARAMS, MAX_VALUE).size());
+		assertEquals(0, PaymentBatch.parse("\n  \n# nothing\n", PARAMS, MAX_VALUE).size());
+	}
+
+	@Test
+	public void errorsReportLine() throws Exception
+	{
+		assertParseError(address1 + ",1\nfoo,1\n", 2);
+		assertParseError(address1 + ",1\n" + address2 + ",abc\n", 2);
+		assertParseError(address1 + ",0.000000001", 1);
+		assertParseError(address1 + ",-1", 1);
+		assertParseError(address1 + ",0", 1);
+		assertParseError(address1 + ",22000000", 1);
+		assertParseError("\n\n" + address1, 3);
+		assertParseError(address1 + ",1,2", 1);
+	}
+
+	@Test
+	public void lineRoundTrip() throws Exception
+	{
+		final String line = PaymentBatch.line(address1, BigInteger.valueOf(123456789));
+		final List<TransactionPlanner.Payment> payments = PaymentBatch.parse(line, PARAMS, MAX_VALUE);
+
+		assertEquals(1, payments.size());
+		assertEquals(address1, payments.get(0).to);
+		assertEquals(BigInteger.valueOf(123456789), payments.get(0).amount);
+	}
+
+	private static void assertParseError(final String text, final int lineNumber)
+	{
+		try
+		{
+			PaymentBatch.parse(text, PARAMS, MAX_VALUE);
+			fail(text);
+		}
+		catch (final ParseException x)
+		{
+			assertEquals(text, lineNumber, x.getErrorOffset());
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Measures latency and allocation per QR code of a payment request rendered at 256dp on an xhdpi screen: the former
+ * {@link QRCodeWriter} path into ARGB pixels, and encoding at module resolution rendered into alpha pixels, with and
+ * without the encoding. Bitmap creation is left out, as it needs a device. Not a unit test; run manually via its main
+ * method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class QrBenchmark
+{
+	private static final String CONTENT = "auroracoin:AKrwbvEHvFS7oJAGMFs9jzDLYFhuVaSKt6?amount=1.2345";
+	private static final int SIZE = 512;
+	private static final int ITERATIONS = 200;
+	private static final int BLACK = 0xff000000;
+
+	private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(final String[] args) throws Exception
+	{
+		final ByteMatrix matrix = Qr.encode(CONTENT);
+		final int outputSize = Qr.outputSize(matrix, SIZE);
+		System.out.println(matrix.getWidth() + " modules, " + outputSize + "x" + outputSize + " pixels");
+
+		report("QRCodeWriter, ARGB", new Render()
+		{
+			private final QRCodeWriter writer = new QRCodeWriter();
+
+			@Override
+			public void render() throws Exception
+			{
+				final Hashtable<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
+				hints.put(EncodeHintType.MARGIN, 0);
+				hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.H);
+				final BitMatrix result = writer.encode(CONTENT, BarcodeFormat.QR_CODE, SIZE, SIZE, hints);
+
+				final int width = result.getWidth();
+				final int height = result.getHeight();
+				final int[] pixels = new int[width * height];
+				for (int y = 0; y < height; y++)
+				{
+					final int offset = y * width;
+					for (int x = 0; x < width; x++)
+						pixels[offset + x] = result.get(x, y) ? BLACK : 0;
+				}
+			}
+		});
+
+		report("modules, alpha", new Render()
+		{
+			@Override
+			public void render() throws Exception
+			{
+				final ByteMatrix matrix = Qr.encode(CONTENT);
+				final int outputSize = Qr.outputSize(matrix, SIZE);
+				Qr.render(matrix, outputSize, new byte[outputSize * outputSize], outputSize);
+			}
+		});
+
+		final byte[] pixels = new byte[outputSize * outputSize];
+		report("render only, reused buffer", new Render()
+		{
+			@Override
+			public void render() throws Exception
+			{
+				Qr.render(matrix, outputSize, pixels, outputSize);
+			}
+		});
+	}
+
+	private interface Render
+	{
+		void render() throws Exception;
+	}
+
+	private static void report(final String name, final Render render) throws Exception
+	{
+		// warm up
+		for (int i = 0; i < ITERATIONS; i++)
+			render.render();
+
+		final long threadId = Thread.currentThread().getId();
+		final long bytes = threadBean.getThreadAllocatedBytes(threadId);
+		final long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++)
+			render.render();
+		final long micros = (System.nanoTime() - start) / 1000 / ITERATIONS;
+		final long allocated = (threadBean.getThreadAllocatedBytes(threadId) - bytes) / ITERATIONS;
+
+		System.out.println(name + ": " + micros + "us, " + allocated / 1024 + " kB allocated per call");
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class QrTest
+{
+	private static final String[] CONTENTS = { "auroracoin:AKrwbvEHvFS7oJAGMFs9jzDLYFhuVaSKt6",
+			"auroracoin:AKrwbvEHvFS7oJAGMFs9jzDLYFhuVaSKt6?amount=1.2345&label=Coffee%20Shop&message=Order%201234",
+			Qr.encodeDictionary(new byte[600]) };
+
+	@Test
+	public void sameAsQrCodeWriter() throws Exception
+	{
+		for (final String content : CONTENTS)
+			for (final int size : new int[] { 10, 128, 256, 333, 512 })
+				assertRendering(content, size);
+	}
+
+	@Test
+	public void renderIntoDirtyBuffer() throws Exception
+	{
+		final ByteMatrix matrix = Qr.encode(CONTENTS[0]);
+		final int outputSize = Qr.outputSize(matrix, 200);
+		final int stride = outputSize + 3;
+
+		final byte[] clean = new byte[stride * outputSize];
+		Qr.render(matrix, outputSize, clean, stride);
+
+		final byte[] dirty = new byte[stride * outputSize];
+		Arrays.fill(dirty, (byte) 0x55);
+		Qr.render(Qr.encode(CONTENTS[1]), outputSize, dirty, stride);
+		Qr.render(matrix, outputSize, dirty, stride);
+
+		assertEquals(Arrays.toString(clean), Arrays.toString(dirty));
+	}
+
+	@Test
+	public void binaryRoundTrip() throws Exception
+	{
+		for (final int numInputs : new int[] { 1, 3, 10 })
+		{
+			final byte[] tx = signedTransaction(numInputs, numInputs);
+			final String content = Qr.encodeDictionary(tx);
+
+			assertTrue(content, content.startsWith("D1"));
+			assertTrue(content.length() < gzipContent(tx).length());
+			assertArrayEquals(tx, Qr.decodeBinary(content));
+		}
+
+		final byte[] random = new byte[300];
+		new Random(0).nextBytes(random);
+		assertEquals('-', Qr.encodeDictionary(random).charAt(0));
+		assertArrayEquals(random, Qr.decodeBinary(Qr.encodeDictionary(random)));
+	}
+
+	@Test
+	public void legacyFormats() throws Exception
+	{
+		final byte[] tx = signedTransaction(2, 10);
+
+		assertEquals(gzipContent(tx), Qr.encodeBinary(tx));
+		assertArrayEquals(tx, Qr.decodeBinary(gzipContent(tx)));
+		assertArrayEquals(tx, Qr.decodeBinary("-" + Base43.encode(tx)));
+
+		final byte[] random = new byte[300];
+		new Random(0).nextBytes(random);
+		assertEquals('-', Qr.encodeBinary(random).charAt(0));
+		assertArrayEquals(random, Qr.decodeBinary(Qr.encodeBinary(random)));
+	}
+
+	@Test
+	public void legacyFormatWhenFittingOneCode() throws Exception
+	{
+		for (final int numInputs : new int[] { 1, 2 })
+		{
+			final byte[] tx = signedTransaction(numInputs, 16);
+			final List<String> contents = Qr.encodeBinaryParts(tx, Qr.MAX_PART_LENGTH);
+
+			assertEquals(1, contents.size());
+			assertTrue(contents.get(0).length() <= Qr.MAX_PART_LENGTH);
+			assertEquals(Qr.encodeBinary(tx), contents.get(0));
+			Qr.encode(contents.get(0));
+		}
+
+		final byte[] tx = signedTransaction(10, 16);
+		assertTrue(Qr.encodeBinary(tx).length() > Qr.MAX_PART_LENGTH);
+		final List<String> parts = Qr.encodeBinaryParts(tx, Qr.MAX_PART_LENGTH);
+		assertTrue(parts.size() > 1);
+		final Qr.PartAssembler assembler = new Qr.PartAssembler();
+		String content = null;
+		for (final String part : parts)
+			content = assembler.add(part);
+		assertTrue(content, content.startsWith("D1"));
+		assertArrayEquals(tx, Qr.decodeBinary(content));
+	}
+
+	@Test(expected = IOException.class)
+	public void unknownDictionaryVersion() throws Exception
+	{
+		Qr.decodeBinary("D2" + Qr.encodeDictionary(signedTransaction(1, 11)).substring(2));
+	}
+
+	@Test
+	public void partsInAnyOrder() throws Exception
+	{
+		final byte[] tx = signedTransaction(20, 12);
+		final List<String> parts = new ArrayList<String>(Qr.split(Qr.encodeDictionary(tx), 300));
+		assertTrue(parts.size() > 1);
+		for (final String part : parts)
+		{
+			assertTrue(part.length() <= 300);
+			assertTrue(Qr.isPart(part));
+		}
+
+		Collections.shuffle(parts, new Random(0));
+		final Qr.PartAssembler assembler = new Qr.PartAssembler();
+		for (int i = 0; i < parts.size() - 1; i++)
+		{
+			assertNull(assembler.add(parts.get(i)));
+			// scanning the same part again doesn't count
+			assertNull(assembler.add(parts.get(i)));
+			assertEquals(i + 1, assembler.getNumPartsReceived());
+		}
+		assertArrayEquals(tx, Qr.decodeBinary(assembler.add(parts.get(parts.size() - 1))));
+		assertEquals(0, assembler.getNumPartsReceived());
+	}
+
+	@Test
+	public void partOfOtherSequenceStartsOver() throws Exception
+	{
+		final List<String> first = Qr.split(Qr.encodeDictionary(signedTransaction(10, 13)), 300);
+		final List<String> second = Qr.split(Qr.encodeDictionary(signedTransaction(10, 14)), 300);
+
+		final Qr.PartAssembler assembler = new Qr.PartAssembler();
+		assertNull(assembler.add(first.get(0)));
+		for (int i = 0; i < second.size() - 1; i++)
+			assertNull(assembler.add(second.get(i)));
+		assertEquals(second.size() - 1, assembler.getNumPartsReceived());
+		assertTrue(Qr.decodeBinary(assembler.add(second.get(second.size() - 1))).length > 0);
+	}
+
+	@Test
+	public void corruptedPart() throws Exception
+	{
+		final List<String> parts = Qr.split(Qr.encodeDictionary(signedTransaction(10, 15)), 300);
+
+		final Qr.PartAssembler assembler = new Qr.PartAssembler();
+		for (int i = 0; i < parts.size() - 1; i++)
+			assembler.add(parts.get(i));
+
+		final String last = parts.get(parts.size() - 1);
+		final char c = last.charAt(last.length() - 1);
+		try
+		{
+			assembler.add(last.substring(0, last.length() - 1) + (c == '0' ? '1' : '0'));
+			fail();
+		}
+		catch (final IOException x)
+		{
+			// expected
+		}
+		assertEquals(0, assembler.getNumPartsReceived());
+	}
+
+	/**
+	 * @return a signed transaction spending the given number of outputs to one key, as {@link KeyRotator} would
+	 */
+	static byte[] signedTransaction(final int numInputs, final long seed) throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, numInputs, 400000, seed);
+		wallet.setKeyRotationEnabled(false);
+		wallet.getKeys().get(0).setCreationTimeSeconds(1000000000l);
+		wallet.setKeyRotationTime(1500000000l);
+
+		final ECKey key = new ECKey();
+		key.setCreationTimeSeconds(2000000000l);
+		wallet.addKey(key);
+
+		final BigInteger fee = BigInteger.valueOf(100000);
+		final KeyRotator rotator = new KeyRotator(new TransactionPlanner(fee, fee, fee), numInputs);
+		final KeyRotator.Batch batch = rotator.nextBatch(wallet, new UtxoIndex(wallet).byValue(), key.toAddress(UnitTestParams.get()),
+				BigInteger.valueOf(100000000));
+		return batch.sendRequest.tx.bitcoinSerialize();
+	}
+
+	/**
+	 * @return content in the former gzip format
+	 */
+	static String gzipContent(final byte[] bytes) throws IOException
+	{
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		final GZIPOutputStream gos = new GZIPOutputStream(bos);
+		gos.write(bytes);
+		gos.close();
+
+		return "Z" + Base43.encode(bos.toByteArray());
+	}
+
+	private static void assertRendering(final String content, final int size) throws Exception
+	{
+		final Hashtable<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
+		hints.put(EncodeHintType.MARGIN, 0);
+		hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.H);
+		final BitMatrix expected = new QRCodeWriter().encode(content, BarcodeFormat.QR_CODE, size, size, hints);
+
+		final ByteMatrix matrix = Qr.encode(content);
+		final int outputSize = Qr.outputSize(matrix, size);
+		assertEquals(expected.getWidth(), outputSize);
+		assertEquals(expected.getHeight(), outputSize);
+
+		final byte[] pixels = new byte[outputSize * outputSize];
+		Qr.render(matrix, outputSize, pixels, outputSize);
+
+		for (int y = 0; y < outputSize; y++)
+			for (int x = 0; x < outputSize; x++)
+				assertEquals(content + " at " + size + ": " + x + "," + y, expected.get(x, y), pixels[y * outputSize + x] != 0);
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.google.zxing.qrcode.encoder.QRCode;
+
+/**
+ * Compares the former gzip format to the dictionary format, split into parts of at most {@link Qr#MAX_PART_LENGTH}
+ * characters, for signed transactions of increasing number of inputs: content length, QR version and modules of the
+ * largest code, and time to decode all codes from a rendering at 4 pixels per module. Not a unit test; run manually
+ * via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class QrTransportBenchmark
+{
+	private static final int[] NUM_INPUTS = { 1, 2, 5, 10, 20 };
+	private static final int PIXELS_PER_MODULE = 4;
+	private static final int MARGIN_MODULES = 4;
+	private static final int ITERATIONS = 20;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final byte[][] txs = new byte[NUM_INPUTS.length][];
+		for (int i = 0; i < NUM_INPUTS.length; i++)
+			txs[i] = QrTest.signedTransaction(NUM_INPUTS[i], i);
+
+		// second round is after warm up
+		for (int round = 0; round < 2; round++)
+		{
+			for (int i = 0; i < NUM_INPUTS.length; i++)
+			{
+				final String gzip = report("gzip", Collections.singletonList(QrTest.gzipContent(txs[i])));
+				final String dictionary = report("dictionary", Qr.split(Qr.encodeDictionary(txs[i]), Qr.MAX_PART_LENGTH));
+
+				if (round > 0)
+					System.out.println(NUM_INPUTS[i] + " inputs, " + txs[i].length + " bytes: " + gzip + "; " + dictionary);
+			}
+		}
+	}
+
+	private static String report(final String name, final List<String> contents) throws Exception
+	{
+		int length = 0;
+		int maxVersion = 0;
+		int maxModules = 0;
+		final byte[][] frames = new byte[contents.size()][];
+		final int[] frameSizes = new int[contents.size()];
+
+		for (int i = 0; i < contents.size(); i++)
+		{
+			final String content = contents.get(i);
+			length += content.length();
+
+			final QRCode code;
+			try
+			{
+				code = Encoder.encode(content, ErrorCorrectionLevel.H);
+			}
+			catch (final WriterException x)
+			{
+				return name + ": " + length + " chars, doesn't fit";
+			}
+
+			final ByteMatrix matrix = code.getMatrix();
+			maxVersion = Math.max(maxVersion, code.getVersion().getVersionNumber());
+			maxModules = Math.max(maxModules, matrix.getWidth());
+			frameSizes[i] = (matrix.getWidth() + 2 * MARGIN_MODULES) * PIXELS_PER_MODULE;
+			frames[i] = frame(matrix, frameSizes[i]);
+		}
+
+		final QRCodeReader reader = new QRCodeReader();
+		final long start = System.nanoTime();
+		for (int iteration = 0; iteration < ITERATIONS; iteration++)
+		{
+			for (int i = 0; i < frames.length; i++)
+			{
+				final PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(frames[i], frameSizes[i], frameSizes[i], 0, 0,
+						frameSizes[i], frameSizes[i], false);
+				final String text = reader.decode(new BinaryBitmap(new HybridBinarizer(source))).getText();
+				reader.reset();
+				if (!text.equals(contents.get(i)))
+					throw new IllegalStateException("decoded wrong content");
+			}
+		}
+		final long micros = (System.nanoTime() - start) / 1000 / ITERATIONS;
+
+		return name + ": " + length + " chars in " + contents.size() + " codes, largest version " + maxVersion + " (" + maxModules + " modules), "
+				+ micros + "us to decode";
+	}
+
+	/**
+	 * @return luminance of the code, dark modules on light background with a quiet zone
+	 */
+	private static byte[] frame(final ByteMatrix matrix, final int frameSize)
+	{
+		final int outputSize = matrix.getWidth() * PIXELS_PER_MODULE;
+		final byte[] pixels = new byte[outputSize * outputSize];
+		Qr.render(matrix, outputSize, pixels, outputSize);
+
+		final byte[] frame = new byte[frameSize * frameSize * 3 / 2];
+		Arrays.fill(frame, (byte) 0xff);
+		final int margin = MARGIN_MODULES * PIXELS_PER_MODULE;
+		for (int y = 0; y < outputSize; y++)
+			for (int x = 0; x < outputSize; x++)
+				frame[(margin + y) * frameSize + margin + x] = (byte) ~pixels[y * outputSize + x];
+
+		return frame;
+	}
+}
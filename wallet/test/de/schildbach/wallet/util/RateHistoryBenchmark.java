@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.File;
+import java.util.Random;
+
+import de.schildbach.wallet.util.RateHistory.Resolution;
+
+/**
+ * Fills a rate history with two years of rates fetched every 10 minutes for a few currencies, then measures insert
+ * and range query times and disk use. Not a unit test; run manually via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class RateHistoryBenchmark
+{
+	private static final String[] CURRENCIES = { "BTC", "EUR", "ISK", "USD" };
+	private static final long UPDATE_MS = 10 * 60 * 1000;
+	private static final long YEAR_MS = 365 * Resolution.DAY.intervalMs;
+
+	public static void main(final String[] args) throws Exception
+	{
+		final File dir = File.createTempFile("rate_history", null);
+		dir.delete();
+
+		final RateHistory history = new RateHistory(dir);
+		final Random random = new Random(0);
+		final long start = 1400000000000l;
+		final long end = start + 2 * YEAR_MS;
+		long rate = 100000000;
+
+		int numInserts = 0;
+		final long insertStart = System.nanoTime();
+		for (long time = start; time < end; time += UPDATE_MS)
+		{
+			rate += random.nextInt(200001) - 100000;
+			for (final String currency : CURRENCIES)
+				history.add(currency, time, rate);
+			numInserts += CURRENCIES.length;
+		}
+		final long insertNs = System.nanoTime() - insertStart;
+		System.out.println(numInserts + " inserts: " + insertNs / numInserts + "ns/insert");
+
+		long diskBytes = 0;
+		for (final File file : dir.listFiles())
+			diskBytes += file.length();
+		System.out.println("disk use: " + diskBytes + " bytes in " + dir.listFiles().length + " files");
+
+		for (final Resolution resolution : Resolution.values())
+		{
+			final RateHistory reopened = new RateHistory(dir);
+			final long loadStart = System.nanoTime();
+			final int size = reopened.query("USD", resolution, end - YEAR_MS, end).size();
+			final long loadUs = (System.nanoTime() - loadStart) / 1000;
+
+			final long queryStart = System.nanoTime();
+			reopened.query("USD", resolution, end - YEAR_MS, end);
+			final long queryUs = (System.nanoTime() - queryStart) / 1000;
+
+			System.out.println("one year range, " + resolution + ": " + size + " samples, " + loadUs + "us cold, " + queryUs + "us warm");
+		}
+
+		for (final File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.schildbach.wallet.util.RateHistory.Resolution;
+import de.schildbach.wallet.util.RateHistory.Sample;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class RateHistoryTest
+{
+	private static final long HOUR = Resolution.HOUR.intervalMs;
+	private static final long DAY = Resolution.DAY.intervalMs;
+	private static final long START = 1400000000000l / Resolution.WEEK.intervalMs * Resolution.WEEK.intervalMs;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void firstRatePerInterval() throws Exception
+	{
+		final RateHistory history = new RateHistory(folder.getRoot());
+		history.add("USD", START + 1000, 100);
+		history.add("USD", START + 2000, 200);
+		history.add("USD", START + HOUR, 300);
+		history.add("USD", START + HOUR - 1, 400); // goes back in time
+		history.add("EUR", START, 500);
+
+		assertEquals(Arrays.asList(new Sample(START, 100), new Sample(START + HOUR, 300)),
+				history.query("USD", Resolution.HOUR, START, START + DAY));
+		assertEquals(Arrays.asList(new Sample(START, 100)), history.query("USD", Resolution.DAY, START, START + DAY));
+		assertEquals(Arrays.asList(new Sample(START, 500)), history.query("EUR", Resolution.WEEK, 0, Long.MAX_VALUE));
+		assertEquals(0, history.query("ISK", Resolution.HOUR, 0, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void range() throws Exception
+	{
+		final RateHistory history = new RateHistory(folder.getRoot());
+		for (int i = 0; i < 100; i++)
+			history.add("USD", START + i * HOUR + 10, i);
+
+		final List<Sample> samples = history.query("USD", Resolution.HOUR, START + 10 * HOUR - 1, START + 20 * HOUR);
+		assertEquals(11, samples.size());
+		assertEquals(new Sample(START + 10 * HOUR, 10), samples.get(0));
+		assertEquals(new Sample(START + 20 * HOUR, 20), samples.get(10));
+
+		assertEquals(0, history.query("USD", Resolution.HOUR, START + 20 * HOUR, START + 10 * HOUR).size());
+	}
+
+	@Test
+	public void persistence() throws Exception
+	{
+		final Random random = new Random(0);
+		final RateHistory history = new RateHistory(folder.getRoot());
+		long rate = 1000000;
+		for (int i = 0; i < 1000; i++)
+		{
+			rate += random.nextInt(20001) - 10000;
+			history.add("USD", START + i * HOUR, random.nextInt(100) == 0 ? -rate : rate);
+		}
+
+		final RateHistory reopened = new RateHistory(folder.getRoot());
+		for (final Resolution resolution : Resolution.values())
+			assertEquals(history.query("USD", resolution, 0, Long.MAX_VALUE), reopened.query("USD", resolution, 0, Long.MAX_VALUE));
+
+		// deltas of slowly changing rates take a few bytes per sample
+		final File file = new File(folder.getRoot(), "USD.hour");
+		assertTrue(file.length() < 5 * (Resolution.HOUR.retention * 3 / 2));
+	}
+
+	@Test
+	public void retention() throws Exception
+	{
+		final RateHistory history = new RateHistory(folder.getRoot());
+		final int numHours = Resolution.HOUR.retention * 5;
+		for (int i = 0; i < numHours; i++)
+			history.add("USD", START + i * HOUR, i);
+
+		final List<Sample> samples = history.query("USD", Resolution.HOUR, 0, Long.MAX_VALUE);
+		assertTrue(samples.size() >= Resolution.HOUR.retention);
+		assertTrue(samples.size() <= Resolution.HOUR.retention * 3 / 2);
+		assertEquals(new Sample(START + (numHours - 1) * HOUR, numHours - 1), samples.get(samples.size() - 1));
+
+		final RateHistory reopened = new RateHistory(folder.getRoot());
+		assertEquals(samples, reopened.query("USD", Resolution.HOUR, 0, Long.MAX_VALUE));
+		assertEquals(numHours / 24, reopened.query("USD", Resolution.DAY, 0, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void tornWrite() throws Exception
+	{
+		final RateHistory history = new RateHistory(folder.getRoot());
+		for (int i = 0; i < 10; i++)
+			history.add("USD", START + i * HOUR, 1000000000l * i);
+
+		final File file = new File(folder.getRoot(), "USD.hour");
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(file.length() - 1);
+		raf.close();
+
+		final RateHistory reopened = new RateHistory(folder.getRoot());
+		assertEquals(9, reopened.query("USD", Resolution.HOUR, 0, Long.MAX_VALUE).size());
+
+		reopened.add("USD", START + 10 * HOUR, 42);
+		final List<Sample> samples = new RateHistory(folder.getRoot()).query("USD", Resolution.HOUR, 0, Long.MAX_VALUE);
+		assertEquals(10, samples.size());
+		assertEquals(new Sample(START + 10 * HOUR, 42), samples.get(9));
+	}
+
+	@Test
+	public void forRange() throws Exception
+	{
+		final long now = START;
+		assertEquals(Resolution.HOUR, Resolution.forRange(now - DAY, now));
+		assertEquals(Resolution.DAY, Resolution.forRange(now - 365 * DAY, now));
+		assertEquals(Resolution.WEEK, Resolution.forRange(now - 5 * 365 * DAY, now));
+		assertEquals(Resolution.WEEK, Resolution.forRange(0, now));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void illegalCurrencyCode() throws Exception
+	{
+		new RateHistory(folder.getRoot()).add("../x", START, 1);
+	}
+}
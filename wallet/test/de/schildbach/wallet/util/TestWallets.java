@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.bitcoin.wallet.WalletTransaction;
+
+/**
+ * Wallets funded by made-up transactions, for tests and benchmarks.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public final class TestWallets
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+	private TestWallets()
+	{
+	}
+
+	/**
+	 * @return wallet of random keys, each output confirmed at height 1; the first output has exactly the given value,
+	 *         the others between half and one and a half of it
+	 */
+	public static Wallet createWallet(final int numKeys, final int numOutputs, final long value, final long seed)
+	{
+		final Random random = new Random(seed);
+		final Wallet wallet = new Wallet(PARAMS);
+
+		final List<ECKey> keys = new ArrayList<ECKey>(numKeys);
+		for (int i = 0; i < numKeys; i++)
+			keys.add(new ECKey());
+		wallet.addKeys(keys);
+
+		for (int i = 0; i < numOutputs; i++)
+		{
+			final Transaction tx = transaction(random);
+			final long outputValue = i == 0 ? value : value / 2 + (long) (random.nextDouble() * value);
+			tx.addOutput(BigInteger.valueOf(outputValue), keys.get(random.nextInt(numKeys)).toAddress(PARAMS));
+			addUnspent(wallet, tx, 1 + random.nextInt(100));
+		}
+
+		return wallet;
+	}
+
+	/**
+	 * Adds an unspent transaction paying to the first key of the wallet per value, each confirmed at height 1.
+	 */
+	public static void addOutputs(final Wallet wallet, final long... values)
+	{
+		final Random random = new Random(values.length);
+		final Address address = wallet.getKeys().get(0).toAddress(PARAMS);
+		for (final long value : values)
+		{
+			final Transaction tx = transaction(random);
+			tx.addOutput(BigInteger.valueOf(value), address);
+			addUnspent(wallet, tx, 1);
+		}
+	}
+
+	/**
+	 * @return transaction without outputs, spending a random outpoint
+	 */
+	public static Transaction transaction(final Random random)
+	{
+		final Transaction tx = new Transaction(PARAMS);
+		final byte[] hash = new byte[32];
+		random.nextBytes(hash);
+		tx.addInput(new TransactionInput(PARAMS, tx, new byte[] { 0x00 }, new TransactionOutPoint(PARAMS, 0, new Sha256Hash(hash))));
+		return tx;
+	}
+
+	/**
+	 * Adds the transaction to the unspent pool of the wallet, confirmed at height 1.
+	 */
+	public static void addUnspent(final Wallet wallet, final Transaction tx, final int depth)
+	{
+		tx.getConfidence().setConfidenceType(ConfidenceType.BUILDING);
+		tx.getConfidence().setAppearedAtChainHeight(1);
+		tx.getConfidence().setDepthInBlocks(depth);
+
+		wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, tx));
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.Wallet.SendRequest;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * Measures plan and sign latency of {@link TransactionPlanner} against a single {@link Wallet#completeTx(SendRequest)}
+ * (the old code called it up to three times) for wallets with 10, 1k and 10k outputs. Not a unit test; run manually
+ * via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class TransactionPlannerBenchmark
+{
+	private static final int[] NUM_OUTPUTS = { 10, 1000, 10000 };
+	private static final long OUTPUT_VALUE = 10000000;
+	private static final int NUM_SPENT_OUTPUTS = 5;
+	private static final int ROUNDS = 5;
+
+	private static final BigInteger MIN_TX_FEE = BigInteger.valueOf(100000);
+	private static final BigInteger TX_FEE_PER_KB = BigInteger.valueOf(100000);
+
+	public static void main(final String[] args) throws Exception
+	{
+		final TransactionPlanner planner = new TransactionPlanner(TX_FEE_PER_KB, MIN_TX_FEE, MIN_TX_FEE);
+		final Address to = new ECKey().toAddress(UnitTestParams.get());
+
+		for (final int numOutputs : NUM_OUTPUTS)
+		{
+			final Wallet wallet = TestWallets.createWallet(10, numOutputs, OUTPUT_VALUE, numOutputs);
+			final Address changeAddress = wallet.getKeys().get(0).toAddress(wallet.getParams());
+			final BigInteger amount = BigInteger.valueOf(NUM_SPENT_OUTPUTS * OUTPUT_VALUE);
+
+			long bestPlanNs = Long.MAX_VALUE, bestSignNs = Long.MAX_VALUE, bestCompleteTxNs = Long.MAX_VALUE;
+			int numInputs = 0;
+			for (int i = 0; i < ROUNDS + 1; i++)
+			{
+				final long start = System.nanoTime();
+				final List<TransactionOutput> candidates = TransactionPlanner.spendCandidates(wallet);
+				final TransactionPlanner.Plan plan = planner.plan(wallet, candidates, to, amount, changeAddress, false);
+				final long planned = System.nanoTime();
+				planner.complete(plan, wallet);
+				final long signed = System.nanoTime();
+
+				final SendRequest request = SendRequest.to(to, amount);
+				request.changeAddress = changeAddress;
+				request.feePerKb = TX_FEE_PER_KB;
+				final long completeTxStart = System.nanoTime();
+				wallet.completeTx(request);
+				final long completeTxEnd = System.nanoTime();
+
+				if (i > 0) // warm up
+				{
+					bestPlanNs = Math.min(bestPlanNs, planned - start);
+					bestSignNs = Math.min(bestSignNs, signed - planned);
+					bestCompleteTxNs = Math.min(bestCompleteTxNs, completeTxEnd - completeTxStart);
+				}
+				numInputs = plan.inputs.size();
+			}
+
+			System.out.println(numOutputs + " outputs, " + numInputs + " inputs: plan " + bestPlanNs / 1000 + "us, sign " + bestSignNs / 1000
+					+ "us, single completeTx " + bestCompleteTxNs / 1000 + "us");
+		}
+	}
+}
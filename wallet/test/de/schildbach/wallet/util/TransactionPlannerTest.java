@@ -0,0 +1,316 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.InsufficientMoneyException;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.Wallet.SendRequest;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class TransactionPlannerTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+	private static final BigInteger CENT = BigInteger.valueOf(1000000);
+	private static final BigInteger MIN_TX_FEE = CENT.divide(BigInteger.valueOf(10));
+	private static final BigInteger TX_FEE_PER_KB = CENT.divide(BigInteger.valueOf(10));
+	private static final BigInteger MIN_CHANGE = CENT.divide(BigInteger.valueOf(10));
+
+	private final TransactionPlanner planner = new TransactionPlanner(TX_FEE_PER_KB, MIN_TX_FEE, MIN_CHANGE);
+	private final Address to = new ECKey().toAddress(PARAMS);
+
+	@Test
+	public void fee() throws Exception
+	{
+		assertEquals(100000, planner.fee(0));
+		assertEquals(100000, planner.fee(999));
+		assertEquals(200000, planner.fee(1000));
+		assertEquals(1100000, planner.fee(10500));
+	}
+
+	@Test
+	public void singleInputWithChange() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 1, 100000000, 0);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		final TransactionPlanner.Plan plan = planner.plan(wallet, TransactionPlanner.spendCandidates(wallet), to, BigInteger
+				.valueOf(50000000), changeAddress, false);
+
+		assertEquals(1, plan.inputs.size());
+		assertEquals(BigInteger.valueOf(50000000), plan.amount);
+		assertEquals(MIN_TX_FEE, plan.fee);
+		assertEquals(BigInteger.valueOf(100000000 - 50000000 - 100000), plan.change);
+		assertEquals(changeAddress, plan.changeAddress);
+
+		final SendRequest request = planner.complete(plan, wallet);
+		assertEquals(2, request.tx.getOutputs().size());
+		assertBalanced(wallet, request, plan);
+	}
+
+	@Test
+	public void smallChangeFoldedIntoFee() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 1, 100000000, 0);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		// change would be 50000, below minimum change
+		final BigInteger amount = BigInteger.valueOf(100000000 - 100000 - 50000);
+		final TransactionPlanner.Plan plan = planner.plan(wallet, TransactionPlanner.spendCandidates(wallet), to, amount, changeAddress, false);
+
+		assertEquals(BigInteger.valueOf(150000), plan.fee);
+		assertEquals(BigInteger.ZERO, plan.change);
+		assertNull(plan.changeAddress);
+
+		final SendRequest request = planner.complete(plan, wallet);
+		assertEquals(1, request.tx.getOutputs().size());
+		assertBalanced(wallet, request, plan);
+	}
+
+	@Test
+	public void emptyWallet() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(3, 50, 10000000, 0);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+		final BigInteger balance = wallet.getBalance(Wallet.BalanceType.AVAILABLE);
+
+		final TransactionPlanner.Plan plan = planner.plan(wallet, TransactionPlanner.spendCandidates(wallet), to, balance, changeAddress, true);
+
+		assertEquals(50, plan.inputs.size());
+		assertEquals(balance, plan.amount.add(plan.fee));
+		assertEquals(BigInteger.ZERO, plan.change);
+
+		final SendRequest request = planner.complete(plan, wallet);
+		assertEquals(1, request.tx.getOutputs().size());
+		assertBalanced(wallet, request, plan);
+		assertTrue(plan.fee.compareTo(BigInteger.valueOf(planner.fee(request.tx.bitcoinSerialize().length))) >= 0);
+	}
+
+	@Test
+	public void insufficientMoney() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 1, 10000000, 0);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		try
+		{
+			planner.plan(wallet, TransactionPlanner.spendCandidates(wallet), to, BigInteger.valueOf(10000000), changeAddress, false);
+			fail();
+		}
+		catch (final InsufficientMoneyException x)
+		{
+			assertEquals(MIN_TX_FEE, x.missing);
+		}
+	}
+
+	@Test
+	public void estimatedSizeCoversSignedSize() throws Exception
+	{
+		final Random random = new Random(0);
+
+		for (int i = 0; i < 20; i++)
+		{
+			final Wallet wallet = TestWallets.createWallet(1 + random.nextInt(5), 1 + random.nextInt(30), 1000000 + random.nextInt(100000000), i);
+			final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+			final BigInteger balance = wallet.getBalance(Wallet.BalanceType.AVAILABLE);
+			final BigInteger amount = BigInteger.valueOf((long) (random.nextDouble() * balance.longValue() * 0.9) + 100000);
+
+			final TransactionPlanner.Plan plan = planner.plan(wallet, TransactionPlanner.spendCandidates(wallet), to, amount, changeAddress,
+					false);
+			final SendRequest request = planner.complete(plan, wallet);
+			assertBalanced(wallet, request, plan);
+
+			// estimate errs on the larger side, by at most a few bytes per input
+			final int size = request.tx.bitcoinSerialize().length;
+			assertTrue(size <= plan.size);
+			assertTrue(plan.size - size <= 3 * plan.inputs.size());
+			assertTrue(plan.fee.compareTo(BigInteger.valueOf(planner.fee(size))) >= 0);
+		}
+	}
+
+	@Test
+	public void batchInOneTransaction() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(3, 50, 10000000, 0);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		final List<TransactionPlanner.Payment> payments = new ArrayList<TransactionPlanner.Payment>();
+		for (int i = 0; i < 20; i++)
+			payments.add(new TransactionPlanner.Payment(new ECKey().toAddress(PARAMS), BigInteger.valueOf(1000000 + i)));
+
+		final List<TransactionPlanner.Plan> plans = planner.planBatch(wallet, TransactionPlanner.spendCandidates(wallet), payments,
+				changeAddress, 100000);
+		assertEquals(1, plans.size());
+
+		final TransactionPlanner.Plan plan = plans.get(0);
+		assertEquals(payments, plan.payments);
+		assertEquals(PaymentBatch.total(payments), plan.amount);
+
+		final SendRequest request = planner.complete(plan, wallet);
+		assertEquals(21, request.tx.getOutputs().size());
+		for (int i = 0; i < 20; i++)
+			assertEquals(payments.get(i).amount, request.tx.getOutput(i).getValue());
+		assertBalanced(wallet, request, plan);
+		assertTrue(request.tx.bitcoinSerialize().length <= plan.size);
+	}
+
+	@Test
+	public void batchSplitBySize() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(3, 200, 10000000, 1);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		final List<TransactionPlanner.Payment> payments = new ArrayList<TransactionPlanner.Payment>();
+		for (int i = 0; i < 100; i++)
+			payments.add(new TransactionPlanner.Payment(new ECKey().toAddress(PARAMS), BigInteger.valueOf(5000000)));
+
+		final int maxSize = 5000;
+		final List<TransactionPlanner.Plan> plans = planner.planBatch(wallet, TransactionPlanner.spendCandidates(wallet), payments,
+				changeAddress, maxSize);
+		assertTrue(plans.size() > 1);
+
+		final Set<TransactionOutput> spent = new HashSet<TransactionOutput>();
+		final List<TransactionPlanner.Payment> paid = new ArrayList<TransactionPlanner.Payment>();
+		for (final TransactionPlanner.Plan plan : plans)
+		{
+			final SendRequest request = planner.complete(plan, wallet);
+			assertBalanced(wallet, request, plan);
+			assertTrue(request.tx.bitcoinSerialize().length <= maxSize);
+			for (final TransactionOutput input : plan.inputs)
+				assertTrue(spent.add(input));
+			paid.addAll(plan.payments);
+		}
+		assertEquals(payments, paid);
+	}
+
+	@Test
+	public void batchInsufficientMoney() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 1, 10000000, 0);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		final List<TransactionPlanner.Payment> payments = new ArrayList<TransactionPlanner.Payment>();
+		payments.add(new TransactionPlanner.Payment(new ECKey().toAddress(PARAMS), BigInteger.valueOf(5000000)));
+		payments.add(new TransactionPlanner.Payment(new ECKey().toAddress(PARAMS), BigInteger.valueOf(5000000)));
+		payments.add(new TransactionPlanner.Payment(new ECKey().toAddress(PARAMS), BigInteger.valueOf(3000000)));
+
+		try
+		{
+			planner.planBatch(wallet, TransactionPlanner.spendCandidates(wallet), payments, changeAddress, 100000);
+			fail();
+		}
+		catch (final InsufficientMoneyException x)
+		{
+			assertEquals(BigInteger.valueOf(100000 + 3000000), x.missing);
+		}
+	}
+
+	@Test
+	public void secondSpendOfOutputIsNotCommitted() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 1, 100000000, 0);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+		final List<TransactionOutput> candidates = TransactionPlanner.spendCandidates(wallet);
+
+		// both planned before either is committed
+		final SendRequest first = planner.complete(planner.plan(wallet, candidates, to, BigInteger.valueOf(50000000), changeAddress,
+				false), wallet);
+		final SendRequest second = planner.complete(planner.plan(wallet, candidates, to, BigInteger.valueOf(20000000), changeAddress,
+				false), wallet);
+
+		assertTrue(TransactionPlanner.commitIfUnspent(wallet, first.tx));
+		assertFalse(TransactionPlanner.commitIfUnspent(wallet, second.tx));
+		assertEquals(1, wallet.getPendingTransactions().size());
+		assertTrue(wallet.getPendingTransactions().contains(first.tx));
+	}
+
+	@Test
+	public void batchCommittedAllOrNothing() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 2, 100000000, 0);
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(PARAMS);
+		final List<TransactionOutput> candidates = TransactionPlanner.spendCandidates(wallet);
+
+		final SendRequest first = planner.complete(planner.plan(wallet, candidates.subList(0, 1), to, BigInteger.valueOf(20000000),
+				changeAddress, false), wallet);
+		final SendRequest second = planner.complete(planner.plan(wallet, candidates.subList(1, 2), to, BigInteger.valueOf(20000000),
+				changeAddress, false), wallet);
+		final SendRequest conflicting = planner.complete(planner.plan(wallet, candidates.subList(1, 2), to, BigInteger
+				.valueOf(30000000), changeAddress, false), wallet);
+
+		assertTrue(TransactionPlanner.commitIfUnspent(wallet, conflicting.tx));
+		assertFalse(TransactionPlanner.commitIfUnspent(wallet, Arrays.asList(first.tx, second.tx)));
+		assertEquals(1, wallet.getPendingTransactions().size());
+		assertTrue(candidates.get(0).isAvailableForSpending());
+	}
+
+	@Test
+	public void spendOfUnknownOutputIsNotCommitted() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 1, 100000000, 0);
+		final Wallet other = TestWallets.createWallet(1, 1, 100000000, 1);
+		final Address changeAddress = other.getKeys().get(0).toAddress(PARAMS);
+
+		final SendRequest request = planner.complete(planner.plan(other, TransactionPlanner.spendCandidates(other), to, BigInteger
+				.valueOf(50000000), changeAddress, false), other);
+
+		assertFalse(TransactionPlanner.commitIfUnspent(wallet, request.tx));
+		assertTrue(wallet.getPendingTransactions().isEmpty());
+	}
+
+	private void assertBalanced(final Wallet wallet, final SendRequest request, final TransactionPlanner.Plan plan)
+	{
+		BigInteger in = BigInteger.ZERO;
+		for (final TransactionInput input : request.tx.getInputs())
+		{
+			in = in.add(input.getConnectedOutput().getValue());
+			assertTrue(input.getScriptBytes().length > 0);
+			input.verify(); // signature valid
+		}
+
+		BigInteger out = BigInteger.ZERO;
+		for (final TransactionOutput output : request.tx.getOutputs())
+			out = out.add(output.getValue());
+
+		assertEquals(plan.fee, in.subtract(out));
+		assertEquals(plan.fee, request.fee);
+	}
+}
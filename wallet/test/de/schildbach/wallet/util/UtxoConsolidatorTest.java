@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class UtxoConsolidatorTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+	private static final BigInteger FEE = BigInteger.valueOf(100000);
+	private static final BigInteger THRESHOLD = BigInteger.valueOf(1000000);
+
+	private final TransactionPlanner planner = new TransactionPlanner(FEE, FEE, FEE);
+	private final UtxoConsolidator consolidator = new UtxoConsolidator(planner, THRESHOLD, 10, 50);
+
+	@Test
+	public void consolidate() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(5, 100, 400000, 0);
+		final List<TransactionOutput> candidates = new UtxoIndex(wallet).byValue();
+		final Address address = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		final List<BigInteger> amounts = Arrays.asList(BigInteger.valueOf(2000000), BigInteger.valueOf(5000000), BigInteger.valueOf(9000000));
+		final UtxoConsolidator.Result result = consolidator.consolidate(wallet, candidates, address, amounts);
+		assertNotNull(result);
+		assertEquals(50, result.numInputs);
+
+		final Transaction tx = result.sendRequest.tx;
+		assertEquals(1, tx.getOutputs().size());
+		assertEquals(address, tx.getOutput(0).getScriptPubKey().getToAddress(PARAMS));
+
+		BigInteger in = BigInteger.ZERO;
+		for (final TransactionInput input : tx.getInputs())
+		{
+			in = in.add(input.getConnectedOutput().getValue());
+			assertTrue(input.getConnectedOutput().getValue().compareTo(THRESHOLD) < 0);
+			input.verify();
+		}
+		assertEquals(result.fee, in.subtract(tx.getOutput(0).getValue()));
+		assertEquals(BigInteger.valueOf(planner.fee(tx.bitcoinSerialize().length)), result.fee);
+
+		// the smallest outputs went first
+		final List<TransactionOutput> smallest = candidates.subList(candidates.size() - 50, candidates.size());
+		for (final TransactionInput input : tx.getInputs())
+			assertTrue(smallest.contains(input.getConnectedOutput()));
+
+		assertTrue(result.inputsPerSendAfter < result.inputsPerSendBefore);
+	}
+
+	@Test
+	public void tooFewOutputs() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 9, 400000, 1);
+		final Address address = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		assertNull(consolidator.consolidate(wallet, new UtxoIndex(wallet).byValue(), address, Collections.<BigInteger> emptyList()));
+	}
+
+	@Test
+	public void uneconomicOutputsLeftAlone() throws Exception
+	{
+		// worth less than the fee of spending them
+		final Wallet wallet = TestWallets.createWallet(1, 30, 12000, 2);
+		final Address address = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		assertNull(consolidator.consolidate(wallet, new UtxoIndex(wallet).byValue(), address, Collections.<BigInteger> emptyList()));
+	}
+
+	@Test
+	public void noReferenceSends() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 20, 400000, 3);
+		final Address address = wallet.getKeys().get(0).toAddress(PARAMS);
+
+		final UtxoConsolidator.Result result = consolidator.consolidate(wallet, new UtxoIndex(wallet).byValue(), address, Collections
+				.<BigInteger> emptyList());
+		assertEquals(20, result.numInputs);
+		assertTrue(Double.isNaN(result.inputsPerSendBefore));
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.Wallet.SendRequest;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.bitcoin.utils.Threading;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class UtxoIndexTest
+{
+	private static final BigInteger FEE = BigInteger.valueOf(100000);
+
+	@Test
+	public void rebuild() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(5, 200, 10000000, 0);
+		final UtxoIndex index = new UtxoIndex(wallet);
+
+		assertEquals(200, index.size());
+		assertEquals(new HashSet<TransactionOutput>(TransactionPlanner.spendCandidates(wallet)), new HashSet<TransactionOutput>(index.byValue()));
+		assertEquals(new HashSet<TransactionOutput>(index.byValue()), new HashSet<TransactionOutput>(index.byHeight()));
+	}
+
+	@Test
+	public void order() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(5, 200, 10000000, 1);
+		final UtxoIndex index = new UtxoIndex(wallet);
+
+		long previousValue = Long.MAX_VALUE;
+		for (final TransactionOutput output : index.byValue())
+		{
+			assertTrue(output.getValue().longValue() <= previousValue);
+			previousValue = output.getValue().longValue();
+		}
+
+		int previousHeight = 0;
+		for (final TransactionOutput output : index.byHeight())
+		{
+			final int height = output.getParentTransaction().getConfidence().getAppearedAtChainHeight();
+			assertTrue(height >= previousHeight);
+			previousHeight = height;
+		}
+	}
+
+	@Test
+	public void defaultOrderFollowsDepth() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(5, 200, 10000000, 5);
+		final UtxoIndex index = new UtxoIndex(wallet);
+		assertEquals(TransactionPlanner.spendCandidates(wallet), index.byDefaultOrder());
+
+		// new blocks deepen every confirmed output, which changes coin depth unevenly
+		for (final Transaction tx : wallet.getTransactions(false))
+		{
+			tx.getConfidence().setDepthInBlocks(tx.getConfidence().getDepthInBlocks() + 50);
+			index.update(tx);
+		}
+		assertEquals(TransactionPlanner.spendCandidates(wallet), index.byDefaultOrder());
+
+		// spent outputs leave, without the index noticing yet
+		final TransactionOutput spent = index.byDefaultOrder().get(0);
+		spent.markAsSpent(new TransactionInput(UnitTestParams.get(), null, new byte[0]));
+		assertFalse(index.byDefaultOrder().contains(spent));
+		assertEquals(TransactionPlanner.spendCandidates(wallet), index.byDefaultOrder());
+	}
+
+	@Test
+	public void spendAndConfirm() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(1, 10, 10000000, 2);
+		final UtxoIndex index = new UtxoIndex(wallet);
+		wallet.addEventListener(index, Threading.SAME_THREAD);
+
+		final List<TransactionOutput> spent = index.byValue().subList(0, 2);
+		final Address to = new ECKey().toAddress(UnitTestParams.get());
+		final Address changeAddress = wallet.getKeys().get(0).toAddress(UnitTestParams.get());
+		final Transaction tx = new Transaction(UnitTestParams.get());
+		final BigInteger value = spent.get(0).getValue().add(spent.get(1).getValue());
+		tx.addOutput(BigInteger.valueOf(1000000), to);
+		tx.addOutput(value.subtract(BigInteger.valueOf(1000000)).subtract(FEE), changeAddress);
+		for (final TransactionOutput output : spent)
+			tx.addInput(output);
+		tx.signInputs(Transaction.SigHash.ALL, wallet);
+		wallet.commitTx(SendRequest.forTx(tx).tx);
+
+		// spent outputs are gone, change is pending and not yet spendable
+		assertEquals(8, index.size());
+		for (final TransactionOutput output : spent)
+			assertFalse(index.byValue().contains(output));
+
+		// confirming the spend makes the change spendable
+		tx.getConfidence().setAppearedAtChainHeight(101);
+		tx.getConfidence().setConfidenceType(ConfidenceType.BUILDING);
+		index.update(tx);
+		assertEquals(9, index.size());
+		assertTrue(index.byValue().contains(tx.getOutput(1)));
+		assertEquals(tx.getOutput(1), index.byHeight().get(8));
+
+		// a dead spend returns its inputs
+		tx.getConfidence().setConfidenceType(ConfidenceType.DEAD);
+		for (final TransactionOutput output : spent)
+			output.markAsUnspent();
+		index.update(tx);
+		assertEquals(10, index.size());
+		assertFalse(index.byValue().contains(tx.getOutput(1)));
+	}
+
+	@Test
+	public void reorganizeRebuilds() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(2, 20, 10000000, 3);
+		final UtxoIndex index = new UtxoIndex(wallet);
+
+		final TransactionOutput output = index.byValue().get(0);
+		output.getParentTransaction().getConfidence().setConfidenceType(ConfidenceType.DEAD);
+		assertEquals(20, index.size());
+
+		index.onReorganize(wallet);
+		assertEquals(19, index.size());
+		assertFalse(index.byValue().contains(output));
+	}
+
+	@Test
+	public void clearedWalletNeedsRebuild() throws Exception
+	{
+		final Wallet wallet = TestWallets.createWallet(2, 20, 10000000, 4);
+		final UtxoIndex index = new UtxoIndex(wallet);
+		wallet.addEventListener(index, Threading.SAME_THREAD);
+
+		wallet.clearTransactions(0);
+		index.rebuild();
+		assertEquals(0, index.size());
+		assertTrue(index.byValue().isEmpty());
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.bitcoin.core.DumpedPrivateKey;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * Measures restore time of a backup of 5000 keys and 1000 notes: the text format parsed like
+ * {@link WalletUtils#readKeys} and {@link WalletUtils#readNotes} in one pass, the binary format on 1 to N threads, and
+ * the binary format restoring notes only. Not a unit test; run manually via its main method.
+ *
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class WalletBackupBenchmark
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+	private static final int NUM_KEYS = 5000;
+	private static final int NUM_NOTES = 1000;
+	private static final Pattern PATTERN_TX_NOTE = Pattern.compile("^# (tx:\\w+) (.+)");
+
+	public static void main(final String[] args) throws Exception
+	{
+		final DateFormat format = Iso8601Format.newDateTimeFormatT();
+
+		final List<ECKey> keys = new ArrayList<ECKey>(NUM_KEYS);
+		final StringBuilder text = new StringBuilder("# KEEP YOUR PRIVATE KEYS SAFE! Anyone who can read this can spend your Auroracoins.\n");
+		for (int i = 0; i < NUM_KEYS; i++)
+		{
+			final ECKey key = new ECKey(BigInteger.valueOf(i + 1).shiftLeft(200), null, true);
+			key.setCreationTimeSeconds(1400000000l + i);
+			keys.add(key);
+			text.append(key.getPrivateKeyEncoded(PARAMS)).append(' ').append(format.format(new Date(key.getCreationTimeSeconds() * 1000)))
+					.append('\n');
+		}
+		final Map<String, String> notes = new TreeMap<String, String>();
+		for (int i = 0; i < NUM_NOTES; i++)
+		{
+			notes.put("tx:" + i, "note " + i);
+			text.append("# tx:").append(i).append(" note ").append(i).append('\n');
+		}
+
+		final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		WalletBackup.write(binary, keys, notes, new TreeMap<String, String>(), new ArrayList<Transaction>());
+		System.out.println(NUM_KEYS + " keys, " + NUM_NOTES + " notes: text " + text.length() / 1024 + " kB, binary " + binary.size() / 1024
+				+ " kB");
+
+		long start = System.nanoTime();
+		int numKeys = 0;
+		int numNotes = 0;
+		final BufferedReader reader = new BufferedReader(new StringReader(text.toString()));
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.startsWith("# tx:"))
+			{
+				final Matcher m = PATTERN_TX_NOTE.matcher(line);
+				if (m.matches())
+					numNotes++;
+				continue;
+			}
+			if (line.trim().isEmpty() || line.charAt(0) == '#')
+				continue;
+			final String[] parts = line.split(" ");
+			final ECKey key = new DumpedPrivateKey(PARAMS, parts[0]).getKey();
+			key.setCreationTimeSeconds(format.parse(parts[1]).getTime() / 1000);
+			numKeys++;
+		}
+		final long textMs = (System.nanoTime() - start) / 1000000;
+		System.out.println("text: " + numKeys + " keys, " + numNotes + " notes in " + textMs + "ms");
+
+		for (int numThreads = 1; numThreads <= Runtime.getRuntime().availableProcessors(); numThreads++)
+		{
+			start = System.nanoTime();
+			final WalletBackup backup = WalletBackup.read(new ByteArrayInputStream(binary.toByteArray()), PARAMS,
+					EnumSet.allOf(WalletBackup.Section.class), numThreads);
+			final long binaryMs = (System.nanoTime() - start) / 1000000;
+			System.out.println("binary, " + numThreads + " threads: " + backup.getKeys().size() + " keys in " + binaryMs + "ms ("
+					+ String.format("%.2f", (double) textMs / binaryMs) + "x)");
+		}
+
+		start = System.nanoTime();
+		final WalletBackup backup = WalletBackup.read(new ByteArrayInputStream(binary.toByteArray()), PARAMS,
+				EnumSet.of(WalletBackup.Section.NOTES));
+		System.out.println("binary, notes only: " + backup.getNotes().size() + " notes in " + (System.nanoTime() - start) / 1000000 + "ms");
+	}
+}
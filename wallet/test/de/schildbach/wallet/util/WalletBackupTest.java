@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutPoint;
+import com.google.bitcoin.params.UnitTestParams;
+
+/**
+ * @author Andreas Schildbach, Litecoin Dev Team, AuroraCoin Dev Team
+ */
+public class WalletBackupTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+	@Test
+	public void roundTrip() throws Exception
+	{
+		final List<ECKey> keys = createKeys(10);
+		final Map<String, String> notes = new TreeMap<String, String>();
+		notes.put("tx:0123456789abcdef", "rent");
+		notes.put("tx:fedcba9876543210", "pizza æðþ");
+		final Map<String, String> labels = new TreeMap<String, String>();
+		labels.put(keys.get(0).toAddress(PARAMS).toString(), "savings");
+		final List<Transaction> transactions = createTransactions(keys, 10);
+
+		final byte[] backup = write(keys, notes, labels, transactions);
+		final WalletBackup restored = WalletBackup.read(new ByteArrayInputStream(backup), PARAMS);
+
+		assertKeysEqual(keys, restored.getKeys());
+		assertEquals(notes, restored.getNotes());
+		assertEquals(labels, restored.getLabels());
+		assertEquals(transactions.size(), restored.getTransactions().size());
+		for (int i = 0; i < transactions.size(); i++)
+			assertArrayEquals(transactions.get(i).bitcoinSerialize(), restored.getTransactions().get(i).bitcoinSerialize());
+	}
+
+	@Test
+	public void sameKeysOnAnyNumberOfThreads() throws Exception
+	{
+		final List<ECKey> keys = createKeys(WalletBackup.KEYS_PER_SECTION + 1);
+		final byte[] backup = write(keys, Collections.<String, String> emptyMap(), Collections.<String, String> emptyMap(),
+				Collections.<Transaction> emptyList());
+
+		for (final int numThreads : new int[] { 1, 3 })
+			assertKeysEqual(keys,
+					WalletBackup.read(new ByteArrayInputStream(backup), PARAMS, EnumSet.of(WalletBackup.Section.KEYS), numThreads).getKeys());
+	}
+
+	@Test
+	public void partialRestore() throws Exception
+	{
+		final List<ECKey> keys = createKeys(10);
+		final Map<String, String> notes = Collections.singletonMap("tx:0123456789abcdef", "rent");
+		final byte[] backup = write(keys, notes, Collections.<String, String> emptyMap(), createTransactions(keys, 10));
+
+		final WalletBackup restored = WalletBackup.read(new ByteArrayInputStream(backup), PARAMS, EnumSet.of(WalletBackup.Section.NOTES));
+
+		assertTrue(restored.getKeys().isEmpty());
+		assertEquals(notes, restored.getNotes());
+		assertTrue(restored.getTransactions().isEmpty());
+	}
+
+	@Test
+	public void skippedSectionsAreNotVerified() throws Exception
+	{
+		final List<ECKey> keys = createKeys(10);
+		final byte[] backup = write(keys, Collections.<String, String> emptyMap(), Collections.<String, String> emptyMap(),
+				createTransactions(keys, 10));
+		backup[backup.length - 1] ^= 0x01; // last byte belongs to the transactions section
+
+		assertKeysEqual(keys, WalletBackup.read(new ByteArrayInputStream(backup), PARAMS, EnumSet.of(WalletBackup.Section.KEYS)).getKeys());
+	}
+
+	@Test(expected = IOException.class)
+	public void checksumMismatch() throws Exception
+	{
+		final List<ECKey> keys = createKeys(10);
+		final byte[] backup = write(keys, Collections.<String, String> emptyMap(), Collections.<String, String> emptyMap(),
+				createTransactions(keys, 10));
+		backup[backup.length - 1] ^= 0x01;
+
+		WalletBackup.read(new ByteArrayInputStream(backup), PARAMS);
+	}
+
+	@Test(expected = IOException.class)
+	public void newerVersion() throws Exception
+	{
+		final byte[] backup = write(createKeys(1), Collections.<String, String> emptyMap(), Collections.<String, String> emptyMap(),
+				Collections.<Transaction> emptyList());
+		backup[4] = WalletBackup.VERSION + 1;
+
+		WalletBackup.read(new ByteArrayInputStream(backup), PARAMS);
+	}
+
+	@Test
+	public void unknownSectionsAreSkipped() throws Exception
+	{
+		final List<ECKey> keys = createKeys(10);
+		final Map<String, String> labels = Collections.singletonMap(keys.get(0).toAddress(PARAMS).toString(), "savings");
+		final byte[] backup = write(keys, Collections.<String, String> emptyMap(), labels, Collections.<Transaction> emptyList());
+
+		// index starts after magic, version and number of sections; entries are type, count, length and checksum
+		final int labelsEntry = 4 + 1 + 4 + 2 * (1 + 4 + 4 + 4);
+		assertEquals(3, backup[labelsEntry]);
+		backup[labelsEntry] = 99;
+
+		final WalletBackup restored = WalletBackup.read(new ByteArrayInputStream(backup), PARAMS);
+
+		assertKeysEqual(keys, restored.getKeys());
+		assertTrue(restored.getLabels().isEmpty());
+	}
+
+	@Test
+	public void detectFormat() throws Exception
+	{
+		final byte[] backup = write(createKeys(1), Collections.<String, String> emptyMap(), Collections.<String, String> emptyMap(),
+				Collections.<Transaction> emptyList());
+		final BufferedInputStream binary = new BufferedInputStream(new ByteArrayInputStream(backup));
+		assertTrue(WalletBackup.isWalletBackup(binary));
+		assertEquals(1, WalletBackup.read(binary, PARAMS).getKeys().size());
+
+		final byte[] text = "# KEEP YOUR PRIVATE KEYS SAFE! Anyone who can read this can spend your Auroracoins.\n".getBytes("UTF-8");
+		final BufferedInputStream textIn = new BufferedInputStream(new ByteArrayInputStream(text));
+		assertFalse(WalletBackup.isWalletBackup(textIn));
+		assertEquals('#', textIn.read());
+
+		assertFalse(WalletBackup.isWalletBackup(new BufferedInputStream(new ByteArrayInputStream(new byte[] { 'A', 'U' }))));
+	}
+
+	private static byte[] write(final List<ECKey> keys, final Map<String, String> notes, final Map<String, String> labels,
+			final List<Transaction> transactions) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WalletBackup.write(out, keys, notes, labels, transactions);
+		return out.toByteArray();
+	}
+
+	private static List<ECKey> createKeys(final int numKeys)
+	{
+		final List<ECKey> keys = new ArrayList<ECKey>(numKeys);
+		for (int i = 0; i < numKeys; i++)
+		{
+			final BigInteger privKey = BigInteger.valueOf(i + 1).shiftLeft(200).add(BigInteger.valueOf(i));
+			final ECKey key = new ECKey(privKey, null, i % 2 == 0);
+			key.setCreationTimeSeconds(1400000000l + i);
+			keys.add(key);
+		}
+		return keys;
+	}
+
+	private static List<Transaction> createTransactions(final List<ECKey> keys, final int numTransactions)
+	{
+		final List<Transaction> transactions = new ArrayList<Transaction>(numTransactions);
+		for (int i = 0; i < numTransactions; i++)
+		{
+			final Transaction tx = new Transaction(PARAMS);
+			tx.addInput(new TransactionInput(PARAMS, tx, new byte[] { 0x00 }, new TransactionOutPoint(PARAMS, i, Sha256Hash.create(new byte[] {
+					(byte) i }))));
+			tx.addOutput(BigInteger.valueOf(1000000 + i), keys.get(i % keys.size()).toAddress(PARAMS));
+			transactions.add(tx);
+		}
+		return transactions;
+	}
+
+	private static void assertKeysEqual(final List<ECKey> expected, final List<ECKey> actual)
+	{
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+		{
+			assertArrayEquals(expected.get(i).getPrivKeyBytes(), actual.get(i).getPrivKeyBytes());
+			assertArrayEquals(expected.get(i).getPubKey(), actual.get(i).getPubKey());
+			assertEquals(expected.get(i).getCreationTimeSeconds(), actual.get(i).getCreationTimeSeconds());
+		}
+	}
+}